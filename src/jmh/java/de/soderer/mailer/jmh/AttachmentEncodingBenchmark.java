@@ -0,0 +1,72 @@
+package de.soderer.mailer.jmh;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jakarta.activation.DataHandler;
+import jakarta.activation.FileDataSource;
+import jakarta.mail.internet.MimeBodyPart;
+
+/**
+ * Base64 encoding of an attachment, which is kept in memory (like the attachments of the Mailer)
+ * or streamed from its file (like the attachments replaced by the FileAttachments)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class AttachmentEncodingBenchmark {
+	@Param({ "1024", "102400", "1048576" })
+	public int attachmentSize;
+
+	private byte[] attachmentData;
+	private File attachmentFile;
+
+	@Setup
+	public void setup() throws Exception {
+		attachmentData = BenchmarkData.createBinaryData(attachmentSize, 1);
+		attachmentFile = File.createTempFile("AttachmentEncodingBenchmark", ".bin");
+		Files.write(attachmentFile.toPath(), attachmentData);
+	}
+
+	@TearDown
+	public void tearDown() {
+		attachmentFile.delete();
+	}
+
+	@Benchmark
+	public MimeBodyPart encodeFromMemory() throws Exception {
+		final MimeBodyPart attachmentPart = BenchmarkData.createAttachmentPart(attachmentData, "attachment.bin", "application/octet-stream");
+		attachmentPart.writeTo(OutputStream.nullOutputStream());
+		return attachmentPart;
+	}
+
+	@Benchmark
+	public MimeBodyPart encodeFromFile() throws Exception {
+		final MimeBodyPart attachmentPart = new MimeBodyPart();
+		attachmentPart.setDataHandler(new DataHandler(new FileDataSource(attachmentFile)));
+		attachmentPart.setFileName(attachmentFile.getName());
+		attachmentPart.setDisposition(MimeBodyPart.ATTACHMENT);
+		attachmentPart.setHeader("Content-Type", "application/octet-stream");
+		attachmentPart.setHeader("Content-Transfer-Encoding", "base64");
+		attachmentPart.writeTo(OutputStream.nullOutputStream());
+		return attachmentPart;
+	}
+}
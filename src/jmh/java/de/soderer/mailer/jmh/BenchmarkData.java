@@ -0,0 +1,176 @@
+package de.soderer.mailer.jmh;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.Properties;
+import java.util.Random;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.bcpg.HashAlgorithmTags;
+import org.bouncycastle.bcpg.PublicKeyAlgorithmTags;
+import org.bouncycastle.bcpg.PublicKeyPacket;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.openpgp.PGPEncryptedData;
+import org.bouncycastle.openpgp.PGPKeyPair;
+import org.bouncycastle.openpgp.PGPSecretKey;
+import org.bouncycastle.openpgp.PGPSignature;
+import org.bouncycastle.openpgp.operator.PGPDigestCalculator;
+import org.bouncycastle.openpgp.operator.jcajce.JcaPGPContentSignerBuilder;
+import org.bouncycastle.openpgp.operator.jcajce.JcaPGPDigestCalculatorProviderBuilder;
+import org.bouncycastle.openpgp.operator.jcajce.JcaPGPKeyPair;
+import org.bouncycastle.openpgp.operator.jcajce.JcePBESecretKeyEncryptorBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+import jakarta.activation.DataHandler;
+import jakarta.mail.Session;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeBodyPart;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.MimeMultipart;
+import jakarta.mail.util.ByteArrayDataSource;
+
+/**
+ * Test data of the benchmarks: emails of a given size and throwaway keys and certificates, which are generated once per benchmark trial
+ */
+class BenchmarkData {
+	static final String FROM_ADDRESS = "sender@example.com";
+	static final String TO_ADDRESS = "receiver@example.com";
+	static final char[] PGP_KEY_PASSWORD = "benchmark".toCharArray();
+
+	private static final Session SESSION = Session.getInstance(new Properties());
+
+	private BenchmarkData() {
+		// Only static methods
+	}
+
+	/**
+	 * Text of the given size in characters with short lines like in a usual email
+	 */
+	static String createText(final int size, final long seed) {
+		final Random random = new Random(seed);
+		final StringBuilder text = new StringBuilder(size + 80);
+		while (text.length() < size) {
+			for (int i = 0; i < 12 && text.length() < size; i++) {
+				final int wordLength = 2 + random.nextInt(9);
+				for (int j = 0; j < wordLength; j++) {
+					text.append((char) ('a' + random.nextInt(26)));
+				}
+				text.append(' ');
+			}
+			text.append('\n');
+		}
+		text.setLength(size);
+		return text.toString();
+	}
+
+	/**
+	 * Random binary data like in an attachment file (e.g. compressed or image data)
+	 */
+	static byte[] createBinaryData(final int size, final long seed) {
+		final byte[] data = new byte[size];
+		new Random(seed).nextBytes(data);
+		return data;
+	}
+
+	/**
+	 * Email with text and HTML alternatives and one attachment, like the emails rendered by the Mailer.
+	 * The given size is split among the text, the HTML and the attachment.
+	 */
+	static MimeMessage createEmail(final int size, final long seed) throws Exception {
+		return createEmail(createText(size / 4, seed), createHtml(size / 4, seed + 1), createBinaryData(size / 2, seed + 2));
+	}
+
+	static String createHtml(final int size, final long seed) {
+		return "<html><body><p>" + createText(size, seed).replace("\n", "</p>\n<p>") + "</p></body></html>";
+	}
+
+	static MimeMessage createEmail(final String text, final String html, final byte[] attachmentData) throws Exception {
+		final MimeMessage message = new MimeMessage(SESSION);
+		message.setFrom(new InternetAddress(FROM_ADDRESS));
+		message.setRecipient(MimeMessage.RecipientType.TO, new InternetAddress(TO_ADDRESS));
+		message.setSubject("Benchmark email", "UTF-8");
+		message.setSentDate(new Date());
+
+		final MimeMultipart alternativeMultipart = new MimeMultipart("alternative");
+		final MimeBodyPart textPart = new MimeBodyPart();
+		textPart.setText(text, "UTF-8");
+		alternativeMultipart.addBodyPart(textPart);
+		final MimeBodyPart htmlPart = new MimeBodyPart();
+		htmlPart.setText(html, "UTF-8", "html");
+		alternativeMultipart.addBodyPart(htmlPart);
+		final MimeBodyPart alternativePart = new MimeBodyPart();
+		alternativePart.setContent(alternativeMultipart);
+
+		final MimeMultipart mixedMultipart = new MimeMultipart("mixed");
+		mixedMultipart.addBodyPart(alternativePart);
+		mixedMultipart.addBodyPart(createAttachmentPart(attachmentData, "attachment.bin", "application/octet-stream"));
+		message.setContent(mixedMultipart);
+		message.saveChanges();
+		return message;
+	}
+
+	/**
+	 * Rendered email data, which is parsed again for each benchmark invocation, that changes the email (e.g. by a signature)
+	 */
+	static byte[] renderEmail(final MimeMessage message) throws Exception {
+		final ByteArrayOutputStream messageData = new ByteArrayOutputStream();
+		message.writeTo(messageData);
+		return messageData.toByteArray();
+	}
+
+	static MimeMessage parseEmail(final byte[] messageData) throws Exception {
+		return new MimeMessage(SESSION, new ByteArrayInputStream(messageData));
+	}
+
+	static MimeBodyPart createAttachmentPart(final byte[] data, final String fileName, final String mimeType) throws Exception {
+		final MimeBodyPart attachmentPart = new MimeBodyPart();
+		attachmentPart.setDataHandler(new DataHandler(new ByteArrayDataSource(data, mimeType)));
+		attachmentPart.setFileName(fileName);
+		attachmentPart.setDisposition(MimeBodyPart.ATTACHMENT);
+		return attachmentPart;
+	}
+
+	static KeyPair createKeyPair(final String algorithm, final int keySize) throws Exception {
+		final KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance(algorithm);
+		if (keySize > 0) {
+			keyPairGenerator.initialize(keySize);
+		}
+		return keyPairGenerator.generateKeyPair();
+	}
+
+	/**
+	 * Self signed certificate of the sender for S/MIME signature and encryption
+	 */
+	static X509Certificate createCertificate(final KeyPair keyPair) throws Exception {
+		final X500Name subject = new X500Name("CN=ConsoleMailer benchmark, E=" + FROM_ADDRESS);
+		return new JcaX509CertificateConverter().getCertificate(new JcaX509v3CertificateBuilder(
+				subject,
+				BigInteger.valueOf(System.currentTimeMillis()),
+				new Date(System.currentTimeMillis() - 60 * 60 * 1000),
+				new Date(System.currentTimeMillis() + 24 * 60 * 60 * 1000),
+				subject,
+				keyPair.getPublic()).build(new JcaContentSignerBuilder("SHA256withRSA").build(keyPair.getPrivate())));
+	}
+
+	/**
+	 * PGP secret key for signature and encryption, which is protected by the password {@link #PGP_KEY_PASSWORD}
+	 */
+	static PGPSecretKey createPgpSecretKey(final KeyPair keyPair) throws Exception {
+		final PGPKeyPair pgpKeyPair = new JcaPGPKeyPair(PublicKeyPacket.VERSION_4, PublicKeyAlgorithmTags.RSA_GENERAL, keyPair, new Date());
+		final PGPDigestCalculator sha1DigestCalculator = new JcaPGPDigestCalculatorProviderBuilder().build().get(HashAlgorithmTags.SHA1);
+		return new PGPSecretKey(PGPSignature.DEFAULT_CERTIFICATION,
+				pgpKeyPair,
+				"ConsoleMailer benchmark <" + FROM_ADDRESS + ">",
+				sha1DigestCalculator,
+				null,
+				null,
+				new JcaPGPContentSignerBuilder(pgpKeyPair.getPublicKey().getAlgorithm(), HashAlgorithmTags.SHA256),
+				new JcePBESecretKeyEncryptorBuilder(PGPEncryptedData.AES_256, sha1DigestCalculator).build(PGP_KEY_PASSWORD));
+	}
+}
@@ -0,0 +1,77 @@
+package de.soderer.mailer.jmh;
+
+import java.security.PrivateKey;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.soderer.mailer.dkim.DkimSigner;
+import jakarta.mail.internet.MimeMessage;
+
+/**
+ * DKIM signature of a rendered email by the DkimSigner, which the ConsoleMailerTransport uses instead of the DKIM data of the Mailer.<br />
+ * "signNewBody" measures an email with a body, which was not signed before. "signMemoizedBody" measures the following emails of a batch with the same body,
+ * whose body hash is memoized by the DkimSigner (up to 256 KB).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DkimSigningBenchmark {
+	@Param({ "1024", "102400", "1048576" })
+	public int messageSize;
+
+	@Param({ "RSA", "Ed25519" })
+	public String keyType;
+
+	private PrivateKey privateKey;
+	private byte[] messageData;
+	private DkimSigner memoizingDkimSigner;
+	private DkimSigner newDkimSigner;
+	private MimeMessage message;
+
+	@Setup
+	public void setup() throws Exception {
+		privateKey = BenchmarkData.createKeyPair(keyType, "RSA".equals(keyType) ? 2048 : 0).getPrivate();
+		messageData = BenchmarkData.renderEmail(BenchmarkData.createEmail(messageSize, 1));
+		memoizingDkimSigner = createDkimSigner();
+	}
+
+	@Setup(Level.Invocation)
+	public void setupInvocation() throws Exception {
+		// The email is changed by its signature and a new signer has no memoized body hashes
+		message = BenchmarkData.parseEmail(messageData);
+		newDkimSigner = createDkimSigner();
+	}
+
+	private DkimSigner createDkimSigner() throws Exception {
+		final DkimSigner dkimSigner = new DkimSigner("example.com", null);
+		dkimSigner.addKey("benchmark", privateKey);
+		return dkimSigner;
+	}
+
+	@Benchmark
+	public MimeMessage signNewBody() throws Exception {
+		newDkimSigner.sign(message);
+		return message;
+	}
+
+	@Benchmark
+	public MimeMessage signMemoizedBody() throws Exception {
+		memoizingDkimSigner.sign(message);
+		return message;
+	}
+}
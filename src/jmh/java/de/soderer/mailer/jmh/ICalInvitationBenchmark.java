@@ -0,0 +1,56 @@
+package de.soderer.mailer.jmh;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.soderer.utilities.DateUtilities;
+import jakarta.mail.internet.InternetAddress;
+
+/**
+ * Creation of an iCal event invitation (parameter "eventstart") for a growing number of participants, like MailParameters does it for each email
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ICalInvitationBenchmark {
+	@Param({ "1", "10", "100" })
+	public int participants;
+
+	private ZonedDateTime eventStart;
+	private ZonedDateTime eventEnd;
+	private InternetAddress organizerAddress;
+	private List<InternetAddress> participantAddresses;
+
+	@Setup
+	public void setup() throws Exception {
+		eventStart = ZonedDateTime.now().plusDays(1);
+		eventEnd = eventStart.plusHours(1);
+		organizerAddress = new InternetAddress(BenchmarkData.FROM_ADDRESS);
+		participantAddresses = new ArrayList<>();
+		for (int i = 0; i < participants; i++) {
+			participantAddresses.add(new InternetAddress("participant" + i + "@example.com"));
+		}
+	}
+
+	@Benchmark
+	public String createInvitation() {
+		return DateUtilities.createICalEventInvitation("Benchmark event", null, eventStart, eventEnd, "Meeting room", organizerAddress, participantAddresses);
+	}
+}
@@ -0,0 +1,50 @@
+package de.soderer.mailer.jmh;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jakarta.mail.internet.MimeMessage;
+
+/**
+ * MIME assembly of an email with text, HTML and an attachment, including the rendering of its transfer encodings
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class MimeAssemblyBenchmark {
+	@Param({ "1024", "102400", "1048576" })
+	public int messageSize;
+
+	private String text;
+	private String html;
+	private byte[] attachmentData;
+
+	@Setup
+	public void setup() {
+		text = BenchmarkData.createText(messageSize / 4, 1);
+		html = BenchmarkData.createHtml(messageSize / 4, 2);
+		attachmentData = BenchmarkData.createBinaryData(messageSize / 2, 3);
+	}
+
+	@Benchmark
+	public MimeMessage assembleEmail() throws Exception {
+		final MimeMessage message = BenchmarkData.createEmail(text, html, attachmentData);
+		message.writeTo(OutputStream.nullOutputStream());
+		return message;
+	}
+}
@@ -0,0 +1,76 @@
+package de.soderer.mailer.jmh;
+
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.soderer.mailer.crypto.SmimeMessageEncryptor;
+import de.soderer.mailer.crypto.SmimeMessageSigner;
+import jakarta.mail.internet.MimeMessage;
+
+/**
+ * S/MIME signature and encryption of a rendered email with the default methods ("SHA512withRSA" and "AES256_CBC") and a 2048 bit RSA key
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SmimeBenchmark {
+	@Param({ "1024", "102400", "1048576" })
+	public int messageSize;
+
+	private byte[] messageData;
+	private SmimeMessageSigner messageSigner;
+	private SmimeMessageEncryptor messageEncryptor;
+	private MimeMessage message;
+
+	@Setup
+	public void setup() throws Exception {
+		final KeyPair keyPair = BenchmarkData.createKeyPair("RSA", 2048);
+		final X509Certificate certificate = BenchmarkData.createCertificate(keyPair);
+		messageSigner = new SmimeMessageSigner(keyPair.getPrivate(), certificate, null);
+		messageEncryptor = new SmimeMessageEncryptor(Collections.singletonList(certificate), null);
+		messageData = BenchmarkData.renderEmail(BenchmarkData.createEmail(messageSize, 1));
+	}
+
+	@Setup(Level.Invocation)
+	public void setupInvocation() throws Exception {
+		// The email is changed by its signature or encryption
+		message = BenchmarkData.parseEmail(messageData);
+	}
+
+	@Benchmark
+	public MimeMessage sign() throws Exception {
+		messageSigner.sign(message);
+		return message;
+	}
+
+	@Benchmark
+	public MimeMessage encrypt() throws Exception {
+		messageEncryptor.encrypt(message);
+		return message;
+	}
+
+	@Benchmark
+	public MimeMessage signAndEncrypt() throws Exception {
+		messageSigner.sign(message);
+		messageEncryptor.encrypt(message);
+		return message;
+	}
+}
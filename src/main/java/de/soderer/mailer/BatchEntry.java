@@ -0,0 +1,43 @@
+package de.soderer.mailer;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * One row of a batch file with its values by lowercase column name
+ */
+public class BatchEntry {
+	public static final String TO = "to";
+	public static final String CC = "cc";
+	public static final String BCC = "bcc";
+	public static final String SUBJECT = "subject";
+	public static final String TEXT = "text";
+	public static final String HTML = "html";
+
+	private final int rowNumber;
+	private final Map<String, String> values = new LinkedHashMap<>();
+
+	public BatchEntry(final int rowNumber) {
+		this.rowNumber = rowNumber;
+	}
+
+	public int getRowNumber() {
+		return rowNumber;
+	}
+
+	public void setValue(final String columnName, final String value) {
+		values.put(columnName.trim().toLowerCase(), value);
+	}
+
+	/**
+	 * Get the value of a column or null if the column is not available in this entry
+	 */
+	public String getValue(final String columnName) {
+		return values.get(columnName.toLowerCase());
+	}
+
+	public Map<String, String> getValues() {
+		return Collections.unmodifiableMap(values);
+	}
+}
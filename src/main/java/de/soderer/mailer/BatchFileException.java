@@ -0,0 +1,12 @@
+package de.soderer.mailer;
+
+/**
+ * Invalid content of a batch file, which stops the batch
+ */
+public class BatchFileException extends Exception {
+	private static final long serialVersionUID = -3390181529346064587L;
+
+	public BatchFileException(final String message, final Exception cause) {
+		super(message, cause);
+	}
+}
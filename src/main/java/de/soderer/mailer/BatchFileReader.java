@@ -0,0 +1,220 @@
+package de.soderer.mailer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import de.soderer.json.JsonArray;
+import de.soderer.json.JsonNode;
+import de.soderer.json.JsonObject;
+import de.soderer.json.JsonReader;
+import de.soderer.utilities.csv.CsvDataException;
+import de.soderer.utilities.csv.CsvFormat;
+import de.soderer.utilities.csv.CsvReader;
+
+/**
+ * Reader for batch files with one email per row.<br />
+ * Supported formats are CSV with a header line (separated by ',', ';' or tab) and JSONL with one flat JSON object per line.<br />
+ * JSONL is detected by the file extensions ".jsonl", ".ndjson" or ".json", anything else is read as CSV.<br />
+ * A leading UTF-8 BOM (e.g. of CSV files exported by Excel) is skipped.
+ */
+public class BatchFileReader implements Closeable {
+	private static final byte[] UTF8_BOM = new byte[] { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF };
+
+	private final CsvReader csvReader;
+	private final BufferedReader jsonLinesReader;
+	private List<String> csvHeaders = null;
+	private int lineNumber = 0;
+	private int rowNumber = 0;
+
+	public BatchFileReader(final File batchFile, final Charset charset) throws IOException {
+		final String fileName = batchFile.getName().toLowerCase(Locale.ROOT);
+		if (fileName.endsWith(".jsonl") || fileName.endsWith(".ndjson") || fileName.endsWith(".json")) {
+			csvReader = null;
+			jsonLinesReader = new BufferedReader(new InputStreamReader(openWithoutBom(batchFile), charset));
+		} else {
+			csvReader = new CsvReader(openWithoutBom(batchFile), charset, new CsvFormat().setSeparator(detectCsvSeparator(batchFile, charset)).setStringQuote('"'));
+			jsonLinesReader = null;
+		}
+	}
+
+	/**
+	 * Open the batch file behind its UTF-8 BOM, which would otherwise become part of the first column name
+	 */
+	private static InputStream openWithoutBom(final File batchFile) throws IOException {
+		final BufferedInputStream inputStream = new BufferedInputStream(new FileInputStream(batchFile));
+		try {
+			inputStream.mark(UTF8_BOM.length);
+			if (!Arrays.equals(UTF8_BOM, inputStream.readNBytes(UTF8_BOM.length))) {
+				inputStream.reset();
+			}
+			return inputStream;
+		} catch (final IOException e) {
+			inputStream.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Read the next entry of the batch file
+	 *
+	 * @return the next entry or null if the end of the file is reached
+	 */
+	public BatchEntry readNextEntry() throws BatchFileException, IOException {
+		if (jsonLinesReader != null) {
+			return readNextJsonEntry();
+		} else {
+			return readNextCsvEntry();
+		}
+	}
+
+	private BatchEntry readNextCsvEntry() throws BatchFileException, IOException {
+		try {
+			if (csvHeaders == null) {
+				csvHeaders = csvReader.readNextCsvLine();
+				if (csvHeaders == null) {
+					return null;
+				}
+				for (final String header : csvHeaders) {
+					if (header.trim().length() == 0) {
+						throw new BatchFileException("Invalid empty column name in batch file header", null);
+					}
+				}
+			}
+
+			List<String> values = csvReader.readNextCsvLine();
+			while (values != null && values.size() == 1 && values.get(0).trim().length() == 0) {
+				values = csvReader.readNextCsvLine();
+			}
+			if (values == null) {
+				return null;
+			} else if (values.size() != csvHeaders.size()) {
+				throw new BatchFileException("Invalid number of values in batch file line " + csvReader.getReadCsvLines() + " (expected " + csvHeaders.size() + ", found " + values.size() + ")", null);
+			}
+
+			final BatchEntry batchEntry = new BatchEntry(++rowNumber);
+			for (int i = 0; i < csvHeaders.size(); i++) {
+				batchEntry.setValue(csvHeaders.get(i), values.get(i));
+			}
+			return batchEntry;
+		} catch (final CsvDataException e) {
+			throw new BatchFileException("Invalid CSV in batch file line " + e.getErrorLineNumber() + ": " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Detect the separator by the header line, which contains only column names
+	 */
+	private static char detectCsvSeparator(final File batchFile, final Charset charset) throws IOException {
+		final String headerLine;
+		try (BufferedReader headerReader = new BufferedReader(new InputStreamReader(openWithoutBom(batchFile), charset))) {
+			headerLine = headerReader.readLine();
+		}
+		if (headerLine == null) {
+			return ',';
+		}
+		final int commaCount = countOutsideQuotes(headerLine, ',');
+		final int semicolonCount = countOutsideQuotes(headerLine, ';');
+		final int tabCount = countOutsideQuotes(headerLine, '\t');
+		if (tabCount > commaCount && tabCount > semicolonCount) {
+			return '\t';
+		} else if (semicolonCount > commaCount) {
+			return ';';
+		} else {
+			return ',';
+		}
+	}
+
+	private static int countOutsideQuotes(final String line, final char character) {
+		int count = 0;
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); i++) {
+			final char nextChar = line.charAt(i);
+			if (nextChar == '"') {
+				quoted = !quoted;
+			} else if (!quoted && nextChar == character) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private BatchEntry readNextJsonEntry() throws BatchFileException, IOException {
+		String line = readJsonLine();
+		while (line != null && line.trim().length() == 0) {
+			line = readJsonLine();
+		}
+		if (line == null) {
+			return null;
+		}
+
+		final JsonNode jsonNode;
+		try {
+			jsonNode = JsonReader.readJsonItemString(line);
+		} catch (final Exception e) {
+			throw new BatchFileException("Invalid JSON in batch file line " + lineNumber + ": " + e.getMessage(), e);
+		}
+		if (!jsonNode.isJsonObject()) {
+			throw new BatchFileException("Invalid JSON in batch file line " + lineNumber + ": Expected a JSON object", null);
+		}
+
+		final BatchEntry batchEntry = new BatchEntry(++rowNumber);
+		final JsonObject jsonObject = (JsonObject) jsonNode.getValue();
+		for (final String key : jsonObject.keySet()) {
+			batchEntry.setValue(key, toColumnValue(jsonObject.get(key), key));
+		}
+		return batchEntry;
+	}
+
+	/**
+	 * Column value of a JSON value. Arrays (e.g. a list of recipients) are joined by ", ", nested objects are not supported.
+	 */
+	private String toColumnValue(final Object jsonValue, final String key) throws BatchFileException {
+		if (jsonValue == null) {
+			return null;
+		} else if (jsonValue instanceof JsonArray) {
+			final StringBuilder joinedValues = new StringBuilder();
+			for (final Object itemValue : (JsonArray) jsonValue) {
+				if (itemValue instanceof JsonArray || itemValue instanceof JsonObject) {
+					throw new BatchFileException("Invalid JSON in batch file line " + lineNumber + ": Unsupported nested value of key '" + key + "'", null);
+				} else if (itemValue != null) {
+					if (joinedValues.length() > 0) {
+						joinedValues.append(", ");
+					}
+					joinedValues.append(itemValue);
+				}
+			}
+			return joinedValues.toString();
+		} else if (jsonValue instanceof JsonObject) {
+			throw new BatchFileException("Invalid JSON in batch file line " + lineNumber + ": Unsupported nested value of key '" + key + "'", null);
+		} else {
+			return jsonValue.toString();
+		}
+	}
+
+	private String readJsonLine() throws IOException {
+		final String line = jsonLinesReader.readLine();
+		if (line != null) {
+			lineNumber++;
+		}
+		return line;
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (csvReader != null) {
+			csvReader.close();
+		} else {
+			jsonLinesReader.close();
+		}
+	}
+}
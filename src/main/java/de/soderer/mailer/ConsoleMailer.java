@@ -1,32 +1,36 @@
 package de.soderer.mailer;
 
 import java.io.File;
-import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.net.FileNameMap;
-import java.net.URLConnection;
+import java.io.PrintStream;
+import java.net.InetAddress;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import java.security.PrivateKey;
-import java.security.cert.X509Certificate;
-import java.security.interfaces.RSAPrivateKey;
 import java.text.SimpleDateFormat;
-import java.time.LocalDateTime;
-import java.time.ZoneId;
-import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
-
-import org.bouncycastle.openpgp.PGPPublicKey;
-import org.bouncycastle.openpgp.PGPSecretKey;
-
-import de.soderer.pac.PacScriptParser;
+import java.util.function.Supplier;
+
+import de.soderer.mailer.daemon.MailerDaemon;
+import de.soderer.mailer.daemon.MailerDaemonClient;
+import de.soderer.mailer.metrics.MessageRenderEvent;
+import de.soderer.mailer.metrics.SendMetrics;
+import de.soderer.mailer.mime.MimePartCache;
+import de.soderer.mailer.mx.MxDeliverySink;
+import de.soderer.mailer.relay.SmtpListener;
+import de.soderer.mailer.relay.SmtpRelayProcessor;
+import de.soderer.mailer.smtp.ConsoleMailerTransport;
+import de.soderer.mailer.smtp.SmtpConnectionPool;
+import de.soderer.mailer.smtp.SmtpMessageSink;
+import de.soderer.mailer.smtp.SmtpPoolSink;
+import de.soderer.mailer.smtp.SmtpTlsContexts;
+import de.soderer.mailer.spool.SpoolQueue;
+import de.soderer.mailer.spool.SpoolWorker;
 import de.soderer.pac.utilities.ProxyConfiguration;
-import de.soderer.pac.utilities.ProxyConfiguration.ProxyConfigurationType;
 import de.soderer.utilities.ConfigurationProperties;
 import de.soderer.utilities.DateUtilities;
 import de.soderer.utilities.FileUtilities;
@@ -36,18 +40,8 @@ import de.soderer.utilities.UpdateableConsoleApplication;
 import de.soderer.utilities.Utilities;
 import de.soderer.utilities.Version;
 import de.soderer.utilities.appupdate.ApplicationUpdateUtilities;
-import de.soderer.utilities.crypto.CryptographicUtilities;
-import de.soderer.utilities.crypto.PGPUtilities;
-import de.soderer.utilities.crypto.PGPUtilities.PgpHashMethod;
-import de.soderer.utilities.crypto.PGPUtilities.PgpSymmetricEncryptionMethod;
-import de.soderer.utilities.mail.CryptoType;
 import de.soderer.utilities.mail.Email;
-import de.soderer.utilities.mail.MailAttachment;
-import de.soderer.utilities.mail.MailUtilities;
-import de.soderer.utilities.mail.Mailer;
-import de.soderer.utilities.mail.MailerConnectionSecurity;
 import de.soderer.utilities.swing.ApplicationConfigurationDialog;
-import jakarta.mail.internet.InternetAddress;
 
 /**
  * The Main-Class of ConsoleMailer<br />
@@ -73,6 +67,9 @@ public class ConsoleMailer extends UpdateableConsoleApplication {
 	/** Trusted CA certificate for updates **/
 	public static String TRUSTED_UPDATE_CA_CERTIFICATES = null;
 
+	/** Interval of the export of the metrics file (parameter "-metrics") during long running calls */
+	private static final long METRICS_EXPORT_INTERVAL_MILLIS = 10000;
+
 	/** The usage message */
 	private static String getUsageMessage() {
 		try (InputStream helpInputStream = ConsoleMailer.class.getResourceAsStream(HELP_RESOURCE_FILE)) {
@@ -103,6 +100,53 @@ public class ConsoleMailer extends UpdateableConsoleApplication {
 	 * @return
 	 */
 	protected static int _main(final String[] args) {
+		final List<String> arguments = new ArrayList<>(Arrays.asList(args));
+
+		boolean useDaemon = false;
+		boolean skipProxyDiscovery = false;
+		File metricsFile = null;
+		File daemonSocketFile = MailerDaemon.getDefaultSocketFile(APPLICATION_NAME);
+		for (int i = 0; i < arguments.size(); i++) {
+			if ("-usedaemon".equalsIgnoreCase(arguments.get(i))) {
+				useDaemon = true;
+				arguments.remove(i--);
+			} else if ("-noproxydiscovery".equalsIgnoreCase(arguments.get(i))) {
+				skipProxyDiscovery = true;
+				arguments.remove(i--);
+			} else if ("-daemonsocket".equalsIgnoreCase(arguments.get(i))) {
+				if (i + 1 >= arguments.size() || Utilities.isBlank(arguments.get(i + 1))) {
+					System.err.println("Missing value for parameter daemonsocket");
+					return 1;
+				}
+				daemonSocketFile = new File(arguments.get(i + 1));
+				arguments.remove(i + 1);
+				arguments.remove(i--);
+			} else if ("-metrics".equalsIgnoreCase(arguments.get(i))) {
+				if (i + 1 >= arguments.size() || Utilities.isBlank(arguments.get(i + 1))) {
+					System.err.println("Missing value for parameter metrics");
+					return 1;
+				}
+				metricsFile = new File(arguments.get(i + 1));
+				arguments.remove(i + 1);
+				arguments.remove(i--);
+			}
+		}
+
+		if (useDaemon) {
+			// The thin client skips all initialization, which was already done by the daemon
+			final Integer daemonReturnCode = executeByDaemon(daemonSocketFile, arguments);
+			if (daemonReturnCode != null) {
+				if (metricsFile != null) {
+					System.err.println("Parameter metrics is ignored for daemon jobs, the metrics of all jobs are written by the daemon");
+				}
+				return daemonReturnCode;
+			}
+		}
+
+		if (metricsFile != null) {
+			enableMetrics(metricsFile);
+		}
+
 		ApplicationUpdateUtilities.removeUpdateLeftovers();
 
 		try (InputStream resourceStream = ConsoleMailer.class.getResourceAsStream(VERSION_RESOURCE_FILE)) {
@@ -124,9 +168,6 @@ public class ConsoleMailer extends UpdateableConsoleApplication {
 			return 1;
 		}
 
-		final List<String> arguments = new ArrayList<>(Arrays.asList(args));
-		final List<File> configFiles = new ArrayList<>();
-
 		ConfigurationProperties applicationConfiguration;
 		try {
 			applicationConfiguration = new ConfigurationProperties(ConsoleMailer.APPLICATION_NAME, true);
@@ -136,44 +177,88 @@ public class ConsoleMailer extends UpdateableConsoleApplication {
 			return 1;
 		}
 
-		if (!applicationConfiguration.containsKey(ApplicationConfigurationDialog.CONFIG_PROXY_CONFIGURATION_TYPE)) {
-			if (PacScriptParser.findPacFileUrlByWpad() != null) {
-				applicationConfiguration.set(ApplicationConfigurationDialog.CONFIG_PROXY_CONFIGURATION_TYPE, ProxyConfigurationType.WPAD.name());
-			} else {
-				applicationConfiguration.set(ApplicationConfigurationDialog.CONFIG_PROXY_CONFIGURATION_TYPE, ProxyConfigurationType.None.name());
+		// The proxy is only needed by the update command, so a WPAD discovery is not done for sending emails
+		final ProxyConfigurationProvider proxyConfigurationProvider = new ProxyConfigurationProvider(applicationConfiguration, skipProxyDiscovery);
+
+		if (arguments.size() == 1 && "daemon".equalsIgnoreCase(arguments.get(0))) {
+			return runDaemon(daemonSocketFile, proxyConfigurationProvider);
+		} else {
+			try {
+				return execute(arguments, null, proxyConfigurationProvider, System.out, System.err);
+			} finally {
+				exportMetrics();
 			}
-			applicationConfiguration.save();
 		}
+	}
 
-		final ProxyConfigurationType proxyConfigurationType = ProxyConfigurationType.getFromString(applicationConfiguration.get(ApplicationConfigurationDialog.CONFIG_PROXY_CONFIGURATION_TYPE));
-		final String proxyUrl = applicationConfiguration.get(ApplicationConfigurationDialog.CONFIG_PROXY_URL);
-		final ProxyConfiguration proxyConfiguration = new ProxyConfiguration(proxyConfigurationType, proxyUrl);
+	/**
+	 * Enable the timing of the phases of all following calls and the export into the metrics file.<br />
+	 * The file is written after each call, periodically for long running processes (daemon, SMTP listener, spool) and at the end of the process.
+	 */
+	private static void enableMetrics(final File metricsFile) {
+		SendMetrics.enable(metricsFile);
+		final Thread exportThread = new Thread(() -> {
+			try {
+				while (true) {
+					Thread.sleep(METRICS_EXPORT_INTERVAL_MILLIS);
+					exportMetrics();
+				}
+			} catch (@SuppressWarnings("unused") final InterruptedException e) {
+				// Process is terminating
+			}
+		}, "Metrics export");
+		exportThread.setDaemon(true);
+		exportThread.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(ConsoleMailer::exportMetrics));
+	}
 
+	private static void exportMetrics() {
+		try {
+			SendMetrics.export();
+		} catch (final IOException e) {
+			System.err.println("Cannot write metrics file: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Execute a ConsoleMailer call (from the commandline or as job of the daemon)
+	 *
+	 * @param workingDirectory directory for relative file paths of a daemon job or null for the current directory of this process
+	 * @param out standard output of the call
+	 * @param err error output of the call
+	 * @return return code of the call
+	 */
+	private static int execute(final List<String> arguments, final File workingDirectory, final Supplier<ProxyConfiguration> proxyConfigurationProvider, final PrintStream out, final PrintStream err) {
+		final long parametersStart = SendMetrics.start();
+		ConsoleMailerTransport.beginCall();
+		final List<File> configFiles = new ArrayList<>();
 		boolean verbose = false;
 
 		try {
 			if (arguments.size() == 0) {
-				System.out.println(getUsageMessage());
+				out.println(getUsageMessage());
 				return 1;
 			} else {
 				for (int i = 0; i < arguments.size(); i++) {
 					if ("help".equalsIgnoreCase(arguments.get(i)) || "-help".equalsIgnoreCase(arguments.get(i)) || "--help".equalsIgnoreCase(arguments.get(i)) || "-h".equalsIgnoreCase(arguments.get(i)) || "--h".equalsIgnoreCase(arguments.get(i))
 							|| "-?".equalsIgnoreCase(arguments.get(i)) || "--?".equalsIgnoreCase(arguments.get(i))) {
-						System.out.println(getUsageMessage());
+						out.println(getUsageMessage());
 						return 1;
 					} else if ("version".equalsIgnoreCase(arguments.get(i))) {
-						System.out.println(VERSION.toString());
+						out.println(VERSION.toString());
 						return 1;
 					} else if ("update".equalsIgnoreCase(arguments.get(i))) {
-						if (arguments.size() > i + 2) {
+						if (workingDirectory != null) {
+							throw new ParameterException(arguments.get(i), "Parameter update is not available for daemon jobs");
+						} else if (arguments.size() > i + 2) {
 							final ConsoleMailer consoleMailer = new ConsoleMailer();
-							ApplicationUpdateUtilities.executeUpdate(consoleMailer, ConsoleMailer.VERSIONINFO_DOWNLOAD_URL, proxyConfiguration, ConsoleMailer.APPLICATION_NAME, ConsoleMailer.VERSION, ConsoleMailer.TRUSTED_UPDATE_CA_CERTIFICATES, arguments.get(i + 1), arguments.get(i + 2).toCharArray(), null, false, false);
+							ApplicationUpdateUtilities.executeUpdate(consoleMailer, ConsoleMailer.VERSIONINFO_DOWNLOAD_URL, proxyConfigurationProvider.get(), ConsoleMailer.APPLICATION_NAME, ConsoleMailer.VERSION, ConsoleMailer.TRUSTED_UPDATE_CA_CERTIFICATES, arguments.get(i + 1), arguments.get(i + 2).toCharArray(), null, false, false);
 						} else if (arguments.size() > i + 1) {
 							final ConsoleMailer consoleMailer = new ConsoleMailer();
-							ApplicationUpdateUtilities.executeUpdate(consoleMailer, ConsoleMailer.VERSIONINFO_DOWNLOAD_URL, proxyConfiguration, ConsoleMailer.APPLICATION_NAME, ConsoleMailer.VERSION, ConsoleMailer.TRUSTED_UPDATE_CA_CERTIFICATES, arguments.get(i + 1), null, null, false, false);
+							ApplicationUpdateUtilities.executeUpdate(consoleMailer, ConsoleMailer.VERSIONINFO_DOWNLOAD_URL, proxyConfigurationProvider.get(), ConsoleMailer.APPLICATION_NAME, ConsoleMailer.VERSION, ConsoleMailer.TRUSTED_UPDATE_CA_CERTIFICATES, arguments.get(i + 1), null, null, false, false);
 						} else {
 							final ConsoleMailer consoleMailer = new ConsoleMailer();
-							ApplicationUpdateUtilities.executeUpdate(consoleMailer, ConsoleMailer.VERSIONINFO_DOWNLOAD_URL, proxyConfiguration, ConsoleMailer.APPLICATION_NAME, ConsoleMailer.VERSION, ConsoleMailer.TRUSTED_UPDATE_CA_CERTIFICATES, null, null, null, false, false);
+							ApplicationUpdateUtilities.executeUpdate(consoleMailer, ConsoleMailer.VERSIONINFO_DOWNLOAD_URL, proxyConfigurationProvider.get(), ConsoleMailer.APPLICATION_NAME, ConsoleMailer.VERSION, ConsoleMailer.TRUSTED_UPDATE_CA_CERTIFICATES, null, null, null, false, false);
 						}
 						return 1;
 					} else if ("-cfg".equalsIgnoreCase(arguments.get(i)) || "-config".equalsIgnoreCase(arguments.get(i))) {
@@ -185,7 +270,7 @@ public class ConsoleMailer extends UpdateableConsoleApplication {
 							if (Utilities.isBlank(configFilePath)) {
 								throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter configfile");
 							}
-							final File configFile = new File(configFilePath);
+							final File configFile = MailParameters.resolveFile(workingDirectory, configFilePath);
 							if (!configFile.exists()) {
 								throw new ParameterException(arguments.get(i - 1), "Configfile does not exist: " + configFilePath);
 							}
@@ -203,815 +288,366 @@ public class ConsoleMailer extends UpdateableConsoleApplication {
 				}
 			}
 
-			String host = null;
-			Integer port = null;
-			String user = null;
-			char[] password = null;
-			MailerConnectionSecurity connectionSecurity = null;
-
-			InternetAddress fromAddress = null;
-			String subject = null;
-			Charset charset = null;
-			final List<InternetAddress> replyToAddressList = new ArrayList<>();
-			final List<InternetAddress> toAddressList = new ArrayList<>();
-			final List<InternetAddress> ccAddressList = new ArrayList<>();
-			final List<InternetAddress> bccAddressList = new ArrayList<>();
-			InternetAddress bounceAddress = null;
-			InternetAddress notifyAddress = null;
-			String bodyText = null;
-			String bodyHtml = null;
-			CryptoType cryptoType = null;
-			File signatureKeyFile = null;
-			char[] signatureKeyPassword = null;
-			File signatureCertificateFile = null;
-			String signatureMethodName = null;
-			File encryptionCertificateFile = null;
-			String encryptionMethodName = null;
-			final List<MailAttachment> attachments = new ArrayList<>();
-			RSAPrivateKey dkimPrivateKey = null;
-			String dkimDomain = null;
-			String dkimSelector = null;
-			String dkimIdentity = null;
-			boolean test = false;
-			boolean force = false;
-			boolean silent = false;
-			ZonedDateTime eventStart = null;
-			ZonedDateTime eventEnd = null;
-			String eventLocation = null;
+			final MailParameters mailParameters = new MailParameters();
+			mailParameters.setWorkingDirectory(workingDirectory);
+			try {
+				mailParameters.parseArguments(arguments);
+			} finally {
+				verbose = mailParameters.isVerbose();
+			}
 
-			// Read the parameters
-			for (int i = 0; i < arguments.size(); i++) {
-				if (Utilities.isBlank(arguments.get(i))) {
-					throw new ParameterException(arguments.get(i), "Invalid parameter");
-				} else if ("-cfg".equalsIgnoreCase(arguments.get(i)) || "-config".equalsIgnoreCase(arguments.get(i))) {
-					// Configfiles have already been processed
-					i++;
-				} else if ("-h".equalsIgnoreCase(arguments.get(i)) || "-host".equalsIgnoreCase(arguments.get(i))) {
-					if (host != null) {
-						throw new ParameterException(arguments.get(i - 1), "Multiple parameter host");
-					} else {
-						i++;
-						if (i >= arguments.size()) {
-							throw new ParameterException(arguments.get(i - 1), "Missing value for parameter host");
-						} else {
-							host = arguments.get(i);
-							if (host.contains(":")) {
-								if (port != null) {
-									throw new ParameterException(arguments.get(i - 1), "Multiple parameter port");
-								} else {
-									try {
-										port = Integer.parseInt(host.substring(host.indexOf(":") + 1));
-									} catch (@SuppressWarnings("unused") final NumberFormatException e) {
-										throw new ParameterException("Invalid value for parameter port");
-									}
-									host = host.substring(0, host.indexOf(":"));
-								}
-							}
-						}
-					}
-				} else if ("-port".equalsIgnoreCase(arguments.get(i))) {
-					if (port != null) {
-						throw new ParameterException(arguments.get(i - 1), "Multiple parameter port");
-					} else {
-						i++;
-						if (i >= arguments.size()) {
-							throw new ParameterException(arguments.get(i - 1), "Missing value for parameter port");
-						} else {
-							try {
-								port = Integer.parseInt(arguments.get(i));
-							} catch (@SuppressWarnings("unused") final NumberFormatException e) {
-								throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter port");
-							}
-						}
-					}
-				} else if ("-starttls".equalsIgnoreCase(arguments.get(i))) {
-					if (connectionSecurity != null) {
-						throw new ParameterException(arguments.get(i - 1), "Multiple parameter connectionSecurity");
-					} else {
-						connectionSecurity = MailerConnectionSecurity.STARTTLS;
-					}
-				} else if ("-ssl".equalsIgnoreCase(arguments.get(i)) || "-tls".equalsIgnoreCase(arguments.get(i)) || "-ssltls".equalsIgnoreCase(arguments.get(i).replace("_", ""))) {
-					if (connectionSecurity != null) {
-						throw new ParameterException(arguments.get(i - 1), "Multiple parameter connectionSecurity");
-					} else {
-						connectionSecurity = MailerConnectionSecurity.SSL_TLS;
-					}
-				} else if ("-u".equalsIgnoreCase(arguments.get(i)) || "-user".equalsIgnoreCase(arguments.get(i))) {
-					if (user != null) {
-						throw new ParameterException(arguments.get(i - 1), "Multiple parameter user");
-					} else {
-						i++;
-						if (i >= arguments.size()) {
-							throw new ParameterException(arguments.get(i - 1), "Missing value for parameter user");
-						} else {
-							user = arguments.get(i);
-						}
-					}
-				} else if ("-p".equalsIgnoreCase(arguments.get(i)) || "-password".equalsIgnoreCase(arguments.get(i))) {
-					if (password != null) {
-						throw new ParameterException(arguments.get(i - 1), "Multiple parameter password");
-					} else {
-						i++;
-						if (i >= arguments.size()) {
-							throw new ParameterException(arguments.get(i - 1), "Missing value for parameter password");
-						} else {
-							password = arguments.get(i).toCharArray();
-						}
-					}
-				} else if ("-from".equalsIgnoreCase(arguments.get(i))) {
-					if (fromAddress != null) {
-						throw new ParameterException(arguments.get(i - 1), "Multiple parameter from-address");
-					} else {
-						i++;
-						if (i >= arguments.size()) {
-							throw new ParameterException(arguments.get(i - 1), "Missing value for parameter from-address");
-						} else {
-							final InternetAddress[] fromAddresses = MailUtilities.getEmailAddressesFromList(arguments.get(i));
-							if (fromAddresses.length != 1) {
-								throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter from-address");
-							} else {
-								fromAddress = fromAddresses[0];
-							}
-						}
-					}
-				} else if ("-s".equalsIgnoreCase(arguments.get(i)) || "-subject".equalsIgnoreCase(arguments.get(i))) {
-					if (subject != null) {
-						throw new ParameterException(arguments.get(i - 1), "Multiple parameter subject");
-					} else {
-						i++;
-						if (i >= arguments.size()) {
-							throw new ParameterException(arguments.get(i - 1), "Missing value for parameter subject");
-						} else {
-							if (Utilities.isBlank(arguments.get(i))) {
-								throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter subject");
-							} else {
-								subject = arguments.get(i);
-							}
-						}
-					}
-				} else if ("-c".equalsIgnoreCase(arguments.get(i)) || "-charset".equalsIgnoreCase(arguments.get(i))) {
-					if (charset != null) {
-						throw new ParameterException(arguments.get(i - 1), "Multiple parameter charset");
-					} else {
-						i++;
-						if (i >= arguments.size()) {
-							throw new ParameterException(arguments.get(i - 1), "Missing value for parameter charset");
-						} else {
-							if (Utilities.isBlank(arguments.get(i))) {
-								throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter charset");
-							} else {
-								try {
-									charset = Charset.forName(arguments.get(i));
-								} catch (@SuppressWarnings("unused") final Exception e) {
-									throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter charset");
-								}
-							}
-						}
-					}
-				} else if ("-replyto".equalsIgnoreCase(arguments.get(i))) {
-					i++;
-					if (i >= arguments.size()) {
-						throw new ParameterException(arguments.get(i - 1), "Missing value for parameter replyTo-address");
-					} else {
-						InternetAddress[] replyToAddresses;
-						try {
-							replyToAddresses = MailUtilities.getEmailAddressesFromList(arguments.get(i));
-						} catch (@SuppressWarnings("unused") final Exception e) {
-							throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter replyTo-address");
-						}
-						if (replyToAddresses.length == 0) {
-							throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter replyTo-address");
-						} else {
-							for (final InternetAddress replyToAddress : replyToAddresses) {
-								replyToAddressList.add(replyToAddress);
-							}
-						}
-					}
-				} else if ("-to".equalsIgnoreCase(arguments.get(i))) {
-					i++;
-					if (i >= arguments.size()) {
-						throw new ParameterException(arguments.get(i - 1), "Missing value for parameter to-address");
-					} else {
-						InternetAddress[] toAddresses;
-						try {
-							toAddresses = MailUtilities.getEmailAddressesFromList(arguments.get(i));
-						} catch (@SuppressWarnings("unused") final Exception e) {
-							throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter to-address");
-						}
-						if (toAddresses.length == 0) {
-							throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter to-address");
-						} else {
-							for (final InternetAddress toAddress : toAddresses) {
-								toAddressList.add(toAddress);
-							}
-						}
-					}
-				} else if ("-cc".equalsIgnoreCase(arguments.get(i))) {
-					i++;
-					if (i >= arguments.size()) {
-						throw new ParameterException(arguments.get(i - 1), "Missing value for parameter cc-address");
-					} else {
-						InternetAddress[] ccAddresses;
-						try {
-							ccAddresses = MailUtilities.getEmailAddressesFromList(arguments.get(i));
-						} catch (@SuppressWarnings("unused") final Exception e) {
-							throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter cc-address");
-						}
-						if (ccAddresses.length == 0) {
-							throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter cc-address");
-						} else {
-							for (final InternetAddress ccAddress : ccAddresses) {
-								ccAddressList.add(ccAddress);
-							}
-						}
-					}
-				} else if ("-bcc".equalsIgnoreCase(arguments.get(i))) {
-					i++;
-					if (i >= arguments.size()) {
-						throw new ParameterException(arguments.get(i - 1), "Missing value for parameter bcc-address");
-					} else {
-						InternetAddress[] bccAddresses;
-						try {
-							bccAddresses = MailUtilities.getEmailAddressesFromList(arguments.get(i));
-						} catch (@SuppressWarnings("unused") final Exception e) {
-							throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter bcc-address");
-						}
-						if (bccAddresses.length == 0) {
-							throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter bcc-address");
-						} else {
-							for (final InternetAddress bccAddress : bccAddresses) {
-								bccAddressList.add(bccAddress);
-							}
-						}
-					}
-				} else if ("-bounce".equalsIgnoreCase(arguments.get(i))) {
-					if (bounceAddress != null) {
-						throw new ParameterException(arguments.get(i - 1), "Multiple value for parameter bounce");
-					} else {
-						i++;
-						if (i >= arguments.size()) {
-							throw new ParameterException(arguments.get(i - 1), "Missing value for parameter bounce");
-						} else {
-							try {
-								bounceAddress = MailUtilities.getEmailAddressesFromList(arguments.get(i))[0];
-							} catch (@SuppressWarnings("unused") final Exception e) {
-								throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter bounce");
-							}
-						}
-					}
-				} else if ("-notify".equalsIgnoreCase(arguments.get(i))) {
-					if (notifyAddress != null) {
-						throw new ParameterException(arguments.get(i - 1), "Multiple value for parameter notify");
-					} else {
-						i++;
-						if (i >= arguments.size()) {
-							throw new ParameterException(arguments.get(i - 1), "Missing value for parameter notify");
-						} else {
-							try {
-								notifyAddress = MailUtilities.getEmailAddressesFromList(arguments.get(i))[0];
-							} catch (@SuppressWarnings("unused") final Exception e) {
-								throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter notify");
-							}
-						}
-					}
-				} else if ("-text".equalsIgnoreCase(arguments.get(i))) {
-					if (bodyText != null) {
-						throw new ParameterException(arguments.get(i - 1), "Multiple value for parameter text");
-					} else {
-						i++;
-						if (i >= arguments.size()) {
-							throw new ParameterException(arguments.get(i - 1), "Missing value for parameter text");
-						} else {
-							bodyText = arguments.get(i);
-						}
-					}
-				} else if ("-textfile".equalsIgnoreCase(arguments.get(i))) {
-					if (bodyText != null) {
-						throw new ParameterException(arguments.get(i - 1), "Multiple value for parameter text");
-					} else {
-						i++;
-						if (i >= arguments.size()) {
-							throw new ParameterException(arguments.get(i - 1), "Missing value for parameter text-file");
-						} else {
-							final String textFilePath = arguments.get(i);
-							if (Utilities.isBlank(textFilePath)) {
-								throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter text-file");
-							}
-							final File textFile = new File(textFilePath);
-							if (!textFile.exists()) {
-								throw new ParameterException(arguments.get(i - 1), "Text file does not exist: " + textFilePath);
-							}
-							bodyText = FileUtilities.readFileToString(textFile, charset == null ? StandardCharsets.UTF_8 : charset);
-						}
-					}
-				} else if ("-html".equalsIgnoreCase(arguments.get(i))) {
-					if (bodyHtml != null) {
-						throw new ParameterException(arguments.get(i - 1), "Multiple value for parameter html");
-					} else {
-						i++;
-						if (i >= arguments.size()) {
-							throw new ParameterException(arguments.get(i - 1), "Missing value for parameter html");
-						} else {
-							bodyHtml = arguments.get(i);
-						}
-					}
-				} else if ("-htmlfile".equalsIgnoreCase(arguments.get(i))) {
-					if (bodyHtml != null) {
-						throw new ParameterException(arguments.get(i - 1), "Multiple value for parameter html");
-					} else {
-						i++;
-						if (i >= arguments.size()) {
-							throw new ParameterException(arguments.get(i - 1), "Missing value for parameter html-file");
-						} else {
-							final String htmlFilePath = arguments.get(i);
-							if (Utilities.isBlank(htmlFilePath)) {
-								throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter html-file");
-							}
-							final File htmlFile = new File(htmlFilePath);
-							if (!htmlFile.exists()) {
-								throw new ParameterException(arguments.get(i - 1), "Html file does not exist: " + htmlFilePath);
-							}
-							bodyHtml = FileUtilities.readFileToString(htmlFile, charset == null ? StandardCharsets.UTF_8 : charset);
-						}
-					}
-				} else if ("-crypto".equalsIgnoreCase(arguments.get(i)) || "-cryptotype".equalsIgnoreCase(arguments.get(i))) {
-					if (cryptoType != null) {
-						throw new ParameterException(arguments.get(i - 1), "Multiple value for parameter crypto");
-					} else {
-						i++;
-						if (i >= arguments.size()) {
-							throw new ParameterException(arguments.get(i - 1), "Missing value for parameter crypto");
-						} else {
-							final String cryptoTypeString = arguments.get(i);
-							if (Utilities.isBlank(cryptoTypeString)) {
-								throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter crypto");
-							}
-							if ("smime".equalsIgnoreCase(cryptoTypeString.replace("/", "").replace("_", "").replace(" ", ""))) {
-								cryptoType = CryptoType.S_MIME;
-							} else if ("pgp".equalsIgnoreCase(cryptoTypeString.replace("/", "").replace("_", "").replace(" ", "")) || "gpg".equalsIgnoreCase(cryptoTypeString.replace("/", "").replace("_", "").replace(" ", ""))) {
-								cryptoType = CryptoType.PGP;
-							} else {
-								throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter crypto");
-							}
-						}
-					}
-				} else if ("-signaturekeyfile".equalsIgnoreCase(arguments.get(i))) {
-					if (signatureKeyFile != null) {
-						throw new ParameterException(arguments.get(i - 1), "Multiple value for parameter signatureKeyfile");
-					} else {
-						i++;
-						if (i >= arguments.size()) {
-							throw new ParameterException(arguments.get(i - 1), "Missing value for parameter signatureKeyfile");
-						} else {
-							final String signatureKeyfilePath = arguments.get(i);
-							if (Utilities.isBlank(signatureKeyfilePath)) {
-								throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter signatureKeyfile");
-							}
-							signatureKeyFile = new File(signatureKeyfilePath);
-							if (!signatureKeyFile.exists()) {
-								throw new ParameterException(arguments.get(i - 1), "signatureKeyfile does not exist: " + signatureKeyfilePath);
-							}
-						}
-					}
-				} else if ("-signaturekeypassword".equalsIgnoreCase(arguments.get(i))) {
-					if (signatureKeyPassword != null) {
-						throw new ParameterException(arguments.get(i - 1), "Multiple parameter signatureKeypassword");
-					} else {
-						i++;
-						if (i >= arguments.size()) {
-							throw new ParameterException(arguments.get(i - 1), "Missing value for parameter signatureKeypassword");
-						} else {
-							signatureKeyPassword = arguments.get(i).toCharArray();
-						}
-					}
-				} else if ("-signaturecertificatefile".equalsIgnoreCase(arguments.get(i))) {
-					if (signatureCertificateFile != null) {
-						throw new ParameterException(arguments.get(i - 1), "Multiple value for parameter signatureCertificateFile");
-					} else {
-						i++;
-						if (i >= arguments.size()) {
-							throw new ParameterException(arguments.get(i - 1), "Missing value for parameter signatureCertificateFile");
-						} else {
-							final String signatureCertificateFilePath = arguments.get(i);
-							if (Utilities.isBlank(signatureCertificateFilePath)) {
-								throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter signaturecertificatefile");
-							}
-							signatureCertificateFile = new File(signatureCertificateFilePath);
-							if (!signatureCertificateFile.exists()) {
-								throw new ParameterException(arguments.get(i - 1), "signatureCertificateFile does not exist: " + signatureCertificateFilePath);
-							}
-						}
-					}
-				} else if ("-signaturemethodname".equalsIgnoreCase(arguments.get(i))) {
-					if (signatureMethodName != null) {
-						throw new ParameterException(arguments.get(i - 1), "Multiple value for parameter signatureMethodName");
-					} else {
-						i++;
-						if (i >= arguments.size()) {
-							throw new ParameterException(arguments.get(i - 1), "Missing value for parameter signatureMethodName");
-						} else {
-							signatureMethodName = arguments.get(i);
-						}
-					}
-				} else if ("-encryptioncertificatefile".equalsIgnoreCase(arguments.get(i))) {
-					if (encryptionCertificateFile != null) {
-						throw new ParameterException(arguments.get(i - 1), "Multiple value for parameter encryptionKeyFile or encryptionCertificateFile");
-					} else {
-						i++;
-						if (i >= arguments.size()) {
-							throw new ParameterException(arguments.get(i - 1), "Missing value for parameter encryptionCertificateFile");
-						} else {
-							final String encryptionCertificateFilePath = arguments.get(i);
-							if (Utilities.isBlank(encryptionCertificateFilePath)) {
-								throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter encryptionCertificateFile");
-							}
-							encryptionCertificateFile = new File(encryptionCertificateFilePath);
-							if (!encryptionCertificateFile.exists()) {
-								throw new ParameterException(arguments.get(i - 1), "encryptionCertificateFile does not exist: " + encryptionCertificateFilePath);
-							}
-						}
-					}
-				} else if ("-encryptionkeyfile".equalsIgnoreCase(arguments.get(i))) {
-					if (encryptionCertificateFile != null) {
-						throw new ParameterException(arguments.get(i - 1), "Multiple value for parameter encryptionKeyFile or encryptionCertificateFile");
-					} else {
-						i++;
-						if (i >= arguments.size()) {
-							throw new ParameterException(arguments.get(i - 1), "Missing value for parameter encryptionKeyFile");
-						} else {
-							final String encryptionCertificateFilePath = arguments.get(i);
-							if (Utilities.isBlank(encryptionCertificateFilePath)) {
-								throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter encryptionKeyFile");
-							}
-							encryptionCertificateFile = new File(encryptionCertificateFilePath);
-							if (!encryptionCertificateFile.exists()) {
-								throw new ParameterException(arguments.get(i - 1), "encryptionKeyFile does not exist: " + encryptionCertificateFilePath);
-							}
-						}
-					}
-				} else if ("-encryptionmethodname".equalsIgnoreCase(arguments.get(i))) {
-					if (encryptionMethodName != null) {
-						throw new ParameterException(arguments.get(i - 1), "Multiple value for parameter encryptionMethodName");
-					} else {
-						i++;
-						if (i >= arguments.size()) {
-							throw new ParameterException(arguments.get(i - 1), "Missing value for parameter encryptionMethodName");
-						} else {
-							encryptionMethodName = arguments.get(i);
-						}
-					}
-				} else if ("-dkimkeyfile".equalsIgnoreCase(arguments.get(i))) {
-					if (dkimPrivateKey != null) {
-						throw new ParameterException(arguments.get(i - 1), "Multiple value for parameter dkimkeyfile");
-					} else {
-						i++;
-						if (i >= arguments.size()) {
-							throw new ParameterException(arguments.get(i - 1), "Missing value for parameter dkimkeyfile");
-						} else {
-							final String dkimPrivateKeyPath = arguments.get(i);
-							if (Utilities.isBlank(dkimPrivateKeyPath)) {
-								throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter dkimkeyfile");
-							}
-							final File dkimPrivateKeyFile = new File(dkimPrivateKeyPath);
-							if (!dkimPrivateKeyFile.exists()) {
-								throw new ParameterException(arguments.get(i - 1), "Dkimkeyfile does not exist: " + dkimPrivateKeyPath);
-							}
-							try {
-								dkimPrivateKey = (RSAPrivateKey) CryptographicUtilities.getPrivateKeyFromString(FileUtilities.readFileToString(dkimPrivateKeyFile, charset == null ? StandardCharsets.UTF_8 : charset), null);
-							} catch (@SuppressWarnings("unused") final Exception e) {
-								throw new ParameterException(arguments.get(i - 1), "Dkimkeyfile is invalid");
-							}
-						}
-					}
-				} else if ("-dkimdomain".equalsIgnoreCase(arguments.get(i))) {
-					if (dkimDomain != null) {
-						throw new ParameterException(arguments.get(i - 1), "Multiple value for parameter dkimdomain");
-					} else {
-						i++;
-						if (i >= arguments.size()) {
-							throw new ParameterException(arguments.get(i - 1), "Missing value for parameter dkimdomain");
-						} else {
-							dkimDomain = arguments.get(i);
-						}
-					}
-				} else if ("-dkimselector".equalsIgnoreCase(arguments.get(i))) {
-					if (dkimSelector != null) {
-						throw new ParameterException(arguments.get(i - 1), "Multiple value for parameter dkimselector");
-					} else {
-						i++;
-						if (i >= arguments.size()) {
-							throw new ParameterException(arguments.get(i - 1), "Missing value for parameter dkimselector");
-						} else {
-							dkimSelector = arguments.get(i);
-						}
-					}
-				} else if ("-dkimidentity".equalsIgnoreCase(arguments.get(i))) {
-					if (dkimIdentity != null) {
-						throw new ParameterException(arguments.get(i - 1), "Multiple value for parameter dkimidentity");
-					} else {
-						i++;
-						if (i >= arguments.size()) {
-							throw new ParameterException(arguments.get(i - 1), "Missing value for parameter dkimidentity");
-						} else {
-							dkimIdentity = arguments.get(i);
-						}
-					}
-				} else if ("-attachment".equalsIgnoreCase(arguments.get(i))) {
-					i++;
-					if (i >= arguments.size()) {
-						throw new ParameterException(arguments.get(i - 1), "Missing value for parameter attachment");
-					} else {
-						final String attachmentPath = arguments.get(i);
-						if (Utilities.isBlank(attachmentPath)) {
-							throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter attachment");
-						}
-						final File attachmentFile = new File(attachmentPath);
-						if (!attachmentFile.exists()) {
-							throw new ParameterException(arguments.get(i - 1), "Attachment file does not exist: " + attachmentPath);
-						}
-						final FileNameMap fileNameMap = URLConnection.getFileNameMap();
-						final String mimeType = fileNameMap.getContentTypeFor(attachmentFile.getName());
-						attachments.add(new MailAttachment(attachmentFile.getName(), FileUtilities.readFileToByteArray(attachmentFile), mimeType));
-					}
-				} else if ("-test".equalsIgnoreCase(arguments.get(i))) {
-					if (test) {
-						throw new ParameterException(arguments.get(i - 1), "Multiple parameter test");
-					} else {
-						test = true;
-					}
-				} else if ("-f".equalsIgnoreCase(arguments.get(i)) || "-force".equalsIgnoreCase(arguments.get(i))) {
-					if (force) {
-						throw new ParameterException(arguments.get(i - 1), "Multiple parameter force");
-					} else {
-						force = true;
-					}
-				} else if ("-silent".equalsIgnoreCase(arguments.get(i))) {
-					if (silent) {
-						throw new ParameterException(arguments.get(i - 1), "Multiple parameter silent");
-					} else {
-						silent = true;
-					}
-				} else if ("-verbose".equalsIgnoreCase(arguments.get(i))) {
-					if (verbose) {
-						throw new ParameterException(arguments.get(i - 1), "Multiple parameter verbose");
-					} else {
-						verbose = true;
-					}
-				} else if ("-eventstart".equalsIgnoreCase(arguments.get(i))) {
-					i++;
-					if (i >= arguments.size()) {
-						throw new ParameterException(arguments.get(i - 1), "Missing value for parameter eventstart");
-					} else {
-						final String eventStartString = arguments.get(i);
-						if (Utilities.isBlank(eventStartString)) {
-							throw new ParameterException(arguments.get(i - 1), "Invalid empty value for parameter eventstart");
-						} else {
-							try {
-								eventStart = ZonedDateTime.of(LocalDateTime.parse(eventStartString.trim(), DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")), ZoneId.systemDefault());
-							} catch (@SuppressWarnings("unused") final Exception e) {
-								throw new ParameterException(arguments.get(i - 1), "Invalid value format for parameter eventstart (yyyy-MM-dd HH:mm:ss): " + eventStartString);
-							}
-						}
-					}
-				} else if ("-eventend".equalsIgnoreCase(arguments.get(i))) {
-					i++;
-					if (i >= arguments.size()) {
-						throw new ParameterException(arguments.get(i - 1), "Missing value for parameter eventend");
-					} else {
-						final String eventEndString = arguments.get(i);
-						if (Utilities.isBlank(eventEndString)) {
-							throw new ParameterException(arguments.get(i - 1), "Invalid empty value for parameter eventend");
-						} else {
-							try {
-								eventEnd = ZonedDateTime.of(LocalDateTime.parse(eventEndString.trim(), DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")), ZoneId.systemDefault());
-							} catch (@SuppressWarnings("unused") final Exception e) {
-								throw new ParameterException(arguments.get(i - 1), "Invalid value format for parameter eventend (yyyy-MM-dd HH:mm:ss): " + eventEndString);
-							}
-						}
-					}
-				} else if ("-eventlocation".equalsIgnoreCase(arguments.get(i))) {
-					i++;
-					if (i >= arguments.size()) {
-						throw new ParameterException(arguments.get(i - 1), "Missing value for parameter eventlocation");
-					} else {
-						eventLocation = arguments.get(i);
-						if (Utilities.isBlank(eventLocation)) {
-							throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter eventlocation");
-						}
-					}
+			mailParameters.checkParameters();
+			SendMetrics.record(SendMetrics.Phase.PARAMETERS, parametersStart);
+
+			final long keyLoadingStart = SendMetrics.start();
+			mailParameters.loadCryptoKeys();
+			mailParameters.loadAttachments();
+			SendMetrics.record(SendMetrics.Phase.KEY_LOADING, keyLoadingStart);
+
+			ConsoleMailerTransport.setMessageEncryptor(mailParameters.getMessageEncryptor());
+			ConsoleMailerTransport.setDkimSigner(mailParameters.getDkimSigner());
+			ConsoleMailerTransport.setTlsParameters(mailParameters.getTlsProtocols(), mailParameters.getTlsCipherSuites());
+			try {
+				if (mailParameters.getListenAddress() != null) {
+					return runListener(mailParameters, out);
+				} else if (mailParameters.getSpoolDirectory() != null) {
+					return sendBySpool(mailParameters, out, err);
+				} else if (mailParameters.isDirect()) {
+					return sendDirect(mailParameters, out, err);
+				} else if (mailParameters.getBatchFile() != null) {
+					return sendBatch(mailParameters, out, err);
 				} else {
-					throw new ParameterException(arguments.get(i), "Invalid parameter");
+					return sendSingle(mailParameters, out, err);
 				}
+			} finally {
+				ConsoleMailerTransport.setMessageEncryptor(null);
+				ConsoleMailerTransport.setDkimSigner(null);
+				ConsoleMailerTransport.setTlsParameters(null, null);
+				mailParameters.releaseAttachments();
+			}
+		} catch (final ParameterException e) {
+			err.println(e.getMessage());
+			if (verbose) {
+				e.printStackTrace(err);
+			}
+			err.println();
+			err.println("For help information use parameter \"help\"");
+			return 1;
+		} catch (final Exception e) {
+			err.println(e.getMessage());
+			if (verbose) {
+				e.printStackTrace(err);
 			}
 
-			// Mandatory parameters
-			if (Utilities.isBlank(host)) {
-				throw new ParameterException("Missing parameter host");
-			} else if (Utilities.isNotBlank(user) && Utilities.isBlank(password)) {
-				throw new ParameterException("Missing parameter password, because parameter user is set");
-			} else if (fromAddress == null) {
-				throw new ParameterException("Missing parameter from-address");
-			} else if (subject == null) {
-				throw new ParameterException("Missing parameter subject");
-			} else if (toAddressList.size() == 0 && ccAddressList.size() == 0 && bccAddressList.size() == 0) {
-				throw new ParameterException("No email recipient (to/cc/bcc)");
-			} else {
-				// Default parameters
-				if (port == null) {
-					port = 25;
-				}
-				if (connectionSecurity == null) {
-					connectionSecurity = MailerConnectionSecurity.None;
-				}
-				if (charset == null) {
-					charset = StandardCharsets.UTF_8;
-				}
-
-				final Mailer mailer = new Mailer();
-				mailer.setSmtpMailRelayHostname(host);
-				mailer.setSmtpMailRelayPort(port);
-				mailer.setConnectionSecurity(connectionSecurity);
-				mailer.setSmtpUsername(user);
-				mailer.setSmtpPassword(password);
+			return 1;
+		}
+	}
 
-				final Email email = new Email(fromAddress, subject, charset);
-				for (final InternetAddress replyToAddress : replyToAddressList) {
-					email.addReplyToAddress(replyToAddress);
-				}
-				for (final InternetAddress toAddress : toAddressList) {
-					email.addToAddress(toAddress);
-				}
-				for (final InternetAddress ccAddress : ccAddressList) {
-					email.addCcAddress(ccAddress);
-				}
-				for (final InternetAddress bccAddress : bccAddressList) {
-					email.addBccAddress(bccAddress);
-				}
+	/**
+	 * Hand the call over to a running daemon
+	 *
+	 * @return return code of the daemon job or null if no daemon is running, so that the call is executed by this process
+	 */
+	private static Integer executeByDaemon(final File daemonSocketFile, final List<String> arguments) {
+		final MailerDaemonClient daemonClient;
+		try {
+			daemonClient = new MailerDaemonClient(daemonSocketFile);
+		} catch (@SuppressWarnings("unused") final IOException e) {
+			return null;
+		}
 
-				if (bounceAddress != null) {
-					email.setBounceAddress(bounceAddress);
-				}
-				if (notifyAddress != null) {
-					email.setNotificationAddress(notifyAddress);
-				}
+		try (MailerDaemonClient client = daemonClient) {
+			return client.execute(arguments, new File(System.getProperty("user.dir")), System.out, System.err);
+		} catch (final IOException e) {
+			System.err.println("Daemon job failed: " + e.getMessage());
+			return 1;
+		}
+	}
 
-				email.setBodyText(bodyText);
-				email.setBodyHtml(bodyHtml);
-				email.setAttachments(attachments);
+	/**
+	 * Keep this process running and execute the jobs of daemon clients, until the process is terminated
+	 */
+	private static int runDaemon(final File daemonSocketFile, final Supplier<ProxyConfiguration> proxyConfigurationProvider) {
+		try (MailerDaemon mailerDaemon = new MailerDaemon(daemonSocketFile, (jobArguments, workingDirectory, jobOut, jobErr) -> {
+			try {
+				return execute(jobArguments, workingDirectory, proxyConfigurationProvider, jobOut, jobErr);
+			} finally {
+				exportMetrics();
+			}
+		})) {
+			mailerDaemon.open();
+			Runtime.getRuntime().addShutdownHook(new Thread(mailerDaemon::close));
+			System.out.println(APPLICATION_NAME + " daemon is listening on socket " + daemonSocketFile.getAbsolutePath());
+			mailerDaemon.run();
+			return 0;
+		} catch (final IOException e) {
+			System.err.println(e.getMessage());
+			return 1;
+		}
+	}
 
-				if (dkimPrivateKey != null) {
-					if (dkimSelector == null) {
-						throw new ParameterException("Missing parameter dkimSelector");
-					}
-					if (dkimDomain == null) {
-						dkimDomain = MailUtilities.getDomainFromEmail(fromAddress.getAddress());
-					}
-					email.setDkimData(dkimDomain, dkimSelector, dkimPrivateKey, dkimIdentity);
-				}
+	/**
+	 * Receive emails of local applications by SMTP, sign and encrypt them as configured and relay them to the host by pooled connections, until the process is terminated
+	 */
+	private static int runListener(final MailParameters mailParameters, final PrintStream out) throws Exception {
+		if (mailParameters.isTest()) {
+			out.println("SMTP listener was NOT started due to test configuration");
+			return 0;
+		}
 
-				if (signatureKeyFile != null) {
-					email.setCryptoType(cryptoType);
-					if (cryptoType == CryptoType.PGP) {
-						final PGPSecretKey signaturePrivateKey;
-						try (InputStream signatureKeyFileInputStream = new FileInputStream(signatureKeyFile)) {
-							signaturePrivateKey = PGPUtilities.readPGPSecretKey(signatureKeyFileInputStream);
-						}
-						if (signaturePrivateKey == null) {
-							throw new ParameterException("Invalid PGP signature private key in file '" + signatureKeyFile.getAbsolutePath() + "'");
-						}
-						email.setPgpSecretKey(signaturePrivateKey);
-						if (signatureKeyPassword != null) {
-							email.setPgpSecretKeyPassword(signatureKeyPassword);
-						}
+		String localHostName;
+		try {
+			localHostName = InetAddress.getLocalHost().getHostName();
+		} catch (@SuppressWarnings("unused") final IOException e) {
+			localHostName = "localhost";
+		}
 
-						if (signatureMethodName != null) {
-							try {
-								PgpHashMethod.getByName(signatureMethodName);
-							} catch (@SuppressWarnings("unused") final Exception e) {
-								throw new ParameterException(signatureMethodName, "Invalid value for parameter signatureMethodName");
-							}
+		try (SmtpConnectionPool connectionPool = mailParameters.createConnectionPool();
+				MxDeliverySink mxDeliverySink = mailParameters.isDirect() ? mailParameters.createMxDeliverySink() : null) {
+			final SmtpRelayProcessor relayProcessor = new SmtpRelayProcessor(localHostName,
+					mailParameters.createMessageSigner(),
+					mailParameters.createMessageEncryptor(),
+					mailParameters.getDkimSigner(),
+					mxDeliverySink != null ? mxDeliverySink : new SmtpPoolSink(connectionPool, mailParameters.createSmtpRelay(), mailParameters.createConnectionSettings()));
+			try (SmtpListener smtpListener = new SmtpListener(mailParameters.getListenAddress(), relayProcessor, SmtpListener.DEFAULT_MAX_SESSIONS, SmtpListener.DEFAULT_MAX_MESSAGE_SIZE, mailParameters.getConnections())) {
+				smtpListener.open();
+				Runtime.getRuntime().addShutdownHook(new Thread(smtpListener::close));
+				if (!mailParameters.isSilent()) {
+					out.println(APPLICATION_NAME + " is listening for SMTP on " + mailParameters.getListenAddress().getAddress().getHostAddress() + ":" + smtpListener.getLocalPort());
+				}
+				smtpListener.run();
+			}
+		}
+		return 0;
+	}
 
-							email.setSignatureMethodName(signatureMethodName);
-						}
-					} else if (cryptoType == CryptoType.S_MIME) {
-						final PrivateKey signaturePrivateKey = CryptographicUtilities.getPrivateKeyFromString(FileUtilities.readFileToString(signatureKeyFile, StandardCharsets.UTF_8), signatureKeyPassword);
-						if (signaturePrivateKey == null) {
-							throw new ParameterException("Invalid S/MIME signature private key in file '" + signatureKeyFile.getAbsolutePath() + "'");
-						}
-						email.setSignaturePrivateKey(signaturePrivateKey);
-						if (signatureCertificateFile != null) {
-							final List<X509Certificate> signatureCertificates = CryptographicUtilities.getCertificatesFromString(FileUtilities.readFileToString(signatureCertificateFile, StandardCharsets.UTF_8));
-							if (signatureCertificates == null || signatureCertificates.size() != 1) {
-								throw new ParameterException("Invalid S/MIME signature certificate in file '" + signatureCertificateFile.getAbsolutePath() + "'");
-							}
-							email.setSignatureCertificate(signatureCertificates.get(0));
-						}
+	/**
+	 * Send the email defined by the parameters
+	 *
+	 * @return 0 if the email was sent
+	 */
+	private static int sendSingle(final MailParameters mailParameters, final PrintStream out, final PrintStream err) throws Exception {
+		final long mimeBuildStart = SendMetrics.start();
+		final Email email = mailParameters.createEmail(null);
+		checkEmail(email, mailParameters.isForce(), mailParameters.isSilent(), err);
+		SendMetrics.record(SendMetrics.Phase.MIME_BUILD, mimeBuildStart);
+
+		if (!mailParameters.isTest()) {
+			SendMetrics.markRenderStart();
+			MessageRenderEvent.beginRender();
+			mailParameters.createMailer().send(email);
+
+			if (!mailParameters.isSilent()) {
+				if (mailParameters.getSpoolDirectory() != null) {
+					out.println("Email was queued in spool");
+				} else {
+					out.println("Email was sent");
+				}
+			}
+		} else {
+			out.println("Email was NOT sent due to test configuration");
+		}
+		return 0;
+	}
 
-						if (signatureMethodName != null) {
-							if (Utilities.isBlank(CryptographicUtilities.checkSignatureMethodName(signatureMethodName))) {
-								throw new ParameterException(signatureMethodName, "Invalid value for parameter signatureMethodName");
-							}
+	/**
+	 * Deliver the email or the emails of the batch file directly to the mail exchangers of their recipient domains instead of the host
+	 *
+	 * @return 0 if all emails were sent
+	 */
+	private static int sendDirect(final MailParameters mailParameters, final PrintStream out, final PrintStream err) throws Exception {
+		try (MxDeliverySink mxDeliverySink = mailParameters.createMxDeliverySink()) {
+			ConsoleMailerTransport.setMessageSink(mxDeliverySink);
+			try {
+				if (mailParameters.getBatchFile() != null) {
+					return sendBatch(mailParameters, out, err);
+				} else {
+					return sendSingle(mailParameters, out, err);
+				}
+			} finally {
+				ConsoleMailerTransport.setMessageSink(null);
+			}
+		}
+	}
 
-							email.setSignatureMethodName(signatureMethodName);
-						}
+	/**
+	 * Queue the rendered emails in the spool directory and deliver all emails of the spool afterwards.<br />
+	 * Emails, which cannot be delivered yet, stay in the spool for the next run (or until the spool wait time is over), so no email is lost if the SMTP relay is down.
+	 *
+	 * @return 0 if all emails were queued and no email was moved to the dead letter directory
+	 */
+	private static int sendBySpool(final MailParameters mailParameters, final PrintStream out, final PrintStream err) throws Exception {
+		try (SpoolQueue spoolQueue = new SpoolQueue(mailParameters.getSpoolDirectory())) {
+			int returnCode = 0;
+			if (!mailParameters.isSpoolDrainOnly()) {
+				ConsoleMailerTransport.setMessageSink(spoolQueue);
+				try {
+					if (mailParameters.getBatchFile() != null) {
+						returnCode = sendBatch(mailParameters, out, err);
 					} else {
-						throw new ParameterException("Missing parameter crypto");
+						returnCode = sendSingle(mailParameters, out, err);
 					}
+				} finally {
+					ConsoleMailerTransport.setMessageSink(null);
 				}
+			}
 
-				if (encryptionCertificateFile != null) {
-					email.setCryptoType(cryptoType);
-					if (cryptoType == CryptoType.PGP) {
-						final PGPPublicKey encryptionPublicKey;
-						try (InputStream encryptionCertificateFileInputStream = new FileInputStream(encryptionCertificateFile)) {
-							encryptionPublicKey = PGPUtilities.readPGPPublicKey(encryptionCertificateFileInputStream);
-						}
-						if (encryptionPublicKey == null) {
-							throw new ParameterException("Invalid PGP encryption public key in file '" + encryptionCertificateFile.getAbsolutePath() + "'");
-						}
-						email.setPgpPublicKey(encryptionPublicKey);
-						if (encryptionMethodName != null) {
-							try {
-								PgpSymmetricEncryptionMethod.getByName(encryptionMethodName);
-							} catch (@SuppressWarnings("unused") final Exception e) {
-								throw new ParameterException("-encryptionMethodName", "Invalid value for parameter encryptionMethodName with PGP");
-							}
-							email.setEncryptionMethodName(encryptionMethodName);
-						}
-					} else if (cryptoType == CryptoType.S_MIME) {
-						final List<X509Certificate> encryptionCertificates = CryptographicUtilities.getCertificatesFromString(FileUtilities.readFileToString(encryptionCertificateFile, StandardCharsets.UTF_8));
-						if (encryptionCertificates == null || encryptionCertificates.size() != 1) {
-							throw new ParameterException("Invalid S/MIME encryption certificate in file '" + encryptionCertificateFile.getAbsolutePath() + "'");
-						}
-						email.setEncryptionCertificate(encryptionCertificates.get(0));
-						if (encryptionMethodName != null) {
-							if (Utilities.isBlank(CryptographicUtilities.checkEncryptionMethodName(encryptionMethodName))) {
-								throw new ParameterException("-encryptionMethodName", "Invalid value for parameter encryptionMethodName with S/MIME");
-							}
-							email.setEncryptionMethodName(encryptionMethodName);
-						}
+			if (!mailParameters.isTest()) {
+				try (SmtpConnectionPool connectionPool = mailParameters.createConnectionPool();
+						MxDeliverySink mxDeliverySink = mailParameters.isDirect() ? mailParameters.createMxDeliverySink() : null) {
+					final SpoolWorker spoolWorker;
+					if (mxDeliverySink != null) {
+						spoolWorker = new SpoolWorker(spoolQueue, mxDeliverySink, mailParameters.getConnections());
 					} else {
-						throw new ParameterException("Missing parameter crypto");
+						spoolWorker = new SpoolWorker(spoolQueue, connectionPool, mailParameters.createSmtpRelay(), mailParameters.createConnectionSettings(), mailParameters.getConnections());
+					}
+					spoolWorker.drain(mailParameters.getSpoolWaitSeconds() * 1000L);
+					final int deferredCount = spoolQueue.getEntries().size();
+					if (!mailParameters.isSilent() || spoolWorker.getDeadLetterCount() > 0) {
+						out.println("Spool finished: " + spoolWorker.getDeliveredCount() + " emails delivered, " + deferredCount + " deferred, " + spoolWorker.getDeadLetterCount() + " dead-lettered");
+					}
+					if (spoolWorker.getDeadLetterCount() > 0) {
+						err.println("Undeliverable emails were moved to " + spoolQueue.getDeadLetterDirectory().getAbsolutePath());
+						returnCode = 1;
 					}
 				}
+			}
+			return returnCode;
+		}
+	}
 
-				if (eventStart != null) {
-					email.addEventInvitation(DateUtilities.createICalEventInvitation(
-							subject,
-							null,
-							eventStart,
-							eventEnd,
-							eventLocation,
-							fromAddress,
-							toAddressList));
+	/**
+	 * Check the email data. Errors are only printed as warnings, if parameter "force" is set.
+	 */
+	private static void checkEmail(final Email email, final boolean force, final boolean silent, final PrintStream err) throws Exception {
+		final List<String> errors = email.checkValidData();
+		if (errors.size() > 0) {
+			if (force) {
+				if (!silent) {
+					final StringBuilder warningText = new StringBuilder("Warning: \n");
+					for (final String error : errors) {
+						warningText.append("\t- ").append(error).append("\n");
+					}
+					err.println(warningText);
+				}
+			} else {
+				final StringBuilder errorText = new StringBuilder("There were errors (use parameter '-force' to send anyway): \n");
+				for (final String error : errors) {
+					errorText.append("\t- ").append(error).append("\n");
 				}
+				throw new Exception(errorText.toString());
+			}
+		}
+	}
 
-				final List<String> errors = email.checkValidData();
-				if (errors.size() > 0) {
-					if (force) {
-						if (!silent) {
-							final StringBuilder warningText = new StringBuilder("Warning: \n");
-							for (final String error : errors) {
-								warningText.append("\t- ").append(error).append("\n");
+	/**
+	 * Send one email per row of the batch file with the same parsed parameters, keys and certificates.<br />
+	 * The SMTP connections are pooled, so that the connection, TLS handshake and authentication are reused by the following emails.<br />
+	 * Up to the configured number of connections the emails are sent concurrently. The results are kept in the order of the batch file.<br />
+	 * Attachment files, which are sent with multiple emails, are encoded only once.<br />
+	 * S/MIME or PGP signed or encrypted emails are rendered on all processor cores by the render pipeline, which feeds the sending connections.
+	 *
+	 * @return 0 if all emails were sent, 1 if any email failed
+	 */
+	private static int sendBatch(final MailParameters mailParameters, final PrintStream out, final PrintStream err) throws Exception {
+		final List<SendResult> sendResults = new ArrayList<>();
+		// Sink of the caller (spool queue or direct MX delivery), which takes the rendered emails instead of the relay
+		final SmtpMessageSink callerSink = ConsoleMailerTransport.getMessageSink();
+		try (SmtpConnectionPool connectionPool = mailParameters.createConnectionPool();
+				MimePartCache mimePartCache = new MimePartCache();
+				BatchFileReader batchFileReader = new BatchFileReader(mailParameters.getBatchFile(), mailParameters.getCharset())) {
+			ConsoleMailerTransport.setConnectionPool(connectionPool);
+			ConsoleMailerTransport.setMimePartCache(mimePartCache);
+			if (mailParameters.isContentSignedOrEncrypted() && !mailParameters.isTest()) {
+				final SmtpMessageSink downstreamSink = callerSink != null ? callerSink : new SmtpPoolSink(connectionPool, mailParameters.createSmtpRelay(), mailParameters.createConnectionSettings());
+				try (RenderPipeline renderPipeline = new RenderPipeline(Runtime.getRuntime().availableProcessors(), mailParameters.getConnections(), downstreamSink, sendResults::add)) {
+					ConsoleMailerTransport.setMessageSink(renderPipeline);
+					BatchEntry nextBatchEntry;
+					while ((nextBatchEntry = batchFileReader.readNextEntry()) != null) {
+						final BatchEntry batchEntry = nextBatchEntry;
+						renderPipeline.submit(batchEntry.getRowNumber(), batchEntry.getValue(BatchEntry.TO), () -> sendBatchEntry(batchEntry, mailParameters, err));
+					}
+					renderPipeline.finish();
+				} finally {
+					ConsoleMailerTransport.setMessageSink(callerSink);
+				}
+			} else {
+				try (SendEngine<SendResult> sendEngine = new SendEngine<>(mailParameters.getConnections(), sendResults::add)) {
+					BatchEntry nextBatchEntry;
+					while ((nextBatchEntry = batchFileReader.readNextEntry()) != null) {
+						final BatchEntry batchEntry = nextBatchEntry;
+						sendEngine.submit(() -> {
+							try {
+								sendBatchEntry(batchEntry, mailParameters, err);
+								return new SendResult(batchEntry.getRowNumber(), batchEntry.getValue(BatchEntry.TO), null);
+							} catch (final Exception e) {
+								return new SendResult(batchEntry.getRowNumber(), batchEntry.getValue(BatchEntry.TO), e);
 							}
-							System.err.println(warningText);
-						}
-					} else {
-						final StringBuilder errorText = new StringBuilder("There were errors (use parameter '-force' to send anyway): \n");
-						for (final String error : errors) {
-							errorText.append("\t- ").append(error).append("\n");
-						}
-						throw new Exception(errorText.toString());
+						});
 					}
+					sendEngine.finish();
 				}
+			}
+		} catch (final BatchFileException e) {
+			printBatchSummary(sendResults, mailParameters, out, err);
+			throw new Exception("Batch file is invalid: " + e.getMessage(), e);
+		} finally {
+			ConsoleMailerTransport.setConnectionPool(null);
+			ConsoleMailerTransport.setMimePartCache(null);
+		}
+		return printBatchSummary(sendResults, mailParameters, out, err);
+	}
 
-				if (!test) {
-					mailer.send(email);
+	/**
+	 * Create, check and send the email of one batch file row
+	 */
+	private static void sendBatchEntry(final BatchEntry batchEntry, final MailParameters mailParameters, final PrintStream err) throws Exception {
+		final long mimeBuildStart = SendMetrics.start();
+		final Email email = mailParameters.createEmail(batchEntry);
+		checkEmail(email, mailParameters.isForce(), mailParameters.isSilent(), err);
+		SendMetrics.record(SendMetrics.Phase.MIME_BUILD, mimeBuildStart);
+		if (!mailParameters.isTest()) {
+			SendMetrics.markRenderStart();
+			MessageRenderEvent.beginRender();
+			mailParameters.createMailer().send(email);
+		}
+	}
 
-					if (!silent) {
-						System.out.println("Email was sent");
-					}
-				} else {
-					System.out.println("Email was NOT sent due to test configuration");
+	/**
+	 * Print the result of each row of a batch and the overall summary
+	 *
+	 * @return 0 if all emails were sent, 1 if any email failed
+	 */
+	private static int printBatchSummary(final List<SendResult> sendResults, final MailParameters mailParameters, final PrintStream out, final PrintStream err) {
+		int failedCount = 0;
+		for (final SendResult sendResult : sendResults) {
+			if (sendResult.isSuccessful()) {
+				if (!mailParameters.isSilent()) {
+					out.println(sendResult.toString());
+				}
+			} else {
+				failedCount++;
+				err.println(sendResult.toString());
+				if (mailParameters.isVerbose()) {
+					sendResult.getError().printStackTrace(err);
 				}
-				return 0;
-			}
-		} catch (final ParameterException e) {
-			System.err.println(e.getMessage());
-			if (verbose) {
-				e.printStackTrace();
 			}
-			System.err.println();
-			System.err.println("For help information use parameter \"help\"");
-			return 1;
-		} catch (final Exception e) {
-			System.err.println(e.getMessage());
-			if (verbose) {
-				e.printStackTrace();
+		}
+		if (!mailParameters.isSilent() || failedCount > 0) {
+			final String successText;
+			if (mailParameters.isTest()) {
+				successText = "checked (NOT sent due to test configuration)";
+			} else if (mailParameters.getSpoolDirectory() != null) {
+				successText = "queued in spool";
+			} else {
+				successText = "sent";
 			}
-
-			return 1;
+			out.println("Batch finished: " + sendResults.size() + " emails, " + (sendResults.size() - failedCount) + " " + successText + ", " + failedCount + " failed");
+		}
+		if (mailParameters.isVerbose() && SmtpTlsContexts.getFullHandshakes() + SmtpTlsContexts.getResumedHandshakes() > 0) {
+			out.println("TLS handshakes: " + SmtpTlsContexts.getFullHandshakes() + " full, " + SmtpTlsContexts.getResumedHandshakes() + " resumed");
 		}
+		return failedCount == 0 ? 0 : 1;
 	}
 
 	/**
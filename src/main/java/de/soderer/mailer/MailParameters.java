@@ -0,0 +1,1554 @@
+package de.soderer.mailer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.FileNameMap;
+import java.net.URLConnection;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.bouncycastle.openpgp.PGPSecretKey;
+
+import de.soderer.mailer.crypto.CryptoKeyCache;
+import de.soderer.mailer.crypto.MessageEncryptor;
+import de.soderer.mailer.crypto.MessageSigner;
+import de.soderer.mailer.crypto.PgpMessageEncryptor;
+import de.soderer.mailer.crypto.PgpMessageSigner;
+import de.soderer.mailer.crypto.SmimeMessageEncryptor;
+import de.soderer.mailer.crypto.SmimeMessageSigner;
+import de.soderer.mailer.dkim.DkimSigner;
+import de.soderer.mailer.mime.FileAttachments;
+import de.soderer.mailer.mx.CachingMxResolver;
+import de.soderer.mailer.mx.DnsMxResolver;
+import de.soderer.mailer.mx.MxDeliverySink;
+import de.soderer.mailer.mx.MxResolver;
+import de.soderer.mailer.mx.StaticMxResolver;
+import de.soderer.mailer.smtp.SmtpConnectionPool;
+import de.soderer.mailer.smtp.SmtpConnectionSettings;
+import de.soderer.mailer.smtp.SmtpRelay;
+import de.soderer.utilities.DateUtilities;
+import de.soderer.utilities.FileUtilities;
+import de.soderer.utilities.ParameterException;
+import de.soderer.utilities.Utilities;
+import de.soderer.utilities.crypto.CryptographicUtilities;
+import de.soderer.utilities.crypto.PGPUtilities;
+import de.soderer.utilities.crypto.PGPUtilities.PgpHashMethod;
+import de.soderer.utilities.crypto.PGPUtilities.PgpSymmetricEncryptionMethod;
+import de.soderer.utilities.mail.CryptoType;
+import de.soderer.utilities.mail.Email;
+import de.soderer.utilities.mail.MailAttachment;
+import de.soderer.utilities.mail.MailUtilities;
+import de.soderer.utilities.mail.Mailer;
+import de.soderer.utilities.mail.MailerConnectionSecurity;
+import jakarta.mail.internet.InternetAddress;
+
+/**
+ * All parameters of a ConsoleMailer call.<br />
+ * The parameters are parsed and checked only once, so that multiple emails (e.g. in batch mode) can be created from them.
+ */
+public class MailParameters {
+	/** Parsed keys and certificates, which are shared by all parameter sets of this process */
+	private static final CryptoKeyCache CRYPTO_KEY_CACHE = new CryptoKeyCache();
+
+	private String host = null;
+	private Integer port = null;
+	private String user = null;
+	private char[] password = null;
+	private MailerConnectionSecurity connectionSecurity = null;
+
+	private InternetAddress fromAddress = null;
+	private String subject = null;
+	private Charset charset = null;
+	private final List<InternetAddress> replyToAddressList = new ArrayList<>();
+	private final List<InternetAddress> toAddressList = new ArrayList<>();
+	private final List<InternetAddress> ccAddressList = new ArrayList<>();
+	private final List<InternetAddress> bccAddressList = new ArrayList<>();
+	private InternetAddress bounceAddress = null;
+	private InternetAddress notifyAddress = null;
+	private String bodyText = null;
+	private String bodyHtml = null;
+	private MailTemplate subjectTemplate = null;
+	private MailTemplate bodyTextTemplate = null;
+	private MailTemplate bodyHtmlTemplate = null;
+	private CryptoType cryptoType = null;
+	private File signatureKeyFile = null;
+	private char[] signatureKeyPassword = null;
+	private File signatureCertificateFile = null;
+	private String signatureMethodName = null;
+	private File encryptionCertificateFile = null;
+	private String encryptionMethodName = null;
+	private final List<File> attachmentFiles = new ArrayList<>();
+	private final List<MailAttachment> attachments = new ArrayList<>();
+	private final List<PrivateKey> dkimPrivateKeys = new ArrayList<>();
+	private String dkimDomain = null;
+	private final List<String> dkimSelectors = new ArrayList<>();
+	private String dkimIdentity = null;
+	private DkimSigner dkimSigner = null;
+	private File batchFile = null;
+	private Integer maxMessagesPerConnection = null;
+	private Integer maxIdleSeconds = null;
+	private Integer connections = null;
+	private Integer connectTimeoutSeconds = null;
+	private Integer readTimeoutSeconds = null;
+	private String[] tlsProtocols = null;
+	private String[] tlsCipherSuites = null;
+	private boolean direct = false;
+	private File mxHostsFile = null;
+	private Integer mxConnections = null;
+	private boolean mxStrictTls = false;
+	private File spoolDirectory = null;
+	private Integer spoolWaitSeconds = null;
+	private InetSocketAddress listenAddress = null;
+	private boolean listenRemote = false;
+	private boolean test = false;
+	private boolean force = false;
+	private boolean silent = false;
+	private boolean verbose = false;
+	private ZonedDateTime eventStart = null;
+	private ZonedDateTime eventEnd = null;
+	private String eventLocation = null;
+
+	private PGPSecretKey pgpSignatureSecretKey = null;
+	private PrivateKey signaturePrivateKey = null;
+	private X509Certificate signatureCertificate = null;
+	private PGPPublicKey pgpEncryptionPublicKey = null;
+	private X509Certificate encryptionCertificate = null;
+	private MessageEncryptor messageEncryptor = null;
+
+	/** Directory for relative file paths or null for the current directory of this process */
+	private File workingDirectory = null;
+
+	/**
+	 * Set the directory for relative file paths of the following parameters (e.g. the current directory of a daemon client)
+	 */
+	public void setWorkingDirectory(final File workingDirectory) {
+		this.workingDirectory = workingDirectory;
+	}
+
+	/**
+	 * Resolve a file path parameter, which is relative to the working directory, if it is not absolute
+	 *
+	 * @param workingDirectory directory for relative file paths or null for the current directory of this process
+	 */
+	public static File resolveFile(final File workingDirectory, final String filePath) {
+		final File file = new File(filePath);
+		if (workingDirectory == null || file.isAbsolute()) {
+			return file;
+		} else {
+			return new File(workingDirectory, filePath);
+		}
+	}
+
+	/**
+	 * Read the parameters
+	 *
+	 * @param arguments commandline arguments including the arguments of all configfiles
+	 */
+	public void parseArguments(final List<String> arguments) throws Exception {
+		for (int i = 0; i < arguments.size(); i++) {
+			if (Utilities.isBlank(arguments.get(i))) {
+				throw new ParameterException(arguments.get(i), "Invalid parameter");
+			} else if ("-cfg".equalsIgnoreCase(arguments.get(i)) || "-config".equalsIgnoreCase(arguments.get(i))) {
+				// Configfiles have already been processed
+				i++;
+			} else if ("-h".equalsIgnoreCase(arguments.get(i)) || "-host".equalsIgnoreCase(arguments.get(i))) {
+				if (host != null) {
+					throw new ParameterException(arguments.get(i - 1), "Multiple parameter host");
+				} else {
+					i++;
+					if (i >= arguments.size()) {
+						throw new ParameterException(arguments.get(i - 1), "Missing value for parameter host");
+					} else {
+						host = arguments.get(i);
+						if (host.contains(":")) {
+							if (port != null) {
+								throw new ParameterException(arguments.get(i - 1), "Multiple parameter port");
+							} else {
+								try {
+									port = Integer.parseInt(host.substring(host.indexOf(":") + 1));
+								} catch (@SuppressWarnings("unused") final NumberFormatException e) {
+									throw new ParameterException("Invalid value for parameter port");
+								}
+								host = host.substring(0, host.indexOf(":"));
+							}
+						}
+					}
+				}
+			} else if ("-port".equalsIgnoreCase(arguments.get(i))) {
+				if (port != null) {
+					throw new ParameterException(arguments.get(i - 1), "Multiple parameter port");
+				} else {
+					i++;
+					if (i >= arguments.size()) {
+						throw new ParameterException(arguments.get(i - 1), "Missing value for parameter port");
+					} else {
+						try {
+							port = Integer.parseInt(arguments.get(i));
+						} catch (@SuppressWarnings("unused") final NumberFormatException e) {
+							throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter port");
+						}
+					}
+				}
+			} else if ("-starttls".equalsIgnoreCase(arguments.get(i))) {
+				if (connectionSecurity != null) {
+					throw new ParameterException(arguments.get(i - 1), "Multiple parameter connectionSecurity");
+				} else {
+					connectionSecurity = MailerConnectionSecurity.STARTTLS;
+				}
+			} else if ("-ssl".equalsIgnoreCase(arguments.get(i)) || "-tls".equalsIgnoreCase(arguments.get(i)) || "-ssltls".equalsIgnoreCase(arguments.get(i).replace("_", ""))) {
+				if (connectionSecurity != null) {
+					throw new ParameterException(arguments.get(i - 1), "Multiple parameter connectionSecurity");
+				} else {
+					connectionSecurity = MailerConnectionSecurity.SSL_TLS;
+				}
+			} else if ("-u".equalsIgnoreCase(arguments.get(i)) || "-user".equalsIgnoreCase(arguments.get(i))) {
+				if (user != null) {
+					throw new ParameterException(arguments.get(i - 1), "Multiple parameter user");
+				} else {
+					i++;
+					if (i >= arguments.size()) {
+						throw new ParameterException(arguments.get(i - 1), "Missing value for parameter user");
+					} else {
+						user = arguments.get(i);
+					}
+				}
+			} else if ("-p".equalsIgnoreCase(arguments.get(i)) || "-password".equalsIgnoreCase(arguments.get(i))) {
+				if (password != null) {
+					throw new ParameterException(arguments.get(i - 1), "Multiple parameter password");
+				} else {
+					i++;
+					if (i >= arguments.size()) {
+						throw new ParameterException(arguments.get(i - 1), "Missing value for parameter password");
+					} else {
+						password = arguments.get(i).toCharArray();
+					}
+				}
+			} else if ("-from".equalsIgnoreCase(arguments.get(i))) {
+				if (fromAddress != null) {
+					throw new ParameterException(arguments.get(i - 1), "Multiple parameter from-address");
+				} else {
+					i++;
+					if (i >= arguments.size()) {
+						throw new ParameterException(arguments.get(i - 1), "Missing value for parameter from-address");
+					} else {
+						final InternetAddress[] fromAddresses = MailUtilities.getEmailAddressesFromList(arguments.get(i));
+						if (fromAddresses.length != 1) {
+							throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter from-address");
+						} else {
+							fromAddress = fromAddresses[0];
+						}
+					}
+				}
+			} else if ("-s".equalsIgnoreCase(arguments.get(i)) || "-subject".equalsIgnoreCase(arguments.get(i))) {
+				if (subject != null) {
+					throw new ParameterException(arguments.get(i - 1), "Multiple parameter subject");
+				} else {
+					i++;
+					if (i >= arguments.size()) {
+						throw new ParameterException(arguments.get(i - 1), "Missing value for parameter subject");
+					} else {
+						if (Utilities.isBlank(arguments.get(i))) {
+							throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter subject");
+						} else {
+							subject = arguments.get(i);
+						}
+					}
+				}
+			} else if ("-c".equalsIgnoreCase(arguments.get(i)) || "-charset".equalsIgnoreCase(arguments.get(i))) {
+				if (charset != null) {
+					throw new ParameterException(arguments.get(i - 1), "Multiple parameter charset");
+				} else {
+					i++;
+					if (i >= arguments.size()) {
+						throw new ParameterException(arguments.get(i - 1), "Missing value for parameter charset");
+					} else {
+						if (Utilities.isBlank(arguments.get(i))) {
+							throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter charset");
+						} else {
+							try {
+								charset = Charset.forName(arguments.get(i));
+							} catch (@SuppressWarnings("unused") final Exception e) {
+								throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter charset");
+							}
+						}
+					}
+				}
+			} else if ("-replyto".equalsIgnoreCase(arguments.get(i))) {
+				i++;
+				if (i >= arguments.size()) {
+					throw new ParameterException(arguments.get(i - 1), "Missing value for parameter replyTo-address");
+				} else {
+					InternetAddress[] replyToAddresses;
+					try {
+						replyToAddresses = MailUtilities.getEmailAddressesFromList(arguments.get(i));
+					} catch (@SuppressWarnings("unused") final Exception e) {
+						throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter replyTo-address");
+					}
+					if (replyToAddresses.length == 0) {
+						throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter replyTo-address");
+					} else {
+						for (final InternetAddress replyToAddress : replyToAddresses) {
+							replyToAddressList.add(replyToAddress);
+						}
+					}
+				}
+			} else if ("-to".equalsIgnoreCase(arguments.get(i))) {
+				i++;
+				if (i >= arguments.size()) {
+					throw new ParameterException(arguments.get(i - 1), "Missing value for parameter to-address");
+				} else {
+					InternetAddress[] toAddresses;
+					try {
+						toAddresses = MailUtilities.getEmailAddressesFromList(arguments.get(i));
+					} catch (@SuppressWarnings("unused") final Exception e) {
+						throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter to-address");
+					}
+					if (toAddresses.length == 0) {
+						throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter to-address");
+					} else {
+						for (final InternetAddress toAddress : toAddresses) {
+							toAddressList.add(toAddress);
+						}
+					}
+				}
+			} else if ("-cc".equalsIgnoreCase(arguments.get(i))) {
+				i++;
+				if (i >= arguments.size()) {
+					throw new ParameterException(arguments.get(i - 1), "Missing value for parameter cc-address");
+				} else {
+					InternetAddress[] ccAddresses;
+					try {
+						ccAddresses = MailUtilities.getEmailAddressesFromList(arguments.get(i));
+					} catch (@SuppressWarnings("unused") final Exception e) {
+						throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter cc-address");
+					}
+					if (ccAddresses.length == 0) {
+						throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter cc-address");
+					} else {
+						for (final InternetAddress ccAddress : ccAddresses) {
+							ccAddressList.add(ccAddress);
+						}
+					}
+				}
+			} else if ("-bcc".equalsIgnoreCase(arguments.get(i))) {
+				i++;
+				if (i >= arguments.size()) {
+					throw new ParameterException(arguments.get(i - 1), "Missing value for parameter bcc-address");
+				} else {
+					InternetAddress[] bccAddresses;
+					try {
+						bccAddresses = MailUtilities.getEmailAddressesFromList(arguments.get(i));
+					} catch (@SuppressWarnings("unused") final Exception e) {
+						throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter bcc-address");
+					}
+					if (bccAddresses.length == 0) {
+						throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter bcc-address");
+					} else {
+						for (final InternetAddress bccAddress : bccAddresses) {
+							bccAddressList.add(bccAddress);
+						}
+					}
+				}
+			} else if ("-bounce".equalsIgnoreCase(arguments.get(i))) {
+				if (bounceAddress != null) {
+					throw new ParameterException(arguments.get(i - 1), "Multiple value for parameter bounce");
+				} else {
+					i++;
+					if (i >= arguments.size()) {
+						throw new ParameterException(arguments.get(i - 1), "Missing value for parameter bounce");
+					} else {
+						try {
+							bounceAddress = MailUtilities.getEmailAddressesFromList(arguments.get(i))[0];
+						} catch (@SuppressWarnings("unused") final Exception e) {
+							throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter bounce");
+						}
+					}
+				}
+			} else if ("-notify".equalsIgnoreCase(arguments.get(i))) {
+				if (notifyAddress != null) {
+					throw new ParameterException(arguments.get(i - 1), "Multiple value for parameter notify");
+				} else {
+					i++;
+					if (i >= arguments.size()) {
+						throw new ParameterException(arguments.get(i - 1), "Missing value for parameter notify");
+					} else {
+						try {
+							notifyAddress = MailUtilities.getEmailAddressesFromList(arguments.get(i))[0];
+						} catch (@SuppressWarnings("unused") final Exception e) {
+							throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter notify");
+						}
+					}
+				}
+			} else if ("-text".equalsIgnoreCase(arguments.get(i))) {
+				if (bodyText != null) {
+					throw new ParameterException(arguments.get(i - 1), "Multiple value for parameter text");
+				} else {
+					i++;
+					if (i >= arguments.size()) {
+						throw new ParameterException(arguments.get(i - 1), "Missing value for parameter text");
+					} else {
+						bodyText = arguments.get(i);
+					}
+				}
+			} else if ("-textfile".equalsIgnoreCase(arguments.get(i))) {
+				if (bodyText != null) {
+					throw new ParameterException(arguments.get(i - 1), "Multiple value for parameter text");
+				} else {
+					i++;
+					if (i >= arguments.size()) {
+						throw new ParameterException(arguments.get(i - 1), "Missing value for parameter text-file");
+					} else {
+						final String textFilePath = arguments.get(i);
+						if (Utilities.isBlank(textFilePath)) {
+							throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter text-file");
+						}
+						final File textFile = resolveFile(workingDirectory, textFilePath);
+						if (!textFile.exists()) {
+							throw new ParameterException(arguments.get(i - 1), "Text file does not exist: " + textFilePath);
+						}
+						bodyText = FileUtilities.readFileToString(textFile, charset == null ? StandardCharsets.UTF_8 : charset);
+					}
+				}
+			} else if ("-html".equalsIgnoreCase(arguments.get(i))) {
+				if (bodyHtml != null) {
+					throw new ParameterException(arguments.get(i - 1), "Multiple value for parameter html");
+				} else {
+					i++;
+					if (i >= arguments.size()) {
+						throw new ParameterException(arguments.get(i - 1), "Missing value for parameter html");
+					} else {
+						bodyHtml = arguments.get(i);
+					}
+				}
+			} else if ("-htmlfile".equalsIgnoreCase(arguments.get(i))) {
+				if (bodyHtml != null) {
+					throw new ParameterException(arguments.get(i - 1), "Multiple value for parameter html");
+				} else {
+					i++;
+					if (i >= arguments.size()) {
+						throw new ParameterException(arguments.get(i - 1), "Missing value for parameter html-file");
+					} else {
+						final String htmlFilePath = arguments.get(i);
+						if (Utilities.isBlank(htmlFilePath)) {
+							throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter html-file");
+						}
+						final File htmlFile = resolveFile(workingDirectory, htmlFilePath);
+						if (!htmlFile.exists()) {
+							throw new ParameterException(arguments.get(i - 1), "Html file does not exist: " + htmlFilePath);
+						}
+						bodyHtml = FileUtilities.readFileToString(htmlFile, charset == null ? StandardCharsets.UTF_8 : charset);
+					}
+				}
+			} else if ("-crypto".equalsIgnoreCase(arguments.get(i)) || "-cryptotype".equalsIgnoreCase(arguments.get(i))) {
+				if (cryptoType != null) {
+					throw new ParameterException(arguments.get(i - 1), "Multiple value for parameter crypto");
+				} else {
+					i++;
+					if (i >= arguments.size()) {
+						throw new ParameterException(arguments.get(i - 1), "Missing value for parameter crypto");
+					} else {
+						final String cryptoTypeString = arguments.get(i);
+						if (Utilities.isBlank(cryptoTypeString)) {
+							throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter crypto");
+						}
+						if ("smime".equalsIgnoreCase(cryptoTypeString.replace("/", "").replace("_", "").replace(" ", ""))) {
+							cryptoType = CryptoType.S_MIME;
+						} else if ("pgp".equalsIgnoreCase(cryptoTypeString.replace("/", "").replace("_", "").replace(" ", "")) || "gpg".equalsIgnoreCase(cryptoTypeString.replace("/", "").replace("_", "").replace(" ", ""))) {
+							cryptoType = CryptoType.PGP;
+						} else {
+							throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter crypto");
+						}
+					}
+				}
+			} else if ("-signaturekeyfile".equalsIgnoreCase(arguments.get(i))) {
+				if (signatureKeyFile != null) {
+					throw new ParameterException(arguments.get(i - 1), "Multiple value for parameter signatureKeyfile");
+				} else {
+					i++;
+					if (i >= arguments.size()) {
+						throw new ParameterException(arguments.get(i - 1), "Missing value for parameter signatureKeyfile");
+					} else {
+						final String signatureKeyfilePath = arguments.get(i);
+						if (Utilities.isBlank(signatureKeyfilePath)) {
+							throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter signatureKeyfile");
+						}
+						signatureKeyFile = resolveFile(workingDirectory, signatureKeyfilePath);
+						if (!signatureKeyFile.exists()) {
+							throw new ParameterException(arguments.get(i - 1), "signatureKeyfile does not exist: " + signatureKeyfilePath);
+						}
+					}
+				}
+			} else if ("-signaturekeypassword".equalsIgnoreCase(arguments.get(i))) {
+				if (signatureKeyPassword != null) {
+					throw new ParameterException(arguments.get(i - 1), "Multiple parameter signatureKeypassword");
+				} else {
+					i++;
+					if (i >= arguments.size()) {
+						throw new ParameterException(arguments.get(i - 1), "Missing value for parameter signatureKeypassword");
+					} else {
+						signatureKeyPassword = arguments.get(i).toCharArray();
+					}
+				}
+			} else if ("-signaturecertificatefile".equalsIgnoreCase(arguments.get(i))) {
+				if (signatureCertificateFile != null) {
+					throw new ParameterException(arguments.get(i - 1), "Multiple value for parameter signatureCertificateFile");
+				} else {
+					i++;
+					if (i >= arguments.size()) {
+						throw new ParameterException(arguments.get(i - 1), "Missing value for parameter signatureCertificateFile");
+					} else {
+						final String signatureCertificateFilePath = arguments.get(i);
+						if (Utilities.isBlank(signatureCertificateFilePath)) {
+							throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter signaturecertificatefile");
+						}
+						signatureCertificateFile = resolveFile(workingDirectory, signatureCertificateFilePath);
+						if (!signatureCertificateFile.exists()) {
+							throw new ParameterException(arguments.get(i - 1), "signatureCertificateFile does not exist: " + signatureCertificateFilePath);
+						}
+					}
+				}
+			} else if ("-signaturemethodname".equalsIgnoreCase(arguments.get(i))) {
+				if (signatureMethodName != null) {
+					throw new ParameterException(arguments.get(i - 1), "Multiple value for parameter signatureMethodName");
+				} else {
+					i++;
+					if (i >= arguments.size()) {
+						throw new ParameterException(arguments.get(i - 1), "Missing value for parameter signatureMethodName");
+					} else {
+						signatureMethodName = arguments.get(i);
+					}
+				}
+			} else if ("-encryptioncertificatefile".equalsIgnoreCase(arguments.get(i))) {
+				if (encryptionCertificateFile != null) {
+					throw new ParameterException(arguments.get(i - 1), "Multiple value for parameter encryptionKeyFile or encryptionCertificateFile");
+				} else {
+					i++;
+					if (i >= arguments.size()) {
+						throw new ParameterException(arguments.get(i - 1), "Missing value for parameter encryptionCertificateFile");
+					} else {
+						final String encryptionCertificateFilePath = arguments.get(i);
+						if (Utilities.isBlank(encryptionCertificateFilePath)) {
+							throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter encryptionCertificateFile");
+						}
+						encryptionCertificateFile = resolveFile(workingDirectory, encryptionCertificateFilePath);
+						if (!encryptionCertificateFile.exists()) {
+							throw new ParameterException(arguments.get(i - 1), "encryptionCertificateFile does not exist: " + encryptionCertificateFilePath);
+						}
+					}
+				}
+			} else if ("-encryptionkeyfile".equalsIgnoreCase(arguments.get(i))) {
+				if (encryptionCertificateFile != null) {
+					throw new ParameterException(arguments.get(i - 1), "Multiple value for parameter encryptionKeyFile or encryptionCertificateFile");
+				} else {
+					i++;
+					if (i >= arguments.size()) {
+						throw new ParameterException(arguments.get(i - 1), "Missing value for parameter encryptionKeyFile");
+					} else {
+						final String encryptionCertificateFilePath = arguments.get(i);
+						if (Utilities.isBlank(encryptionCertificateFilePath)) {
+							throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter encryptionKeyFile");
+						}
+						encryptionCertificateFile = resolveFile(workingDirectory, encryptionCertificateFilePath);
+						if (!encryptionCertificateFile.exists()) {
+							throw new ParameterException(arguments.get(i - 1), "encryptionKeyFile does not exist: " + encryptionCertificateFilePath);
+						}
+					}
+				}
+			} else if ("-encryptionmethodname".equalsIgnoreCase(arguments.get(i))) {
+				if (encryptionMethodName != null) {
+					throw new ParameterException(arguments.get(i - 1), "Multiple value for parameter encryptionMethodName");
+				} else {
+					i++;
+					if (i >= arguments.size()) {
+						throw new ParameterException(arguments.get(i - 1), "Missing value for parameter encryptionMethodName");
+					} else {
+						encryptionMethodName = arguments.get(i);
+					}
+				}
+			} else if ("-dkimkeyfile".equalsIgnoreCase(arguments.get(i))) {
+				// Multiple keys of different types (RSA and Ed25519) create multiple signatures
+				i++;
+				if (i >= arguments.size()) {
+					throw new ParameterException(arguments.get(i - 1), "Missing value for parameter dkimkeyfile");
+				} else {
+					final String dkimPrivateKeyPath = arguments.get(i);
+					if (Utilities.isBlank(dkimPrivateKeyPath)) {
+						throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter dkimkeyfile");
+					}
+					final File dkimPrivateKeyFile = resolveFile(workingDirectory, dkimPrivateKeyPath);
+					if (!dkimPrivateKeyFile.exists()) {
+						throw new ParameterException(arguments.get(i - 1), "Dkimkeyfile does not exist: " + dkimPrivateKeyPath);
+					}
+					final PrivateKey dkimPrivateKey;
+					try {
+						dkimPrivateKey = CRYPTO_KEY_CACHE.get(dkimPrivateKeyFile, "dkimprivatekey", null, keyFile -> DkimSigner.readPrivateKey(FileUtilities.readFileToString(keyFile, charset == null ? StandardCharsets.UTF_8 : charset)));
+					} catch (@SuppressWarnings("unused") final Exception e) {
+						throw new ParameterException(arguments.get(i - 1), "Dkimkeyfile is invalid");
+					}
+					for (final PrivateKey otherDkimPrivateKey : dkimPrivateKeys) {
+						if (otherDkimPrivateKey.getAlgorithm().equalsIgnoreCase(dkimPrivateKey.getAlgorithm())) {
+							throw new ParameterException(arguments.get(i - 1), "Multiple value for parameter dkimkeyfile with key type " + dkimPrivateKey.getAlgorithm());
+						}
+					}
+					dkimPrivateKeys.add(dkimPrivateKey);
+				}
+			} else if ("-dkimdomain".equalsIgnoreCase(arguments.get(i))) {
+				if (dkimDomain != null) {
+					throw new ParameterException(arguments.get(i - 1), "Multiple value for parameter dkimdomain");
+				} else {
+					i++;
+					if (i >= arguments.size()) {
+						throw new ParameterException(arguments.get(i - 1), "Missing value for parameter dkimdomain");
+					} else {
+						dkimDomain = arguments.get(i);
+					}
+				}
+			} else if ("-dkimselector".equalsIgnoreCase(arguments.get(i))) {
+				// One selector per dkimkeyfile in the same order
+				i++;
+				if (i >= arguments.size()) {
+					throw new ParameterException(arguments.get(i - 1), "Missing value for parameter dkimselector");
+				} else {
+					dkimSelectors.add(arguments.get(i));
+				}
+			} else if ("-dkimidentity".equalsIgnoreCase(arguments.get(i))) {
+				if (dkimIdentity != null) {
+					throw new ParameterException(arguments.get(i - 1), "Multiple value for parameter dkimidentity");
+				} else {
+					i++;
+					if (i >= arguments.size()) {
+						throw new ParameterException(arguments.get(i - 1), "Missing value for parameter dkimidentity");
+					} else {
+						dkimIdentity = arguments.get(i);
+					}
+				}
+			} else if ("-attachment".equalsIgnoreCase(arguments.get(i))) {
+				i++;
+				if (i >= arguments.size()) {
+					throw new ParameterException(arguments.get(i - 1), "Missing value for parameter attachment");
+				} else {
+					final String attachmentPath = arguments.get(i);
+					if (Utilities.isBlank(attachmentPath)) {
+						throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter attachment");
+					}
+					final File attachmentFile = resolveFile(workingDirectory, attachmentPath);
+					if (!attachmentFile.exists()) {
+						throw new ParameterException(arguments.get(i - 1), "Attachment file does not exist: " + attachmentPath);
+					}
+					attachmentFiles.add(attachmentFile);
+				}
+			} else if ("-batch".equalsIgnoreCase(arguments.get(i))) {
+				if (batchFile != null) {
+					throw new ParameterException(arguments.get(i - 1), "Multiple value for parameter batch");
+				} else {
+					i++;
+					if (i >= arguments.size()) {
+						throw new ParameterException(arguments.get(i - 1), "Missing value for parameter batch");
+					} else {
+						final String batchFilePath = arguments.get(i);
+						if (Utilities.isBlank(batchFilePath)) {
+							throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter batch");
+						}
+						batchFile = resolveFile(workingDirectory, batchFilePath);
+						if (!batchFile.exists()) {
+							throw new ParameterException(arguments.get(i - 1), "Batch file does not exist: " + batchFilePath);
+						}
+					}
+				}
+			} else if ("-maxmessagesperconnection".equalsIgnoreCase(arguments.get(i))) {
+				if (maxMessagesPerConnection != null) {
+					throw new ParameterException(arguments.get(i - 1), "Multiple value for parameter maxmessagesperconnection");
+				} else {
+					i++;
+					if (i >= arguments.size()) {
+						throw new ParameterException(arguments.get(i - 1), "Missing value for parameter maxmessagesperconnection");
+					} else {
+						try {
+							maxMessagesPerConnection = Integer.parseInt(arguments.get(i));
+						} catch (@SuppressWarnings("unused") final NumberFormatException e) {
+							throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter maxmessagesperconnection");
+						}
+						if (maxMessagesPerConnection < 0) {
+							throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter maxmessagesperconnection");
+						}
+					}
+				}
+			} else if ("-maxidletime".equalsIgnoreCase(arguments.get(i))) {
+				if (maxIdleSeconds != null) {
+					throw new ParameterException(arguments.get(i - 1), "Multiple value for parameter maxidletime");
+				} else {
+					i++;
+					if (i >= arguments.size()) {
+						throw new ParameterException(arguments.get(i - 1), "Missing value for parameter maxidletime");
+					} else {
+						try {
+							maxIdleSeconds = Integer.parseInt(arguments.get(i));
+						} catch (@SuppressWarnings("unused") final NumberFormatException e) {
+							throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter maxidletime");
+						}
+						if (maxIdleSeconds < 0) {
+							throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter maxidletime");
+						}
+					}
+				}
+			} else if ("-connecttimeout".equalsIgnoreCase(arguments.get(i))) {
+				if (connectTimeoutSeconds != null) {
+					throw new ParameterException(arguments.get(i - 1), "Multiple value for parameter connecttimeout");
+				} else {
+					i++;
+					if (i >= arguments.size()) {
+						throw new ParameterException(arguments.get(i - 1), "Missing value for parameter connecttimeout");
+					} else {
+						try {
+							connectTimeoutSeconds = Integer.parseInt(arguments.get(i));
+						} catch (@SuppressWarnings("unused") final NumberFormatException e) {
+							throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter connecttimeout");
+						}
+						if (connectTimeoutSeconds < 1) {
+							throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter connecttimeout");
+						}
+					}
+				}
+			} else if ("-readtimeout".equalsIgnoreCase(arguments.get(i))) {
+				if (readTimeoutSeconds != null) {
+					throw new ParameterException(arguments.get(i - 1), "Multiple value for parameter readtimeout");
+				} else {
+					i++;
+					if (i >= arguments.size()) {
+						throw new ParameterException(arguments.get(i - 1), "Missing value for parameter readtimeout");
+					} else {
+						try {
+							readTimeoutSeconds = Integer.parseInt(arguments.get(i));
+						} catch (@SuppressWarnings("unused") final NumberFormatException e) {
+							throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter readtimeout");
+						}
+						if (readTimeoutSeconds < 1) {
+							throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter readtimeout");
+						}
+					}
+				}
+			} else if ("-connections".equalsIgnoreCase(arguments.get(i))) {
+				if (connections != null) {
+					throw new ParameterException(arguments.get(i - 1), "Multiple value for parameter connections");
+				} else {
+					i++;
+					if (i >= arguments.size()) {
+						throw new ParameterException(arguments.get(i - 1), "Missing value for parameter connections");
+					} else {
+						try {
+							connections = Integer.parseInt(arguments.get(i));
+						} catch (@SuppressWarnings("unused") final NumberFormatException e) {
+							throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter connections");
+						}
+						if (connections < 1) {
+							throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter connections");
+						}
+					}
+				}
+			} else if ("-tlsprotocols".equalsIgnoreCase(arguments.get(i))) {
+				if (tlsProtocols != null) {
+					throw new ParameterException(arguments.get(i - 1), "Multiple value for parameter tlsprotocols");
+				} else {
+					i++;
+					if (i >= arguments.size()) {
+						throw new ParameterException(arguments.get(i - 1), "Missing value for parameter tlsprotocols");
+					} else {
+						tlsProtocols = SmtpConnectionSettings.parseList(arguments.get(i));
+						if (tlsProtocols == null) {
+							throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter tlsprotocols");
+						}
+					}
+				}
+			} else if ("-tlsciphers".equalsIgnoreCase(arguments.get(i))) {
+				if (tlsCipherSuites != null) {
+					throw new ParameterException(arguments.get(i - 1), "Multiple value for parameter tlsciphers");
+				} else {
+					i++;
+					if (i >= arguments.size()) {
+						throw new ParameterException(arguments.get(i - 1), "Missing value for parameter tlsciphers");
+					} else {
+						tlsCipherSuites = SmtpConnectionSettings.parseList(arguments.get(i));
+						if (tlsCipherSuites == null) {
+							throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter tlsciphers");
+						}
+					}
+				}
+			} else if ("-direct".equalsIgnoreCase(arguments.get(i))) {
+				if (direct) {
+					throw new ParameterException(arguments.get(i - 1), "Multiple parameter direct");
+				} else {
+					direct = true;
+				}
+			} else if ("-mxhosts".equalsIgnoreCase(arguments.get(i))) {
+				if (mxHostsFile != null) {
+					throw new ParameterException(arguments.get(i - 1), "Multiple value for parameter mxhosts");
+				} else {
+					i++;
+					if (i >= arguments.size()) {
+						throw new ParameterException(arguments.get(i - 1), "Missing value for parameter mxhosts");
+					} else {
+						final String mxHostsFilePath = arguments.get(i);
+						if (Utilities.isBlank(mxHostsFilePath)) {
+							throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter mxhosts");
+						}
+						mxHostsFile = resolveFile(workingDirectory, mxHostsFilePath);
+						if (!mxHostsFile.isFile()) {
+							throw new ParameterException(arguments.get(i - 1), "MX hosts file does not exist: " + mxHostsFilePath);
+						}
+					}
+				}
+			} else if ("-mxconnections".equalsIgnoreCase(arguments.get(i))) {
+				if (mxConnections != null) {
+					throw new ParameterException(arguments.get(i - 1), "Multiple value for parameter mxconnections");
+				} else {
+					i++;
+					if (i >= arguments.size()) {
+						throw new ParameterException(arguments.get(i - 1), "Missing value for parameter mxconnections");
+					} else {
+						try {
+							mxConnections = Integer.parseInt(arguments.get(i));
+						} catch (@SuppressWarnings("unused") final NumberFormatException e) {
+							throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter mxconnections");
+						}
+						if (mxConnections < 1) {
+							throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter mxconnections");
+						}
+					}
+				}
+			} else if ("-mxstricttls".equalsIgnoreCase(arguments.get(i))) {
+				if (mxStrictTls) {
+					throw new ParameterException(arguments.get(i - 1), "Multiple parameter mxstricttls");
+				} else {
+					mxStrictTls = true;
+				}
+			} else if ("-spool".equalsIgnoreCase(arguments.get(i))) {
+				if (spoolDirectory != null) {
+					throw new ParameterException(arguments.get(i - 1), "Multiple value for parameter spool");
+				} else {
+					i++;
+					if (i >= arguments.size()) {
+						throw new ParameterException(arguments.get(i - 1), "Missing value for parameter spool");
+					} else {
+						final String spoolDirectoryPath = arguments.get(i);
+						if (Utilities.isBlank(spoolDirectoryPath)) {
+							throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter spool");
+						}
+						spoolDirectory = resolveFile(workingDirectory, spoolDirectoryPath);
+						if (spoolDirectory.exists() && !spoolDirectory.isDirectory()) {
+							throw new ParameterException(arguments.get(i - 1), "Spool path is not a directory: " + spoolDirectoryPath);
+						}
+					}
+				}
+			} else if ("-spoolwait".equalsIgnoreCase(arguments.get(i))) {
+				if (spoolWaitSeconds != null) {
+					throw new ParameterException(arguments.get(i - 1), "Multiple value for parameter spoolwait");
+				} else {
+					i++;
+					if (i >= arguments.size()) {
+						throw new ParameterException(arguments.get(i - 1), "Missing value for parameter spoolwait");
+					} else {
+						try {
+							spoolWaitSeconds = Integer.parseInt(arguments.get(i));
+						} catch (@SuppressWarnings("unused") final NumberFormatException e) {
+							throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter spoolwait");
+						}
+						if (spoolWaitSeconds < 0) {
+							throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter spoolwait");
+						}
+					}
+				}
+			} else if ("-listen".equalsIgnoreCase(arguments.get(i))) {
+				if (listenAddress != null) {
+					throw new ParameterException(arguments.get(i - 1), "Multiple value for parameter listen");
+				} else {
+					i++;
+					if (i >= arguments.size()) {
+						throw new ParameterException(arguments.get(i - 1), "Missing value for parameter listen");
+					} else {
+						final String listenAddressString = arguments.get(i).trim();
+						// "[address:]port", IPv6 addresses in brackets
+						final int portSeparatorIndex = listenAddressString.lastIndexOf(':');
+						final String listenHost = portSeparatorIndex < 0 ? "127.0.0.1" : listenAddressString.substring(0, portSeparatorIndex).replace("[", "").replace("]", "");
+						final int listenPort;
+						try {
+							listenPort = Integer.parseInt(listenAddressString.substring(portSeparatorIndex + 1));
+						} catch (@SuppressWarnings("unused") final NumberFormatException e) {
+							throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter listen");
+						}
+						if (Utilities.isBlank(listenHost) || listenPort < 0 || listenPort > 65535) {
+							throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter listen");
+						}
+						listenAddress = new InetSocketAddress(listenHost, listenPort);
+						if (listenAddress.isUnresolved()) {
+							throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter listen: Unknown address " + listenHost);
+						}
+					}
+				}
+			} else if ("-listenremote".equalsIgnoreCase(arguments.get(i))) {
+				if (listenRemote) {
+					throw new ParameterException(arguments.get(i - 1), "Multiple parameter listenremote");
+				} else {
+					listenRemote = true;
+				}
+			} else if ("-test".equalsIgnoreCase(arguments.get(i))) {
+				if (test) {
+					throw new ParameterException(arguments.get(i - 1), "Multiple parameter test");
+				} else {
+					test = true;
+				}
+			} else if ("-f".equalsIgnoreCase(arguments.get(i)) || "-force".equalsIgnoreCase(arguments.get(i))) {
+				if (force) {
+					throw new ParameterException(arguments.get(i - 1), "Multiple parameter force");
+				} else {
+					force = true;
+				}
+			} else if ("-silent".equalsIgnoreCase(arguments.get(i))) {
+				if (silent) {
+					throw new ParameterException(arguments.get(i - 1), "Multiple parameter silent");
+				} else {
+					silent = true;
+				}
+			} else if ("-verbose".equalsIgnoreCase(arguments.get(i))) {
+				if (verbose) {
+					throw new ParameterException(arguments.get(i - 1), "Multiple parameter verbose");
+				} else {
+					verbose = true;
+				}
+			} else if ("-eventstart".equalsIgnoreCase(arguments.get(i))) {
+				i++;
+				if (i >= arguments.size()) {
+					throw new ParameterException(arguments.get(i - 1), "Missing value for parameter eventstart");
+				} else {
+					final String eventStartString = arguments.get(i);
+					if (Utilities.isBlank(eventStartString)) {
+						throw new ParameterException(arguments.get(i - 1), "Invalid empty value for parameter eventstart");
+					} else {
+						try {
+							eventStart = ZonedDateTime.of(LocalDateTime.parse(eventStartString.trim(), DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")), ZoneId.systemDefault());
+						} catch (@SuppressWarnings("unused") final Exception e) {
+							throw new ParameterException(arguments.get(i - 1), "Invalid value format for parameter eventstart (yyyy-MM-dd HH:mm:ss): " + eventStartString);
+						}
+					}
+				}
+			} else if ("-eventend".equalsIgnoreCase(arguments.get(i))) {
+				i++;
+				if (i >= arguments.size()) {
+					throw new ParameterException(arguments.get(i - 1), "Missing value for parameter eventend");
+				} else {
+					final String eventEndString = arguments.get(i);
+					if (Utilities.isBlank(eventEndString)) {
+						throw new ParameterException(arguments.get(i - 1), "Invalid empty value for parameter eventend");
+					} else {
+						try {
+							eventEnd = ZonedDateTime.of(LocalDateTime.parse(eventEndString.trim(), DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")), ZoneId.systemDefault());
+						} catch (@SuppressWarnings("unused") final Exception e) {
+							throw new ParameterException(arguments.get(i - 1), "Invalid value format for parameter eventend (yyyy-MM-dd HH:mm:ss): " + eventEndString);
+						}
+					}
+				}
+			} else if ("-eventlocation".equalsIgnoreCase(arguments.get(i))) {
+				i++;
+				if (i >= arguments.size()) {
+					throw new ParameterException(arguments.get(i - 1), "Missing value for parameter eventlocation");
+				} else {
+					eventLocation = arguments.get(i);
+					if (Utilities.isBlank(eventLocation)) {
+						throw new ParameterException(arguments.get(i - 1), "Invalid value for parameter eventlocation");
+					}
+				}
+			} else {
+				throw new ParameterException(arguments.get(i), "Invalid parameter");
+			}
+		}
+	}
+
+	/**
+	 * Check for mandatory parameters and set the default values of optional parameters
+	 */
+	public void checkParameters() throws Exception {
+		if (Utilities.isBlank(host) && !direct) {
+			throw new ParameterException("Missing parameter host");
+		} else if ((mxHostsFile != null || mxConnections != null || mxStrictTls) && !direct) {
+			throw new ParameterException("Parameters mxhosts, mxconnections and mxstricttls need parameter direct");
+		} else if (Utilities.isNotBlank(user) && Utilities.isBlank(password)) {
+			throw new ParameterException("Missing parameter password, because parameter user is set");
+		} else if (listenRemote && listenAddress == null) {
+			throw new ParameterException("Parameter listenremote needs parameter listen");
+		} else if (listenAddress != null && !listenAddress.getAddress().isLoopbackAddress() && !listenRemote) {
+			// The SMTP listener accepts emails without authentication, so on other addresses it would be an open relay
+			throw new ParameterException("Parameter listen with the non-loopback address " + listenAddress.getAddress().getHostAddress() + " needs parameter listenremote");
+		} else if (listenAddress != null && (spoolDirectory != null || batchFile != null)) {
+			throw new ParameterException("Parameter listen cannot be combined with parameters spool or batchfile");
+		} else if (listenAddress != null && signatureKeyFile != null && cryptoType == CryptoType.S_MIME && signatureCertificateFile == null) {
+			throw new ParameterException("Missing parameter signatureCertificateFile, because parameter listen is set");
+		} else if (listenAddress != null && !dkimPrivateKeys.isEmpty() && dkimDomain == null && fromAddress == null) {
+			throw new ParameterException("Missing parameter dkimdomain, because parameter listen is set");
+		} else if (fromAddress == null && !isSpoolDrainOnly() && listenAddress == null) {
+			throw new ParameterException("Missing parameter from-address");
+		} else if (subject == null && batchFile == null && !isSpoolDrainOnly() && listenAddress == null) {
+			throw new ParameterException("Missing parameter subject");
+		} else if (toAddressList.size() == 0 && ccAddressList.size() == 0 && bccAddressList.size() == 0 && batchFile == null && !isSpoolDrainOnly() && listenAddress == null) {
+			throw new ParameterException("No email recipient (to/cc/bcc)");
+		} else if (dkimSelectors.size() < dkimPrivateKeys.size()) {
+			throw new ParameterException("Missing parameter dkimSelector");
+		} else if (dkimSelectors.size() > dkimPrivateKeys.size()) {
+			throw new ParameterException("Missing parameter dkimkeyfile for each dkimSelector");
+		}
+
+		// Default parameters
+		if (port == null) {
+			port = 25;
+		}
+		if (connectionSecurity == null) {
+			connectionSecurity = MailerConnectionSecurity.None;
+		}
+		if (charset == null) {
+			charset = StandardCharsets.UTF_8;
+		}
+		if (!dkimPrivateKeys.isEmpty() && dkimDomain == null && fromAddress != null) {
+			dkimDomain = MailUtilities.getDomainFromEmail(fromAddress.getAddress());
+		}
+		if (maxMessagesPerConnection == null) {
+			maxMessagesPerConnection = SmtpConnectionPool.DEFAULT_MAX_MESSAGES_PER_CONNECTION;
+		}
+		if (maxIdleSeconds == null) {
+			maxIdleSeconds = SmtpConnectionPool.DEFAULT_MAX_IDLE_SECONDS;
+		}
+		if (connections == null) {
+			connections = SmtpConnectionPool.DEFAULT_MAX_CONNECTIONS_PER_RELAY;
+		}
+		if (connectTimeoutSeconds == null) {
+			connectTimeoutSeconds = SmtpConnectionSettings.DEFAULT_CONNECT_TIMEOUT_MILLIS / 1000;
+		}
+		if (readTimeoutSeconds == null) {
+			readTimeoutSeconds = SmtpConnectionSettings.DEFAULT_READ_TIMEOUT_MILLIS / 1000;
+		}
+		if (mxConnections == null) {
+			mxConnections = MxDeliverySink.DEFAULT_MAX_CONNECTIONS_PER_MX;
+		}
+		if (spoolWaitSeconds == null) {
+			spoolWaitSeconds = 0;
+		}
+
+		if (batchFile != null) {
+			// Placeholders are replaced by the values of the batch file columns
+			subjectTemplate = MailTemplate.compile(subject);
+			bodyTextTemplate = MailTemplate.compile(bodyText);
+			bodyHtmlTemplate = MailTemplate.compile(bodyHtml);
+		}
+	}
+
+	/**
+	 * Read the keys and certificates for signature and encryption.<br />
+	 * This is done only once, even if multiple emails are created with these parameters.
+	 * Files, which were parsed before by this process and are unchanged, are taken from the crypto key cache.
+	 */
+	public void loadCryptoKeys() throws Exception {
+		if (!dkimPrivateKeys.isEmpty()) {
+			dkimSigner = new DkimSigner(dkimDomain, dkimIdentity);
+			for (int i = 0; i < dkimPrivateKeys.size(); i++) {
+				dkimSigner.addKey(dkimSelectors.get(i), dkimPrivateKeys.get(i));
+			}
+		}
+
+		if (signatureKeyFile != null) {
+			if (cryptoType == CryptoType.PGP) {
+				pgpSignatureSecretKey = CRYPTO_KEY_CACHE.get(signatureKeyFile, "pgpsecretkey", null, keyFile -> {
+					try (InputStream signatureKeyFileInputStream = new FileInputStream(keyFile)) {
+						return PGPUtilities.readPGPSecretKey(signatureKeyFileInputStream);
+					}
+				});
+				if (pgpSignatureSecretKey == null) {
+					throw new ParameterException("Invalid PGP signature private key in file '" + signatureKeyFile.getAbsolutePath() + "'");
+				}
+
+				if (signatureMethodName != null) {
+					try {
+						PgpHashMethod.getByName(signatureMethodName);
+					} catch (@SuppressWarnings("unused") final Exception e) {
+						throw new ParameterException(signatureMethodName, "Invalid value for parameter signatureMethodName");
+					}
+				}
+			} else if (cryptoType == CryptoType.S_MIME) {
+				signaturePrivateKey = CRYPTO_KEY_CACHE.get(signatureKeyFile, "privatekey", signatureKeyPassword, keyFile -> CryptographicUtilities.getPrivateKeyFromString(FileUtilities.readFileToString(keyFile, StandardCharsets.UTF_8), signatureKeyPassword));
+				if (signaturePrivateKey == null) {
+					throw new ParameterException("Invalid S/MIME signature private key in file '" + signatureKeyFile.getAbsolutePath() + "'");
+				}
+				if (signatureCertificateFile != null) {
+					final List<X509Certificate> signatureCertificates = CRYPTO_KEY_CACHE.get(signatureCertificateFile, "certificates", null, MailParameters::readCertificates);
+					if (signatureCertificates == null || signatureCertificates.size() != 1) {
+						throw new ParameterException("Invalid S/MIME signature certificate in file '" + signatureCertificateFile.getAbsolutePath() + "'");
+					}
+					signatureCertificate = signatureCertificates.get(0);
+				}
+
+				if (signatureMethodName != null) {
+					if (Utilities.isBlank(CryptographicUtilities.checkSignatureMethodName(signatureMethodName))) {
+						throw new ParameterException(signatureMethodName, "Invalid value for parameter signatureMethodName");
+					}
+				}
+			} else {
+				throw new ParameterException("Missing parameter crypto");
+			}
+		}
+
+		if (encryptionCertificateFile != null) {
+			if (cryptoType == CryptoType.PGP) {
+				final List<PGPPublicKey> pgpEncryptionPublicKeys = new ArrayList<>();
+				for (final File keyFile : getKeyFiles(encryptionCertificateFile)) {
+					pgpEncryptionPublicKeys.addAll(CRYPTO_KEY_CACHE.get(keyFile, "pgppublickeys", null, PgpMessageEncryptor::readPublicKeys));
+				}
+				if (pgpEncryptionPublicKeys.size() > 1) {
+					// The Mailer supports only one public key, so the emails are encrypted by the ConsoleMailerTransport
+					try {
+						messageEncryptor = new PgpMessageEncryptor(pgpEncryptionPublicKeys, encryptionMethodName);
+					} catch (final IllegalArgumentException e) {
+						throw new ParameterException("-encryptionMethodName", e.getMessage());
+					}
+				} else {
+					if (encryptionCertificateFile.isFile()) {
+						pgpEncryptionPublicKey = CRYPTO_KEY_CACHE.get(encryptionCertificateFile, "pgppublickey", null, keyFile -> {
+							try (InputStream encryptionCertificateFileInputStream = new FileInputStream(keyFile)) {
+								return PGPUtilities.readPGPPublicKey(encryptionCertificateFileInputStream);
+							}
+						});
+					} else if (pgpEncryptionPublicKeys.size() == 1) {
+						pgpEncryptionPublicKey = pgpEncryptionPublicKeys.get(0);
+					}
+					if (pgpEncryptionPublicKey == null) {
+						throw new ParameterException("Invalid PGP encryption public key in file '" + encryptionCertificateFile.getAbsolutePath() + "'");
+					}
+					if (encryptionMethodName != null) {
+						try {
+							PgpSymmetricEncryptionMethod.getByName(encryptionMethodName);
+						} catch (@SuppressWarnings("unused") final Exception e) {
+							throw new ParameterException("-encryptionMethodName", "Invalid value for parameter encryptionMethodName with PGP");
+						}
+					}
+				}
+			} else if (cryptoType == CryptoType.S_MIME) {
+				final List<X509Certificate> encryptionCertificates = new ArrayList<>();
+				for (final File certificateFile : getKeyFiles(encryptionCertificateFile)) {
+					final List<X509Certificate> certificates = CRYPTO_KEY_CACHE.get(certificateFile, "certificates", null, MailParameters::readCertificates);
+					if (certificates != null) {
+						encryptionCertificates.addAll(certificates);
+					}
+				}
+				if (encryptionCertificates.isEmpty()) {
+					throw new ParameterException("Invalid S/MIME encryption certificate in file '" + encryptionCertificateFile.getAbsolutePath() + "'");
+				} else if (encryptionCertificates.size() > 1) {
+					// The Mailer supports only one certificate, so the emails are encrypted by the ConsoleMailerTransport
+					try {
+						messageEncryptor = new SmimeMessageEncryptor(encryptionCertificates, encryptionMethodName);
+					} catch (final IllegalArgumentException e) {
+						throw new ParameterException("-encryptionMethodName", e.getMessage());
+					}
+				} else {
+					encryptionCertificate = encryptionCertificates.get(0);
+					if (encryptionMethodName != null) {
+						if (Utilities.isBlank(CryptographicUtilities.checkEncryptionMethodName(encryptionMethodName))) {
+							throw new ParameterException("-encryptionMethodName", "Invalid value for parameter encryptionMethodName with S/MIME");
+						}
+					}
+				}
+			} else {
+				throw new ParameterException("Missing parameter crypto");
+			}
+		}
+	}
+
+	/**
+	 * Files of a key parameter, which may be a single file or a directory containing multiple key or certificate files
+	 */
+	private static List<File> getKeyFiles(final File keyFileOrDirectory) {
+		final List<File> keyFiles = new ArrayList<>();
+		if (keyFileOrDirectory.isDirectory()) {
+			final File[] directoryFiles = keyFileOrDirectory.listFiles();
+			if (directoryFiles != null) {
+				Arrays.sort(directoryFiles);
+				for (final File directoryFile : directoryFiles) {
+					if (directoryFile.isFile() && !directoryFile.isHidden()) {
+						keyFiles.add(directoryFile);
+					}
+				}
+			}
+		} else {
+			keyFiles.add(keyFileOrDirectory);
+		}
+		return keyFiles;
+	}
+
+	private static List<X509Certificate> readCertificates(final File certificateFile) throws Exception {
+		return CryptographicUtilities.getCertificatesFromString(FileUtilities.readFileToString(certificateFile, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Cache of parsed keys and certificates, which are reused as long as their files are unchanged
+	 */
+	public static CryptoKeyCache getCryptoKeyCache() {
+		return CRYPTO_KEY_CACHE;
+	}
+
+	/**
+	 * Prepare the attachments for all emails created with these parameters.<br />
+	 * Attachments of signed or encrypted emails are read into memory, because the signatures are created on their content.
+	 * All other attachments (also of DKIM signed emails) are streamed from their files, when the email is sent.
+	 */
+	public void loadAttachments() throws Exception {
+		final FileNameMap fileNameMap = URLConnection.getFileNameMap();
+		final boolean contentIsSigned = signatureKeyFile != null || encryptionCertificateFile != null;
+		for (final File attachmentFile : attachmentFiles) {
+			final String mimeType = fileNameMap.getContentTypeFor(attachmentFile.getName());
+			if (contentIsSigned) {
+				attachments.add(new MailAttachment(attachmentFile.getName(), FileUtilities.readFileToByteArray(attachmentFile), mimeType));
+			} else {
+				attachments.add(FileAttachments.createPlaceholder(attachmentFile, mimeType));
+			}
+		}
+	}
+
+	/**
+	 * Release the placeholders of the streamed attachments after all emails created with these parameters were sent
+	 */
+	public void releaseAttachments() {
+		FileAttachments.removePlaceholders(attachments);
+	}
+
+	public Mailer createMailer() {
+		final Mailer mailer = new Mailer();
+		// For direct delivery the transport hands the emails to the MX delivery sink, so the relay host is not connected
+		mailer.setSmtpMailRelayHostname(direct ? "localhost" : host);
+		mailer.setSmtpMailRelayPort(port);
+		mailer.setConnectionSecurity(connectionSecurity);
+		mailer.setSmtpUsername(user);
+		mailer.setSmtpPassword(password);
+		return mailer;
+	}
+
+	/**
+	 * Create an email from these parameters
+	 *
+	 * @param batchEntry optional entry of a batch file, which overrides the recipients, subject and content of the parameters
+	 */
+	public Email createEmail(final BatchEntry batchEntry) throws Exception {
+		String emailSubject = subject;
+		List<InternetAddress> emailToAddressList = toAddressList;
+		List<InternetAddress> emailCcAddressList = ccAddressList;
+		List<InternetAddress> emailBccAddressList = bccAddressList;
+		String emailBodyText = bodyText;
+		String emailBodyHtml = bodyHtml;
+		if (batchEntry != null) {
+			if (subjectTemplate != null) {
+				emailSubject = subjectTemplate.render(batchEntry);
+			}
+			if (bodyTextTemplate != null) {
+				emailBodyText = bodyTextTemplate.render(batchEntry);
+			}
+			if (bodyHtmlTemplate != null) {
+				emailBodyHtml = bodyHtmlTemplate.render(batchEntry);
+			}
+
+			if (Utilities.isNotBlank(batchEntry.getValue(BatchEntry.SUBJECT))) {
+				emailSubject = batchEntry.getValue(BatchEntry.SUBJECT);
+			}
+			if (Utilities.isNotBlank(batchEntry.getValue(BatchEntry.TO))) {
+				emailToAddressList = getAddressList(batchEntry, BatchEntry.TO);
+			}
+			if (Utilities.isNotBlank(batchEntry.getValue(BatchEntry.CC))) {
+				emailCcAddressList = getAddressList(batchEntry, BatchEntry.CC);
+			}
+			if (Utilities.isNotBlank(batchEntry.getValue(BatchEntry.BCC))) {
+				emailBccAddressList = getAddressList(batchEntry, BatchEntry.BCC);
+			}
+			if (Utilities.isNotBlank(batchEntry.getValue(BatchEntry.TEXT))) {
+				emailBodyText = batchEntry.getValue(BatchEntry.TEXT);
+			}
+			if (Utilities.isNotBlank(batchEntry.getValue(BatchEntry.HTML))) {
+				emailBodyHtml = batchEntry.getValue(BatchEntry.HTML);
+			}
+
+			if (Utilities.isBlank(emailSubject)) {
+				throw new ParameterException("Missing subject in batch file row " + batchEntry.getRowNumber());
+			} else if (emailToAddressList.size() == 0 && emailCcAddressList.size() == 0 && emailBccAddressList.size() == 0) {
+				throw new ParameterException("No email recipient (to/cc/bcc) in batch file row " + batchEntry.getRowNumber());
+			}
+		}
+
+		final Email email = new Email(fromAddress, emailSubject, charset);
+		for (final InternetAddress replyToAddress : replyToAddressList) {
+			email.addReplyToAddress(replyToAddress);
+		}
+		for (final InternetAddress toAddress : emailToAddressList) {
+			email.addToAddress(toAddress);
+		}
+		for (final InternetAddress ccAddress : emailCcAddressList) {
+			email.addCcAddress(ccAddress);
+		}
+		for (final InternetAddress bccAddress : emailBccAddressList) {
+			email.addBccAddress(bccAddress);
+		}
+
+		if (bounceAddress != null) {
+			email.setBounceAddress(bounceAddress);
+		}
+		if (notifyAddress != null) {
+			email.setNotificationAddress(notifyAddress);
+		}
+
+		email.setBodyText(emailBodyText);
+		email.setBodyHtml(emailBodyHtml);
+		email.setAttachments(attachments);
+
+		if (pgpSignatureSecretKey != null) {
+			email.setCryptoType(cryptoType);
+			email.setPgpSecretKey(pgpSignatureSecretKey);
+			if (signatureKeyPassword != null) {
+				email.setPgpSecretKeyPassword(signatureKeyPassword);
+			}
+			if (signatureMethodName != null) {
+				email.setSignatureMethodName(signatureMethodName);
+			}
+		} else if (signaturePrivateKey != null) {
+			email.setCryptoType(cryptoType);
+			email.setSignaturePrivateKey(signaturePrivateKey);
+			if (signatureCertificate != null) {
+				email.setSignatureCertificate(signatureCertificate);
+			}
+			if (signatureMethodName != null) {
+				email.setSignatureMethodName(signatureMethodName);
+			}
+		}
+
+		if (pgpEncryptionPublicKey != null) {
+			email.setCryptoType(cryptoType);
+			email.setPgpPublicKey(pgpEncryptionPublicKey);
+			if (encryptionMethodName != null) {
+				email.setEncryptionMethodName(encryptionMethodName);
+			}
+		} else if (encryptionCertificate != null) {
+			email.setCryptoType(cryptoType);
+			email.setEncryptionCertificate(encryptionCertificate);
+			if (encryptionMethodName != null) {
+				email.setEncryptionMethodName(encryptionMethodName);
+			}
+		}
+
+		if (eventStart != null) {
+			email.addEventInvitation(DateUtilities.createICalEventInvitation(
+					emailSubject,
+					null,
+					eventStart,
+					eventEnd,
+					eventLocation,
+					fromAddress,
+					emailToAddressList));
+		}
+
+		return email;
+	}
+
+	private static List<InternetAddress> getAddressList(final BatchEntry batchEntry, final String columnName) throws ParameterException {
+		final InternetAddress[] addresses;
+		try {
+			addresses = MailUtilities.getEmailAddressesFromList(batchEntry.getValue(columnName));
+		} catch (@SuppressWarnings("unused") final Exception e) {
+			throw new ParameterException("Invalid value for " + columnName + "-address in batch file row " + batchEntry.getRowNumber());
+		}
+		final List<InternetAddress> addressList = new ArrayList<>();
+		for (final InternetAddress address : addresses) {
+			addressList.add(address);
+		}
+		return addressList;
+	}
+
+	/**
+	 * DKIM signing context for all emails or null if no DKIM key is configured
+	 */
+	public DkimSigner getDkimSigner() {
+		return dkimSigner;
+	}
+
+	/**
+	 * Encryption for multiple receiver certificates or keys, which is done by the ConsoleMailerTransport, or null if the Mailer encrypts the emails
+	 */
+	public MessageEncryptor getMessageEncryptor() {
+		return messageEncryptor;
+	}
+
+	/**
+	 * Create the S/MIME or PGP signature for emails, which are not rendered by the Mailer (e.g. emails received by the SMTP listener), or null if no signature key is configured
+	 */
+	public MessageSigner createMessageSigner() throws Exception {
+		try {
+			if (pgpSignatureSecretKey != null) {
+				return new PgpMessageSigner(pgpSignatureSecretKey, signatureKeyPassword, signatureMethodName);
+			} else if (signaturePrivateKey != null) {
+				return new SmimeMessageSigner(signaturePrivateKey, signatureCertificate, signatureMethodName);
+			} else {
+				return null;
+			}
+		} catch (final IllegalArgumentException e) {
+			throw new ParameterException("-signatureMethodName", e.getMessage());
+		}
+	}
+
+	/**
+	 * Create the S/MIME or PGP encryption for emails, which are not rendered by the Mailer (e.g. emails received by the SMTP listener), or null if no encryption is configured
+	 */
+	public MessageEncryptor createMessageEncryptor() throws Exception {
+		if (messageEncryptor != null) {
+			return messageEncryptor;
+		}
+		try {
+			if (pgpEncryptionPublicKey != null) {
+				return new PgpMessageEncryptor(Collections.singletonList(pgpEncryptionPublicKey), encryptionMethodName);
+			} else if (encryptionCertificate != null) {
+				return new SmimeMessageEncryptor(Collections.singletonList(encryptionCertificate), encryptionMethodName);
+			} else {
+				return null;
+			}
+		} catch (final IllegalArgumentException e) {
+			throw new ParameterException("-encryptionMethodName", e.getMessage());
+		}
+	}
+
+	/**
+	 * Create a pool for SMTP connections to be reused by multiple emails
+	 */
+	public SmtpConnectionPool createConnectionPool() {
+		return new SmtpConnectionPool(maxMessagesPerConnection, maxIdleSeconds, connections);
+	}
+
+	/**
+	 * Create the settings for new pooled SMTP connections with the timeouts, TLS protocols and cipher suites of the parameters
+	 */
+	public SmtpConnectionSettings createConnectionSettings() {
+		final SmtpConnectionSettings settings = new SmtpConnectionSettings();
+		if (connectTimeoutSeconds != null) {
+			settings.setConnectTimeoutMillis(connectTimeoutSeconds * 1000);
+		}
+		if (readTimeoutSeconds != null) {
+			settings.setReadTimeoutMillis(readTimeoutSeconds * 1000);
+		}
+		settings.setTlsProtocols(tlsProtocols);
+		settings.setTlsCipherSuites(tlsCipherSuites);
+		return settings;
+	}
+
+	/**
+	 * Deliver the emails directly to the mail exchangers of the recipient domains instead of the host
+	 */
+	public boolean isDirect() {
+		return direct;
+	}
+
+	/**
+	 * Create the sink for the direct delivery, which resolves the mail exchangers by DNS or by the MX hosts file
+	 */
+	public MxDeliverySink createMxDeliverySink() throws Exception {
+		final MxResolver mxResolver;
+		if (mxHostsFile != null) {
+			try {
+				mxResolver = StaticMxResolver.fromFile(mxHostsFile);
+			} catch (final IOException e) {
+				throw new ParameterException("-mxhosts", "Invalid MX hosts file: " + e.getMessage());
+			}
+		} else {
+			mxResolver = new CachingMxResolver(new DnsMxResolver());
+		}
+		final SmtpConnectionSettings mxSettings = createConnectionSettings();
+		if (!mxStrictTls) {
+			// Opportunistic TLS (RFC 7435): STARTTLS only if offered, without verification of the certificate and with plaintext after a failed handshake
+			mxSettings.setRequireStartTls(false);
+			mxSettings.setTrustAllCertificates(true);
+		}
+		return new MxDeliverySink(mxResolver, mxSettings, maxMessagesPerConnection, maxIdleSeconds, mxConnections);
+	}
+
+	public String[] getTlsProtocols() {
+		return tlsProtocols;
+	}
+
+	public String[] getTlsCipherSuites() {
+		return tlsCipherSuites;
+	}
+
+	public int getConnections() {
+		return connections;
+	}
+
+	/**
+	 * Create the relay of the host parameters for sending already rendered emails (e.g. from the spool)
+	 */
+	public SmtpRelay createSmtpRelay() {
+		return new SmtpRelay(host, port, connectionSecurity, user, password == null ? null : new String(password));
+	}
+
+	/**
+	 * Check whether the content of the emails is signed (S/MIME or PGP) or encrypted, so that rendering them is CPU bound.<br />
+	 * DKIM signatures are not included, because they are created in the transport while the attachments are streamed from their files.
+	 */
+	public boolean isContentSignedOrEncrypted() {
+		return signatureKeyFile != null || encryptionCertificateFile != null;
+	}
+
+	public File getSpoolDirectory() {
+		return spoolDirectory;
+	}
+
+	/**
+	 * Only the emails already in the spool are sent, because no new email is defined by the parameters
+	 */
+	public boolean isSpoolDrainOnly() {
+		return spoolDirectory != null && batchFile == null && subject == null && toAddressList.size() == 0 && ccAddressList.size() == 0 && bccAddressList.size() == 0;
+	}
+
+	/**
+	 * Local address of the SMTP listener or null if the emails are defined by the parameters
+	 */
+	public InetSocketAddress getListenAddress() {
+		return listenAddress;
+	}
+
+	public int getSpoolWaitSeconds() {
+		return spoolWaitSeconds;
+	}
+
+	public File getBatchFile() {
+		return batchFile;
+	}
+
+	public boolean isTest() {
+		return test;
+	}
+
+	public boolean isForce() {
+		return force;
+	}
+
+	public boolean isSilent() {
+		return silent;
+	}
+
+	public boolean isVerbose() {
+		return verbose;
+	}
+
+	public Charset getCharset() {
+		return charset;
+	}
+}
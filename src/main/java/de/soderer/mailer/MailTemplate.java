@@ -0,0 +1,121 @@
+package de.soderer.mailer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.soderer.utilities.ParameterException;
+
+/**
+ * Mail merge template for subject and bodies with placeholders like "${firstName}", which are replaced by the values of the batch file columns.<br />
+ * Column names are case insensitive. "$${" is written as "${" without any replacement.<br />
+ * The template is parsed only once into a list of text and placeholder segments, so rendering an email only appends the segments into a buffer of the exact size of the result.
+ */
+public class MailTemplate {
+	private static final String PLACEHOLDER_START = "${";
+	private static final String PLACEHOLDER_END = "}";
+	private static final String ESCAPED_PLACEHOLDER_START = "$${";
+
+	private final String templateText;
+	private final Segment[] segments;
+
+	private MailTemplate(final String templateText, final Segment[] segments) {
+		this.templateText = templateText;
+		this.segments = segments;
+	}
+
+	/**
+	 * Parse a template text
+	 *
+	 * @return the compiled template or null if the template text is null
+	 */
+	public static MailTemplate compile(final String templateText) throws ParameterException {
+		if (templateText == null) {
+			return null;
+		}
+
+		final List<Segment> segmentList = new ArrayList<>();
+		final StringBuilder text = new StringBuilder();
+		int position = 0;
+		while (position < templateText.length()) {
+			final int placeholderStart = templateText.indexOf(PLACEHOLDER_START, position);
+			if (placeholderStart < 0) {
+				text.append(templateText, position, templateText.length());
+				break;
+			} else if (placeholderStart > position && templateText.startsWith(ESCAPED_PLACEHOLDER_START, placeholderStart - 1)) {
+				text.append(templateText, position, placeholderStart - 1).append(PLACEHOLDER_START);
+				position = placeholderStart + PLACEHOLDER_START.length();
+			} else {
+				final int placeholderEnd = templateText.indexOf(PLACEHOLDER_END, placeholderStart + PLACEHOLDER_START.length());
+				if (placeholderEnd < 0) {
+					throw new ParameterException("Invalid template: Missing '" + PLACEHOLDER_END + "' for placeholder at position " + placeholderStart);
+				}
+				final String columnName = templateText.substring(placeholderStart + PLACEHOLDER_START.length(), placeholderEnd).trim();
+				if (columnName.length() == 0) {
+					throw new ParameterException("Invalid template: Empty placeholder at position " + placeholderStart);
+				}
+				text.append(templateText, position, placeholderStart);
+				if (text.length() > 0) {
+					segmentList.add(new Segment(text.toString(), null));
+					text.setLength(0);
+				}
+				segmentList.add(new Segment(null, columnName.toLowerCase()));
+				position = placeholderEnd + PLACEHOLDER_END.length();
+			}
+		}
+		if (text.length() > 0) {
+			segmentList.add(new Segment(text.toString(), null));
+		}
+		return new MailTemplate(templateText, segmentList.toArray(new Segment[0]));
+	}
+
+	/**
+	 * Replace the placeholders by the values of a batch file row
+	 */
+	public String render(final BatchEntry batchEntry) throws ParameterException {
+		if (segments.length == 0) {
+			return "";
+		} else if (segments.length == 1 && segments[0].columnName == null) {
+			return segments[0].text;
+		}
+
+		// The values are looked up first, so the buffer is allocated with the exact size and never grows
+		final String[] values = new String[segments.length];
+		int length = 0;
+		for (int i = 0; i < segments.length; i++) {
+			final Segment segment = segments[i];
+			if (segment.columnName == null) {
+				values[i] = segment.text;
+			} else {
+				values[i] = batchEntry.getValue(segment.columnName);
+				if (values[i] == null) {
+					throw new ParameterException("Missing value for placeholder '" + PLACEHOLDER_START + segment.columnName + PLACEHOLDER_END + "' in batch file row " + batchEntry.getRowNumber());
+				}
+			}
+			length += values[i].length();
+		}
+
+		final StringBuilder buffer = new StringBuilder(length);
+		for (final String value : values) {
+			buffer.append(value);
+		}
+		return buffer.toString();
+	}
+
+	@Override
+	public String toString() {
+		return templateText;
+	}
+
+	/**
+	 * Text segment (columnName is null) or placeholder segment of a template
+	 */
+	private static class Segment {
+		private final String text;
+		private final String columnName;
+
+		private Segment(final String text, final String columnName) {
+			this.text = text;
+			this.columnName = columnName;
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package de.soderer.mailer;
+
+import java.util.function.Supplier;
+
+import de.soderer.pac.PacScriptParser;
+import de.soderer.pac.utilities.ProxyConfiguration;
+import de.soderer.pac.utilities.ProxyConfiguration.ProxyConfigurationType;
+import de.soderer.utilities.ConfigurationProperties;
+import de.soderer.utilities.Utilities;
+import de.soderer.utilities.swing.ApplicationConfigurationDialog;
+
+/**
+ * Provides the proxy configuration only when it is needed (e.g. by the update command), because a proxy discovery by WPAD may block for seconds on DNS and HTTP lookups.<br />
+ * The result of a WPAD discovery is stored in the application configuration with its discovery time and is reused by the following runs until it expires.
+ * A proxy type, which was configured by the user (without discovery time), is always used as it is.
+ */
+public class ProxyConfigurationProvider implements Supplier<ProxyConfiguration> {
+	/** Configuration key for the time of the last WPAD discovery in milliseconds */
+	public static final String CONFIG_PROXY_DISCOVERY_TIME = "ProxyDiscoveryTime";
+
+	/** Time to keep the result of a WPAD discovery */
+	public static final long PROXY_DISCOVERY_TTL_MILLIS = 24 * 60 * 60 * 1000L;
+
+	private final ConfigurationProperties applicationConfiguration;
+	private final boolean skipDiscovery;
+	private ProxyConfiguration proxyConfiguration = null;
+	private long proxyConfigurationTime = 0;
+
+	/**
+	 * @param skipDiscovery use no proxy without any WPAD discovery, unless a proxy type was configured by the user
+	 */
+	public ProxyConfigurationProvider(final ConfigurationProperties applicationConfiguration, final boolean skipDiscovery) {
+		this.applicationConfiguration = applicationConfiguration;
+		this.skipDiscovery = skipDiscovery;
+	}
+
+	@Override
+	public synchronized ProxyConfiguration get() {
+		// A long running process (e.g. the daemon) also repeats the discovery after the TTL
+		if (proxyConfiguration == null || System.currentTimeMillis() - proxyConfigurationTime > PROXY_DISCOVERY_TTL_MILLIS) {
+			ProxyConfigurationType proxyConfigurationType;
+			if (applicationConfiguration.containsKey(ApplicationConfigurationDialog.CONFIG_PROXY_CONFIGURATION_TYPE) && !isDiscoveryExpired()) {
+				proxyConfigurationType = ProxyConfigurationType.getFromString(applicationConfiguration.get(ApplicationConfigurationDialog.CONFIG_PROXY_CONFIGURATION_TYPE));
+			} else if (skipDiscovery) {
+				proxyConfigurationType = ProxyConfigurationType.None;
+			} else {
+				if (PacScriptParser.findPacFileUrlByWpad() != null) {
+					proxyConfigurationType = ProxyConfigurationType.WPAD;
+				} else {
+					proxyConfigurationType = ProxyConfigurationType.None;
+				}
+				applicationConfiguration.set(ApplicationConfigurationDialog.CONFIG_PROXY_CONFIGURATION_TYPE, proxyConfigurationType.name());
+				applicationConfiguration.set(CONFIG_PROXY_DISCOVERY_TIME, Long.toString(System.currentTimeMillis()));
+				applicationConfiguration.save();
+			}
+
+			final String proxyUrl = applicationConfiguration.get(ApplicationConfigurationDialog.CONFIG_PROXY_URL);
+			proxyConfiguration = new ProxyConfiguration(proxyConfigurationType, proxyUrl);
+			proxyConfigurationTime = System.currentTimeMillis();
+		}
+		return proxyConfiguration;
+	}
+
+	/**
+	 * Check whether the proxy type was discovered by WPAD longer ago than the discovery TTL
+	 */
+	private boolean isDiscoveryExpired() {
+		final String discoveryTimeString = applicationConfiguration.get(CONFIG_PROXY_DISCOVERY_TIME);
+		if (Utilities.isBlank(discoveryTimeString)) {
+			// Proxy type was configured by the user
+			return false;
+		} else {
+			try {
+				final long discoveryTime = Long.parseLong(discoveryTimeString.trim());
+				return System.currentTimeMillis() - discoveryTime > PROXY_DISCOVERY_TTL_MILLIS || discoveryTime > System.currentTimeMillis();
+			} catch (@SuppressWarnings("unused") final NumberFormatException e) {
+				return true;
+			}
+		}
+	}
+}
@@ -0,0 +1,203 @@
+package de.soderer.mailer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+import de.soderer.mailer.relay.MessageDataBuffer;
+import de.soderer.mailer.smtp.SmtpMessageSink;
+import de.soderer.mailer.smtp.SmtpMessageWriter;
+import jakarta.mail.MessagingException;
+
+/**
+ * Two stage pipeline for batches, whose emails are S/MIME or PGP signed or encrypted, so that rendering is CPU bound.<br />
+ * The emails are rendered (including signature, encryption and DKIM) on a fork join pool with one thread per processor core.
+ * The rendered emails are handed over by a bounded queue to the sending threads, which pass them to the downstream sink
+ * (pooled SMTP connections or spool queue). So the network stage stays busy, while the next emails are rendered.<br />
+ * Rendered emails are kept in memory only up to a maximum size and larger ones in temporary files, so the memory of the queue stays bounded.<br />
+ * During rendering this pipeline is the message sink of the ConsoleMailerTransport, which captures the rendered email of the current render thread.<br />
+ * The results are handed to the result consumer in the same order in which the emails were submitted.
+ */
+public class RenderPipeline implements SmtpMessageSink, Closeable {
+	/** Number of rendered emails, which may wait in the queue for each sending thread */
+	private static final int QUEUE_SIZE_PER_SENDER = 4;
+
+	/** Maximum size of a rendered email, which is kept in memory */
+	private static final int MAX_MEMORY_MESSAGE_SIZE = 256 * 1024;
+
+	/** Rendered email of the current render thread */
+	private static final ThreadLocal<RenderedMessage> CAPTURED_MESSAGE = new ThreadLocal<>();
+
+	private final ForkJoinPool renderPool;
+	private final BlockingQueue<RenderedMessage> renderedMessages;
+	private final Semaphore inProgressPermits;
+	private final List<Thread> senderThreads = new ArrayList<>();
+	private final SmtpMessageSink downstreamSink;
+	private final Consumer<SendResult> resultConsumer;
+
+	private final Map<Long, SendResult> finishedResults = new HashMap<>();
+	private long nextSequenceNumber = 0;
+	private long nextReportedSequenceNumber = 0;
+
+	/**
+	 * Task, which renders one email and hands it over to the ConsoleMailerTransport (e.g. Mailer.send)
+	 */
+	@FunctionalInterface
+	public interface RenderTask {
+		void render() throws Exception;
+	}
+
+	/**
+	 * @param renderThreads number of threads for rendering (usually the number of processor cores)
+	 * @param senderThreads number of threads for sending (usually the number of SMTP connections)
+	 * @param downstreamSink receiver of the rendered emails
+	 * @param resultConsumer receives the results in the order of submission
+	 */
+	public RenderPipeline(final int renderThreads, final int senderThreads, final SmtpMessageSink downstreamSink, final Consumer<SendResult> resultConsumer) {
+		final int maxInProgress = renderThreads + senderThreads * QUEUE_SIZE_PER_SENDER;
+		renderPool = new ForkJoinPool(renderThreads);
+		// The permits limit the emails in rendering and in the queue, so adding to the queue never blocks a render thread
+		renderedMessages = new ArrayBlockingQueue<>(maxInProgress);
+		inProgressPermits = new Semaphore(maxInProgress);
+		this.downstreamSink = downstreamSink;
+		this.resultConsumer = resultConsumer;
+
+		for (int i = 0; i < senderThreads; i++) {
+			final Thread senderThread = new Thread(this::sendRenderedMessages, "RenderPipeline sender " + (i + 1));
+			senderThread.setDaemon(true);
+			senderThread.start();
+			this.senderThreads.add(senderThread);
+		}
+	}
+
+	/**
+	 * Submit the rendering of one email. This blocks while the maximum number of emails is in rendering or waiting in the queue.
+	 *
+	 * @param rowNumber row number of the result
+	 * @param recipients recipients of the result
+	 */
+	public void submit(final int rowNumber, final String recipients, final RenderTask renderTask) throws InterruptedException {
+		inProgressPermits.acquire();
+		final long sequenceNumber;
+		synchronized (this) {
+			sequenceNumber = nextSequenceNumber++;
+		}
+		renderPool.execute(() -> {
+			try {
+				CAPTURED_MESSAGE.remove();
+				renderTask.render();
+				final RenderedMessage renderedMessage = CAPTURED_MESSAGE.get();
+				if (renderedMessage == null) {
+					// Nothing to send (e.g. test mode)
+					inProgressPermits.release();
+					reportResult(sequenceNumber, new SendResult(rowNumber, recipients, null));
+				} else {
+					renderedMessage.sequenceNumber = sequenceNumber;
+					renderedMessage.rowNumber = rowNumber;
+					renderedMessage.recipientsText = recipients;
+					renderedMessages.add(renderedMessage);
+				}
+			} catch (final Exception e) {
+				final RenderedMessage capturedMessage = CAPTURED_MESSAGE.get();
+				if (capturedMessage != null) {
+					capturedMessage.data.close();
+				}
+				inProgressPermits.release();
+				reportResult(sequenceNumber, new SendResult(rowNumber, recipients, e));
+			} finally {
+				CAPTURED_MESSAGE.remove();
+			}
+		});
+	}
+
+	/**
+	 * Capture the rendered email of the current render thread
+	 */
+	@Override
+	public void acceptMessage(final String envelopeFrom, final List<String> recipients, final SmtpMessageWriter messageWriter) throws MessagingException {
+		final MessageDataBuffer messageData;
+		try {
+			messageData = MessageDataBuffer.of(messageWriter, MAX_MEMORY_MESSAGE_SIZE);
+		} catch (final IOException e) {
+			throw new MessagingException("Cannot render message: " + e.getMessage(), e);
+		}
+		CAPTURED_MESSAGE.set(new RenderedMessage(envelopeFrom, recipients, messageData));
+	}
+
+	private void sendRenderedMessages() {
+		try {
+			while (true) {
+				final RenderedMessage renderedMessage = renderedMessages.take();
+				inProgressPermits.release();
+				Exception error = null;
+				try {
+					downstreamSink.acceptMessage(renderedMessage.envelopeFrom, renderedMessage.recipients, renderedMessage.data::writeTo);
+				} catch (final Exception e) {
+					error = e;
+				} finally {
+					renderedMessage.data.close();
+				}
+				reportResult(renderedMessage.sequenceNumber, new SendResult(renderedMessage.rowNumber, renderedMessage.recipientsText, error));
+			}
+		} catch (@SuppressWarnings("unused") final InterruptedException e) {
+			// Pipeline was closed
+		}
+	}
+
+	private synchronized void reportResult(final long sequenceNumber, final SendResult sendResult) {
+		finishedResults.put(sequenceNumber, sendResult);
+		SendResult nextResult;
+		while ((nextResult = finishedResults.remove(nextReportedSequenceNumber)) != null) {
+			resultConsumer.accept(nextResult);
+			nextReportedSequenceNumber++;
+		}
+		notifyAll();
+	}
+
+	/**
+	 * Wait for all submitted emails and report their results
+	 */
+	public synchronized void finish() throws InterruptedException {
+		while (nextReportedSequenceNumber < nextSequenceNumber) {
+			wait();
+		}
+	}
+
+	/**
+	 * Stop rendering and sending. Emails, which were not reported yet, are dropped.
+	 */
+	@Override
+	public void close() {
+		renderPool.shutdownNow();
+		for (final Thread senderThread : senderThreads) {
+			senderThread.interrupt();
+		}
+		RenderedMessage droppedMessage;
+		while ((droppedMessage = renderedMessages.poll()) != null) {
+			droppedMessage.data.close();
+		}
+	}
+
+	private static class RenderedMessage {
+		private final String envelopeFrom;
+		private final List<String> recipients;
+		private final MessageDataBuffer data;
+		private long sequenceNumber;
+		private int rowNumber;
+		private String recipientsText;
+
+		private RenderedMessage(final String envelopeFrom, final List<String> recipients, final MessageDataBuffer data) {
+			this.envelopeFrom = envelopeFrom;
+			this.recipients = new ArrayList<>(recipients);
+			this.data = data;
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package de.soderer.mailer;
+
+import java.io.Closeable;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/**
+ * Engine to send multiple emails concurrently.<br />
+ * Each email is sent by its own (virtual) thread, while the number of emails in progress is limited, so that the
+ * caller is blocked from reading further emails until one of the running emails is finished.<br />
+ * The results are handed to the result consumer in the same order in which the emails were submitted.
+ *
+ * @param <T> type of the result of sending one email
+ */
+public class SendEngine<T> implements Closeable {
+	private final ExecutorService executorService;
+	private final Semaphore inProgressPermits;
+	private final Consumer<T> resultConsumer;
+	private final Deque<Future<T>> pendingResults = new ArrayDeque<>();
+
+	/**
+	 * @param concurrency maximum number of emails sent at the same time
+	 * @param resultConsumer receives the results in the order of submission
+	 */
+	public SendEngine(final int concurrency, final Consumer<T> resultConsumer) {
+		executorService = createExecutorService(concurrency);
+		inProgressPermits = new Semaphore(concurrency);
+		this.resultConsumer = resultConsumer;
+	}
+
+	private static ExecutorService createExecutorService(final int concurrency) {
+		try {
+			// We use reflection here because virtual threads are only present starting from Java 21
+			final Method newVirtualThreadPerTaskExecutor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor", (Class[]) null);
+			return (ExecutorService) newVirtualThreadPerTaskExecutor.invoke(null, (Object[]) null);
+		} catch (@SuppressWarnings("unused") final Exception e) {
+			// Platform threads for Java versions before 21
+			return Executors.newFixedThreadPool(concurrency);
+		}
+	}
+
+	/**
+	 * Submit the sending of one email. This blocks while the maximum number of emails is in progress.
+	 */
+	public void submit(final Callable<T> sendTask) throws InterruptedException, ExecutionException {
+		inProgressPermits.acquire();
+		try {
+			pendingResults.add(executorService.submit(() -> {
+				try {
+					return sendTask.call();
+				} finally {
+					inProgressPermits.release();
+				}
+			}));
+		} catch (final RuntimeException e) {
+			inProgressPermits.release();
+			throw e;
+		}
+		reportFinishedResults(false);
+	}
+
+	/**
+	 * Wait for all submitted emails and report their results
+	 */
+	public void finish() throws InterruptedException, ExecutionException {
+		reportFinishedResults(true);
+	}
+
+	private void reportFinishedResults(final boolean waitForAll) throws InterruptedException, ExecutionException {
+		while (!pendingResults.isEmpty() && (waitForAll || pendingResults.peekFirst().isDone())) {
+			resultConsumer.accept(pendingResults.pollFirst().get());
+		}
+	}
+
+	/**
+	 * Cancel all emails, which were not reported yet, and stop the threads
+	 */
+	@Override
+	public void close() {
+		for (final Future<T> pendingResult : pendingResults) {
+			pendingResult.cancel(true);
+		}
+		pendingResults.clear();
+		executorService.shutdownNow();
+	}
+}
@@ -0,0 +1,37 @@
+package de.soderer.mailer;
+
+/**
+ * Result of sending one email of a batch
+ */
+public class SendResult {
+	private final int rowNumber;
+	private final String recipients;
+	private final Exception error;
+
+	public SendResult(final int rowNumber, final String recipients, final Exception error) {
+		this.rowNumber = rowNumber;
+		this.recipients = recipients;
+		this.error = error;
+	}
+
+	public int getRowNumber() {
+		return rowNumber;
+	}
+
+	public String getRecipients() {
+		return recipients;
+	}
+
+	public boolean isSuccessful() {
+		return error == null;
+	}
+
+	public Exception getError() {
+		return error;
+	}
+
+	@Override
+	public String toString() {
+		return "Row " + rowNumber + (recipients == null ? "" : " (" + recipients + ")") + ": " + (error == null ? "OK" : "ERROR: " + error.getMessage());
+	}
+}
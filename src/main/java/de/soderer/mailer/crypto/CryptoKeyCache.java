@@ -0,0 +1,88 @@
+package de.soderer.mailer.crypto;
+
+import java.io.File;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache for parsed keys and certificates (PGP keys, private keys, X.509 certificates) by file path.<br />
+ * A cached value is only used as long as the size and the modification time of its file are unchanged, otherwise the file is parsed again.
+ * Private keys, which were decrypted with a password, are cached separately for each password.
+ */
+public class CryptoKeyCache {
+	private final Map<String, CachedKey> cachedKeys = new ConcurrentHashMap<>();
+
+	/**
+	 * Parser for the content of a key or certificate file
+	 */
+	@FunctionalInterface
+	public interface KeyLoader<T> {
+		T load(File keyFile) throws Exception;
+	}
+
+	/**
+	 * Get the parsed content of a key file from the cache or parse the file, if it is not cached yet or was changed since it was parsed
+	 *
+	 * @param keyType type of the parsed content (e.g. "pgpsecretkey"), because a file may be parsed in different ways
+	 * @param password optional password, which is needed to parse the file
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T get(final File keyFile, final String keyType, final char[] password, final KeyLoader<T> loader) throws Exception {
+		final String cacheKey = createCacheKey(keyFile, keyType, password);
+		final long lastModified = keyFile.lastModified();
+		final long length = keyFile.length();
+		final CachedKey cachedKey = cachedKeys.get(cacheKey);
+		if (cachedKey != null && cachedKey.lastModified == lastModified && cachedKey.length == length) {
+			return (T) cachedKey.value;
+		}
+
+		final T value = loader.load(keyFile);
+		if (value != null) {
+			cachedKeys.put(cacheKey, new CachedKey(lastModified, length, value));
+		} else {
+			cachedKeys.remove(cacheKey);
+		}
+		return value;
+	}
+
+	/**
+	 * Remove all cached values of a file
+	 */
+	public void invalidate(final File keyFile) {
+		final String cacheKeyPrefix = keyFile.getAbsolutePath() + "\n";
+		cachedKeys.keySet().removeIf(cacheKey -> cacheKey.startsWith(cacheKeyPrefix));
+	}
+
+	public void clear() {
+		cachedKeys.clear();
+	}
+
+	/**
+	 * Create the key of a cached value. Passwords are only kept as hash value.
+	 */
+	private static String createCacheKey(final File keyFile, final String keyType, final char[] password) throws Exception {
+		final StringBuilder cacheKey = new StringBuilder(keyFile.getAbsolutePath()).append("\n").append(keyType);
+		if (password != null) {
+			final MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+			messageDigest.update(StandardCharsets.UTF_8.encode(CharBuffer.wrap(password)));
+			cacheKey.append("\n").append(Base64.getEncoder().encodeToString(messageDigest.digest()));
+		}
+		return cacheKey.toString();
+	}
+
+	private static class CachedKey {
+		private final long lastModified;
+		private final long length;
+		private final Object value;
+
+		private CachedKey(final long lastModified, final long length, final Object value) {
+			this.lastModified = lastModified;
+			this.length = length;
+			this.value = value;
+		}
+	}
+}
@@ -0,0 +1,134 @@
+package de.soderer.mailer.crypto;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+
+import de.soderer.mailer.metrics.CryptoEvent;
+import jakarta.activation.DataHandler;
+import jakarta.mail.Address;
+import jakarta.mail.Header;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.util.ByteArrayDataSource;
+
+/**
+ * Base of the signature and encryption of already rendered emails.<br />
+ * The content of an email is taken as MIME entity including its "Content-*" headers and replaced by the signed or encrypted content.
+ * All other headers of the email are kept.
+ */
+public abstract class MessageContentProcessor {
+	private static final byte[] CRLF = new byte[] { '\r', '\n' };
+
+	/**
+	 * Replace the content of the email by its signed or encrypted content
+	 *
+	 * @param operation {@link CryptoEvent#OPERATION_SIGN} or {@link CryptoEvent#OPERATION_ENCRYPT} for the JFR event
+	 */
+	protected void process(final MimeMessage message, final String operation) throws MessagingException, IOException {
+		final CryptoEvent cryptoEvent = new CryptoEvent();
+		cryptoEvent.begin();
+		final List<String> contentHeaderNames = new ArrayList<>();
+		final List<String> otherHeaderNames = new ArrayList<>();
+		final ByteArrayOutputStream contentEntity = new ByteArrayOutputStream();
+		final Enumeration<Header> headers = message.getAllHeaders();
+		while (headers.hasMoreElements()) {
+			final Header header = headers.nextElement();
+			if (header.getName().toLowerCase(Locale.ROOT).startsWith("content-")) {
+				contentHeaderNames.add(header.getName());
+			} else {
+				otherHeaderNames.add(header.getName());
+			}
+		}
+
+		// Only the "Content-*" headers, the empty line before the body and the body itself are written
+		message.writeTo(contentEntity, otherHeaderNames.toArray(new String[0]));
+
+		final ProcessedContent processedContent = processContentEntity(toCanonicalLinebreaks(contentEntity.toByteArray()));
+
+		for (final String contentHeaderName : contentHeaderNames) {
+			message.removeHeader(contentHeaderName);
+		}
+		message.setDataHandler(new DataHandler(new ByteArrayDataSource(processedContent.data, processedContent.contentType)));
+		message.setHeader("Content-Type", processedContent.contentType);
+		message.setHeader("Content-Transfer-Encoding", processedContent.transferEncoding);
+		if (processedContent.disposition != null) {
+			message.setHeader("Content-Disposition", processedContent.disposition);
+		}
+		if (processedContent.description != null) {
+			message.setHeader("Content-Description", processedContent.description);
+		}
+
+		cryptoEvent.end();
+		if (cryptoEvent.shouldCommit()) {
+			final Address[] recipients = message.getAllRecipients();
+			cryptoEvent.operation = operation;
+			cryptoEvent.processor = getClass().getSimpleName();
+			cryptoEvent.messageSize = contentEntity.size();
+			cryptoEvent.recipientCount = recipients == null ? 0 : recipients.length;
+			cryptoEvent.commit();
+		}
+	}
+
+	/**
+	 * Sign or encrypt the MIME entity of the email content, which starts with the "Content-*" headers and has CRLF linebreaks
+	 */
+	protected abstract ProcessedContent processContentEntity(byte[] contentEntity) throws MessagingException, IOException;
+
+	/**
+	 * Convert single CR and LF characters to CRLF, which is the canonical form of MIME entities
+	 */
+	protected static byte[] toCanonicalLinebreaks(final byte[] data) {
+		final ByteArrayOutputStream canonicalData = new ByteArrayOutputStream(data.length + data.length / 32);
+		for (int i = 0; i < data.length; i++) {
+			if (data[i] == '\r') {
+				canonicalData.write(CRLF, 0, 2);
+				if (i + 1 < data.length && data[i + 1] == '\n') {
+					i++;
+				}
+			} else if (data[i] == '\n') {
+				canonicalData.write(CRLF, 0, 2);
+			} else {
+				canonicalData.write(data[i]);
+			}
+		}
+		return canonicalData.toByteArray();
+	}
+
+	/**
+	 * Normalize an encryption method name for lookups (e.g. "AES256_CBC" and "aes-256-cbc" are equal)
+	 */
+	protected static String normalizeMethodName(final String methodName) {
+		return methodName.toUpperCase(Locale.ROOT).replaceAll("[^A-Z0-9]", "");
+	}
+
+	/**
+	 * Create a unique boundary for the parts of a multipart content
+	 */
+	protected static String createBoundary(final String type) {
+		return "----=_Part_" + type + "_" + UUID.randomUUID().toString().replace("-", "");
+	}
+
+	/**
+	 * Signed or encrypted content and the content headers of the email, which replace the original ones
+	 */
+	protected static class ProcessedContent {
+		private final byte[] data;
+		private final String contentType;
+		private final String transferEncoding;
+		private final String disposition;
+		private final String description;
+
+		protected ProcessedContent(final byte[] data, final String contentType, final String transferEncoding, final String disposition, final String description) {
+			this.data = data;
+			this.contentType = contentType;
+			this.transferEncoding = transferEncoding;
+			this.disposition = disposition;
+			this.description = description;
+		}
+	}
+}
@@ -0,0 +1,23 @@
+package de.soderer.mailer.crypto;
+
+import java.io.IOException;
+
+import de.soderer.mailer.metrics.CryptoEvent;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeMessage;
+
+/**
+ * Encryption of rendered emails for multiple receivers at once.<br />
+ * The content of an email (including its "Content-*" headers and an optional signature) is encrypted only once
+ * with a random content key, which is encrypted for each receivers certificate or public key.
+ * So one encrypted email can be sent to all receivers in one SMTP transaction.<br />
+ * The Mailer itself supports only a single receiver certificate or key, so emails for multiple receivers are encrypted by the ConsoleMailerTransport.
+ */
+public abstract class MessageEncryptor extends MessageContentProcessor {
+	/**
+	 * Replace the content of the email by its encrypted content
+	 */
+	public void encrypt(final MimeMessage message) throws MessagingException, IOException {
+		process(message, CryptoEvent.OPERATION_ENCRYPT);
+	}
+}
@@ -0,0 +1,47 @@
+package de.soderer.mailer.crypto;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import de.soderer.mailer.metrics.CryptoEvent;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeMessage;
+
+/**
+ * Signature of emails, which were not rendered by the Mailer (e.g. emails received by the SMTP listener).<br />
+ * The content of an email (including its "Content-*" headers) is signed by a detached signature and replaced by a "multipart/signed" content (RFC 1847).
+ */
+public abstract class MessageSigner extends MessageContentProcessor {
+	/**
+	 * Replace the content of the email by its signed content
+	 */
+	public void sign(final MimeMessage message) throws MessagingException, IOException {
+		process(message, CryptoEvent.OPERATION_SIGN);
+	}
+
+	/**
+	 * Create the "multipart/signed" content of the signed MIME entity and its detached signature
+	 *
+	 * @param contentEntity signed MIME entity with CRLF linebreaks
+	 * @param signatureHeaders headers of the signature part (without the empty line before the body)
+	 * @param signatureData body of the signature part
+	 * @param protocol protocol of the signature (e.g. "application/pkcs7-signature")
+	 * @param micalg message integrity check algorithm of the signature (e.g. "sha-256")
+	 */
+	protected static ProcessedContent createSignedContent(final byte[] contentEntity, final String signatureHeaders, final byte[] signatureData, final String protocol, final String micalg) throws IOException {
+		final String boundary = createBoundary("Signed");
+		final ByteArrayOutputStream multipartData = new ByteArrayOutputStream(contentEntity.length + signatureData.length + 512);
+		multipartData.write(("--" + boundary + "\r\n").getBytes(StandardCharsets.US_ASCII));
+		multipartData.write(contentEntity);
+		// The linebreak before the boundary is not part of the signed content
+		multipartData.write(("\r\n--" + boundary + "\r\n" + signatureHeaders + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+		multipartData.write(toCanonicalLinebreaks(signatureData));
+		multipartData.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+		return new ProcessedContent(multipartData.toByteArray(),
+				"multipart/signed; protocol=\"" + protocol + "\"; micalg=" + micalg + "; boundary=\"" + boundary + "\"",
+				"7bit",
+				null,
+				null);
+	}
+}
@@ -0,0 +1,161 @@
+package de.soderer.mailer.crypto;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.bouncycastle.bcpg.ArmoredOutputStream;
+import org.bouncycastle.bcpg.SymmetricKeyAlgorithmTags;
+import org.bouncycastle.openpgp.PGPEncryptedDataGenerator;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPLiteralData;
+import org.bouncycastle.openpgp.PGPLiteralDataGenerator;
+import org.bouncycastle.openpgp.PGPPublicKey;
+import org.bouncycastle.openpgp.PGPPublicKeyRing;
+import org.bouncycastle.openpgp.PGPPublicKeyRingCollection;
+import org.bouncycastle.openpgp.PGPUtil;
+import org.bouncycastle.openpgp.operator.bc.BcKeyFingerprintCalculator;
+import org.bouncycastle.openpgp.operator.bc.BcPGPDataEncryptorBuilder;
+import org.bouncycastle.openpgp.operator.bc.BcPublicKeyKeyEncryptionMethodGenerator;
+
+import jakarta.mail.MessagingException;
+
+/**
+ * PGP/MIME encryption (RFC 3156) of emails for multiple receiver public keys.<br />
+ * The content of an email is encrypted once into an OpenPGP message, which contains one encrypted session key for each public key.
+ */
+public class PgpMessageEncryptor extends MessageEncryptor {
+	private static final String DEFAULT_ENCRYPTION_METHOD_NAME = "AES256";
+	private static final String ARMORED_KEY_BLOCK_START = "-----BEGIN PGP PUBLIC KEY BLOCK-----";
+
+	/** Symmetric encryption algorithms by normalized method name */
+	private static final Map<String, Integer> ENCRYPTION_ALGORITHMS = new HashMap<>();
+	static {
+		ENCRYPTION_ALGORITHMS.put("AES128", SymmetricKeyAlgorithmTags.AES_128);
+		ENCRYPTION_ALGORITHMS.put("AES192", SymmetricKeyAlgorithmTags.AES_192);
+		ENCRYPTION_ALGORITHMS.put("AES256", SymmetricKeyAlgorithmTags.AES_256);
+		ENCRYPTION_ALGORITHMS.put("TWOFISH", SymmetricKeyAlgorithmTags.TWOFISH);
+		ENCRYPTION_ALGORITHMS.put("CAMELLIA128", SymmetricKeyAlgorithmTags.CAMELLIA_128);
+		ENCRYPTION_ALGORITHMS.put("CAMELLIA192", SymmetricKeyAlgorithmTags.CAMELLIA_192);
+		ENCRYPTION_ALGORITHMS.put("CAMELLIA256", SymmetricKeyAlgorithmTags.CAMELLIA_256);
+		ENCRYPTION_ALGORITHMS.put("CAST5", SymmetricKeyAlgorithmTags.CAST5);
+		ENCRYPTION_ALGORITHMS.put("BLOWFISH", SymmetricKeyAlgorithmTags.BLOWFISH);
+		ENCRYPTION_ALGORITHMS.put("TRIPLEDES", SymmetricKeyAlgorithmTags.TRIPLE_DES);
+		ENCRYPTION_ALGORITHMS.put("3DES", SymmetricKeyAlgorithmTags.TRIPLE_DES);
+	}
+
+	private final List<PGPPublicKey> encryptionPublicKeys;
+	private final int encryptionAlgorithm;
+	private final SecureRandom secureRandom = new SecureRandom();
+
+	/**
+	 * @param encryptionPublicKeys receiver public keys, which are able to encrypt
+	 * @param encryptionMethodName optional symmetric encryption method name (default "AES256")
+	 */
+	public PgpMessageEncryptor(final List<PGPPublicKey> encryptionPublicKeys, final String encryptionMethodName) {
+		if (encryptionPublicKeys == null || encryptionPublicKeys.isEmpty()) {
+			throw new IllegalArgumentException("Missing PGP encryption public keys");
+		}
+		this.encryptionPublicKeys = new ArrayList<>(encryptionPublicKeys);
+
+		final String methodName = encryptionMethodName == null ? DEFAULT_ENCRYPTION_METHOD_NAME : encryptionMethodName;
+		final Integer algorithm = ENCRYPTION_ALGORITHMS.get(normalizeMethodName(methodName));
+		if (algorithm == null) {
+			throw new IllegalArgumentException("Unsupported PGP encryption method name '" + methodName + "'");
+		}
+		encryptionAlgorithm = algorithm;
+	}
+
+	/**
+	 * Read all encryption public keys of a key file, which may contain multiple armored or binary key rings.<br />
+	 * Of each key ring the first key, which is able to encrypt and is not revoked, is used.
+	 */
+	public static List<PGPPublicKey> readPublicKeys(final File keyFile) throws IOException, PGPException {
+		final byte[] keyFileData = Files.readAllBytes(keyFile.toPath());
+		final String keyFileText = new String(keyFileData, StandardCharsets.ISO_8859_1);
+		final List<PGPPublicKey> publicKeys = new ArrayList<>();
+		int blockStart = keyFileText.indexOf(ARMORED_KEY_BLOCK_START);
+		if (blockStart < 0) {
+			readPublicKeys(new ByteArrayInputStream(keyFileData), publicKeys);
+		} else {
+			// Each armored block is decoded separately, because an armored stream ends with its first block
+			while (blockStart >= 0) {
+				final int nextBlockStart = keyFileText.indexOf(ARMORED_KEY_BLOCK_START, blockStart + ARMORED_KEY_BLOCK_START.length());
+				final byte[] blockData = Arrays.copyOfRange(keyFileData, blockStart, nextBlockStart < 0 ? keyFileData.length : nextBlockStart);
+				try (InputStream blockInputStream = PGPUtil.getDecoderStream(new ByteArrayInputStream(blockData))) {
+					readPublicKeys(blockInputStream, publicKeys);
+				}
+				blockStart = nextBlockStart;
+			}
+		}
+		return publicKeys;
+	}
+
+	private static void readPublicKeys(final InputStream keyInputStream, final List<PGPPublicKey> publicKeys) throws IOException, PGPException {
+		final PGPPublicKeyRingCollection publicKeyRings = new PGPPublicKeyRingCollection(keyInputStream, new BcKeyFingerprintCalculator());
+		final Iterator<PGPPublicKeyRing> publicKeyRingIterator = publicKeyRings.getKeyRings();
+		while (publicKeyRingIterator.hasNext()) {
+			final Iterator<PGPPublicKey> publicKeyIterator = publicKeyRingIterator.next().getPublicKeys();
+			while (publicKeyIterator.hasNext()) {
+				final PGPPublicKey publicKey = publicKeyIterator.next();
+				if (publicKey.isEncryptionKey() && !publicKey.hasRevocation()) {
+					publicKeys.add(publicKey);
+					break;
+				}
+			}
+		}
+	}
+
+	@Override
+	protected ProcessedContent processContentEntity(final byte[] contentEntity) throws MessagingException, IOException {
+		final ByteArrayOutputStream armoredData = new ByteArrayOutputStream(contentEntity.length * 4 / 3 + 1024);
+		try {
+			final PGPEncryptedDataGenerator encryptedDataGenerator = new PGPEncryptedDataGenerator(new BcPGPDataEncryptorBuilder(encryptionAlgorithm).setWithIntegrityPacket(true).setSecureRandom(secureRandom));
+			for (final PGPPublicKey encryptionPublicKey : encryptionPublicKeys) {
+				encryptedDataGenerator.addMethod(new BcPublicKeyKeyEncryptionMethodGenerator(encryptionPublicKey).setSecureRandom(secureRandom));
+			}
+			try (ArmoredOutputStream armoredOutputStream = new ArmoredOutputStream(armoredData);
+					OutputStream encryptedOutputStream = encryptedDataGenerator.open(armoredOutputStream, new byte[1 << 16]);
+					OutputStream literalOutputStream = new PGPLiteralDataGenerator().open(encryptedOutputStream, PGPLiteralData.BINARY, "", contentEntity.length, new Date())) {
+				literalOutputStream.write(contentEntity);
+			}
+		} catch (final PGPException e) {
+			throw new MessagingException("Cannot encrypt email by PGP: " + e.getMessage(), e);
+		}
+
+		final String boundary = createBoundary("Encrypted");
+		final ByteArrayOutputStream multipartData = new ByteArrayOutputStream(armoredData.size() + 512);
+		multipartData.write(("--" + boundary + "\r\n"
+				+ "Content-Type: application/pgp-encrypted\r\n"
+				+ "Content-Description: PGP/MIME version identification\r\n"
+				+ "\r\n"
+				+ "Version: 1\r\n"
+				+ "\r\n"
+				+ "--" + boundary + "\r\n"
+				+ "Content-Type: application/octet-stream; name=\"encrypted.asc\"\r\n"
+				+ "Content-Description: OpenPGP encrypted message\r\n"
+				+ "Content-Disposition: inline; filename=\"encrypted.asc\"\r\n"
+				+ "\r\n").getBytes(StandardCharsets.US_ASCII));
+		multipartData.write(toCanonicalLinebreaks(armoredData.toByteArray()));
+		multipartData.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+
+		return new ProcessedContent(multipartData.toByteArray(),
+				"multipart/encrypted; protocol=\"application/pgp-encrypted\"; boundary=\"" + boundary + "\"",
+				"7bit",
+				null,
+				"OpenPGP encrypted message");
+	}
+}
@@ -0,0 +1,85 @@
+package de.soderer.mailer.crypto;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.bouncycastle.bcpg.ArmoredOutputStream;
+import org.bouncycastle.bcpg.HashAlgorithmTags;
+import org.bouncycastle.openpgp.PGPException;
+import org.bouncycastle.openpgp.PGPPrivateKey;
+import org.bouncycastle.openpgp.PGPSecretKey;
+import org.bouncycastle.openpgp.PGPSignature;
+import org.bouncycastle.openpgp.PGPSignatureGenerator;
+import org.bouncycastle.openpgp.operator.bc.BcPBESecretKeyDecryptorBuilder;
+import org.bouncycastle.openpgp.operator.bc.BcPGPContentSignerBuilder;
+import org.bouncycastle.openpgp.operator.bc.BcPGPDigestCalculatorProvider;
+
+import jakarta.mail.MessagingException;
+
+/**
+ * PGP/MIME signature (RFC 3156) of emails by a detached OpenPGP signature.<br />
+ * The secret key is decrypted only once, when the signer is created.
+ */
+public class PgpMessageSigner extends MessageSigner {
+	private static final String DEFAULT_SIGNATURE_METHOD_NAME = "SHA512";
+
+	/** Hash algorithms by normalized method name */
+	private static final Map<String, Integer> HASH_ALGORITHMS = new HashMap<>();
+	static {
+		HASH_ALGORITHMS.put("SHA1", HashAlgorithmTags.SHA1);
+		HASH_ALGORITHMS.put("SHA224", HashAlgorithmTags.SHA224);
+		HASH_ALGORITHMS.put("SHA256", HashAlgorithmTags.SHA256);
+		HASH_ALGORITHMS.put("SHA384", HashAlgorithmTags.SHA384);
+		HASH_ALGORITHMS.put("SHA512", HashAlgorithmTags.SHA512);
+	}
+
+	private final PGPSecretKey signatureSecretKey;
+	private final PGPPrivateKey signaturePrivateKey;
+	private final int hashAlgorithm;
+	private final String micalg;
+
+	/**
+	 * @param signatureKeyPassword optional password of the secret key
+	 * @param signatureMethodName optional hash method name (default "SHA512")
+	 */
+	public PgpMessageSigner(final PGPSecretKey signatureSecretKey, final char[] signatureKeyPassword, final String signatureMethodName) throws PGPException {
+		if (signatureSecretKey == null) {
+			throw new IllegalArgumentException("Missing PGP signature secret key");
+		}
+		this.signatureSecretKey = signatureSecretKey;
+		signaturePrivateKey = signatureSecretKey.extractPrivateKey(new BcPBESecretKeyDecryptorBuilder(new BcPGPDigestCalculatorProvider()).build(signatureKeyPassword == null ? new char[0] : signatureKeyPassword));
+
+		final String methodName = normalizeMethodName(signatureMethodName == null ? DEFAULT_SIGNATURE_METHOD_NAME : signatureMethodName);
+		final Integer algorithm = HASH_ALGORITHMS.get(methodName);
+		if (algorithm == null) {
+			throw new IllegalArgumentException("Unsupported PGP signature method name '" + signatureMethodName + "'");
+		}
+		hashAlgorithm = algorithm;
+		micalg = "pgp-" + methodName.toLowerCase(Locale.ROOT);
+	}
+
+	@Override
+	protected ProcessedContent processContentEntity(final byte[] contentEntity) throws MessagingException, IOException {
+		final ByteArrayOutputStream armoredSignature = new ByteArrayOutputStream();
+		try {
+			final PGPSignatureGenerator signatureGenerator = new PGPSignatureGenerator(new BcPGPContentSignerBuilder(signatureSecretKey.getPublicKey().getAlgorithm(), hashAlgorithm), signatureSecretKey.getPublicKey());
+			signatureGenerator.init(PGPSignature.BINARY_DOCUMENT, signaturePrivateKey);
+			signatureGenerator.update(contentEntity);
+			try (ArmoredOutputStream armoredOutputStream = new ArmoredOutputStream(armoredSignature)) {
+				signatureGenerator.generate().encode(armoredOutputStream);
+			}
+		} catch (final PGPException e) {
+			throw new MessagingException("Cannot sign email by PGP: " + e.getMessage(), e);
+		}
+		return createSignedContent(contentEntity,
+				"Content-Type: application/pgp-signature; name=\"signature.asc\"\r\n"
+						+ "Content-Description: OpenPGP digital signature\r\n"
+						+ "Content-Disposition: attachment; filename=\"signature.asc\"",
+				armoredSignature.toByteArray(),
+				"application/pgp-signature",
+				micalg);
+	}
+}
@@ -0,0 +1,92 @@
+package de.soderer.mailer.crypto;
+
+import java.io.IOException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.cms.CMSAlgorithm;
+import org.bouncycastle.cms.CMSEnvelopedDataGenerator;
+import org.bouncycastle.cms.CMSException;
+import org.bouncycastle.cms.CMSProcessableByteArray;
+import org.bouncycastle.cms.RecipientInfoGenerator;
+import org.bouncycastle.cms.jcajce.JceCMSContentEncryptorBuilder;
+import org.bouncycastle.cms.jcajce.JceKeyTransRecipientInfoGenerator;
+
+import jakarta.mail.MessagingException;
+
+/**
+ * S/MIME encryption (RFC 8551) of emails for multiple receiver certificates.<br />
+ * The content of an email is encrypted once into a CMS EnvelopedData structure, which contains one RecipientInfo for each certificate.
+ */
+public class SmimeMessageEncryptor extends MessageEncryptor {
+	private static final String DEFAULT_ENCRYPTION_METHOD_NAME = "AES256_CBC";
+
+	/** Content encryption algorithms by normalized method name */
+	private static final Map<String, ASN1ObjectIdentifier> ENCRYPTION_ALGORITHMS = new HashMap<>();
+	static {
+		ENCRYPTION_ALGORITHMS.put("AES128CBC", CMSAlgorithm.AES128_CBC);
+		ENCRYPTION_ALGORITHMS.put("AES128", CMSAlgorithm.AES128_CBC);
+		ENCRYPTION_ALGORITHMS.put("AES192CBC", CMSAlgorithm.AES192_CBC);
+		ENCRYPTION_ALGORITHMS.put("AES192", CMSAlgorithm.AES192_CBC);
+		ENCRYPTION_ALGORITHMS.put("AES256CBC", CMSAlgorithm.AES256_CBC);
+		ENCRYPTION_ALGORITHMS.put("AES256", CMSAlgorithm.AES256_CBC);
+		ENCRYPTION_ALGORITHMS.put("DESEDE3CBC", CMSAlgorithm.DES_EDE3_CBC);
+		ENCRYPTION_ALGORITHMS.put("DESEDE", CMSAlgorithm.DES_EDE3_CBC);
+		ENCRYPTION_ALGORITHMS.put("3DES", CMSAlgorithm.DES_EDE3_CBC);
+		ENCRYPTION_ALGORITHMS.put("CAMELLIA128CBC", CMSAlgorithm.CAMELLIA128_CBC);
+		ENCRYPTION_ALGORITHMS.put("CAMELLIA192CBC", CMSAlgorithm.CAMELLIA192_CBC);
+		ENCRYPTION_ALGORITHMS.put("CAMELLIA256CBC", CMSAlgorithm.CAMELLIA256_CBC);
+	}
+
+	private final List<RecipientInfoGenerator> recipientInfoGenerators = new ArrayList<>();
+	private final ASN1ObjectIdentifier encryptionAlgorithm;
+
+	/**
+	 * @param encryptionCertificates receiver certificates with RSA keys
+	 * @param encryptionMethodName optional content encryption method name (default "AES256_CBC")
+	 */
+	public SmimeMessageEncryptor(final List<X509Certificate> encryptionCertificates, final String encryptionMethodName) throws CertificateEncodingException {
+		if (encryptionCertificates == null || encryptionCertificates.isEmpty()) {
+			throw new IllegalArgumentException("Missing S/MIME encryption certificates");
+		}
+		for (final X509Certificate encryptionCertificate : encryptionCertificates) {
+			if (!"RSA".equalsIgnoreCase(encryptionCertificate.getPublicKey().getAlgorithm())) {
+				throw new IllegalArgumentException("Unsupported key algorithm '" + encryptionCertificate.getPublicKey().getAlgorithm() + "' of S/MIME encryption certificate '" + encryptionCertificate.getSubjectX500Principal() + "'");
+			}
+			recipientInfoGenerators.add(new JceKeyTransRecipientInfoGenerator(encryptionCertificate));
+		}
+
+		final String methodName = encryptionMethodName == null ? DEFAULT_ENCRYPTION_METHOD_NAME : encryptionMethodName;
+		if (methodName.matches("[0-9]+(\\.[0-9]+)+")) {
+			encryptionAlgorithm = new ASN1ObjectIdentifier(methodName);
+		} else {
+			encryptionAlgorithm = ENCRYPTION_ALGORITHMS.get(normalizeMethodName(methodName));
+			if (encryptionAlgorithm == null) {
+				throw new IllegalArgumentException("Unsupported S/MIME encryption method name '" + methodName + "'");
+			}
+		}
+	}
+
+	@Override
+	protected ProcessedContent processContentEntity(final byte[] contentEntity) throws MessagingException, IOException {
+		try {
+			final CMSEnvelopedDataGenerator envelopedDataGenerator = new CMSEnvelopedDataGenerator();
+			for (final RecipientInfoGenerator recipientInfoGenerator : recipientInfoGenerators) {
+				envelopedDataGenerator.addRecipientInfoGenerator(recipientInfoGenerator);
+			}
+			final byte[] envelopedData = envelopedDataGenerator.generate(new CMSProcessableByteArray(contentEntity), new JceCMSContentEncryptorBuilder(encryptionAlgorithm).build()).getEncoded();
+			return new ProcessedContent(envelopedData,
+					"application/pkcs7-mime; name=\"smime.p7m\"; smime-type=enveloped-data",
+					"base64",
+					"attachment; filename=\"smime.p7m\"",
+					"S/MIME Encrypted Message");
+		} catch (final CMSException e) {
+			throw new MessagingException("Cannot encrypt email by S/MIME: " + e.getMessage(), e);
+		}
+	}
+}
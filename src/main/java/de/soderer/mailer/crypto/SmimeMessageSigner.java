@@ -0,0 +1,77 @@
+package de.soderer.mailer.crypto;
+
+import java.io.IOException;
+import java.security.PrivateKey;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+import java.util.Collections;
+
+import org.bouncycastle.cert.jcajce.JcaCertStore;
+import org.bouncycastle.cms.CMSException;
+import org.bouncycastle.cms.CMSProcessableByteArray;
+import org.bouncycastle.cms.CMSSignedDataGenerator;
+import org.bouncycastle.cms.jcajce.JcaSimpleSignerInfoGeneratorBuilder;
+import org.bouncycastle.operator.OperatorCreationException;
+
+import jakarta.mail.MessagingException;
+
+/**
+ * S/MIME signature (RFC 8551) of emails by a detached CMS SignedData structure, which contains the signer certificate
+ */
+public class SmimeMessageSigner extends MessageSigner {
+	private final PrivateKey signaturePrivateKey;
+	private final X509Certificate signatureCertificate;
+	private final JcaCertStore certificateStore;
+	private final String signatureAlgorithm;
+	private final String micalg;
+
+	/**
+	 * @param signatureMethodName optional JCA signature algorithm (default "SHA512withRSA" or "SHA512withECDSA" depending on the key)
+	 */
+	public SmimeMessageSigner(final PrivateKey signaturePrivateKey, final X509Certificate signatureCertificate, final String signatureMethodName) throws CertificateEncodingException {
+		if (signaturePrivateKey == null || signatureCertificate == null) {
+			throw new IllegalArgumentException("Missing S/MIME signature private key or certificate");
+		}
+		this.signaturePrivateKey = signaturePrivateKey;
+		this.signatureCertificate = signatureCertificate;
+		certificateStore = new JcaCertStore(Collections.singletonList(signatureCertificate));
+		if (signatureMethodName != null) {
+			signatureAlgorithm = signatureMethodName;
+		} else if ("EC".equalsIgnoreCase(signaturePrivateKey.getAlgorithm())) {
+			signatureAlgorithm = "SHA512withECDSA";
+		} else {
+			signatureAlgorithm = "SHA512withRSA";
+		}
+
+		final String normalizedAlgorithm = normalizeMethodName(signatureAlgorithm);
+		if (normalizedAlgorithm.startsWith("SHA1")) {
+			micalg = "sha-1";
+		} else if (normalizedAlgorithm.startsWith("SHA256") || normalizedAlgorithm.startsWith("SHA384") || normalizedAlgorithm.startsWith("SHA512")) {
+			micalg = "sha-" + normalizedAlgorithm.substring(3, 6);
+		} else {
+			throw new IllegalArgumentException("Unsupported S/MIME signature method name '" + signatureAlgorithm + "'");
+		}
+	}
+
+	@Override
+	protected ProcessedContent processContentEntity(final byte[] contentEntity) throws MessagingException, IOException {
+		try {
+			// Signature engines are not thread safe, so each signature gets its own generator
+			final CMSSignedDataGenerator signedDataGenerator = new CMSSignedDataGenerator();
+			signedDataGenerator.addSignerInfoGenerator(new JcaSimpleSignerInfoGeneratorBuilder().build(signatureAlgorithm, signaturePrivateKey, signatureCertificate));
+			signedDataGenerator.addCertificates(certificateStore);
+			final byte[] signedData = signedDataGenerator.generate(new CMSProcessableByteArray(contentEntity), false).getEncoded();
+			return createSignedContent(contentEntity,
+					"Content-Type: application/pkcs7-signature; name=\"smime.p7s\"\r\n"
+							+ "Content-Transfer-Encoding: base64\r\n"
+							+ "Content-Disposition: attachment; filename=\"smime.p7s\"\r\n"
+							+ "Content-Description: S/MIME Cryptographic Signature",
+					Base64.getMimeEncoder().encode(signedData),
+					"application/pkcs7-signature",
+					micalg);
+		} catch (final CMSException | OperatorCreationException | CertificateEncodingException e) {
+			throw new MessagingException("Cannot sign email by S/MIME: " + e.getMessage(), e);
+		}
+	}
+}
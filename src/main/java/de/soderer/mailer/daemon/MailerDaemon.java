@@ -0,0 +1,291 @@
+package de.soderer.mailer.daemon;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Long running ConsoleMailer process, which accepts send jobs by a Unix domain socket.<br />
+ * The JVM startup, class loading, crypto provider initialization and configuration loading are done only once,
+ * and parsed keys and certificates stay cached for the following jobs.<br />
+ * A job consists of the same parameters as a ConsoleMailer call. The jobs are executed concurrently,
+ * each job writes its output to its own streams, which are sent to the client, which submitted the job.<br />
+ * The socket file is created within a directory, which is only accessible by the owner of the daemon process.<br />
+ * <br />
+ * Protocol (UTF-8 text lines, backslash, CR and LF within values are escaped by "\\", "\r" and "\n"):<br />
+ * Request: "CWD &lt;directory&gt;", one line "ARG &lt;argument&gt;" per argument, "END"<br />
+ * Response: Lines "OUT &lt;text&gt;" and "ERR &lt;text&gt;" for the output of the job, "EXIT &lt;returnCode&gt;"
+ */
+public class MailerDaemon implements Closeable {
+	static final String REQUEST_WORKING_DIRECTORY = "CWD ";
+	static final String REQUEST_ARGUMENT = "ARG ";
+	static final String REQUEST_END = "END";
+	static final String RESPONSE_OUTPUT = "OUT ";
+	static final String RESPONSE_ERROR = "ERR ";
+	static final String RESPONSE_EXIT = "EXIT ";
+
+	private static final Set<PosixFilePermission> PRIVATE_DIRECTORY_PERMISSIONS = PosixFilePermissions.fromString("rwx------");
+
+	private final File socketFile;
+	private final JobExecutor jobExecutor;
+	private ServerSocketChannel serverChannel = null;
+	private volatile boolean closed = false;
+
+	/**
+	 * Execution of one job with the parameters of a ConsoleMailer call
+	 */
+	@FunctionalInterface
+	public interface JobExecutor {
+		/**
+		 * @param workingDirectory current directory of the client for relative file paths
+		 * @param out standard output of the job, which is sent to the client
+		 * @param err error output of the job, which is sent to the client
+		 * @return return code of the job
+		 */
+		int execute(List<String> arguments, File workingDirectory, PrintStream out, PrintStream err);
+	}
+
+	/**
+	 * Default socket file in a private directory within the configuration directory of the user
+	 */
+	public static File getDefaultSocketFile(final String applicationName) {
+		return new File(System.getProperty("user.home") + File.separator + "." + applicationName + File.separator + "daemon" + File.separator + "daemon.socket");
+	}
+
+	public MailerDaemon(final File socketFile, final JobExecutor jobExecutor) {
+		this.socketFile = socketFile;
+		this.jobExecutor = jobExecutor;
+	}
+
+	/**
+	 * Create the socket file, so that clients can connect
+	 */
+	public void open() throws IOException {
+		if (socketFile.exists()) {
+			boolean isRunning;
+			try (@SuppressWarnings("unused") MailerDaemonClient client = new MailerDaemonClient(socketFile)) {
+				isRunning = true;
+			} catch (@SuppressWarnings("unused") final IOException e) {
+				isRunning = false;
+			}
+			if (isRunning) {
+				throw new IOException("Daemon is already running on socket " + socketFile.getAbsolutePath());
+			} else {
+				// Socket file of a terminated daemon
+				Files.delete(socketFile.toPath());
+			}
+		}
+		createPrivateDirectory(socketFile.getAbsoluteFile().getParentFile().toPath());
+
+		serverChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+		serverChannel.bind(UnixDomainSocketAddress.of(socketFile.toPath()));
+	}
+
+	/**
+	 * Create the directory of the socket file, which is only accessible by the owner, or check the permissions of an existing directory.<br />
+	 * The socket file itself is created with the default permissions, so it is protected by its directory from the moment it is bound.
+	 */
+	private static void createPrivateDirectory(final Path directory) throws IOException {
+		if (!Files.exists(directory)) {
+			if (directory.getParent() != null) {
+				Files.createDirectories(directory.getParent());
+			}
+			try {
+				Files.createDirectory(directory, PosixFilePermissions.asFileAttribute(PRIVATE_DIRECTORY_PERMISSIONS));
+			} catch (@SuppressWarnings("unused") final UnsupportedOperationException e) {
+				// Filesystem without POSIX permissions
+				Files.createDirectory(directory);
+			}
+		} else {
+			final Set<PosixFilePermission> permissions;
+			try {
+				permissions = Files.getPosixFilePermissions(directory);
+			} catch (@SuppressWarnings("unused") final UnsupportedOperationException e) {
+				// Filesystem without POSIX permissions
+				return;
+			}
+			if (!PRIVATE_DIRECTORY_PERMISSIONS.containsAll(permissions)) {
+				throw new IOException("Directory of the daemon socket must only be accessible by its owner (permissions rwx------): " + directory.toAbsolutePath());
+			}
+		}
+	}
+
+	/**
+	 * Accept and execute jobs until the daemon is closed
+	 */
+	public void run() throws IOException {
+		try {
+			while (!closed) {
+				final SocketChannel clientChannel;
+				try {
+					clientChannel = serverChannel.accept();
+				} catch (final ClosedChannelException e) {
+					if (closed) {
+						break;
+					} else {
+						throw e;
+					}
+				}
+				final Thread clientThread = new Thread(() -> handleClient(clientChannel), "MailerDaemon client");
+				clientThread.setDaemon(true);
+				clientThread.start();
+			}
+		} finally {
+			close();
+		}
+	}
+
+	private void handleClient(final SocketChannel clientChannel) {
+		try (SocketChannel channel = clientChannel) {
+			final BufferedReader reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+			File workingDirectory = null;
+			final List<String> arguments = new ArrayList<>();
+			String line;
+			while ((line = reader.readLine()) != null && !REQUEST_END.equals(line)) {
+				if (line.startsWith(REQUEST_WORKING_DIRECTORY)) {
+					workingDirectory = new File(unescape(line.substring(REQUEST_WORKING_DIRECTORY.length())));
+				} else if (line.startsWith(REQUEST_ARGUMENT)) {
+					arguments.add(unescape(line.substring(REQUEST_ARGUMENT.length())));
+				} else {
+					throw new IOException("Invalid daemon request line: " + line);
+				}
+			}
+			if (line == null) {
+				// Client disconnected before the request was complete
+				return;
+			}
+
+			final Writer writer = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8));
+			final int returnCode;
+			try (PrintStream jobOut = new PrintStream(new ResponseOutputStream(writer, RESPONSE_OUTPUT), true, StandardCharsets.UTF_8);
+					PrintStream jobErr = new PrintStream(new ResponseOutputStream(writer, RESPONSE_ERROR), true, StandardCharsets.UTF_8)) {
+				returnCode = jobExecutor.execute(arguments, workingDirectory == null ? new File(System.getProperty("user.dir")) : workingDirectory, jobOut, jobErr);
+			}
+			synchronized (writer) {
+				writer.write(RESPONSE_EXIT + returnCode + "\n");
+				writer.flush();
+			}
+		} catch (final IOException e) {
+			if (!closed) {
+				System.err.println("Daemon job failed: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Stop accepting jobs and remove the socket file
+	 */
+	@Override
+	public synchronized void close() {
+		closed = true;
+		if (serverChannel != null) {
+			try {
+				serverChannel.close();
+			} catch (@SuppressWarnings("unused") final IOException e) {
+				// Do nothing
+			}
+			serverChannel = null;
+			try {
+				Files.deleteIfExists(socketFile.toPath());
+			} catch (@SuppressWarnings("unused") final IOException e) {
+				// Do nothing
+			}
+		}
+	}
+
+	static String escape(final String value) {
+		return value.replace("\\", "\\\\").replace("\r", "\\r").replace("\n", "\\n");
+	}
+
+	static String unescape(final String value) {
+		final StringBuilder result = new StringBuilder(value.length());
+		for (int i = 0; i < value.length(); i++) {
+			final char nextChar = value.charAt(i);
+			if (nextChar == '\\' && i + 1 < value.length()) {
+				i++;
+				final char escapedChar = value.charAt(i);
+				if (escapedChar == 'n') {
+					result.append('\n');
+				} else if (escapedChar == 'r') {
+					result.append('\r');
+				} else {
+					result.append(escapedChar);
+				}
+			} else {
+				result.append(nextChar);
+			}
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Output of a job, which is sent to the client line by line
+	 */
+	private static class ResponseOutputStream extends OutputStream {
+		private final Writer writer;
+		private final String linePrefix;
+		private final ByteArrayOutputStream lineBuffer = new ByteArrayOutputStream();
+
+		private ResponseOutputStream(final Writer writer, final String linePrefix) {
+			this.writer = writer;
+			this.linePrefix = linePrefix;
+		}
+
+		@Override
+		public synchronized void write(final int nextByte) throws IOException {
+			if (nextByte == '\n') {
+				sendLine();
+			} else {
+				lineBuffer.write(nextByte);
+			}
+		}
+
+		@Override
+		public synchronized void write(final byte[] data, final int offset, final int length) throws IOException {
+			for (int i = offset; i < offset + length; i++) {
+				write(data[i]);
+			}
+		}
+
+		@Override
+		public synchronized void close() throws IOException {
+			if (lineBuffer.size() > 0) {
+				sendLine();
+			}
+		}
+
+		private void sendLine() throws IOException {
+			String line = lineBuffer.toString(StandardCharsets.UTF_8);
+			if (line.endsWith("\r")) {
+				line = line.substring(0, line.length() - 1);
+			}
+			lineBuffer.reset();
+			synchronized (writer) {
+				writer.write(linePrefix + escape(line) + "\n");
+				writer.flush();
+			}
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package de.soderer.mailer.daemon;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Thin client, which hands the parameters of a ConsoleMailer call over to a running MailerDaemon and prints the output of the job
+ */
+public class MailerDaemonClient implements Closeable {
+	private final SocketChannel channel;
+
+	/**
+	 * Connect to the daemon
+	 *
+	 * @throws IOException if no daemon is running on this socket
+	 */
+	public MailerDaemonClient(final File socketFile) throws IOException {
+		channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+		try {
+			channel.connect(UnixDomainSocketAddress.of(socketFile.toPath()));
+		} catch (final IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Execute a job by the daemon
+	 *
+	 * @param workingDirectory directory for relative file paths of the parameters
+	 * @return return code of the job
+	 */
+	public int execute(final List<String> arguments, final File workingDirectory, final PrintStream out, final PrintStream err) throws IOException {
+		final Writer writer = new OutputStreamWriter(Channels.newOutputStream(channel), StandardCharsets.UTF_8);
+		writer.write(MailerDaemon.REQUEST_WORKING_DIRECTORY + MailerDaemon.escape(workingDirectory.getAbsolutePath()) + "\n");
+		for (final String argument : arguments) {
+			writer.write(MailerDaemon.REQUEST_ARGUMENT + MailerDaemon.escape(argument) + "\n");
+		}
+		writer.write(MailerDaemon.REQUEST_END + "\n");
+		writer.flush();
+
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+		String line;
+		while ((line = reader.readLine()) != null) {
+			if (line.startsWith(MailerDaemon.RESPONSE_OUTPUT)) {
+				out.println(MailerDaemon.unescape(line.substring(MailerDaemon.RESPONSE_OUTPUT.length())));
+			} else if (line.startsWith(MailerDaemon.RESPONSE_ERROR)) {
+				err.println(MailerDaemon.unescape(line.substring(MailerDaemon.RESPONSE_ERROR.length())));
+			} else if (line.startsWith(MailerDaemon.RESPONSE_EXIT)) {
+				try {
+					return Integer.parseInt(line.substring(MailerDaemon.RESPONSE_EXIT.length()).trim());
+				} catch (@SuppressWarnings("unused") final NumberFormatException e) {
+					throw new IOException("Invalid daemon response line: " + line);
+				}
+			} else {
+				throw new IOException("Invalid daemon response line: " + line);
+			}
+		}
+		throw new IOException("Daemon closed the connection before the job was finished");
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,195 @@
+package de.soderer.mailer.dkim;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+
+/**
+ * OutputStream for a complete rendered message, which keeps the message headers as they were written and writes the body in "relaxed" canonical form (RFC 6376 3.4.4).<br />
+ * Linebreaks are normalized to CRLF in the same way as the SMTP DATA stream does, sequences of whitespace are reduced to a single space,
+ * whitespace at the end of lines and empty lines at the end of the body are removed.<br />
+ * Bodies up to a maximum size are only kept in memory and not hashed, so that the body hash of an identical body can be reused.
+ * Larger bodies are hashed while they are written.<br />
+ * Messages up to a maximum size are also kept as they were written, so that they need not be rendered again for their transmission.
+ */
+class DkimBodyOutputStream extends OutputStream {
+	private static final byte[] CRLF = new byte[] { '\r', '\n' };
+
+	private final int maxRetainedSize;
+	private final int maxRenderedSize;
+	private ByteArrayOutputStream renderedMessage;
+	private final byte[] buffer = new byte[8192];
+	private int bufferLength = 0;
+	private final MessageDigest bodyDigest;
+	private ByteArrayOutputStream retainedBody;
+	private final ByteArrayOutputStream headerData = new ByteArrayOutputStream();
+
+	private boolean inHeaders = true;
+	private boolean headerEndLineFeedPending = false;
+	private boolean lastWasCarriageReturn = false;
+	private boolean lineHasContent = false;
+	private boolean pendingWhitespace = false;
+	private int pendingEmptyLines = 0;
+	private long messageSize = 0;
+
+	/**
+	 * @param bodyDigest digest for bodies, which are larger than the maximum retained size
+	 * @param maxRetainedSize maximum size of the canonical body, which is kept in memory instead of being hashed
+	 * @param maxRenderedSize maximum size of the message, which is kept as it was written
+	 */
+	DkimBodyOutputStream(final MessageDigest bodyDigest, final int maxRetainedSize, final int maxRenderedSize) {
+		this.bodyDigest = bodyDigest;
+		this.maxRetainedSize = maxRetainedSize;
+		this.maxRenderedSize = maxRenderedSize;
+		retainedBody = new ByteArrayOutputStream();
+		renderedMessage = new ByteArrayOutputStream();
+	}
+
+	@Override
+	public void write(final int nextByte) {
+		if (renderedMessage != null) {
+			if (renderedMessage.size() < maxRenderedSize) {
+				renderedMessage.write(nextByte);
+			} else {
+				renderedMessage = null;
+			}
+		}
+		canonicalize(nextByte);
+	}
+
+	private void canonicalize(final int nextByte) {
+		messageSize++;
+		if (inHeaders) {
+			headerData.write(nextByte);
+		} else if (headerEndLineFeedPending) {
+			// LF of the CRLF, whose CR ended the header section
+			headerEndLineFeedPending = false;
+			if (nextByte == '\n') {
+				headerData.write(nextByte);
+			}
+		}
+		if (nextByte == '\n' && lastWasCarriageReturn) {
+			lastWasCarriageReturn = false;
+		} else if (nextByte == '\r' || nextByte == '\n') {
+			lastWasCarriageReturn = nextByte == '\r';
+			endLine();
+		} else {
+			lastWasCarriageReturn = false;
+			if (inHeaders) {
+				lineHasContent = true;
+			} else if (nextByte == ' ' || nextByte == '\t') {
+				pendingWhitespace = true;
+			} else {
+				if (!lineHasContent) {
+					for (; pendingEmptyLines > 0; pendingEmptyLines--) {
+						append(CRLF);
+					}
+					lineHasContent = true;
+				}
+				if (pendingWhitespace) {
+					append((byte) ' ');
+					pendingWhitespace = false;
+				}
+				append((byte) nextByte);
+			}
+		}
+	}
+
+	@Override
+	public void write(final byte[] data, final int offset, final int dataLength) {
+		if (renderedMessage != null) {
+			if (renderedMessage.size() + dataLength <= maxRenderedSize) {
+				renderedMessage.write(data, offset, dataLength);
+			} else {
+				renderedMessage = null;
+			}
+		}
+		for (int i = offset; i < offset + dataLength; i++) {
+			canonicalize(data[i]);
+		}
+	}
+
+	/**
+	 * Message as it was written or null if it exceeded the maximum rendered size
+	 */
+	byte[] getRenderedMessage() {
+		return renderedMessage == null ? null : renderedMessage.toByteArray();
+	}
+
+	/**
+	 * Number of bytes of the email as written, including its headers
+	 */
+	long getMessageSize() {
+		return messageSize;
+	}
+
+	private void endLine() {
+		if (inHeaders) {
+			if (!lineHasContent) {
+				// Empty line separates headers and body
+				inHeaders = false;
+				headerEndLineFeedPending = lastWasCarriageReturn;
+			}
+		} else if (lineHasContent) {
+			append(CRLF);
+		} else {
+			pendingEmptyLines++;
+		}
+		lineHasContent = false;
+		pendingWhitespace = false;
+	}
+
+	/**
+	 * Complete the body. Trailing empty lines are dropped and a missing final CRLF is added.
+	 */
+	@Override
+	public void close() {
+		if (!inHeaders && lineHasContent) {
+			append(CRLF);
+			lineHasContent = false;
+		}
+		flushBuffer();
+	}
+
+	/**
+	 * Header section of the message including the empty line before the body
+	 */
+	byte[] getHeaderData() {
+		return headerData.toByteArray();
+	}
+
+	/**
+	 * Canonical body or null if it exceeded the maximum retained size and was hashed by the body digest
+	 */
+	byte[] getRetainedBody() {
+		return retainedBody == null ? null : retainedBody.toByteArray();
+	}
+
+	private void append(final byte[] data) {
+		for (final byte nextByte : data) {
+			append(nextByte);
+		}
+	}
+
+	private void append(final byte nextByte) {
+		if (bufferLength == buffer.length) {
+			flushBuffer();
+		}
+		buffer[bufferLength++] = nextByte;
+	}
+
+	private void flushBuffer() {
+		if (bufferLength > 0) {
+			if (retainedBody != null && retainedBody.size() + bufferLength <= maxRetainedSize) {
+				retainedBody.write(buffer, 0, bufferLength);
+			} else {
+				if (retainedBody != null) {
+					bodyDigest.update(retainedBody.toByteArray());
+					retainedBody = null;
+				}
+				bodyDigest.update(buffer, 0, bufferLength);
+			}
+			bufferLength = 0;
+		}
+	}
+}
@@ -0,0 +1,24 @@
+package de.soderer.mailer.metrics;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * S/MIME or PGP signature or encryption of an email by ConsoleMailer itself (multiple receivers, SMTP listener)
+ */
+@Name("de.soderer.mailer.Crypto")
+@Label("Crypto")
+@Description("S/MIME or PGP signature or encryption of an email")
+public class CryptoEvent extends SendEvent {
+	public static final String OPERATION_SIGN = "sign";
+	public static final String OPERATION_ENCRYPT = "encrypt";
+
+	@Label("Operation")
+	@Description("\"sign\" or \"encrypt\"")
+	public String operation;
+
+	@Label("Processor")
+	@Description("Implementation of the signature or encryption (e.g. SmimeMessageEncryptor)")
+	public String processor;
+}
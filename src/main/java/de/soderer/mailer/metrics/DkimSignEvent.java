@@ -0,0 +1,17 @@
+package de.soderer.mailer.metrics;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * DKIM signature of an email with all configured keys
+ */
+@Name("de.soderer.mailer.DkimSign")
+@Label("DKIM Sign")
+@Description("DKIM signature of an email with all configured keys")
+public class DkimSignEvent extends SendEvent {
+	@Label("Signatures")
+	@Description("Number of DKIM signatures (e.g. RSA and Ed25519)")
+	public int signatureCount;
+}
@@ -0,0 +1,77 @@
+package de.soderer.mailer.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations with fixed bucket bounds, which is updated by multiple threads without locks and without allocations
+ */
+class LatencyHistogram {
+	/** Upper bounds of the buckets in nanoseconds (from 100 microseconds up to 1 minute). Durations above the last bound are only counted in the overall count. */
+	static final long[] BUCKET_BOUNDS_NANOS = {
+			100_000L, 250_000L, 500_000L,
+			1_000_000L, 2_500_000L, 5_000_000L,
+			10_000_000L, 25_000_000L, 50_000_000L,
+			100_000_000L, 250_000_000L, 500_000_000L,
+			1_000_000_000L, 2_500_000_000L, 5_000_000_000L,
+			10_000_000_000L, 30_000_000_000L, 60_000_000_000L };
+
+	private final AtomicLongArray bucketCounts = new AtomicLongArray(BUCKET_BOUNDS_NANOS.length);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sumNanos = new AtomicLong();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	void record(final long durationNanos) {
+		for (int i = 0; i < BUCKET_BOUNDS_NANOS.length; i++) {
+			if (durationNanos <= BUCKET_BOUNDS_NANOS[i]) {
+				bucketCounts.incrementAndGet(i);
+				break;
+			}
+		}
+		count.incrementAndGet();
+		sumNanos.addAndGet(durationNanos);
+		maxNanos.accumulateAndGet(durationNanos, Math::max);
+	}
+
+	long getCount() {
+		return count.get();
+	}
+
+	long getSumNanos() {
+		return sumNanos.get();
+	}
+
+	long getMaxNanos() {
+		return maxNanos.get();
+	}
+
+	/**
+	 * Number of durations up to the bound of the bucket (cumulative like the buckets of Prometheus histograms)
+	 */
+	long getCumulativeCount(final int bucketIndex) {
+		long cumulativeCount = 0;
+		for (int i = 0; i <= bucketIndex; i++) {
+			cumulativeCount += bucketCounts.get(i);
+		}
+		return cumulativeCount;
+	}
+
+	/**
+	 * Estimated duration of the given quantile (0.0 to 1.0), which is the upper bound of the bucket containing the quantile, but not more than the maximum duration
+	 */
+	long getQuantileNanos(final double quantile) {
+		final long totalCount = count.get();
+		if (totalCount == 0) {
+			return 0;
+		}
+		final long rank = Math.max(1, (long) Math.ceil(quantile * totalCount));
+		long cumulativeCount = 0;
+		for (int i = 0; i < BUCKET_BOUNDS_NANOS.length; i++) {
+			cumulativeCount += bucketCounts.get(i);
+			if (cumulativeCount >= rank) {
+				return Math.min(BUCKET_BOUNDS_NANOS[i], maxNanos.get());
+			}
+		}
+		return maxNanos.get();
+	}
+}
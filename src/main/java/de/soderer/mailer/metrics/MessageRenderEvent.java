@@ -0,0 +1,46 @@
+package de.soderer.mailer.metrics;
+
+import jdk.jfr.Description;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Rendering of an email by the Mailer including its S/MIME or PGP signature and encryption.<br />
+ * The event is started by the thread, which hands the email to the Mailer, and ended, when the Mailer connects the ConsoleMailerTransport.
+ * It is committed by the transport, after the email was sent, so that the size of the rendered email is known.
+ */
+@Name("de.soderer.mailer.MessageRender")
+@Label("Message Render")
+@Description("Rendering of an email by the Mailer including its S/MIME or PGP signature and encryption")
+public class MessageRenderEvent extends SendEvent {
+	private static final EventType EVENT_TYPE = EventType.getEventType(MessageRenderEvent.class);
+
+	/** Started event of the current thread, see {@link #beginRender()} */
+	private static final ThreadLocal<MessageRenderEvent> PENDING_EVENT = new ThreadLocal<>();
+
+	/**
+	 * Start the event for the email, which is rendered next by the current thread, if the event is enabled by a running recording
+	 */
+	public static void beginRender() {
+		if (EVENT_TYPE.isEnabled()) {
+			final MessageRenderEvent event = new MessageRenderEvent();
+			event.begin();
+			PENDING_EVENT.set(event);
+		}
+	}
+
+	/**
+	 * End the event of the current thread, which was started by {@link #beginRender()}
+	 *
+	 * @return the ended event, which must be committed by the caller, or null if no event was started
+	 */
+	public static MessageRenderEvent endRender() {
+		final MessageRenderEvent event = PENDING_EVENT.get();
+		if (event != null) {
+			PENDING_EVENT.remove();
+			event.end();
+		}
+		return event;
+	}
+}
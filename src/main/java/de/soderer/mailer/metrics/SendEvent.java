@@ -0,0 +1,27 @@
+package de.soderer.mailer.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+
+/**
+ * Base of the JDK Flight Recorder events of ConsoleMailer, so that the sends can be correlated with GC pauses and CPU hotspots in JFR recordings.<br />
+ * The fields are only filled, if they are known at the place where the event is created, otherwise they stay empty (null or 0).
+ * The field values are only evaluated for events, which are committed by a running recording, so disabled events cost neither time nor allocations in the send path.
+ */
+@Category("ConsoleMailer")
+public abstract class SendEvent extends Event {
+	@Label("Relay")
+	@Description("Host and port of the SMTP server")
+	public String relay;
+
+	@Label("Message Size")
+	@Description("Size of the email data")
+	@DataAmount
+	public long messageSize;
+
+	@Label("Recipient Count")
+	public int recipientCount;
+}
@@ -0,0 +1,289 @@
+package de.soderer.mailer.metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Timing of the phases of the ConsoleMailer calls and counters of the sent emails, which are exported by parameter "-metrics" as JSON or Prometheus text format.<br />
+ * The instrumented code gets the start time by {@link #start()} and records the duration by {@link #record(Phase, long)}.
+ * As long as the metrics are not enabled, both only read one static field, so that the send path does not allocate anything for the metrics.<br />
+ * The metrics of all calls of a process are accumulated, so the export of a batch or daemon process contains the histograms of all its emails.
+ */
+public class SendMetrics {
+	/** File name extension, which selects the Prometheus text format instead of JSON for the export */
+	public static final String PROMETHEUS_FILE_EXTENSION = ".prom";
+
+	private static final String METRIC_NAME_PREFIX = "consolemailer_";
+
+	private static volatile SendMetrics instance = null;
+
+	/** Start times of the rendering by the Mailer of the current thread, see {@link #markRenderStart()} */
+	private static final ThreadLocal<long[]> RENDER_START = ThreadLocal.withInitial(() -> new long[1]);
+
+	/**
+	 * Timed phases of a ConsoleMailer call
+	 */
+	public enum Phase {
+		/** Parsing of the arguments and configuration files and the check of the parameters */
+		PARAMETERS("parameters"),
+
+		/** Loading of the keys and certificates for signature, encryption and DKIM and of the attachment files */
+		KEY_LOADING("key_loading"),
+
+		/** Creation of an email from the parameters or a batch row */
+		MIME_BUILD("mime_build"),
+
+		/** Rendering of an email by the Mailer including its S/MIME or PGP signature and encryption */
+		RENDER("render"),
+
+		/** Insertion of the file attachments and of the cached encoded MIME parts into the rendered email */
+		MIME_PARTS("mime_parts"),
+
+		/** S/MIME or PGP signature and encryption done by ConsoleMailer itself (multiple receivers, SMTP listener) */
+		CRYPTO("crypto"),
+
+		/** DKIM signature */
+		DKIM("dkim"),
+
+		/** TCP connection and greeting of the SMTP server (including TLS and AUTH for the standard transport of single emails) */
+		CONNECT("connect"),
+
+		/** TLS handshake for SSL/TLS or STARTTLS */
+		TLS_HANDSHAKE("tls_handshake"),
+
+		/** SMTP authentication */
+		AUTH("auth"),
+
+		/** Commands MAIL FROM, RCPT TO and DATA until the SMTP server waits for the email data */
+		ENVELOPE("envelope"),
+
+		/** Transfer of the email data until the final reply of the SMTP server (including the envelope for the standard transport of single emails) */
+		DATA("data");
+
+		private final String metricName;
+
+		Phase(final String metricName) {
+			this.metricName = metricName;
+		}
+
+		public String getMetricName() {
+			return metricName;
+		}
+	}
+
+	/**
+	 * Counted events of a ConsoleMailer call
+	 */
+	public enum Counter {
+		/** Emails accepted by the SMTP server */
+		MESSAGES_SENT("messages_sent"),
+
+		/** Emails rejected by the SMTP server or not sent because of a connection error (including emails, which were sent afterwards by a retry) */
+		MESSAGES_FAILED("messages_failed"),
+
+		/** Opened SMTP connections */
+		CONNECTIONS_OPENED("connections_opened"),
+
+		/** SMTP connections, which could not be opened, secured or authenticated */
+		CONNECTIONS_FAILED("connections_failed"),
+
+		/** TLS handshakes with certificate chain and key exchange, because no cached TLS session of the relay was resumed */
+		TLS_HANDSHAKES_FULL("tls_handshakes_full"),
+
+		/** TLS handshakes, which resumed a cached TLS session of the relay (session ID of TLS 1.2 or session ticket of TLS 1.3) */
+		TLS_HANDSHAKES_RESUMED("tls_handshakes_resumed");
+
+		private final String metricName;
+
+		Counter(final String metricName) {
+			this.metricName = metricName;
+		}
+
+		public String getMetricName() {
+			return metricName;
+		}
+	}
+
+	private final File exportFile;
+	private final long startTime = System.currentTimeMillis();
+	private final LatencyHistogram[] histograms = new LatencyHistogram[Phase.values().length];
+	private final AtomicLongArray counters = new AtomicLongArray(Counter.values().length);
+
+	private SendMetrics(final File exportFile) {
+		this.exportFile = exportFile;
+		for (int i = 0; i < histograms.length; i++) {
+			histograms[i] = new LatencyHistogram();
+		}
+	}
+
+	/**
+	 * Enable the metrics for all following calls of this process
+	 *
+	 * @param exportFile file for {@link #export()}, which is written in Prometheus text format, if its name ends with ".prom", otherwise as JSON
+	 */
+	public static synchronized SendMetrics enable(final File exportFile) {
+		if (instance == null) {
+			instance = new SendMetrics(exportFile);
+		}
+		return instance;
+	}
+
+	public static boolean isEnabled() {
+		return instance != null;
+	}
+
+	/**
+	 * Start time of a phase for {@link #record(Phase, long)} or 0 if metrics are disabled
+	 */
+	public static long start() {
+		return instance != null ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Record the duration of a phase since its start time
+	 *
+	 * @param startNanos the value of {@link #start()} at the start of the phase
+	 */
+	public static void record(final Phase phase, final long startNanos) {
+		final SendMetrics metrics = instance;
+		if (metrics != null && startNanos != 0) {
+			metrics.histograms[phase.ordinal()].record(System.nanoTime() - startNanos);
+		}
+	}
+
+	public static void count(final Counter counter) {
+		final SendMetrics metrics = instance;
+		if (metrics != null) {
+			metrics.counters.incrementAndGet(counter.ordinal());
+		}
+	}
+
+	/**
+	 * Keep the start of the rendering of an email by the current thread, which connects the ConsoleMailerTransport afterwards and records the rendering by {@link #recordRender()}
+	 */
+	public static void markRenderStart() {
+		if (instance != null) {
+			RENDER_START.get()[0] = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Record the rendering of an email by the current thread, which was started by {@link #markRenderStart()}
+	 */
+	public static void recordRender() {
+		if (instance != null) {
+			final long[] renderStart = RENDER_START.get();
+			record(Phase.RENDER, renderStart[0]);
+			renderStart[0] = 0;
+		}
+	}
+
+	/**
+	 * Write the current metrics into the export file, if metrics are enabled.<br />
+	 * The file is replaced atomically, so that readers (e.g. the textfile collector of the Prometheus node exporter) never see a partial file.
+	 */
+	public static void export() throws IOException {
+		final SendMetrics metrics = instance;
+		if (metrics != null) {
+			metrics.writeExportFile();
+		}
+	}
+
+	private synchronized void writeExportFile() throws IOException {
+		final File parentDirectory = exportFile.getAbsoluteFile().getParentFile();
+		final File temporaryFile = new File(parentDirectory, "." + exportFile.getName() + ".tmp");
+		try (Writer writer = Files.newBufferedWriter(temporaryFile.toPath(), StandardCharsets.UTF_8)) {
+			if (exportFile.getName().toLowerCase(Locale.ROOT).endsWith(PROMETHEUS_FILE_EXTENSION)) {
+				writePrometheus(writer);
+			} else {
+				writeJson(writer);
+			}
+		}
+		try {
+			Files.move(temporaryFile.toPath(), exportFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (@SuppressWarnings("unused") final AtomicMoveNotSupportedException e) {
+			Files.move(temporaryFile.toPath(), exportFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/**
+	 * Write the metrics as JSON object with the counters and for each phase its count, sum, maximum, estimated percentiles and buckets
+	 */
+	public void writeJson(final Writer writer) throws IOException {
+		writer.write("{\n");
+		writer.write("\t\"startTime\": \"" + Instant.ofEpochMilli(startTime) + "\",\n");
+		writer.write("\t\"exportTime\": \"" + Instant.now() + "\",\n");
+		writer.write("\t\"counters\": {\n");
+		final Counter[] counterValues = Counter.values();
+		for (int i = 0; i < counterValues.length; i++) {
+			writer.write("\t\t\"" + counterValues[i].getMetricName() + "\": " + counters.get(i) + (i < counterValues.length - 1 ? "," : "") + "\n");
+		}
+		writer.write("\t},\n");
+		writer.write("\t\"phases\": {\n");
+		final Phase[] phaseValues = Phase.values();
+		for (int i = 0; i < phaseValues.length; i++) {
+			final LatencyHistogram histogram = histograms[i];
+			writer.write("\t\t\"" + phaseValues[i].getMetricName() + "\": {\n");
+			writer.write("\t\t\t\"count\": " + histogram.getCount() + ",\n");
+			writer.write("\t\t\t\"sumMillis\": " + toMillis(histogram.getSumNanos()) + ",\n");
+			writer.write("\t\t\t\"maxMillis\": " + toMillis(histogram.getMaxNanos()) + ",\n");
+			writer.write("\t\t\t\"p50Millis\": " + toMillis(histogram.getQuantileNanos(0.5)) + ",\n");
+			writer.write("\t\t\t\"p99Millis\": " + toMillis(histogram.getQuantileNanos(0.99)) + ",\n");
+			writer.write("\t\t\t\"buckets\": {");
+			for (int bucketIndex = 0; bucketIndex < LatencyHistogram.BUCKET_BOUNDS_NANOS.length; bucketIndex++) {
+				writer.write((bucketIndex > 0 ? ", " : "") + "\"" + toMillis(LatencyHistogram.BUCKET_BOUNDS_NANOS[bucketIndex]) + "\": " + histogram.getCumulativeCount(bucketIndex));
+			}
+			writer.write("}\n");
+			writer.write("\t\t}" + (i < phaseValues.length - 1 ? "," : "") + "\n");
+		}
+		writer.write("\t}\n");
+		writer.write("}\n");
+	}
+
+	/**
+	 * Write the metrics in the Prometheus text exposition format with a counter per event and a histogram in seconds per phase
+	 */
+	public void writePrometheus(final Writer writer) throws IOException {
+		writer.write("# HELP " + METRIC_NAME_PREFIX + "start_time_seconds Start time of the ConsoleMailer process\n");
+		writer.write("# TYPE " + METRIC_NAME_PREFIX + "start_time_seconds gauge\n");
+		writer.write(METRIC_NAME_PREFIX + "start_time_seconds " + startTime / 1000 + "\n");
+
+		final Counter[] counterValues = Counter.values();
+		for (int i = 0; i < counterValues.length; i++) {
+			final String metricName = METRIC_NAME_PREFIX + counterValues[i].getMetricName() + "_total";
+			writer.write("# TYPE " + metricName + " counter\n");
+			writer.write(metricName + " " + counters.get(i) + "\n");
+		}
+
+		final String histogramName = METRIC_NAME_PREFIX + "phase_duration_seconds";
+		writer.write("# HELP " + histogramName + " Duration of the phases of sending emails\n");
+		writer.write("# TYPE " + histogramName + " histogram\n");
+		final Phase[] phaseValues = Phase.values();
+		for (int i = 0; i < phaseValues.length; i++) {
+			final LatencyHistogram histogram = histograms[i];
+			final String phaseLabel = "phase=\"" + phaseValues[i].getMetricName() + "\"";
+			for (int bucketIndex = 0; bucketIndex < LatencyHistogram.BUCKET_BOUNDS_NANOS.length; bucketIndex++) {
+				writer.write(histogramName + "_bucket{" + phaseLabel + ",le=\"" + toSeconds(LatencyHistogram.BUCKET_BOUNDS_NANOS[bucketIndex]) + "\"} " + histogram.getCumulativeCount(bucketIndex) + "\n");
+			}
+			writer.write(histogramName + "_bucket{" + phaseLabel + ",le=\"+Inf\"} " + histogram.getCount() + "\n");
+			writer.write(histogramName + "_sum{" + phaseLabel + "} " + toSeconds(histogram.getSumNanos()) + "\n");
+			writer.write(histogramName + "_count{" + phaseLabel + "} " + histogram.getCount() + "\n");
+		}
+	}
+
+	private static String toMillis(final long nanos) {
+		return Double.toString(nanos / 1_000_000.0);
+	}
+
+	private static String toSeconds(final long nanos) {
+		return Double.toString(nanos / 1_000_000_000.0);
+	}
+}
@@ -0,0 +1,27 @@
+package de.soderer.mailer.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Round trip of a SMTP command from sending the command until its reply was read.<br />
+ * Pipelined envelope commands are one round trip. The transfer of the email data until the final reply is the command "MESSAGE".
+ * Only the command name is recorded, never its arguments (addresses, credentials).
+ */
+@Name("de.soderer.mailer.SmtpCommand")
+@Label("SMTP Command")
+@Description("Round trip of a SMTP command until its reply was read")
+@Category({ "ConsoleMailer", "SMTP" })
+public class SmtpCommandEvent extends SendEvent {
+	public static final String COMMAND_PIPELINED_ENVELOPE = "MAIL+RCPT+DATA";
+	public static final String COMMAND_MESSAGE = "MESSAGE";
+
+	@Label("Command")
+	public String command;
+
+	@Label("Reply Code")
+	@Description("Reply code of the SMTP server or 0 if no reply was read")
+	public int replyCode;
+}
@@ -0,0 +1,21 @@
+package de.soderer.mailer.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Opening of a SMTP connection including the greeting, EHLO, TLS handshake and authentication
+ */
+@Name("de.soderer.mailer.SmtpConnect")
+@Label("SMTP Connect")
+@Description("Opening of a SMTP connection including the greeting, EHLO, TLS handshake and authentication")
+@Category({ "ConsoleMailer", "SMTP" })
+public class SmtpConnectEvent extends SendEvent {
+	@Label("Connection Security")
+	public String connectionSecurity;
+
+	@Label("Success")
+	public boolean success;
+}
@@ -0,0 +1,25 @@
+package de.soderer.mailer.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * TLS handshake of a SMTP connection for SSL/TLS or STARTTLS
+ */
+@Name("de.soderer.mailer.TlsHandshake")
+@Label("TLS Handshake")
+@Description("TLS handshake of a SMTP connection for SSL/TLS or STARTTLS")
+@Category({ "ConsoleMailer", "SMTP" })
+public class TlsHandshakeEvent extends SendEvent {
+	@Label("Protocol")
+	public String protocol;
+
+	@Label("Cipher Suite")
+	public String cipherSuite;
+
+	@Label("Resumed")
+	@Description("The handshake resumed a cached TLS session of the relay")
+	public boolean resumed;
+}
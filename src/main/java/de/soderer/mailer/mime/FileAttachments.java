@@ -0,0 +1,96 @@
+package de.soderer.mailer.mime;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.soderer.utilities.mail.MailAttachment;
+import jakarta.activation.DataHandler;
+import jakarta.activation.FileDataSource;
+import jakarta.mail.BodyPart;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Multipart;
+import jakarta.mail.Part;
+import jakarta.mail.internet.MimeMessage;
+
+/**
+ * Attachments, which are read from their files only while the message is written to the SMTP server or the spool.<br />
+ * The Mailer only gets a small placeholder for each file attachment. After the Mailer rendered the message, the placeholders are replaced
+ * by the files, which are then base64 encoded while streaming. So the heap usage does not depend on the size of the attachments.<br />
+ * The placeholders of a batch are registered until they are removed after the last email of the batch was sent.<br />
+ * This must not be used for S/MIME or PGP signed or encrypted emails, because their signatures and encryption are created on the content given to the Mailer.
+ * DKIM signed emails may use it, because their DKIM signature is created after the placeholders were replaced.
+ */
+public class FileAttachments {
+	private static final String PLACEHOLDER_PREFIX = "ConsoleMailer file attachment ";
+	private static final int PLACEHOLDER_LENGTH = PLACEHOLDER_PREFIX.length() + 36;
+
+	private static final Map<String, File> attachmentFiles = new ConcurrentHashMap<>();
+
+	/**
+	 * Create a placeholder attachment for the Mailer, which is replaced by the file when the message is sent
+	 */
+	public static MailAttachment createPlaceholder(final File attachmentFile, final String mimeType) {
+		final String placeholder = PLACEHOLDER_PREFIX + UUID.randomUUID().toString();
+		attachmentFiles.put(placeholder, attachmentFile);
+		return new MailAttachment(attachmentFile.getName(), placeholder.getBytes(StandardCharsets.US_ASCII), mimeType);
+	}
+
+	/**
+	 * Remove the placeholders of attachments, whose emails were all sent
+	 */
+	public static void removePlaceholders(final List<MailAttachment> attachments) {
+		for (final MailAttachment attachment : attachments) {
+			if (attachment.getData().length == PLACEHOLDER_LENGTH) {
+				attachmentFiles.remove(new String(attachment.getData(), StandardCharsets.US_ASCII));
+			}
+		}
+	}
+
+	/**
+	 * Replace all placeholder attachments in a rendered message by their files
+	 */
+	public static void replacePlaceholders(final MimeMessage message) throws MessagingException, IOException {
+		if (!attachmentFiles.isEmpty() && message.isMimeType("multipart/*")) {
+			replacePlaceholders((Multipart) message.getContent());
+		}
+	}
+
+	private static void replacePlaceholders(final Multipart multipart) throws MessagingException, IOException {
+		for (int i = 0; i < multipart.getCount(); i++) {
+			final BodyPart bodyPart = multipart.getBodyPart(i);
+			if (bodyPart.isMimeType("multipart/*")) {
+				replacePlaceholders((Multipart) bodyPart.getContent());
+			} else if (bodyPart.getFileName() != null) {
+				final File attachmentFile = getAttachmentFile(bodyPart);
+				if (attachmentFile != null) {
+					final String[] contentTypeHeaders = bodyPart.getHeader("Content-Type");
+					bodyPart.setDataHandler(new DataHandler(new FileDataSource(attachmentFile)));
+					// Setting the data handler removes the content headers, which were already created by the Mailer
+					if (contentTypeHeaders != null && contentTypeHeaders.length > 0) {
+						bodyPart.setHeader("Content-Type", contentTypeHeaders[0]);
+					} else {
+						bodyPart.setHeader("Content-Type", "application/octet-stream");
+					}
+					bodyPart.setHeader("Content-Transfer-Encoding", "base64");
+				}
+			}
+		}
+	}
+
+	private static File getAttachmentFile(final Part part) throws MessagingException, IOException {
+		try (InputStream inputStream = part.getDataHandler().getInputStream()) {
+			final byte[] content = inputStream.readNBytes(PLACEHOLDER_LENGTH + 1);
+			if (content.length == PLACEHOLDER_LENGTH) {
+				return attachmentFiles.get(new String(content, StandardCharsets.US_ASCII));
+			} else {
+				return null;
+			}
+		}
+	}
+}
@@ -0,0 +1,282 @@
+package de.soderer.mailer.mime;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.zip.CRC32;
+
+import jakarta.activation.DataHandler;
+import jakarta.activation.DataSource;
+import jakarta.activation.FileDataSource;
+import jakarta.mail.BodyPart;
+import jakarta.mail.Header;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Multipart;
+import jakarta.mail.internet.MimeBodyPart;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.MimeMultipart;
+import jakarta.mail.internet.MimeUtility;
+import jakarta.mail.internet.PreencodedMimeBodyPart;
+
+/**
+ * Cache of base64 and quoted-printable encoded file attachments, which is shared by all emails of a batch.<br />
+ * When the same attachment file is sent to many recipients, it is encoded only once into a temporary file. The following messages get a pre-encoded
+ * copy of the part with its own headers, which is written to the SMTP server without encoding it again.<br />
+ * Attachments are identified by their file path, file key (inode), size and modification time and a checksum of their first and last block,
+ * so a file, which is replaced or rewritten with the same size and modification time, is not taken from the cache and the whole content is not read for the lookup.
+ * They are cached, when they are seen for the second time, so that a single email does not create a temporary file.<br />
+ * Messages may still stream a temporary file after its part was evicted, so the temporary files are deleted only when the cache is closed after the batch.
+ */
+public class MimePartCache implements Closeable {
+	public static final int DEFAULT_MAX_CACHED_PARTS = 1000;
+
+	/** Parts smaller than this are encoded faster than they are read from a temporary file */
+	private static final int MIN_PART_SIZE = 4096;
+	private static final int MAX_SEEN_KEYS = 10000;
+	/** Size of the first and last block of a file, which are checked for changes of the content */
+	private static final int CONTENT_CHECK_BLOCK_SIZE = 4096;
+
+	private final int maxCachedParts;
+	private final Map<String, CachedPart> cachedParts = new LinkedHashMap<>(16, 0.75f, true);
+	private final List<CachedPart> evictedParts = new ArrayList<>();
+	private final Map<String, Boolean> seenKeys = new LinkedHashMap<>(16, 0.75f, true);
+	private int hitCount = 0;
+
+	public MimePartCache() {
+		this(DEFAULT_MAX_CACHED_PARTS);
+	}
+
+	/**
+	 * @param maxCachedParts maximum number of cached parts, whose temporary files are reused
+	 */
+	public MimePartCache(final int maxCachedParts) {
+		this.maxCachedParts = maxCachedParts;
+	}
+
+	/**
+	 * Replace the encoded parts of a rendered message by cached pre-encoded parts
+	 */
+	public void applyTo(final MimeMessage message) throws MessagingException, IOException {
+		if (message.isMimeType("multipart/*")) {
+			applyTo((Multipart) message.getContent());
+		}
+	}
+
+	private void applyTo(final Multipart multipart) throws MessagingException, IOException {
+		for (int i = 0; i < multipart.getCount(); i++) {
+			final BodyPart bodyPart = multipart.getBodyPart(i);
+			if (bodyPart.isMimeType("multipart/*")) {
+				applyTo((Multipart) bodyPart.getContent());
+			} else if (bodyPart instanceof MimeBodyPart && multipart instanceof MimeMultipart && isCacheable((MimeBodyPart) bodyPart)) {
+				final MimeBodyPart mimeBodyPart = (MimeBodyPart) bodyPart;
+				final CachedPart cachedPart = getCachedPart(mimeBodyPart);
+				if (cachedPart != null) {
+					final PreencodedMimeBodyPart preencodedBodyPart = new PreencodedMimeBodyPart(mimeBodyPart.getEncoding());
+					preencodedBodyPart.setDataHandler(new DataHandler(cachedPart.createDataSource(mimeBodyPart.getContentType())));
+					// Setting the data handler removes the content headers, so all headers are copied afterwards
+					final Enumeration<Header> headers = mimeBodyPart.getAllHeaders();
+					while (headers.hasMoreElements()) {
+						final Header header = headers.nextElement();
+						preencodedBodyPart.addHeader(header.getName(), header.getValue());
+					}
+					((MimeMultipart) multipart).removeBodyPart(i);
+					((MimeMultipart) multipart).addBodyPart(preencodedBodyPart, i);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Only parts, which were created by the Mailer and are encoded while writing, are cached.
+	 * Parts read from an existing message (e.g. signed content) are already available in encoded form.
+	 */
+	private static boolean isCacheable(final MimeBodyPart bodyPart) throws MessagingException {
+		if (bodyPart instanceof PreencodedMimeBodyPart) {
+			return false;
+		}
+		final String encoding = bodyPart.getEncoding();
+		if (encoding == null || !("base64".equalsIgnoreCase(encoding) || "quoted-printable".equalsIgnoreCase(encoding))) {
+			return false;
+		}
+		try (InputStream rawInputStream = bodyPart.getRawInputStream()) {
+			return false;
+		} catch (@SuppressWarnings("unused") final MessagingException | IOException e) {
+			// Part has no raw content, so it is encoded while writing
+			return true;
+		}
+	}
+
+	private CachedPart getCachedPart(final MimeBodyPart bodyPart) throws MessagingException, IOException {
+		final DataSource dataSource = bodyPart.getDataHandler().getDataSource();
+		if (!(dataSource instanceof FileDataSource)) {
+			return null;
+		}
+		final File sourceFile = ((FileDataSource) dataSource).getFile();
+		if (sourceFile.length() < MIN_PART_SIZE) {
+			return null;
+		}
+		final String key = bodyPart.getEncoding().toLowerCase() + ":" + createFileKey(sourceFile);
+
+		synchronized (this) {
+			final CachedPart cachedPart = cachedParts.get(key);
+			if (cachedPart != null) {
+				hitCount++;
+				return cachedPart;
+			} else if (seenKeys.put(key, Boolean.TRUE) == null) {
+				// First occurrence of this content
+				if (seenKeys.size() > MAX_SEEN_KEYS) {
+					final Iterator<String> seenKeysIterator = seenKeys.keySet().iterator();
+					seenKeysIterator.next();
+					seenKeysIterator.remove();
+				}
+				return null;
+			}
+		}
+
+		final CachedPart newCachedPart = encode(bodyPart);
+		synchronized (this) {
+			final CachedPart concurrentlyCachedPart = cachedParts.get(key);
+			if (concurrentlyCachedPart != null) {
+				// The new part was not handed to any message yet
+				newCachedPart.delete();
+				return concurrentlyCachedPart;
+			}
+			cachedParts.put(key, newCachedPart);
+			evict();
+			return newCachedPart;
+		}
+	}
+
+	/**
+	 * Key of the current content of a file without reading all of it
+	 */
+	private static String createFileKey(final File sourceFile) throws IOException {
+		final BasicFileAttributes attributes = Files.readAttributes(sourceFile.toPath(), BasicFileAttributes.class);
+		final CRC32 contentChecksum = new CRC32();
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(sourceFile, "r")) {
+			final byte[] block = new byte[CONTENT_CHECK_BLOCK_SIZE];
+			final int firstBlockLength = randomAccessFile.read(block);
+			if (firstBlockLength > 0) {
+				contentChecksum.update(block, 0, firstBlockLength);
+			}
+			if (attributes.size() > CONTENT_CHECK_BLOCK_SIZE) {
+				randomAccessFile.seek(Math.max(CONTENT_CHECK_BLOCK_SIZE, attributes.size() - CONTENT_CHECK_BLOCK_SIZE));
+				final int lastBlockLength = randomAccessFile.read(block);
+				if (lastBlockLength > 0) {
+					contentChecksum.update(block, 0, lastBlockLength);
+				}
+			}
+		}
+		// The file key (e.g. device and inode) is not available on all systems
+		return sourceFile.getAbsolutePath() + ":" + attributes.fileKey() + ":" + attributes.size() + ":" + attributes.lastModifiedTime().toMillis() + ":" + Long.toHexString(contentChecksum.getValue());
+	}
+
+	/**
+	 * Encode the content of a part into a temporary file in the same way as MimeBodyPart.writeTo does
+	 */
+	private static CachedPart encode(final MimeBodyPart bodyPart) throws MessagingException, IOException {
+		// Files.createTempFile creates the file readable by the owner only (0600 on POSIX systems), because it contains the attachments of the emails
+		final File encodedFile = Files.createTempFile("ConsoleMailer_part_", ".tmp").toFile();
+		try (OutputStream fileOutputStream = new FileOutputStream(encodedFile)) {
+			final OutputStream encodingOutputStream = MimeUtility.encode(fileOutputStream, bodyPart.getEncoding());
+			bodyPart.getDataHandler().writeTo(encodingOutputStream);
+			encodingOutputStream.flush();
+		} catch (final MessagingException | IOException e) {
+			encodedFile.delete();
+			throw e;
+		}
+		return new CachedPart(encodedFile);
+	}
+
+	/**
+	 * Remove the least recently used parts from the lookup. Their temporary files may still be in use by messages and are deleted on close.
+	 */
+	private void evict() {
+		final Iterator<Entry<String, CachedPart>> cachedPartsIterator = cachedParts.entrySet().iterator();
+		while (cachedParts.size() > maxCachedParts && cachedPartsIterator.hasNext()) {
+			evictedParts.add(cachedPartsIterator.next().getValue());
+			cachedPartsIterator.remove();
+		}
+	}
+
+	/**
+	 * Number of parts taken from the cache instead of encoding them
+	 */
+	public synchronized int getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * Remove all cached parts and their temporary files after all messages of the batch were sent
+	 */
+	@Override
+	public void close() {
+		final List<CachedPart> partsToDelete;
+		synchronized (this) {
+			partsToDelete = new ArrayList<>(cachedParts.values());
+			partsToDelete.addAll(evictedParts);
+			cachedParts.clear();
+			evictedParts.clear();
+			seenKeys.clear();
+		}
+		for (final CachedPart cachedPart : partsToDelete) {
+			cachedPart.delete();
+		}
+	}
+
+	/**
+	 * Encoded content of a part in a temporary file
+	 */
+	private static class CachedPart {
+		private final File encodedFile;
+
+		private CachedPart(final File encodedFile) {
+			this.encodedFile = encodedFile;
+		}
+
+		private DataSource createDataSource(final String contentType) {
+			return new DataSource() {
+				@Override
+				public InputStream getInputStream() throws IOException {
+					return new FileInputStream(encodedFile);
+				}
+
+				@Override
+				public OutputStream getOutputStream() throws IOException {
+					throw new IOException("Cached MIME part is read only");
+				}
+
+				@Override
+				public String getContentType() {
+					return contentType;
+				}
+
+				@Override
+				public String getName() {
+					return "CachedPart";
+				}
+			};
+		}
+
+		private void delete() {
+			if (!encodedFile.delete() && encodedFile.exists()) {
+				// File is still opened by a message of an aborted batch on a system, which cannot delete open files
+				encodedFile.deleteOnExit();
+			}
+		}
+	}
+}
@@ -0,0 +1,97 @@
+package de.soderer.mailer.mx;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Keeps the mail exchangers of each domain resolved by another resolver for a fixed time, so that a batch resolves each recipient domain only once.<br />
+ * Domains, which do not accept emails, are cached as well. Temporary lookup errors and unexpected errors of the resolver are not cached,
+ * so the next email of the domain resolves it again.<br />
+ * Concurrent lookups of the same domain wait for the first one instead of querying the DNS servers again.
+ */
+public class CachingMxResolver implements MxResolver {
+	public static final long DEFAULT_TIME_TO_LIVE_MILLIS = 5 * 60 * 1000L;
+
+	private final MxResolver resolver;
+	private final long timeToLiveMillis;
+	private final Map<String, CacheEntry> cache = new ConcurrentHashMap<>();
+
+	public CachingMxResolver(final MxResolver resolver) {
+		this(resolver, DEFAULT_TIME_TO_LIVE_MILLIS);
+	}
+
+	/**
+	 * @param timeToLiveMillis time to keep a resolved domain. The JNDI DNS provider does not report the TTL of the records, so a fixed time is used.
+	 */
+	public CachingMxResolver(final MxResolver resolver, final long timeToLiveMillis) {
+		this.resolver = resolver;
+		this.timeToLiveMillis = timeToLiveMillis;
+	}
+
+	@Override
+	public List<InetSocketAddress> resolve(final String domain) throws MxResolutionException {
+		final CacheEntry newEntry = new CacheEntry();
+		CacheEntry entry = cache.putIfAbsent(domain, newEntry);
+		if (entry != null && entry.isExpired()) {
+			entry = cache.replace(domain, entry, newEntry) ? null : cache.putIfAbsent(domain, newEntry);
+		}
+		if (entry == null) {
+			entry = newEntry;
+			entry.resolve(domain);
+		}
+		try {
+			return entry.getResult();
+		} catch (final MxResolutionException e) {
+			if (!e.isPermanent()) {
+				cache.remove(domain, entry);
+			}
+			throw e;
+		}
+	}
+
+	private class CacheEntry {
+		private final CompletableFuture<List<InetSocketAddress>> result = new CompletableFuture<>();
+		private volatile long expiryTime = Long.MAX_VALUE;
+
+		/**
+		 * Resolve the domain and complete the result in any case, so that concurrent lookups of the domain never wait forever
+		 */
+		private void resolve(final String domain) {
+			try {
+				result.complete(resolver.resolve(domain));
+			} catch (final MxResolutionException e) {
+				result.completeExceptionally(e);
+			} catch (final Throwable e) {
+				result.completeExceptionally(new MxResolutionException("Cannot resolve MX records of domain " + domain + ": " + e, false, e));
+				if (e instanceof Error) {
+					throw (Error) e;
+				}
+			} finally {
+				expiryTime = System.currentTimeMillis() + timeToLiveMillis;
+			}
+		}
+
+		private List<InetSocketAddress> getResult() throws MxResolutionException {
+			try {
+				return result.get();
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new MxResolutionException("Interrupted while waiting for the MX records", false, e);
+			} catch (final ExecutionException e) {
+				if (e.getCause() instanceof MxResolutionException) {
+					throw (MxResolutionException) e.getCause();
+				} else {
+					throw new MxResolutionException("Cannot resolve MX records: " + e.getCause(), false, e.getCause());
+				}
+			}
+		}
+
+		private boolean isExpired() {
+			return System.currentTimeMillis() > expiryTime;
+		}
+	}
+}
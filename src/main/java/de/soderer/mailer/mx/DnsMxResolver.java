@@ -0,0 +1,93 @@
+package de.soderer.mailer.mx;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Locale;
+
+import javax.naming.Context;
+import javax.naming.NameNotFoundException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.InitialDirContext;
+
+/**
+ * Resolves the MX records of a domain by the DNS servers of the system (JNDI DNS provider).<br />
+ * A domain without MX records is its own mail exchanger (implicit MX, RFC 5321), a domain with a null MX record does not accept emails (RFC 7505).
+ */
+public class DnsMxResolver implements MxResolver {
+	public static final int SMTP_PORT = 25;
+
+	private static final String DNS_TIMEOUT_MILLIS = "3000";
+	private static final String DNS_RETRIES = "2";
+
+	@Override
+	public List<InetSocketAddress> resolve(final String domain) throws MxResolutionException {
+		final List<MxRecord> mxRecords = new ArrayList<>();
+		DirContext dnsContext = null;
+		try {
+			final Hashtable<String, String> environment = new Hashtable<>();
+			environment.put(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.dns.DnsContextFactory");
+			environment.put("com.sun.jndi.dns.timeout.initial", DNS_TIMEOUT_MILLIS);
+			environment.put("com.sun.jndi.dns.timeout.retries", DNS_RETRIES);
+			dnsContext = new InitialDirContext(environment);
+			final Attributes attributes = dnsContext.getAttributes(domain, new String[] { "MX" });
+			final Attribute mxAttribute = attributes.get("MX");
+			if (mxAttribute != null) {
+				final NamingEnumeration<?> mxValues = mxAttribute.getAll();
+				while (mxValues.hasMore()) {
+					// Value of a MX record is "<preference> <host>."
+					final String[] mxParts = mxValues.next().toString().trim().split("\\s+");
+					if (mxParts.length == 2) {
+						mxRecords.add(new MxRecord(Integer.parseInt(mxParts[0]), mxParts[1]));
+					}
+				}
+			}
+		} catch (final NameNotFoundException e) {
+			throw new MxResolutionException("Domain " + domain + " does not exist", true, e);
+		} catch (final NamingException | NumberFormatException e) {
+			throw new MxResolutionException("Cannot resolve MX records of domain " + domain + ": " + e.getMessage(), false, e);
+		} finally {
+			if (dnsContext != null) {
+				try {
+					dnsContext.close();
+				} catch (@SuppressWarnings("unused") final NamingException e) {
+					// Do nothing
+				}
+			}
+		}
+
+		if (mxRecords.isEmpty()) {
+			return Collections.singletonList(InetSocketAddress.createUnresolved(domain, SMTP_PORT));
+		} else if (mxRecords.size() == 1 && ".".equals(mxRecords.get(0).host)) {
+			throw new MxResolutionException("Domain " + domain + " does not accept emails (null MX record)", true, null);
+		} else {
+			// Sorted by host name within the same preference, so that domains with the same mail exchangers get the same list
+			mxRecords.sort(Comparator.comparingInt((final MxRecord mxRecord) -> mxRecord.preference).thenComparing(mxRecord -> mxRecord.host));
+			final List<InetSocketAddress> mxAddresses = new ArrayList<>();
+			for (final MxRecord mxRecord : mxRecords) {
+				if (!".".equals(mxRecord.host)) {
+					mxAddresses.add(InetSocketAddress.createUnresolved(mxRecord.host, SMTP_PORT));
+				}
+			}
+			return mxAddresses;
+		}
+	}
+
+	private static class MxRecord {
+		private final int preference;
+		private final String host;
+
+		private MxRecord(final int preference, final String host) {
+			this.preference = preference;
+			final String lowerCaseHost = host.toLowerCase(Locale.ROOT);
+			this.host = lowerCaseHost.length() > 1 && lowerCaseHost.endsWith(".") ? lowerCaseHost.substring(0, lowerCaseHost.length() - 1) : lowerCaseHost;
+		}
+	}
+}
@@ -0,0 +1,175 @@
+package de.soderer.mailer.mx;
+
+import java.io.Closeable;
+import java.net.IDN;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import javax.net.ssl.SSLException;
+
+import de.soderer.mailer.smtp.SmtpConnectionPool;
+import de.soderer.mailer.smtp.SmtpConnectionSettings;
+import de.soderer.mailer.smtp.SmtpException;
+import de.soderer.mailer.smtp.SmtpMessageSink;
+import de.soderer.mailer.smtp.SmtpMessageWriter;
+import de.soderer.mailer.smtp.SmtpRecipientException;
+import de.soderer.mailer.smtp.SmtpRelay;
+import de.soderer.mailer.smtp.SmtpReply;
+import de.soderer.utilities.mail.MailerConnectionSecurity;
+import jakarta.mail.MessagingException;
+import jakarta.mail.SendFailedException;
+
+/**
+ * Message sink, which delivers the rendered messages directly to the mail exchangers of the recipient domains instead of one SMTP relay.<br />
+ * The recipients of a message are grouped by their mail exchangers, so that all recipients of domains with the same mail exchangers get the message
+ * by one transaction with multiple RCPT TO commands and the message content is transferred only once per group.<br />
+ * The mail exchangers of a group are tried in the order of their preference, until one of them accepts the connection.
+ * The connections use STARTTLS, if the mail exchanger offers it, and are pooled with a limited number of connections per mail exchanger.<br />
+ * Unless the settings require STARTTLS, TLS is opportunistic (RFC 7435): A mail exchanger, whose TLS handshake fails, gets the message in plaintext,
+ * because most mail exchangers have certificates, which do not match their MX host name, and a failed handshake would defer the message forever.<br />
+ * Each group is delivered independently, so recipients of other groups still get the message, if one group is rejected.
+ */
+public class MxDeliverySink implements SmtpMessageSink, Closeable {
+	public static final int DEFAULT_MAX_CONNECTIONS_PER_MX = 2;
+
+	private final MxResolver mxResolver;
+	private final SmtpConnectionPool connectionPool;
+	private final SmtpConnectionSettings settings;
+
+	/**
+	 * @param maxMessagesPerConnection maximum number of messages sent over one connection before it is closed (0 = unlimited)
+	 * @param maxIdleSeconds maximum time a connection may stay idle in the pool before it is closed
+	 * @param maxConnectionsPerMx maximum number of connections open at the same time to one mail exchanger
+	 */
+	public MxDeliverySink(final MxResolver mxResolver, final SmtpConnectionSettings settings, final int maxMessagesPerConnection, final int maxIdleSeconds, final int maxConnectionsPerMx) {
+		this.mxResolver = mxResolver;
+		this.settings = settings;
+		connectionPool = new SmtpConnectionPool(maxMessagesPerConnection, maxIdleSeconds, maxConnectionsPerMx);
+	}
+
+	@Override
+	public void acceptMessage(final String envelopeFrom, final List<String> recipients, final SmtpMessageWriter messageWriter) throws MessagingException {
+		final Map<String, SmtpReply> rejectedRecipients = sendMessage(envelopeFrom, recipients, messageWriter);
+		if (!rejectedRecipients.isEmpty()) {
+			throw new SendFailedException("Message was not sent to rejected recipients: " + rejectedRecipients);
+		}
+	}
+
+	/**
+	 * Send a message to the mail exchangers of all its recipients
+	 *
+	 * @return the rejected recipients with the reply of their mail exchanger or a generated reply for domains, which could not be resolved or reached (reply code 4xx for temporary errors)
+	 */
+	public Map<String, SmtpReply> sendMessage(final String envelopeFrom, final List<String> recipients, final SmtpMessageWriter messageWriter) {
+		final Map<String, SmtpReply> rejectedRecipients = new LinkedHashMap<>();
+		final Map<List<InetSocketAddress>, List<String>> recipientsByMx = new LinkedHashMap<>();
+		for (final String recipient : recipients) {
+			final String domain = getDomain(recipient);
+			if (domain == null) {
+				rejectedRecipients.put(recipient, new SmtpReply(553, Collections.singletonList("5.1.3 Invalid recipient address")));
+			} else {
+				try {
+					recipientsByMx.computeIfAbsent(mxResolver.resolve(domain), mxAddresses -> new ArrayList<>()).add(recipient);
+				} catch (final MxResolutionException e) {
+					rejectedRecipients.put(recipient, new SmtpReply(e.isPermanent() ? 550 : 451, Collections.singletonList((e.isPermanent() ? "5.1.2 " : "4.4.3 ") + e.getMessage())));
+				}
+			}
+		}
+
+		for (final Entry<List<InetSocketAddress>, List<String>> mxGroup : recipientsByMx.entrySet()) {
+			rejectedRecipients.putAll(sendToMx(mxGroup.getKey(), envelopeFrom, mxGroup.getValue(), messageWriter));
+		}
+		return rejectedRecipients;
+	}
+
+	/**
+	 * Send a message to one group of recipients by the first mail exchanger, which accepts the connection
+	 *
+	 * @return the rejected recipients of the group
+	 */
+	private Map<String, SmtpReply> sendToMx(final List<InetSocketAddress> mxAddresses, final String envelopeFrom, final List<String> recipients, final SmtpMessageWriter messageWriter) {
+		SmtpException lastError = null;
+		for (final InetSocketAddress mxAddress : mxAddresses) {
+			try {
+				return sendToMx(mxAddress, envelopeFrom, recipients, messageWriter);
+			} catch (final SmtpRecipientException e) {
+				return e.getRejectedRecipients();
+			} catch (final SmtpException e) {
+				lastError = e;
+				if (!e.isRetryable()) {
+					// The mail exchanger rejected the message or the connection broke after the message was transmitted, so no other mail exchanger may get it
+					break;
+				}
+			} catch (final MessagingException e) {
+				lastError = new SmtpException(e.getMessage(), null, true, e);
+			}
+		}
+
+		final SmtpReply groupReply;
+		if (lastError == null || lastError.isRetryable()) {
+			groupReply = new SmtpReply(451, Collections.singletonList("4.4.1 No mail exchanger of " + mxAddresses + " is reachable" + (lastError == null ? "" : ": " + lastError.getMessage())));
+		} else if (lastError.getReply() != null) {
+			groupReply = lastError.getReply();
+		} else {
+			groupReply = new SmtpReply(451, Collections.singletonList("4.4.2 " + lastError.getMessage()));
+		}
+		final Map<String, SmtpReply> rejectedRecipients = new LinkedHashMap<>();
+		for (final String recipient : recipients) {
+			rejectedRecipients.put(recipient, groupReply);
+		}
+		return rejectedRecipients;
+	}
+
+	/**
+	 * Send a message to one mail exchanger by STARTTLS or in plaintext, if the TLS handshake fails and STARTTLS is not required
+	 */
+	private Map<String, SmtpReply> sendToMx(final InetSocketAddress mxAddress, final String envelopeFrom, final List<String> recipients, final SmtpMessageWriter messageWriter) throws MessagingException {
+		final SmtpRelay relay = new SmtpRelay(mxAddress.getHostString(), mxAddress.getPort(), MailerConnectionSecurity.STARTTLS, null, null);
+		try {
+			return connectionPool.sendMessage(relay, settings, envelopeFrom, recipients, messageWriter, true);
+		} catch (final SmtpException e) {
+			if (settings.isRequireStartTls() || !isTlsFailure(e)) {
+				throw e;
+			}
+			// The handshake failed before any envelope command, so the message was not transmitted yet
+			final SmtpRelay plaintextRelay = new SmtpRelay(mxAddress.getHostString(), mxAddress.getPort(), MailerConnectionSecurity.None, null, null);
+			return connectionPool.sendMessage(plaintextRelay, settings, envelopeFrom, recipients, messageWriter, true);
+		}
+	}
+
+	private static boolean isTlsFailure(final Throwable exception) {
+		for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+			if (cause instanceof SSLException) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Lower case ASCII domain of a recipient address or null for invalid addresses
+	 */
+	private static String getDomain(final String recipient) {
+		final int atIndex = recipient.lastIndexOf('@');
+		if (atIndex <= 0 || atIndex == recipient.length() - 1) {
+			return null;
+		} else {
+			try {
+				return IDN.toASCII(recipient.substring(atIndex + 1)).toLowerCase(Locale.ROOT);
+			} catch (@SuppressWarnings("unused") final IllegalArgumentException e) {
+				return null;
+			}
+		}
+	}
+
+	@Override
+	public void close() {
+		connectionPool.close();
+	}
+}
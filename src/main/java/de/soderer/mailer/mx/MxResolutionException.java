@@ -0,0 +1,24 @@
+package de.soderer.mailer.mx;
+
+import java.io.IOException;
+
+/**
+ * Error in the resolution of the mail exchangers of a domain
+ */
+public class MxResolutionException extends IOException {
+	private static final long serialVersionUID = 6019474420850391537L;
+
+	private final boolean permanent;
+
+	/**
+	 * @param permanent true if the domain does not accept emails at all (domain does not exist or has a null MX record), false for lookup errors, which may succeed later
+	 */
+	public MxResolutionException(final String message, final boolean permanent, final Throwable cause) {
+		super(message, cause);
+		this.permanent = permanent;
+	}
+
+	public boolean isPermanent() {
+		return permanent;
+	}
+}
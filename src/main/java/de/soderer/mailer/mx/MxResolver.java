@@ -0,0 +1,19 @@
+package de.soderer.mailer.mx;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+
+/**
+ * Resolves the mail exchangers (MX hosts) of recipient domains for the direct delivery.<br />
+ * Implementations are exchangeable, e.g. a static mapping of domains to local SMTP servers for tests instead of DNS.
+ */
+public interface MxResolver {
+	/**
+	 * Get the SMTP servers of a domain in the order of their preference
+	 *
+	 * @param domain lower case ASCII domain of a recipient address
+	 * @return unresolved addresses (host and port) of the SMTP servers, at least one
+	 * @throws MxResolutionException if the domain has no SMTP server (permanent) or the lookup failed (temporary)
+	 */
+	List<InetSocketAddress> resolve(String domain) throws MxResolutionException;
+}
@@ -0,0 +1,87 @@
+package de.soderer.mailer.mx;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Fixed mail exchangers per domain instead of DNS, e.g. local SMTP servers for tests or internal routing of the direct delivery.<br />
+ * Each line of the mapping file assigns a list of SMTP servers in the order of their preference to a domain.
+ * The domain "*" applies to all domains without their own line:
+ * <pre>
+ * example.com = mx1.example.com, mx2.example.com:2525
+ * * = localhost:2525
+ * </pre>
+ * Domains without a line and without "*" are not resolved at all, so no email leaves the configured servers.
+ */
+public class StaticMxResolver implements MxResolver {
+	public static final String DEFAULT_DOMAIN = "*";
+
+	private final Map<String, List<InetSocketAddress>> mxAddressesByDomain = new HashMap<>();
+
+	public StaticMxResolver(final Map<String, List<InetSocketAddress>> mxAddressesByDomain) {
+		for (final Map.Entry<String, List<InetSocketAddress>> entry : mxAddressesByDomain.entrySet()) {
+			this.mxAddressesByDomain.put(entry.getKey().toLowerCase(Locale.ROOT), Collections.unmodifiableList(new ArrayList<>(entry.getValue())));
+		}
+	}
+
+	/**
+	 * Read the mapping of domains to SMTP servers from a file
+	 */
+	public static StaticMxResolver fromFile(final File mappingFile) throws IOException {
+		final Properties mapping = new Properties();
+		try (Reader reader = Files.newBufferedReader(mappingFile.toPath(), StandardCharsets.UTF_8)) {
+			mapping.load(reader);
+		}
+		final Map<String, List<InetSocketAddress>> mxAddressesByDomain = new HashMap<>();
+		for (final String domain : mapping.stringPropertyNames()) {
+			final List<InetSocketAddress> mxAddresses = new ArrayList<>();
+			for (final String mxHost : mapping.getProperty(domain).split("[\\s,;]+")) {
+				if (mxHost.length() > 0) {
+					mxAddresses.add(parseMxHost(mxHost, domain));
+				}
+			}
+			if (mxAddresses.isEmpty()) {
+				throw new IOException("Missing SMTP server for domain " + domain + " in file " + mappingFile.getAbsolutePath());
+			}
+			mxAddressesByDomain.put(domain, mxAddresses);
+		}
+		return new StaticMxResolver(mxAddressesByDomain);
+	}
+
+	private static InetSocketAddress parseMxHost(final String mxHost, final String domain) throws IOException {
+		final int portSeparatorIndex = mxHost.lastIndexOf(':');
+		if (portSeparatorIndex < 0) {
+			return InetSocketAddress.createUnresolved(mxHost.toLowerCase(Locale.ROOT), DnsMxResolver.SMTP_PORT);
+		} else {
+			try {
+				return InetSocketAddress.createUnresolved(mxHost.substring(0, portSeparatorIndex).toLowerCase(Locale.ROOT), Integer.parseInt(mxHost.substring(portSeparatorIndex + 1)));
+			} catch (final IllegalArgumentException e) {
+				throw new IOException("Invalid SMTP server '" + mxHost + "' for domain " + domain, e);
+			}
+		}
+	}
+
+	@Override
+	public List<InetSocketAddress> resolve(final String domain) throws MxResolutionException {
+		List<InetSocketAddress> mxAddresses = mxAddressesByDomain.get(domain);
+		if (mxAddresses == null) {
+			mxAddresses = mxAddressesByDomain.get(DEFAULT_DOMAIN);
+		}
+		if (mxAddresses == null) {
+			throw new MxResolutionException("No SMTP server configured for domain " + domain, true, null);
+		} else {
+			return mxAddresses;
+		}
+	}
+}
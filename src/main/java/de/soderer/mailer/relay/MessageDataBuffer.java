@@ -0,0 +1,130 @@
+package de.soderer.mailer.relay;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+import de.soderer.mailer.smtp.SmtpMessageWriter;
+import jakarta.mail.MessagingException;
+import jakarta.mail.util.SharedFileInputStream;
+
+/**
+ * Buffer for the data of one received or rendered email.<br />
+ * Small emails are kept in memory. Larger emails are written to a temporary file, so that the memory of a session or pipeline stays bounded.
+ */
+public class MessageDataBuffer implements Closeable {
+	private final int maxMemorySize;
+	private ByteArrayOutputStream memoryData = new ByteArrayOutputStream();
+	private File tempFile = null;
+	private OutputStream tempFileOutputStream = null;
+	private long size = 0;
+
+	/**
+	 * @param maxMemorySize maximum size of data kept in memory
+	 */
+	public MessageDataBuffer(final int maxMemorySize) {
+		this.maxMemorySize = maxMemorySize;
+	}
+
+	/**
+	 * Render an email into a new buffer, which must be closed by the caller
+	 *
+	 * @param maxMemorySize maximum size of data kept in memory
+	 */
+	public static MessageDataBuffer of(final SmtpMessageWriter messageWriter, final int maxMemorySize) throws IOException, MessagingException {
+		final MessageDataBuffer messageData = new MessageDataBuffer(maxMemorySize);
+		try {
+			try (OutputStream messageOutputStream = new BufferedOutputStream(new OutputStream() {
+				@Override
+				public void write(final int nextByte) throws IOException {
+					messageData.write(new byte[] { (byte) nextByte }, 0, 1);
+				}
+
+				@Override
+				public void write(final byte[] data, final int offset, final int length) throws IOException {
+					messageData.write(data, offset, length);
+				}
+			}, 65536)) {
+				messageWriter.writeTo(messageOutputStream);
+			}
+			messageData.finish();
+			return messageData;
+		} catch (final IOException | MessagingException | RuntimeException e) {
+			messageData.close();
+			throw e;
+		}
+	}
+
+	public void write(final byte[] data, final int offset, final int length) throws IOException {
+		if (tempFileOutputStream == null && memoryData.size() + length > maxMemorySize) {
+			// Files.createTempFile creates the file readable by the owner only (0600 on POSIX systems), because it contains relayed emails
+			tempFile = Files.createTempFile("ConsoleMailer_message_", ".eml").toFile();
+			tempFileOutputStream = new BufferedOutputStream(new FileOutputStream(tempFile), 65536);
+			memoryData.writeTo(tempFileOutputStream);
+			memoryData = null;
+		}
+		if (tempFileOutputStream != null) {
+			tempFileOutputStream.write(data, offset, length);
+		} else {
+			memoryData.write(data, offset, length);
+		}
+		size += length;
+	}
+
+	long size() {
+		return size;
+	}
+
+	/**
+	 * Complete the data, so that it can be read
+	 */
+	public void finish() throws IOException {
+		if (tempFileOutputStream != null) {
+			tempFileOutputStream.close();
+			tempFileOutputStream = null;
+		}
+	}
+
+	/**
+	 * Stream of the data. Data of a temporary file is provided as shared stream, so that a MimeMessage parsed from it does not copy its content into memory.
+	 */
+	InputStream getInputStream() throws IOException {
+		if (tempFile != null) {
+			return new SharedFileInputStream(tempFile);
+		} else {
+			return new ByteArrayInputStream(memoryData.toByteArray());
+		}
+	}
+
+	public void writeTo(final OutputStream outputStream) throws IOException {
+		if (tempFile != null) {
+			Files.copy(tempFile.toPath(), outputStream);
+		} else {
+			memoryData.writeTo(outputStream);
+		}
+	}
+
+	@Override
+	public void close() {
+		try {
+			if (tempFileOutputStream != null) {
+				tempFileOutputStream.close();
+				tempFileOutputStream = null;
+			}
+		} catch (@SuppressWarnings("unused") final IOException e) {
+			// Do nothing
+		}
+		if (tempFile != null) {
+			tempFile.delete();
+			tempFile = null;
+		}
+		memoryData = null;
+	}
+}
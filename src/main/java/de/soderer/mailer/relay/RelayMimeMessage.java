@@ -0,0 +1,33 @@
+package de.soderer.mailer.relay;
+
+import java.io.InputStream;
+
+import jakarta.activation.DataHandler;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeMessage;
+
+/**
+ * Email received by the SMTP listener.<br />
+ * The headers and the content are written as received, unless the content is replaced (e.g. by its signed or encrypted content).
+ * The Message-ID of the sender is kept.
+ */
+class RelayMimeMessage extends MimeMessage {
+	RelayMimeMessage(final Session session, final InputStream inputStream) throws MessagingException {
+		super(session, inputStream);
+	}
+
+	@Override
+	public synchronized void setDataHandler(final DataHandler dataHandler) throws MessagingException {
+		super.setDataHandler(dataHandler);
+		// Write the new content instead of the received one
+		modified = true;
+	}
+
+	@Override
+	protected void updateMessageID() throws MessagingException {
+		if (getHeader("Message-ID") == null) {
+			super.updateMessageID();
+		}
+	}
+}
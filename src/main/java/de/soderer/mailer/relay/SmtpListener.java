@@ -0,0 +1,221 @@
+package de.soderer.mailer.relay;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Local SMTP submission listener, which signs, encrypts and relays the emails of other applications.<br />
+ * All client connections are served by one selector thread. The DATA of an email is parsed while it is received and
+ * kept in a bounded buffer, which moves large emails into a temporary file. So a session never holds more than the buffer size in memory.<br />
+ * The processing of a received email (signature, encryption, upstream delivery) is done by a worker thread.
+ * Meanwhile the session does not read any further data from its client, so a slow upstream relay slows down the clients instead of filling the memory.<br />
+ * The client gets the reply for its email only after the upstream relay accepted it.
+ */
+public class SmtpListener implements Closeable {
+	public static final int DEFAULT_MAX_SESSIONS = 100;
+	public static final long DEFAULT_MAX_MESSAGE_SIZE = 50L * 1024 * 1024;
+
+	/** Maximum size of the data of an email, which is kept in memory */
+	static final int MAX_MEMORY_MESSAGE_SIZE = 64 * 1024;
+
+	private static final long IDLE_TIMEOUT_MILLIS = 5 * 60 * 1000;
+	private static final long SHUTDOWN_WAIT_SECONDS = 60;
+
+	private final InetSocketAddress listenAddress;
+	private final SmtpRelayProcessor processor;
+	private final int maxSessions;
+	private final long maxMessageSize;
+	private final int workerThreads;
+	private final Set<SmtpSession> sessions = new HashSet<>();
+	private final Queue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>();
+	private ServerSocketChannel serverChannel = null;
+	private Selector selector = null;
+	private ExecutorService workerExecutor = null;
+	private volatile boolean closed = false;
+
+	/**
+	 * @param workerThreads maximum number of emails processed at the same time (e.g. the number of upstream connections)
+	 */
+	public SmtpListener(final InetSocketAddress listenAddress, final SmtpRelayProcessor processor, final int maxSessions, final long maxMessageSize, final int workerThreads) {
+		this.listenAddress = listenAddress;
+		this.processor = processor;
+		this.maxSessions = maxSessions;
+		this.maxMessageSize = maxMessageSize;
+		this.workerThreads = workerThreads;
+	}
+
+	/**
+	 * Bind the listening socket, so that clients can connect
+	 */
+	public void open() throws IOException {
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		try {
+			serverChannel.bind(listenAddress);
+			serverChannel.configureBlocking(false);
+			serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		} catch (final IOException e) {
+			serverChannel.close();
+			selector.close();
+			throw e;
+		}
+		workerExecutor = Executors.newFixedThreadPool(workerThreads, runnable -> {
+			final Thread workerThread = new Thread(runnable, "SmtpListener worker");
+			workerThread.setDaemon(true);
+			return workerThread;
+		});
+	}
+
+	/**
+	 * Port of the listening socket (e.g. if port 0 was configured)
+	 */
+	public int getLocalPort() throws IOException {
+		return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+	}
+
+	/**
+	 * Serve the client connections until the listener is closed
+	 */
+	public void run() throws IOException {
+		long nextIdleCheck = System.currentTimeMillis() + 1000;
+		try {
+			while (!closed) {
+				selector.select(1000);
+				Runnable selectorTask;
+				while ((selectorTask = selectorTasks.poll()) != null) {
+					selectorTask.run();
+				}
+
+				final Iterator<SelectionKey> selectedKeyIterator = selector.selectedKeys().iterator();
+				while (selectedKeyIterator.hasNext()) {
+					final SelectionKey selectedKey = selectedKeyIterator.next();
+					selectedKeyIterator.remove();
+					if (!selectedKey.isValid()) {
+						continue;
+					} else if (selectedKey.isAcceptable()) {
+						acceptClient();
+					} else {
+						final SmtpSession session = (SmtpSession) selectedKey.attachment();
+						try {
+							if (selectedKey.isWritable()) {
+								session.handleWritable();
+							}
+							if (selectedKey.isValid() && selectedKey.isReadable()) {
+								session.handleReadable();
+							}
+						} catch (@SuppressWarnings("unused") final IOException e) {
+							// Connection was broken by the client
+							session.close();
+						}
+					}
+				}
+
+				final long now = System.currentTimeMillis();
+				if (now >= nextIdleCheck) {
+					for (final SmtpSession session : new ArrayList<>(sessions)) {
+						session.checkIdleTimeout(now - IDLE_TIMEOUT_MILLIS);
+					}
+					nextIdleCheck = now + 1000;
+				}
+			}
+		} catch (final ClosedSelectorException e) {
+			if (!closed) {
+				throw e;
+			}
+		} finally {
+			shutdown();
+		}
+	}
+
+	private void acceptClient() throws IOException {
+		final SocketChannel clientChannel = serverChannel.accept();
+		if (clientChannel == null) {
+			return;
+		}
+		clientChannel.configureBlocking(false);
+		if (sessions.size() >= maxSessions) {
+			try (SocketChannel channel = clientChannel) {
+				channel.write(ByteBuffer.wrap(("421 4.3.2 " + processor.getLocalHostName() + " Too many connections, try again later\r\n").getBytes(StandardCharsets.US_ASCII)));
+			} catch (@SuppressWarnings("unused") final IOException e) {
+				// Do nothing
+			}
+		} else {
+			final SmtpSession session = new SmtpSession(this, clientChannel, processor, maxMessageSize);
+			session.start(clientChannel.register(selector, SelectionKey.OP_READ, session));
+			sessions.add(session);
+		}
+	}
+
+	/**
+	 * Process a received email by a worker thread. The session is continued by the selector thread afterwards.
+	 */
+	void processMessage(final Runnable processTask, final Runnable completionTask) {
+		workerExecutor.execute(() -> {
+			try {
+				processTask.run();
+			} finally {
+				selectorTasks.add(completionTask);
+				selector.wakeup();
+			}
+		});
+	}
+
+	void removeSession(final SmtpSession session) {
+		sessions.remove(session);
+	}
+
+	/**
+	 * Stop accepting connections. Emails, which are processed at this moment, are still delivered.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		if (selector != null) {
+			selector.wakeup();
+		}
+	}
+
+	private void shutdown() {
+		closed = true;
+		try {
+			serverChannel.close();
+		} catch (@SuppressWarnings("unused") final IOException e) {
+			// Do nothing
+		}
+		if (workerExecutor != null) {
+			workerExecutor.shutdown();
+			try {
+				workerExecutor.awaitTermination(SHUTDOWN_WAIT_SECONDS, TimeUnit.SECONDS);
+			} catch (@SuppressWarnings("unused") final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		final List<SmtpSession> remainingSessions = new ArrayList<>(sessions);
+		for (final SmtpSession session : remainingSessions) {
+			session.close();
+		}
+		try {
+			selector.close();
+		} catch (@SuppressWarnings("unused") final IOException e) {
+			// Do nothing
+		}
+	}
+}
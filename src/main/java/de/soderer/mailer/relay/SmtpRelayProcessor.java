@@ -0,0 +1,131 @@
+package de.soderer.mailer.relay;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.List;
+
+import de.soderer.mailer.crypto.MessageEncryptor;
+import de.soderer.mailer.crypto.MessageSigner;
+import de.soderer.mailer.dkim.DkimSigner;
+import de.soderer.mailer.metrics.SendMetrics;
+import de.soderer.mailer.smtp.SmtpException;
+import de.soderer.mailer.smtp.SmtpMessageSink;
+import de.soderer.mailer.smtp.SmtpMessageWriter;
+import de.soderer.mailer.smtp.SmtpRecipientException;
+import de.soderer.mailer.smtp.SmtpReply;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MailDateFormat;
+
+/**
+ * Processing of the emails received by the SMTP listener.<br />
+ * Each email gets a "Received" header and is signed (S/MIME or PGP), encrypted and DKIM signed as configured, before it is handed to the downstream sink (e.g. pooled upstream connections).
+ * Emails without signature, encryption and "Bcc" header are forwarded as received without parsing them.<br />
+ * The result is the SMTP reply for the client, so that the client gets a positive reply only after the email was accepted by the downstream sink.
+ */
+public class SmtpRelayProcessor {
+	private final Session session;
+	private final String localHostName;
+	private final MessageSigner messageSigner;
+	private final MessageEncryptor messageEncryptor;
+	private final DkimSigner dkimSigner;
+	private final SmtpMessageSink downstreamSink;
+
+	/**
+	 * @param messageSigner optional S/MIME or PGP signature
+	 * @param messageEncryptor optional S/MIME or PGP encryption
+	 * @param dkimSigner optional DKIM signature
+	 */
+	public SmtpRelayProcessor(final String localHostName, final MessageSigner messageSigner, final MessageEncryptor messageEncryptor, final DkimSigner dkimSigner, final SmtpMessageSink downstreamSink) {
+		session = Session.getInstance(System.getProperties());
+		this.localHostName = localHostName;
+		this.messageSigner = messageSigner;
+		this.messageEncryptor = messageEncryptor;
+		this.dkimSigner = dkimSigner;
+		this.downstreamSink = downstreamSink;
+	}
+
+	public String getLocalHostName() {
+		return localHostName;
+	}
+
+	/**
+	 * Process and forward one received email
+	 *
+	 * @param clientName name of the client in its EHLO or HELO command
+	 * @param clientAddress network address of the client
+	 * @return reply line for the client
+	 */
+	String process(final String clientName, final String clientAddress, final String envelopeFrom, final List<String> recipients, final MessageDataBuffer messageData) {
+		final String receivedHeader = "from " + clientName + " (" + clientAddress + ")\r\n\tby " + localHostName + " with ESMTP; " + new MailDateFormat().format(new Date());
+		try {
+			if (messageSigner == null && messageEncryptor == null && dkimSigner == null && !hasBccHeader(messageData)) {
+				final byte[] receivedHeaderLine = ("Received: " + receivedHeader + "\r\n").getBytes(StandardCharsets.US_ASCII);
+				downstreamSink.acceptMessage(envelopeFrom, recipients, outputStream -> {
+					outputStream.write(receivedHeaderLine);
+					messageData.writeTo(outputStream);
+				});
+			} else {
+				try (InputStream messageInputStream = messageData.getInputStream()) {
+					final RelayMimeMessage message = new RelayMimeMessage(session, messageInputStream);
+					message.addHeader("Received", receivedHeader);
+					if (messageSigner != null || messageEncryptor != null) {
+						final long cryptoStart = SendMetrics.start();
+						if (messageSigner != null) {
+							messageSigner.sign(message);
+						}
+						if (messageEncryptor != null) {
+							messageEncryptor.encrypt(message);
+						}
+						SendMetrics.record(SendMetrics.Phase.CRYPTO, cryptoStart);
+					}
+					final SmtpMessageWriter messageWriter;
+					if (dkimSigner != null) {
+						final long dkimStart = SendMetrics.start();
+						messageWriter = dkimSigner.sign(message);
+						SendMetrics.record(SendMetrics.Phase.DKIM, dkimStart);
+					} else {
+						messageWriter = SmtpMessageWriter.of(message);
+					}
+					downstreamSink.acceptMessage(envelopeFrom, recipients, messageWriter);
+				}
+			}
+			return "250 2.0.0 Message accepted for delivery";
+		} catch (final SmtpRecipientException e) {
+			final SmtpReply rejection = e.getRejectedRecipients().values().iterator().next();
+			if (rejection.isTransientNegative()) {
+				return "451 4.4.0 Recipient deferred by upstream relay: " + e.getRejectedRecipients();
+			} else {
+				return "550 5.1.0 Recipient rejected by upstream relay: " + e.getRejectedRecipients();
+			}
+		} catch (final SmtpException e) {
+			if (e.getReply() != null && !e.isTransient()) {
+				return "554 5.0.0 Rejected by upstream relay: " + e.getReply().getText();
+			} else {
+				return "451 4.4.1 Upstream relay not available: " + e.getMessage();
+			}
+		} catch (final IOException e) {
+			return "451 4.3.0 Local processing error: " + e.getMessage();
+		} catch (final Exception e) {
+			return "554 5.6.0 Message cannot be processed: " + e.getMessage();
+		}
+	}
+
+	/**
+	 * Check the header block of a received email for a "Bcc" header, which must not be forwarded
+	 */
+	private static boolean hasBccHeader(final MessageDataBuffer messageData) throws IOException {
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(messageData.getInputStream(), StandardCharsets.ISO_8859_1))) {
+			String line;
+			while ((line = reader.readLine()) != null && !line.isEmpty()) {
+				if (line.regionMatches(true, 0, "Bcc:", 0, 4)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+}
@@ -0,0 +1,476 @@
+package de.soderer.mailer.relay;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * One client connection of the SMTP listener (RFC 5321).<br />
+ * All methods are called by the selector thread of the listener, except the processing of a received email.
+ */
+class SmtpSession {
+	private static final int MAX_COMMAND_LINE_LENGTH = 1000;
+	private static final int MAX_RECIPIENTS = 1000;
+	private static final int READ_BUFFER_SIZE = 16 * 1024;
+
+	private enum State {
+		/** Reading SMTP commands */
+		COMMAND,
+		/** Reading the data of an email after the DATA command */
+		DATA,
+		/** Received email is processed by a worker thread */
+		PROCESSING,
+		/** Closed after the pending replies are sent */
+		CLOSING
+	}
+
+	/** States of the DATA parser for dot-unstuffing and the end of data sequence "CRLF.CRLF" */
+	private enum DataState {
+		LINE_START,
+		TEXT,
+		CR,
+		DOT,
+		DOT_CR
+	}
+
+	private final SmtpListener listener;
+	private final SocketChannel channel;
+	private final SmtpRelayProcessor processor;
+	private final long maxMessageSize;
+	private final String clientAddress;
+	private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+	private final Deque<ByteBuffer> pendingReplies = new ArrayDeque<>();
+	private final ByteArrayOutputStream commandLine = new ByteArrayOutputStream(128);
+	private final byte[] dataChunk = new byte[8192];
+	private SelectionKey selectionKey;
+	private State state = State.COMMAND;
+	private boolean commandLineTooLong = false;
+	private long lastActivity = System.currentTimeMillis();
+
+	private String clientName = null;
+	private String envelopeFrom = null;
+	private final List<String> recipients = new ArrayList<>();
+	private MessageDataBuffer messageData = null;
+	private DataState dataState;
+	private int dataChunkLength;
+	private boolean messageTooLarge;
+
+	SmtpSession(final SmtpListener listener, final SocketChannel channel, final SmtpRelayProcessor processor, final long maxMessageSize) throws IOException {
+		this.listener = listener;
+		this.channel = channel;
+		this.processor = processor;
+		this.maxMessageSize = maxMessageSize;
+		final InetSocketAddress remoteAddress = (InetSocketAddress) channel.getRemoteAddress();
+		clientAddress = remoteAddress == null ? "unknown" : remoteAddress.getAddress().getHostAddress();
+	}
+
+	void start(final SelectionKey key) throws IOException {
+		selectionKey = key;
+		sendReply("220 " + processor.getLocalHostName() + " ESMTP ConsoleMailer");
+	}
+
+	void handleReadable() throws IOException {
+		final int readBytes = channel.read(readBuffer);
+		if (readBytes < 0) {
+			close();
+		} else {
+			lastActivity = System.currentTimeMillis();
+			processInput();
+		}
+	}
+
+	void handleWritable() throws IOException {
+		while (!pendingReplies.isEmpty()) {
+			final ByteBuffer nextReply = pendingReplies.peekFirst();
+			channel.write(nextReply);
+			if (nextReply.hasRemaining()) {
+				break;
+			}
+			pendingReplies.pollFirst();
+		}
+		updateInterest();
+	}
+
+	/**
+	 * Close sessions without any activity, unless an email is processed
+	 */
+	void checkIdleTimeout(final long minimumLastActivity) {
+		if (lastActivity < minimumLastActivity && state != State.PROCESSING && state != State.CLOSING) {
+			try {
+				sendReply("421 4.4.2 " + processor.getLocalHostName() + " Idle timeout, closing connection");
+			} catch (@SuppressWarnings("unused") final IOException e) {
+				// Do nothing
+			}
+			state = State.CLOSING;
+			if (pendingReplies.isEmpty()) {
+				close();
+			}
+		}
+	}
+
+	void close() {
+		if (selectionKey != null) {
+			selectionKey.cancel();
+		}
+		try {
+			channel.close();
+		} catch (@SuppressWarnings("unused") final IOException e) {
+			// Do nothing
+		}
+		if (state != State.PROCESSING) {
+			// The worker thread closes the data of an email in progress itself
+			resetTransaction();
+		}
+		state = State.CLOSING;
+		listener.removeSession(this);
+	}
+
+	/**
+	 * Process the received bytes in the read buffer. Bytes of pipelined commands, which follow a received email, stay in the buffer until the email is processed.
+	 */
+	private void processInput() throws IOException {
+		readBuffer.flip();
+		try {
+			while (readBuffer.hasRemaining() && (state == State.COMMAND || state == State.DATA)) {
+				if (state == State.COMMAND) {
+					final byte nextByte = readBuffer.get();
+					if (nextByte == '\n') {
+						final String line = commandLine.toString(StandardCharsets.ISO_8859_1);
+						commandLine.reset();
+						if (commandLineTooLong) {
+							commandLineTooLong = false;
+							sendReply("500 5.5.2 Line too long");
+						} else {
+							executeCommand(line.endsWith("\r") ? line.substring(0, line.length() - 1) : line);
+						}
+					} else if (commandLine.size() < MAX_COMMAND_LINE_LENGTH) {
+						commandLine.write(nextByte);
+					} else {
+						commandLineTooLong = true;
+					}
+				} else {
+					readData();
+				}
+			}
+		} finally {
+			readBuffer.compact();
+		}
+		updateInterest();
+	}
+
+	private void executeCommand(final String line) throws IOException {
+		final int separatorIndex = line.indexOf(' ');
+		final String command = (separatorIndex < 0 ? line : line.substring(0, separatorIndex)).toUpperCase(Locale.ROOT);
+		final String argument = separatorIndex < 0 ? "" : line.substring(separatorIndex + 1).trim();
+
+		switch (command) {
+			case "EHLO":
+			case "HELO":
+				if (argument.isEmpty()) {
+					sendReply("501 5.5.4 Missing domain name");
+				} else {
+					resetTransaction();
+					clientName = argument;
+					if ("EHLO".equals(command)) {
+						sendReply("250-" + processor.getLocalHostName() + " Hello " + clientName + "\r\n"
+								+ "250-8BITMIME\r\n"
+								+ "250-SIZE " + maxMessageSize + "\r\n"
+								+ "250 ENHANCEDSTATUSCODES");
+					} else {
+						sendReply("250 " + processor.getLocalHostName() + " Hello " + clientName);
+					}
+				}
+				break;
+			case "MAIL":
+				if (clientName == null) {
+					sendReply("503 5.5.1 Send EHLO or HELO first");
+				} else if (envelopeFrom != null) {
+					sendReply("503 5.5.1 Nested MAIL command");
+				} else if (!argument.toUpperCase(Locale.ROOT).startsWith("FROM:")) {
+					sendReply("501 5.5.4 Syntax: MAIL FROM:<address>");
+				} else {
+					final String[] pathAndParameters = parsePath(argument.substring(5));
+					if (pathAndParameters == null) {
+						sendReply("501 5.1.7 Invalid sender address");
+					} else {
+						final String parameterError = checkMailParameters(pathAndParameters[1]);
+						if (parameterError != null) {
+							sendReply(parameterError);
+						} else {
+							envelopeFrom = pathAndParameters[0];
+							sendReply("250 2.1.0 Sender ok");
+						}
+					}
+				}
+				break;
+			case "RCPT":
+				if (envelopeFrom == null) {
+					sendReply("503 5.5.1 Send MAIL first");
+				} else if (!argument.toUpperCase(Locale.ROOT).startsWith("TO:")) {
+					sendReply("501 5.5.4 Syntax: RCPT TO:<address>");
+				} else if (recipients.size() >= MAX_RECIPIENTS) {
+					sendReply("452 4.5.3 Too many recipients");
+				} else {
+					final String[] pathAndParameters = parsePath(argument.substring(3));
+					if (pathAndParameters == null || pathAndParameters[0].isEmpty()) {
+						sendReply("501 5.1.3 Invalid recipient address");
+					} else if (!pathAndParameters[1].isEmpty()) {
+						sendReply("555 5.5.4 Unsupported RCPT parameters");
+					} else {
+						recipients.add(pathAndParameters[0]);
+						sendReply("250 2.1.5 Recipient ok");
+					}
+				}
+				break;
+			case "DATA":
+				if (envelopeFrom == null) {
+					sendReply("503 5.5.1 Send MAIL first");
+				} else if (recipients.isEmpty()) {
+					sendReply("503 5.5.1 No valid recipients");
+				} else if (!argument.isEmpty()) {
+					sendReply("501 5.5.4 Syntax: DATA");
+				} else {
+					messageData = new MessageDataBuffer(SmtpListener.MAX_MEMORY_MESSAGE_SIZE);
+					dataState = DataState.LINE_START;
+					dataChunkLength = 0;
+					messageTooLarge = false;
+					state = State.DATA;
+					sendReply("354 End data with <CR><LF>.<CR><LF>");
+				}
+				break;
+			case "RSET":
+				resetTransaction();
+				sendReply("250 2.0.0 Ok");
+				break;
+			case "NOOP":
+				sendReply("250 2.0.0 Ok");
+				break;
+			case "VRFY":
+				sendReply("252 2.5.0 Cannot verify user, but will accept message");
+				break;
+			case "QUIT":
+				sendReply("221 2.0.0 " + processor.getLocalHostName() + " closing connection");
+				state = State.CLOSING;
+				break;
+			default:
+				sendReply("502 5.5.2 Command not recognized");
+				break;
+		}
+	}
+
+	/**
+	 * Split "&lt;address&gt; parameters" of the MAIL and RCPT commands
+	 *
+	 * @return address and parameters or null for an invalid syntax
+	 */
+	private static String[] parsePath(final String pathWithParameters) {
+		final String value = pathWithParameters.trim();
+		if (!value.startsWith("<")) {
+			return null;
+		}
+		final int pathEnd = value.indexOf('>');
+		if (pathEnd < 0) {
+			return null;
+		}
+		String address = value.substring(1, pathEnd).trim();
+		// Source routes ("@a,@b:user@c") are ignored (RFC 5321 4.1.2)
+		final int sourceRouteEnd = address.indexOf(':');
+		if (address.startsWith("@") && sourceRouteEnd > 0) {
+			address = address.substring(sourceRouteEnd + 1);
+		}
+		return new String[] { address, value.substring(pathEnd + 1).trim() };
+	}
+
+	/**
+	 * @return error reply for unsupported or invalid MAIL parameters or null
+	 */
+	private String checkMailParameters(final String parameters) {
+		if (!parameters.isEmpty()) {
+			for (final String parameter : parameters.split("\\s+")) {
+				final String upperCaseParameter = parameter.toUpperCase(Locale.ROOT);
+				if (upperCaseParameter.startsWith("SIZE=")) {
+					try {
+						if (Long.parseLong(parameter.substring(5)) > maxMessageSize) {
+							return "552 5.3.4 Message size exceeds fixed limit";
+						}
+					} catch (@SuppressWarnings("unused") final NumberFormatException e) {
+						return "501 5.5.4 Invalid SIZE parameter";
+					}
+				} else if (!"BODY=7BIT".equals(upperCaseParameter) && !"BODY=8BITMIME".equals(upperCaseParameter)) {
+					return "555 5.5.4 Unsupported MAIL parameter " + parameter;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Parse the received bytes of an email: Remove the dot-stuffing and detect the end of data "CRLF.CRLF".<br />
+	 * The data is written to the message buffer in chunks, so that the read buffer can be reused for the next bytes.
+	 */
+	private void readData() throws IOException {
+		while (readBuffer.hasRemaining()) {
+			final byte nextByte = readBuffer.get();
+			switch (dataState) {
+				case LINE_START:
+					if (nextByte == '.') {
+						dataState = DataState.DOT;
+					} else {
+						appendData(nextByte);
+						dataState = nextByte == '\r' ? DataState.CR : DataState.TEXT;
+					}
+					break;
+				case TEXT:
+					appendData(nextByte);
+					if (nextByte == '\r') {
+						dataState = DataState.CR;
+					}
+					break;
+				case CR:
+					appendData(nextByte);
+					if (nextByte == '\n') {
+						dataState = DataState.LINE_START;
+					} else if (nextByte != '\r') {
+						dataState = DataState.TEXT;
+					}
+					break;
+				case DOT:
+					// A leading dot of a line is removed (RFC 5321 4.5.2)
+					if (nextByte == '\r') {
+						dataState = DataState.DOT_CR;
+					} else {
+						appendData(nextByte);
+						dataState = DataState.TEXT;
+					}
+					break;
+				case DOT_CR:
+					if (nextByte == '\n') {
+						finishData();
+						return;
+					} else {
+						appendData((byte) '\r');
+						appendData(nextByte);
+						dataState = nextByte == '\r' ? DataState.CR : DataState.TEXT;
+					}
+					break;
+				default:
+					throw new IllegalStateException("Unknown data state: " + dataState);
+			}
+		}
+		flushData();
+	}
+
+	private void appendData(final byte nextByte) throws IOException {
+		if (dataChunkLength == dataChunk.length) {
+			flushData();
+		}
+		dataChunk[dataChunkLength++] = nextByte;
+	}
+
+	private void flushData() throws IOException {
+		if (dataChunkLength > 0) {
+			if (!messageTooLarge) {
+				if (messageData.size() + dataChunkLength > maxMessageSize) {
+					// The rest of the email is read and discarded to keep the session in sync
+					messageTooLarge = true;
+				} else {
+					messageData.write(dataChunk, 0, dataChunkLength);
+				}
+			}
+			dataChunkLength = 0;
+		}
+	}
+
+	private void finishData() throws IOException {
+		flushData();
+		if (messageTooLarge) {
+			resetTransaction();
+			state = State.COMMAND;
+			sendReply("552 5.3.4 Message size exceeds fixed limit");
+		} else {
+			messageData.finish();
+			state = State.PROCESSING;
+			final String[] reply = new String[1];
+			final String processEnvelopeFrom = envelopeFrom;
+			final List<String> processRecipients = new ArrayList<>(recipients);
+			final MessageDataBuffer processMessageData = messageData;
+			listener.processMessage(() -> {
+				try {
+					reply[0] = processor.process(clientName, clientAddress, processEnvelopeFrom, processRecipients, processMessageData);
+				} catch (final Exception e) {
+					reply[0] = "451 4.3.0 Local processing error: " + e.getMessage();
+				} finally {
+					processMessageData.close();
+				}
+			}, () -> completeMessage(reply[0]));
+		}
+	}
+
+	/**
+	 * Continue the session after the received email was processed
+	 */
+	private void completeMessage(final String reply) {
+		if (state != State.PROCESSING) {
+			// Session was closed meanwhile
+			return;
+		}
+		messageData = null;
+		resetTransaction();
+		state = State.COMMAND;
+		try {
+			sendReply(reply);
+			processInput();
+		} catch (@SuppressWarnings("unused") final IOException e) {
+			close();
+		}
+	}
+
+	private void resetTransaction() {
+		envelopeFrom = null;
+		recipients.clear();
+		if (messageData != null) {
+			messageData.close();
+			messageData = null;
+		}
+	}
+
+	/**
+	 * Send a reply. Replies, which cannot be sent at once, are sent when the client is able to receive them.
+	 */
+	private void sendReply(final String reply) throws IOException {
+		final ByteBuffer replyData = ByteBuffer.wrap((reply.replace("\r\n", "\n").replace("\n", "\r\n") + "\r\n").getBytes(StandardCharsets.UTF_8));
+		if (pendingReplies.isEmpty()) {
+			channel.write(replyData);
+		}
+		if (replyData.hasRemaining()) {
+			pendingReplies.addLast(replyData);
+		}
+	}
+
+	/**
+	 * Read further data only if the client has received all replies and no email is processed at the moment.
+	 * So neither pending replies nor received data accumulate in memory.
+	 */
+	private void updateInterest() {
+		if (!selectionKey.isValid()) {
+			return;
+		} else if (!pendingReplies.isEmpty()) {
+			selectionKey.interestOps(SelectionKey.OP_WRITE);
+		} else if (state == State.CLOSING) {
+			close();
+		} else if (state == State.PROCESSING) {
+			selectionKey.interestOps(0);
+		} else {
+			selectionKey.interestOps(SelectionKey.OP_READ);
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package de.soderer.mailer.smtp;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import jakarta.mail.MessagingException;
+
+/**
+ * Message writer, which counts the bytes written by another message writer (e.g. for the size of a rendered email in its JFR event)
+ */
+class ByteCountingMessageWriter implements SmtpMessageWriter {
+	private final SmtpMessageWriter messageWriter;
+	private long byteCount = 0;
+
+	ByteCountingMessageWriter(final SmtpMessageWriter messageWriter) {
+		this.messageWriter = messageWriter;
+	}
+
+	@Override
+	public void writeTo(final OutputStream outputStream) throws IOException, MessagingException {
+		byteCount = 0;
+		messageWriter.writeTo(new FilterOutputStream(outputStream) {
+			@Override
+			public void write(final int nextByte) throws IOException {
+				out.write(nextByte);
+				byteCount++;
+			}
+
+			@Override
+			public void write(final byte[] data, final int offset, final int length) throws IOException {
+				out.write(data, offset, length);
+				byteCount += length;
+			}
+		});
+	}
+
+	long getByteCount() {
+		return byteCount;
+	}
+}
@@ -0,0 +1,13 @@
+package de.soderer.mailer.smtp;
+
+import jakarta.mail.Provider;
+
+/**
+ * Provider of the ConsoleMailerTransport for the protocol "smtp", which is registered in "META-INF/services/jakarta.mail.Provider".<br />
+ * It precedes the standard SMTP provider of jakarta mail, because the classes of ConsoleMailer are first in the classpath.
+ */
+public class ConsoleMailerSmtpProvider extends Provider {
+	public ConsoleMailerSmtpProvider() {
+		super(Provider.Type.TRANSPORT, "smtp", ConsoleMailerTransport.class.getName(), "soderer.de", null);
+	}
+}
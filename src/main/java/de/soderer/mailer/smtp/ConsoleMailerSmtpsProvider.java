@@ -0,0 +1,12 @@
+package de.soderer.mailer.smtp;
+
+import jakarta.mail.Provider;
+
+/**
+ * Provider of the ConsoleMailerTransport for the protocol "smtps", which is registered in "META-INF/services/jakarta.mail.Provider"
+ */
+public class ConsoleMailerSmtpsProvider extends Provider {
+	public ConsoleMailerSmtpsProvider() {
+		super(Provider.Type.TRANSPORT, "smtps", ConsoleMailerTransport.class.getName(), "soderer.de", null);
+	}
+}
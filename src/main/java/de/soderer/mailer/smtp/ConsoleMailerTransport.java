@@ -0,0 +1,416 @@
+package de.soderer.mailer.smtp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.angus.mail.smtp.SMTPMessage;
+
+import de.soderer.mailer.crypto.MessageEncryptor;
+import de.soderer.mailer.dkim.DkimSigner;
+import de.soderer.mailer.metrics.MessageRenderEvent;
+import de.soderer.mailer.metrics.SendMetrics;
+import de.soderer.mailer.mime.FileAttachments;
+import de.soderer.mailer.mime.MimePartCache;
+import de.soderer.utilities.mail.MailerConnectionSecurity;
+import jakarta.mail.Address;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Provider;
+import jakarta.mail.SendFailedException;
+import jakarta.mail.Session;
+import jakarta.mail.Transport;
+import jakarta.mail.URLName;
+import jakarta.mail.event.TransportEvent;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeMessage;
+
+/**
+ * Jakarta mail transport for the protocols "smtp" and "smtps", which is registered by the ConsoleMailerSmtpProvider and ConsoleMailerSmtpsProvider.<br />
+ * The Mailer renders the emails (including S/MIME and PGP) and hands them over to this transport, which adds the DKIM signature.
+ * Emails for multiple receiver certificates or keys are encrypted by this transport, because the Mailer supports only one.<br />
+ * If a connection pool is configured, the emails are sent by pooled connections, so that multiple emails do not need a new
+ * connection, TLS handshake and authentication each. Otherwise the standard SMTP transport of jakarta mail is used.<br />
+ * If a message sink is configured, the rendered emails are handed to the sink (e.g. the spool queue) instead of any SMTP server.<br />
+ * The configuration is kept per ConsoleMailer call and shared with the threads started by the call, so that concurrent calls (daemon jobs) do not interfere.
+ */
+public class ConsoleMailerTransport extends Transport {
+	private static final String DEFAULT_SMTP_TRANSPORT_CLASS = "org.eclipse.angus.mail.smtp.SMTPTransport";
+	private static final String DEFAULT_SMTPS_TRANSPORT_CLASS = "org.eclipse.angus.mail.smtp.SMTPSSLTransport";
+
+	/** Configuration of the current call, which is inherited by the threads started by the call (send engine, render pipeline) */
+	private static final InheritableThreadLocal<CallSettings> CALL_SETTINGS = new InheritableThreadLocal<>() {
+		@Override
+		protected CallSettings initialValue() {
+			return new CallSettings();
+		}
+	};
+
+	private final String protocol;
+	private final boolean ssl;
+
+	private Transport defaultTransport = null;
+	private SmtpMessageSink sink = null;
+	private SmtpConnectionPool pool = null;
+	private SmtpRelay relay = null;
+	private SmtpConnectionSettings settings = null;
+	private SmtpConnection connection = null;
+	/** Ended JFR event of the rendering of the email, which is committed, when the transport is closed */
+	private MessageRenderEvent renderEvent = null;
+
+	public ConsoleMailerTransport(final Session session, final URLName urlName) {
+		super(session, urlName);
+		protocol = urlName == null || urlName.getProtocol() == null ? "smtp" : urlName.getProtocol();
+		ssl = "smtps".equalsIgnoreCase(protocol) || "true".equalsIgnoreCase(session.getProperty("mail." + protocol + ".ssl.enable"));
+	}
+
+	/**
+	 * Start a new configuration for the current thread and the threads started by it afterwards, so that the settings of a previous or concurrent call are not used
+	 */
+	public static void beginCall() {
+		CALL_SETTINGS.set(new CallSettings());
+	}
+
+	/**
+	 * Set the connection pool for all following emails or null to use the standard SMTP transport with a new connection for each email
+	 */
+	public static void setConnectionPool(final SmtpConnectionPool connectionPool) {
+		CALL_SETTINGS.get().connectionPool = connectionPool;
+	}
+
+	public static SmtpConnectionPool getConnectionPool() {
+		return CALL_SETTINGS.get().connectionPool;
+	}
+
+	/**
+	 * Set the message sink for all following emails, which takes precedence over the connection pool, or null to send the emails to the SMTP server
+	 */
+	public static void setMessageSink(final SmtpMessageSink messageSink) {
+		CALL_SETTINGS.get().messageSink = messageSink;
+	}
+
+	public static SmtpMessageSink getMessageSink() {
+		return CALL_SETTINGS.get().messageSink;
+	}
+
+	/**
+	 * Set the cache of encoded MIME parts for all following emails or null to encode all parts of each email
+	 */
+	public static void setMimePartCache(final MimePartCache mimePartCache) {
+		CALL_SETTINGS.get().mimePartCache = mimePartCache;
+	}
+
+	public static MimePartCache getMimePartCache() {
+		return CALL_SETTINGS.get().mimePartCache;
+	}
+
+	/**
+	 * Set the encryption for multiple receivers for all following emails or null to send the emails as rendered by the Mailer
+	 */
+	public static void setMessageEncryptor(final MessageEncryptor messageEncryptor) {
+		CALL_SETTINGS.get().messageEncryptor = messageEncryptor;
+	}
+
+	public static MessageEncryptor getMessageEncryptor() {
+		return CALL_SETTINGS.get().messageEncryptor;
+	}
+
+	/**
+	 * Set the DKIM signing context for all following emails or null to send the emails without DKIM signature
+	 */
+	public static void setDkimSigner(final DkimSigner dkimSigner) {
+		CALL_SETTINGS.get().dkimSigner = dkimSigner;
+	}
+
+	/**
+	 * Set the TLS protocols and cipher suites of the pooled connections for all following emails, if they are not configured by the session properties "mail.&lt;protocol&gt;.ssl.protocols" and "mail.&lt;protocol&gt;.ssl.ciphersuites", or null for the defaults of the JVM
+	 */
+	public static void setTlsParameters(final String[] tlsProtocols, final String[] tlsCipherSuites) {
+		final CallSettings callSettings = CALL_SETTINGS.get();
+		callSettings.tlsProtocols = tlsProtocols;
+		callSettings.tlsCipherSuites = tlsCipherSuites;
+	}
+
+	public static DkimSigner getDkimSigner() {
+		return CALL_SETTINGS.get().dkimSigner;
+	}
+
+	@Override
+	protected boolean protocolConnect(final String host, final int port, final String user, final String password) throws MessagingException {
+		// The Mailer connects the transport right after it rendered the email
+		SendMetrics.recordRender();
+		final CallSettings callSettings = CALL_SETTINGS.get();
+		renderEvent = MessageRenderEvent.endRender();
+		if (renderEvent != null && callSettings.messageSink == null) {
+			renderEvent.relay = port == -1 ? host : host + ":" + port;
+		}
+
+		sink = callSettings.messageSink;
+		if (sink != null) {
+			return true;
+		}
+
+		pool = callSettings.connectionPool;
+		if (pool == null) {
+			defaultTransport = session.getTransport(new Provider(Provider.Type.TRANSPORT, protocol, ssl ? DEFAULT_SMTPS_TRANSPORT_CLASS : DEFAULT_SMTP_TRANSPORT_CLASS, "Oracle", null));
+			final long connectStart = SendMetrics.start();
+			try {
+				defaultTransport.connect(host, port, user, password);
+			} catch (final MessagingException e) {
+				SendMetrics.count(SendMetrics.Counter.CONNECTIONS_FAILED);
+				throw e;
+			}
+			SendMetrics.record(SendMetrics.Phase.CONNECT, connectStart);
+			SendMetrics.count(SendMetrics.Counter.CONNECTIONS_OPENED);
+			return true;
+		}
+
+		final boolean useAuthentication = "true".equalsIgnoreCase(session.getProperty("mail." + protocol + ".auth"));
+		if (useAuthentication && (user == null || password == null)) {
+			// Let the session ask its authenticator for the credentials
+			return false;
+		}
+
+		int relayPort = port;
+		if (relayPort == -1) {
+			try {
+				relayPort = Integer.parseInt(session.getProperty("mail." + protocol + ".port"));
+			} catch (@SuppressWarnings("unused") final Exception e) {
+				relayPort = ssl ? 465 : 25;
+			}
+		}
+
+		final MailerConnectionSecurity connectionSecurity;
+		if (ssl) {
+			connectionSecurity = MailerConnectionSecurity.SSL_TLS;
+		} else if ("true".equalsIgnoreCase(session.getProperty("mail." + protocol + ".starttls.enable"))) {
+			connectionSecurity = MailerConnectionSecurity.STARTTLS;
+		} else {
+			connectionSecurity = MailerConnectionSecurity.None;
+		}
+
+		final boolean authenticate = useAuthentication || (user != null && password != null);
+		relay = new SmtpRelay(host, relayPort, connectionSecurity, authenticate ? user : null, authenticate ? password : null);
+		settings = SmtpConnectionSettings.fromSession(session, protocol, host);
+		if (settings.getTlsProtocols() == null) {
+			settings.setTlsProtocols(callSettings.tlsProtocols);
+		}
+		if (settings.getTlsCipherSuites() == null) {
+			settings.setTlsCipherSuites(callSettings.tlsCipherSuites);
+		}
+		connection = pool.acquireConnection(relay, settings);
+		return true;
+	}
+
+	@Override
+	public void sendMessage(final Message message, final Address[] addresses) throws MessagingException {
+		if (renderEvent != null && addresses != null) {
+			renderEvent.recipientCount = addresses.length;
+		}
+		SmtpMessageWriter signedMessageWriter = null;
+		if (message instanceof MimeMessage) {
+			final CallSettings callSettings = CALL_SETTINGS.get();
+			final long mimePartsStart = SendMetrics.start();
+			try {
+				FileAttachments.replacePlaceholders((MimeMessage) message);
+			} catch (final IOException e) {
+				throw new MessagingException("Cannot read file attachments: " + e.getMessage(), e);
+			}
+
+			final MimePartCache partCache = callSettings.mimePartCache;
+			if (partCache != null) {
+				try {
+					partCache.applyTo((MimeMessage) message);
+				} catch (final IOException e) {
+					throw new MessagingException("Cannot encode MIME parts: " + e.getMessage(), e);
+				}
+			}
+			SendMetrics.record(SendMetrics.Phase.MIME_PARTS, mimePartsStart);
+
+			final MessageEncryptor encryptor = callSettings.messageEncryptor;
+			if (encryptor != null) {
+				final long cryptoStart = SendMetrics.start();
+				try {
+					encryptor.encrypt((MimeMessage) message);
+				} catch (final IOException e) {
+					throw new MessagingException("Cannot encrypt email: " + e.getMessage(), e);
+				}
+				SendMetrics.record(SendMetrics.Phase.CRYPTO, cryptoStart);
+			}
+
+			// DKIM signature is created last, because the rendered email must not be changed afterwards
+			final DkimSigner signer = callSettings.dkimSigner;
+			if (signer != null) {
+				final long dkimStart = SendMetrics.start();
+				try {
+					signedMessageWriter = signer.sign((MimeMessage) message);
+				} catch (final IOException e) {
+					throw new MessagingException("Cannot create DKIM signature: " + e.getMessage(), e);
+				}
+				SendMetrics.record(SendMetrics.Phase.DKIM, dkimStart);
+			}
+		}
+
+		if (defaultTransport != null) {
+			final long dataStart = SendMetrics.start();
+			try {
+				defaultTransport.sendMessage(message, addresses);
+			} catch (final MessagingException e) {
+				SendMetrics.count(SendMetrics.Counter.MESSAGES_FAILED);
+				throw e;
+			}
+			SendMetrics.record(SendMetrics.Phase.DATA, dataStart);
+			SendMetrics.count(SendMetrics.Counter.MESSAGES_SENT);
+			return;
+		} else if (relay == null && sink == null) {
+			throw new IllegalStateException("Not connected");
+		} else if (!(message instanceof MimeMessage)) {
+			throw new MessagingException("SMTP can only send RFC822 messages");
+		} else if (addresses == null || addresses.length == 0) {
+			throw new SendFailedException("No recipient addresses");
+		}
+
+		final List<String> recipients = new ArrayList<>();
+		for (final Address address : addresses) {
+			if (!(address instanceof InternetAddress)) {
+				throw new MessagingException(address + " is not an InternetAddress");
+			}
+			recipients.add(((InternetAddress) address).getAddress());
+		}
+		final String envelopeFrom = getEnvelopeFrom(message);
+		// A DKIM signed email is transmitted as it was rendered for its signature
+		final SmtpMessageWriter contentWriter = signedMessageWriter != null ? signedMessageWriter : SmtpMessageWriter.of((MimeMessage) message);
+		final SmtpMessageWriter messageWriter;
+		if (renderEvent != null) {
+			// Size of the rendered email is only determined for a running recording of the JFR event
+			final ByteCountingMessageWriter byteCountingMessageWriter = new ByteCountingMessageWriter(contentWriter);
+			messageWriter = outputStream -> {
+				byteCountingMessageWriter.writeTo(outputStream);
+				renderEvent.messageSize = byteCountingMessageWriter.getByteCount();
+			};
+		} else {
+			messageWriter = contentWriter;
+		}
+
+		if (sink != null) {
+			try {
+				sink.acceptMessage(envelopeFrom, recipients, messageWriter);
+			} catch (final MessagingException e) {
+				notifyTransportListeners(TransportEvent.MESSAGE_NOT_DELIVERED, new Address[0], addresses, new Address[0], message);
+				throw e;
+			}
+			notifyTransportListeners(TransportEvent.MESSAGE_DELIVERED, addresses, new Address[0], new Address[0], message);
+			return;
+		}
+
+		final Map<String, SmtpReply> rejectedRecipients;
+		try {
+			if (connection != null) {
+				// The connection acquired on connect is handed back to the pool by its send
+				final SmtpConnection acquiredConnection = connection;
+				connection = null;
+				rejectedRecipients = pool.sendMessage(acquiredConnection, settings, envelopeFrom, recipients, messageWriter, settings.isSendPartial());
+			} else {
+				rejectedRecipients = pool.sendMessage(relay, settings, envelopeFrom, recipients, messageWriter, settings.isSendPartial());
+			}
+		} catch (final SmtpRecipientException e) {
+			final Address[] invalidAddresses = toAddresses(addresses, e.getRejectedRecipients(), true);
+			final Address[] validUnsentAddresses = toAddresses(addresses, e.getRejectedRecipients(), false);
+			notifyTransportListeners(TransportEvent.MESSAGE_NOT_DELIVERED, new Address[0], validUnsentAddresses, invalidAddresses, message);
+			throw new SendFailedException(e.getMessage(), e, new Address[0], validUnsentAddresses, invalidAddresses);
+		} catch (final MessagingException e) {
+			notifyTransportListeners(TransportEvent.MESSAGE_NOT_DELIVERED, new Address[0], addresses, new Address[0], message);
+			throw e;
+		}
+
+		if (rejectedRecipients.isEmpty()) {
+			notifyTransportListeners(TransportEvent.MESSAGE_DELIVERED, addresses, new Address[0], new Address[0], message);
+		} else {
+			final Address[] invalidAddresses = toAddresses(addresses, rejectedRecipients, true);
+			final Address[] validSentAddresses = toAddresses(addresses, rejectedRecipients, false);
+			notifyTransportListeners(TransportEvent.MESSAGE_PARTIALLY_DELIVERED, validSentAddresses, new Address[0], invalidAddresses, message);
+			throw new SendFailedException("Message was not sent to rejected recipients: " + rejectedRecipients, null, validSentAddresses, new Address[0], invalidAddresses);
+		}
+	}
+
+	/**
+	 * Get the envelope sender address in the same way as the standard SMTP transport
+	 */
+	private String getEnvelopeFrom(final Message message) throws MessagingException {
+		String envelopeFrom = null;
+		if (message instanceof SMTPMessage) {
+			envelopeFrom = ((SMTPMessage) message).getEnvelopeFrom();
+		}
+		if (envelopeFrom == null || envelopeFrom.length() == 0) {
+			envelopeFrom = session.getProperty("mail." + protocol + ".from");
+		}
+		if (envelopeFrom == null || envelopeFrom.length() == 0) {
+			final Address[] fromAddresses = message.getFrom();
+			final Address fromAddress;
+			if (fromAddresses != null && fromAddresses.length > 0) {
+				fromAddress = fromAddresses[0];
+			} else {
+				fromAddress = InternetAddress.getLocalAddress(session);
+			}
+			if (fromAddress == null) {
+				throw new MessagingException("Cannot determine envelope sender address");
+			}
+			envelopeFrom = ((InternetAddress) fromAddress).getAddress();
+		}
+		return envelopeFrom;
+	}
+
+	private static Address[] toAddresses(final Address[] addresses, final Map<String, SmtpReply> rejectedRecipients, final boolean rejected) {
+		final List<Address> result = new ArrayList<>();
+		for (final Address address : addresses) {
+			if (rejectedRecipients.containsKey(((InternetAddress) address).getAddress()) == rejected) {
+				result.add(address);
+			}
+		}
+		return result.toArray(new Address[0]);
+	}
+
+	@Override
+	public synchronized boolean isConnected() {
+		if (defaultTransport != null) {
+			return defaultTransport.isConnected();
+		} else {
+			return super.isConnected();
+		}
+	}
+
+	@Override
+	public synchronized void close() throws MessagingException {
+		try {
+			if (renderEvent != null) {
+				renderEvent.commit();
+				renderEvent = null;
+			}
+			sink = null;
+			if (defaultTransport != null) {
+				defaultTransport.close();
+				defaultTransport = null;
+			} else if (connection != null) {
+				pool.releaseConnection(connection);
+				connection = null;
+			}
+			relay = null;
+		} finally {
+			super.close();
+		}
+	}
+
+	/**
+	 * Transport configuration of one ConsoleMailer call
+	 */
+	private static class CallSettings {
+		private volatile SmtpConnectionPool connectionPool = null;
+		private volatile SmtpMessageSink messageSink = null;
+		private volatile MimePartCache mimePartCache = null;
+		private volatile MessageEncryptor messageEncryptor = null;
+		private volatile DkimSigner dkimSigner = null;
+		private volatile String[] tlsProtocols = null;
+		private volatile String[] tlsCipherSuites = null;
+	}
+}
@@ -0,0 +1,543 @@
+package de.soderer.mailer.smtp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+
+import de.soderer.mailer.metrics.SendMetrics;
+import de.soderer.mailer.metrics.SmtpCommandEvent;
+import de.soderer.mailer.metrics.SmtpConnectEvent;
+import de.soderer.mailer.metrics.TlsHandshakeEvent;
+import de.soderer.utilities.mail.MailerConnectionSecurity;
+import jakarta.mail.MessagingException;
+
+/**
+ * A client connection to a SMTP server (RFC 5321), which may be used to send multiple messages one after the other.<br />
+ * Supported are connection security by STARTTLS or SSL/TLS, authentication by AUTH PLAIN or AUTH LOGIN and command pipelining (RFC 2920).<br />
+ * A connection must only be used by one thread at a time.
+ */
+public class SmtpConnection implements Closeable {
+	private final SmtpRelay relay;
+	private final SmtpConnectionSettings settings;
+	/** Host and port of the relay for the JFR events */
+	private final String relayAddress;
+
+	private Socket socket = null;
+	private InputStream inputStream = null;
+	private OutputStream outputStream = null;
+	private final Map<String, String> extensions = new HashMap<>();
+	private boolean usable = false;
+	private int messageCount = 0;
+	private long lastUsedTime = 0;
+
+	public SmtpConnection(final SmtpRelay relay, final SmtpConnectionSettings settings) {
+		this.relay = relay;
+		this.settings = settings;
+		relayAddress = relay.getHost() + ":" + relay.getPort();
+	}
+
+	public SmtpRelay getRelay() {
+		return relay;
+	}
+
+	/**
+	 * Open the connection, secure it and authenticate the user if configured
+	 */
+	public void connect() throws MessagingException {
+		final SmtpConnectEvent connectEvent = new SmtpConnectEvent();
+		connectEvent.begin();
+		try {
+			long connectStart = SendMetrics.start();
+			final Socket plainSocket = new Socket();
+			plainSocket.connect(new InetSocketAddress(relay.getHost(), relay.getPort()), settings.getConnectTimeoutMillis());
+			plainSocket.setSoTimeout(settings.getReadTimeoutMillis());
+			// Commands and email data are flushed as a whole, so Nagle's algorithm would only delay them until the delayed ACK of the server
+			plainSocket.setTcpNoDelay(true);
+			socket = plainSocket;
+			if (relay.getConnectionSecurity() == MailerConnectionSecurity.SSL_TLS) {
+				final long handshakeStart = SendMetrics.start();
+				socket = startTls(plainSocket);
+				if (connectStart != 0 && handshakeStart != 0) {
+					// The TLS handshake is recorded as its own phase, so TCP connection and greeting are recorded as one connect interval without it
+					connectStart += System.nanoTime() - handshakeStart;
+				}
+			}
+			openStreams();
+
+			final SmtpReply greetingReply = readReply();
+			if (greetingReply.getCode() != 220) {
+				throw new SmtpException("SMTP server " + relay + " rejected connection: " + greetingReply, greetingReply, greetingReply.isServiceNotAvailable(), null);
+			}
+			SendMetrics.record(SendMetrics.Phase.CONNECT, connectStart);
+
+			ehlo();
+
+			if (relay.getConnectionSecurity() == MailerConnectionSecurity.STARTTLS) {
+				if (supportsExtension("STARTTLS")) {
+					command("STARTTLS", 220);
+					socket = startTls(socket);
+					openStreams();
+					ehlo();
+				} else if (settings.isRequireStartTls()) {
+					throw new SmtpException("SMTP server " + relay + " does not support STARTTLS", null, false, null);
+				}
+			}
+
+			if (relay.getUser() != null && relay.getPassword() != null && supportsExtension("AUTH")) {
+				final long authStart = SendMetrics.start();
+				authenticate();
+				SendMetrics.record(SendMetrics.Phase.AUTH, authStart);
+			}
+
+			usable = true;
+			lastUsedTime = System.currentTimeMillis();
+			SendMetrics.count(SendMetrics.Counter.CONNECTIONS_OPENED);
+		} catch (final SmtpException e) {
+			closeSocket();
+			SendMetrics.count(SendMetrics.Counter.CONNECTIONS_FAILED);
+			throw e;
+		} catch (final Exception e) {
+			closeSocket();
+			SendMetrics.count(SendMetrics.Counter.CONNECTIONS_FAILED);
+			throw new SmtpException("Cannot connect to SMTP server " + relay + ": " + e.getMessage(), null, true, e);
+		} finally {
+			connectEvent.end();
+			if (connectEvent.shouldCommit()) {
+				connectEvent.relay = relayAddress;
+				connectEvent.connectionSecurity = String.valueOf(relay.getConnectionSecurity());
+				connectEvent.success = usable;
+				connectEvent.commit();
+			}
+		}
+	}
+
+	private SSLSocket startTls(final Socket plainSocket) throws Exception {
+		final long handshakeStart = SendMetrics.start();
+		final long handshakeStartMillis = System.currentTimeMillis();
+		final TlsHandshakeEvent handshakeEvent = new TlsHandshakeEvent();
+		handshakeEvent.begin();
+		// Host and port of the relay are the key of the client session cache, which resumes the TLS session of former connections
+		final SSLSocket sslSocket = (SSLSocket) SmtpTlsContexts.getSslSocketFactory(relay, settings.isTrustAllCertificates()).createSocket(plainSocket, relay.getHost(), relay.getPort(), true);
+		final SSLParameters sslParameters = sslSocket.getSSLParameters();
+		if (settings.isCheckServerIdentity()) {
+			sslParameters.setEndpointIdentificationAlgorithm("HTTPS");
+		}
+		if (settings.getTlsProtocols() != null) {
+			sslParameters.setProtocols(settings.getTlsProtocols());
+		}
+		if (settings.getTlsCipherSuites() != null) {
+			sslParameters.setCipherSuites(settings.getTlsCipherSuites());
+		}
+		sslSocket.setSSLParameters(sslParameters);
+		sslSocket.startHandshake();
+		SendMetrics.record(SendMetrics.Phase.TLS_HANDSHAKE, handshakeStart);
+		final SSLSession session = sslSocket.getSession();
+		final boolean resumed = SmtpTlsContexts.countHandshake(session, handshakeStartMillis);
+		SendMetrics.count(resumed ? SendMetrics.Counter.TLS_HANDSHAKES_RESUMED : SendMetrics.Counter.TLS_HANDSHAKES_FULL);
+		handshakeEvent.end();
+		if (handshakeEvent.shouldCommit()) {
+			handshakeEvent.relay = relayAddress;
+			handshakeEvent.protocol = session.getProtocol();
+			handshakeEvent.cipherSuite = session.getCipherSuite();
+			handshakeEvent.resumed = resumed;
+			handshakeEvent.commit();
+		}
+		return sslSocket;
+	}
+
+	private void openStreams() throws IOException {
+		inputStream = new BufferedInputStream(socket.getInputStream());
+		outputStream = new BufferedOutputStream(socket.getOutputStream());
+	}
+
+	private void ehlo() throws IOException, SmtpException {
+		extensions.clear();
+		final SmtpReply ehloReply = exchange("EHLO " + settings.getLocalHostName(), "EHLO");
+		if (ehloReply.getCode() == 250) {
+			// First line is the greeting, all other lines are supported extensions
+			for (int i = 1; i < ehloReply.getLines().size(); i++) {
+				final String extensionLine = ehloReply.getLines().get(i).trim();
+				final int separatorIndex = extensionLine.indexOf(' ');
+				if (separatorIndex > 0) {
+					extensions.put(extensionLine.substring(0, separatorIndex).toUpperCase(), extensionLine.substring(separatorIndex + 1));
+				} else if (extensionLine.length() > 0) {
+					extensions.put(extensionLine.toUpperCase(), "");
+				}
+			}
+		} else if (ehloReply.isServiceNotAvailable()) {
+			throw new SmtpException("SMTP server " + relay + " closed connection: " + ehloReply, ehloReply, true, null);
+		} else {
+			// Server does not support ESMTP
+			command("HELO " + settings.getLocalHostName(), 250);
+		}
+	}
+
+	private void authenticate() throws IOException, SmtpException {
+		final String authMechanisms = " " + extensions.get("AUTH").toUpperCase() + " ";
+		if (authMechanisms.contains(" PLAIN ")) {
+			final byte[] credentials = ("\0" + relay.getUser() + "\0" + relay.getPassword()).getBytes(StandardCharsets.UTF_8);
+			authenticationCommand("AUTH PLAIN " + Base64.getEncoder().encodeToString(credentials), 235);
+		} else if (authMechanisms.contains(" LOGIN ")) {
+			authenticationCommand("AUTH LOGIN", 334);
+			authenticationCommand(Base64.getEncoder().encodeToString(relay.getUser().getBytes(StandardCharsets.UTF_8)), 334);
+			authenticationCommand(Base64.getEncoder().encodeToString(relay.getPassword().getBytes(StandardCharsets.UTF_8)), 235);
+		} else {
+			throw new SmtpException("SMTP server " + relay + " does not support any of the authentication mechanisms PLAIN or LOGIN: " + extensions.get("AUTH"), null, false, null);
+		}
+	}
+
+	private void authenticationCommand(final String command, final int expectedReplyCode) throws IOException, SmtpException {
+		// The command name is given explicitly, because the continuation lines of AUTH LOGIN contain the credentials
+		final SmtpReply reply = exchange(command, "AUTH");
+		if (reply.getCode() != expectedReplyCode) {
+			throw new SmtpException("Authentication failed for SMTP server " + relay + ": " + reply, reply, reply.isServiceNotAvailable(), null);
+		}
+	}
+
+	public boolean supportsExtension(final String extension) {
+		return extensions.containsKey(extension.toUpperCase());
+	}
+
+	/**
+	 * Send a message to the given recipients
+	 *
+	 * @param envelopeFrom address for the MAIL FROM command (Return-Path)
+	 * @param recipients addresses for the RCPT TO commands
+	 * @param messageWriter writes the message content including all headers
+	 * @param sendPartial send the message to the accepted recipients, even if some other recipients were rejected
+	 * @return the rejected recipients with the reply of the SMTP server for each of them, which is empty if all recipients were accepted
+	 * @throws SmtpRecipientException if all recipients were rejected or any recipient was rejected without sendPartial
+	 */
+	public Map<String, SmtpReply> sendMessage(final String envelopeFrom, final List<String> recipients, final SmtpMessageWriter messageWriter, final boolean sendPartial) throws MessagingException {
+		if (!usable) {
+			throw new SmtpException("SMTP connection " + relay + " is not usable", null, true, null);
+		} else if (recipients.isEmpty()) {
+			throw new MessagingException("No recipients");
+		}
+
+		boolean dataSent = false;
+		try {
+			final long envelopeStart = SendMetrics.start();
+			final Map<String, SmtpReply> rejectedRecipients;
+			if (supportsExtension("PIPELINING")) {
+				rejectedRecipients = sendEnvelopePipelined(envelopeFrom, recipients, sendPartial);
+			} else {
+				rejectedRecipients = sendEnvelope(envelopeFrom, recipients, sendPartial);
+			}
+			SendMetrics.record(SendMetrics.Phase.ENVELOPE, envelopeStart);
+
+			final long dataStart = SendMetrics.start();
+			final SmtpCommandEvent messageEvent = new SmtpCommandEvent();
+			messageEvent.begin();
+			usable = false;
+			final SmtpDataOutputStream dataOutputStream = new SmtpDataOutputStream(outputStream);
+			messageWriter.writeTo(dataOutputStream);
+			dataOutputStream.finish();
+			dataSent = true;
+
+			final SmtpReply dataReply = readReply();
+			messageEvent.end();
+			if (messageEvent.shouldCommit()) {
+				messageEvent.messageSize = dataOutputStream.getByteCount();
+				messageEvent.recipientCount = recipients.size() - rejectedRecipients.size();
+				commitCommandEvent(messageEvent, SmtpCommandEvent.COMMAND_MESSAGE, dataReply);
+			}
+			if (dataReply.getCode() != 250) {
+				usable = !dataReply.isServiceNotAvailable();
+				throw new SmtpException("SMTP server " + relay + " rejected message: " + dataReply, dataReply, false, null);
+			}
+			usable = true;
+			messageCount++;
+			lastUsedTime = System.currentTimeMillis();
+			SendMetrics.record(SendMetrics.Phase.DATA, dataStart);
+			SendMetrics.count(SendMetrics.Counter.MESSAGES_SENT);
+			return rejectedRecipients;
+		} catch (final SmtpException e) {
+			SendMetrics.count(SendMetrics.Counter.MESSAGES_FAILED);
+			throw e;
+		} catch (final IOException e) {
+			usable = false;
+			SendMetrics.count(SendMetrics.Counter.MESSAGES_FAILED);
+			throw new SmtpException("Error while sending message to SMTP server " + relay + ": " + e.getMessage(), null, !dataSent, e);
+		}
+	}
+
+	/**
+	 * Send the commands MAIL FROM, RCPT TO and DATA, each waiting for the reply of the SMTP server
+	 *
+	 * @return the rejected recipients
+	 */
+	private Map<String, SmtpReply> sendEnvelope(final String envelopeFrom, final List<String> recipients, final boolean sendPartial) throws IOException, MessagingException {
+		command("MAIL FROM:" + normalizeAddress(envelopeFrom), 250);
+
+		final Map<String, SmtpReply> rejectedRecipients = new LinkedHashMap<>();
+		for (final String recipient : recipients) {
+			final SmtpReply recipientReply = exchange("RCPT TO:" + normalizeAddress(recipient), "RCPT");
+			if (recipientReply.isServiceNotAvailable()) {
+				usable = false;
+				throw new SmtpException("SMTP server " + relay + " closed connection: " + recipientReply, recipientReply, true, null);
+			} else if (!recipientReply.isPositiveCompletion()) {
+				rejectedRecipients.put(recipient, recipientReply);
+			}
+		}
+		if (rejectedRecipients.size() == recipients.size() || (!sendPartial && !rejectedRecipients.isEmpty())) {
+			reset();
+			throw new SmtpRecipientException(rejectedRecipients);
+		}
+
+		try {
+			command("DATA", 354);
+		} catch (final SmtpException e) {
+			if (usable) {
+				// Server did not start the message content, so its transaction is reset for the next message on this connection
+				try {
+					reset();
+				} catch (@SuppressWarnings("unused") final MessagingException resetException) {
+					// Connection was marked as not usable by the failed reset
+				}
+			}
+			throw e;
+		}
+		return rejectedRecipients;
+	}
+
+	/**
+	 * Send the commands MAIL FROM, RCPT TO and DATA in one go and read their replies afterwards (PIPELINING, RFC 2920).<br />
+	 * The replies are in the order of the commands, so each RCPT TO reply is mapped to its recipient.<br />
+	 * If the message must not be sent, because of rejected recipients, but the server already accepted the DATA command,
+	 * the connection is closed without the terminating ".", which makes the server discard the transaction.
+	 *
+	 * @return the rejected recipients
+	 */
+	private Map<String, SmtpReply> sendEnvelopePipelined(final String envelopeFrom, final List<String> recipients, final boolean sendPartial) throws IOException, MessagingException {
+		final SmtpCommandEvent envelopeEvent = new SmtpCommandEvent();
+		envelopeEvent.begin();
+		writeCommand("MAIL FROM:" + normalizeAddress(envelopeFrom));
+		for (final String recipient : recipients) {
+			writeCommand("RCPT TO:" + normalizeAddress(recipient));
+		}
+		writeCommand("DATA");
+		outputStream.flush();
+
+		final SmtpReply mailFromReply = readReply();
+		SmtpReply serviceNotAvailableReply = mailFromReply.isServiceNotAvailable() ? mailFromReply : null;
+		final Map<String, SmtpReply> rejectedRecipients = new LinkedHashMap<>();
+		for (final String recipient : recipients) {
+			final SmtpReply recipientReply = readReply();
+			if (recipientReply.isServiceNotAvailable() && serviceNotAvailableReply == null) {
+				serviceNotAvailableReply = recipientReply;
+			} else if (!recipientReply.isPositiveCompletion()) {
+				rejectedRecipients.put(recipient, recipientReply);
+			}
+		}
+		final SmtpReply dataReply = readReply();
+		envelopeEvent.end();
+		if (envelopeEvent.shouldCommit()) {
+			envelopeEvent.recipientCount = recipients.size();
+			commitCommandEvent(envelopeEvent, SmtpCommandEvent.COMMAND_PIPELINED_ENVELOPE, dataReply);
+		}
+
+		if (serviceNotAvailableReply != null) {
+			closeSocket();
+			throw new SmtpException("SMTP server " + relay + " closed connection: " + serviceNotAvailableReply, serviceNotAvailableReply, true, null);
+		} else if (mailFromReply.getCode() != 250) {
+			abortTransaction(dataReply);
+			throw new SmtpException("SMTP command MAIL failed on " + relay + ": " + mailFromReply, mailFromReply, false, null);
+		} else if (rejectedRecipients.size() == recipients.size() || (!sendPartial && !rejectedRecipients.isEmpty())) {
+			abortTransaction(dataReply);
+			throw new SmtpRecipientException(rejectedRecipients);
+		} else if (dataReply.getCode() != 354) {
+			abortTransaction(dataReply);
+			throw new SmtpException("SMTP command DATA failed on " + relay + ": " + dataReply, dataReply, dataReply.isServiceNotAvailable(), null);
+		}
+		return rejectedRecipients;
+	}
+
+	/**
+	 * Abort a pipelined transaction, which will not be completed
+	 */
+	private void abortTransaction(final SmtpReply dataReply) throws MessagingException {
+		if (dataReply.getCode() == 354) {
+			// Server waits for the message content, which can only be aborted by closing the connection
+			closeSocket();
+		} else {
+			reset();
+		}
+	}
+
+	/**
+	 * Reset the state of the SMTP session (RSET) before the next message is sent
+	 */
+	public void reset() throws MessagingException {
+		try {
+			command("RSET", 250);
+		} catch (final SmtpException e) {
+			usable = false;
+			throw e;
+		} catch (final IOException e) {
+			usable = false;
+			throw new SmtpException("Error while resetting SMTP connection " + relay + ": " + e.getMessage(), null, true, e);
+		}
+	}
+
+	private SmtpReply command(final String command, final int expectedReplyCode) throws IOException, SmtpException {
+		final SmtpReply reply = exchange(command, null);
+		if (reply.getCode() != expectedReplyCode) {
+			if (reply.isServiceNotAvailable()) {
+				usable = false;
+			}
+			throw new SmtpException("SMTP command " + command.split(" ")[0] + " failed on " + relay + ": " + reply, reply, reply.isServiceNotAvailable(), null);
+		}
+		return reply;
+	}
+
+	/**
+	 * Send a command and read its reply as one round trip, which is recorded as SmtpCommandEvent
+	 *
+	 * @param commandName name of the command for the event or null to take the first word of the command
+	 */
+	private SmtpReply exchange(final String command, final String commandName) throws IOException {
+		final SmtpCommandEvent commandEvent = new SmtpCommandEvent();
+		commandEvent.begin();
+		SmtpReply reply = null;
+		try {
+			sendCommand(command);
+			reply = readReply();
+			return reply;
+		} finally {
+			commandEvent.end();
+			if (commandEvent.shouldCommit()) {
+				final int separatorIndex = command.indexOf(' ');
+				commitCommandEvent(commandEvent, commandName != null ? commandName : separatorIndex < 0 ? command : command.substring(0, separatorIndex), reply);
+			}
+		}
+	}
+
+	private void commitCommandEvent(final SmtpCommandEvent commandEvent, final String commandName, final SmtpReply reply) {
+		commandEvent.relay = relayAddress;
+		commandEvent.command = commandName;
+		commandEvent.replyCode = reply == null ? 0 : reply.getCode();
+		commandEvent.commit();
+	}
+
+	private void sendCommand(final String command) throws IOException {
+		writeCommand(command);
+		outputStream.flush();
+	}
+
+	/**
+	 * Write a command into the output buffer without flushing it, so that multiple commands can be sent together
+	 */
+	private void writeCommand(final String command) throws IOException {
+		outputStream.write(command.getBytes(StandardCharsets.UTF_8));
+		outputStream.write('\r');
+		outputStream.write('\n');
+	}
+
+	private SmtpReply readReply() throws IOException {
+		final List<String> lines = new ArrayList<>();
+		int code;
+		while (true) {
+			final String line = readLine();
+			if (line == null) {
+				usable = false;
+				throw new IOException("Connection closed by SMTP server " + relay);
+			} else if (line.length() < 3) {
+				throw new IOException("Invalid reply of SMTP server " + relay + ": " + line);
+			}
+			try {
+				code = Integer.parseInt(line.substring(0, 3));
+			} catch (@SuppressWarnings("unused") final NumberFormatException e) {
+				throw new IOException("Invalid reply of SMTP server " + relay + ": " + line);
+			}
+			lines.add(line.length() > 4 ? line.substring(4) : "");
+			if (line.length() == 3 || line.charAt(3) != '-') {
+				return new SmtpReply(code, lines);
+			}
+		}
+	}
+
+	private String readLine() throws IOException {
+		final ByteArrayOutputStream lineBuffer = new ByteArrayOutputStream();
+		int nextByte;
+		while ((nextByte = inputStream.read()) != -1) {
+			if (nextByte == '\n') {
+				final byte[] lineBytes = lineBuffer.toByteArray();
+				final int length = lineBytes.length > 0 && lineBytes[lineBytes.length - 1] == '\r' ? lineBytes.length - 1 : lineBytes.length;
+				return new String(lineBytes, 0, length, StandardCharsets.UTF_8);
+			}
+			lineBuffer.write(nextByte);
+		}
+		return null;
+	}
+
+	private static String normalizeAddress(final String address) {
+		if (address.startsWith("<") && address.endsWith(">")) {
+			return address;
+		} else {
+			return "<" + address + ">";
+		}
+	}
+
+	/**
+	 * A connection is usable as long as no network error occurred and the server did not close it
+	 */
+	public boolean isUsable() {
+		return usable;
+	}
+
+	/**
+	 * Number of messages successfully sent over this connection
+	 */
+	public int getMessageCount() {
+		return messageCount;
+	}
+
+	public long getLastUsedTime() {
+		return lastUsedTime;
+	}
+
+	/**
+	 * Quit the SMTP session and close the connection
+	 */
+	@Override
+	public void close() {
+		if (socket != null && usable) {
+			try {
+				exchange("QUIT", "QUIT");
+			} catch (@SuppressWarnings("unused") final Exception e) {
+				// Connection is closed anyway
+			}
+		}
+		closeSocket();
+	}
+
+	private void closeSocket() {
+		usable = false;
+		if (socket != null) {
+			try {
+				socket.close();
+			} catch (@SuppressWarnings("unused") final IOException e) {
+				// do nothing
+			}
+			socket = null;
+		}
+	}
+}
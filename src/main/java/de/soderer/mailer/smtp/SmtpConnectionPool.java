@@ -0,0 +1,220 @@
+package de.soderer.mailer.smtp;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import jakarta.mail.MessagingException;
+
+/**
+ * Pool of open and authenticated SMTP connections by relay (host, port, connection security and user).<br />
+ * A pooled connection is reset (RSET) before it is used for the next message. Connections are replaced by new ones,
+ * when they were idle for too long, when they were closed by the server (e.g. reply code 421) or when they reached the maximum number of messages.<br />
+ * The number of open connections per relay is limited. Threads requesting a connection beyond that limit wait for a connection to be released.<br />
+ * A lock is used instead of synchronized blocks, so that waiting virtual threads do not block their carrier threads.
+ */
+public class SmtpConnectionPool implements Closeable {
+	public static final int DEFAULT_MAX_MESSAGES_PER_CONNECTION = 100;
+	public static final int DEFAULT_MAX_IDLE_SECONDS = 60;
+	public static final int DEFAULT_MAX_CONNECTIONS_PER_RELAY = 1;
+
+	private final int maxMessagesPerConnection;
+	private final long maxIdleMillis;
+	private final int maxConnectionsPerRelay;
+	private final Map<SmtpRelay, Deque<SmtpConnection>> idleConnections = new HashMap<>();
+	private final Map<SmtpRelay, Integer> openConnectionCounts = new HashMap<>();
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition connectionReleased = lock.newCondition();
+	private boolean closed = false;
+
+	/**
+	 * @param maxMessagesPerConnection maximum number of messages sent over one connection before it is closed (0 = unlimited)
+	 * @param maxIdleSeconds maximum time a connection may stay idle in the pool before it is closed
+	 */
+	public SmtpConnectionPool(final int maxMessagesPerConnection, final int maxIdleSeconds) {
+		this(maxMessagesPerConnection, maxIdleSeconds, DEFAULT_MAX_CONNECTIONS_PER_RELAY);
+	}
+
+	/**
+	 * @param maxMessagesPerConnection maximum number of messages sent over one connection before it is closed (0 = unlimited)
+	 * @param maxIdleSeconds maximum time a connection may stay idle in the pool before it is closed
+	 * @param maxConnectionsPerRelay maximum number of connections open at the same time to one relay
+	 */
+	public SmtpConnectionPool(final int maxMessagesPerConnection, final int maxIdleSeconds, final int maxConnectionsPerRelay) {
+		if (maxConnectionsPerRelay < 1) {
+			throw new IllegalArgumentException("Invalid maximum number of connections per relay: " + maxConnectionsPerRelay);
+		}
+		this.maxMessagesPerConnection = maxMessagesPerConnection;
+		maxIdleMillis = maxIdleSeconds * 1000L;
+		this.maxConnectionsPerRelay = maxConnectionsPerRelay;
+	}
+
+	public int getMaxConnectionsPerRelay() {
+		return maxConnectionsPerRelay;
+	}
+
+	/**
+	 * Get an idle connection to the relay or open a new one.<br />
+	 * If the maximum number of connections to this relay is already open, this waits until one of them is released.
+	 */
+	public SmtpConnection acquireConnection(final SmtpRelay relay, final SmtpConnectionSettings settings) throws MessagingException {
+		while (true) {
+			final SmtpConnection idleConnection = pollIdleConnectionOrReserve(relay);
+			if (idleConnection == null) {
+				// A new connection was reserved for this relay
+				break;
+			} else if (System.currentTimeMillis() - idleConnection.getLastUsedTime() > maxIdleMillis) {
+				discardConnection(idleConnection);
+			} else {
+				try {
+					idleConnection.reset();
+					return idleConnection;
+				} catch (@SuppressWarnings("unused") final MessagingException e) {
+					// Connection timed out or was closed by the server
+					discardConnection(idleConnection);
+				}
+			}
+		}
+
+		final SmtpConnection connection = new SmtpConnection(relay, settings);
+		try {
+			connection.connect();
+			return connection;
+		} catch (final MessagingException | RuntimeException e) {
+			discardConnection(connection);
+			throw e;
+		}
+	}
+
+	/**
+	 * Get an idle connection or reserve a new connection to be opened by the caller (result null)
+	 */
+	private SmtpConnection pollIdleConnectionOrReserve(final SmtpRelay relay) throws MessagingException {
+		lock.lock();
+		try {
+			while (true) {
+				if (closed) {
+					throw new MessagingException("SMTP connection pool is closed");
+				}
+				final Deque<SmtpConnection> relayConnections = idleConnections.get(relay);
+				if (relayConnections != null && !relayConnections.isEmpty()) {
+					return relayConnections.pollFirst();
+				}
+				final int openConnectionCount = openConnectionCounts.getOrDefault(relay, 0);
+				if (openConnectionCount < maxConnectionsPerRelay) {
+					openConnectionCounts.put(relay, openConnectionCount + 1);
+					return null;
+				}
+				connectionReleased.awaitUninterruptibly();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Send a message by a pooled connection to the relay.<br />
+	 * If a reused connection was closed by the server in the meantime, the message is sent once more by a new connection.
+	 *
+	 * @return the rejected recipients (only if sendPartial is set, otherwise a SmtpRecipientException is thrown)
+	 */
+	public Map<String, SmtpReply> sendMessage(final SmtpRelay relay, final SmtpConnectionSettings settings, final String envelopeFrom, final List<String> recipients, final SmtpMessageWriter messageWriter, final boolean sendPartial) throws MessagingException {
+		return sendMessage(acquireConnection(relay, settings), settings, envelopeFrom, recipients, messageWriter, sendPartial);
+	}
+
+	/**
+	 * Send a message by a connection, which was acquired from this pool before, and release the connection afterwards.<br />
+	 * If the connection was closed by the server in the meantime, the message is sent once more by a new connection.
+	 *
+	 * @return the rejected recipients (only if sendPartial is set, otherwise a SmtpRecipientException is thrown)
+	 */
+	public Map<String, SmtpReply> sendMessage(final SmtpConnection acquiredConnection, final SmtpConnectionSettings settings, final String envelopeFrom, final List<String> recipients, final SmtpMessageWriter messageWriter, final boolean sendPartial) throws MessagingException {
+		SmtpConnection connection = acquiredConnection;
+		try {
+			try {
+				return connection.sendMessage(envelopeFrom, recipients, messageWriter, sendPartial);
+			} catch (final SmtpException e) {
+				if (e.isRetryable() && !(e instanceof SmtpRecipientException) && connection.getMessageCount() > 0) {
+					// Pooled connection was closed by the server in the meantime, so retry once with a new connection
+					final SmtpRelay relay = connection.getRelay();
+					discardConnection(connection);
+					connection = null;
+					connection = acquireConnection(relay, settings);
+					return connection.sendMessage(envelopeFrom, recipients, messageWriter, sendPartial);
+				} else {
+					throw e;
+				}
+			}
+		} finally {
+			if (connection != null) {
+				releaseConnection(connection);
+			}
+		}
+	}
+
+	/**
+	 * Return a connection to the pool after use. Broken connections and connections which reached the maximum number of messages are closed.
+	 */
+	public void releaseConnection(final SmtpConnection connection) {
+		if (connection.isUsable() && (maxMessagesPerConnection <= 0 || connection.getMessageCount() < maxMessagesPerConnection)) {
+			lock.lock();
+			try {
+				if (!closed) {
+					idleConnections.computeIfAbsent(connection.getRelay(), k -> new ArrayDeque<>()).addFirst(connection);
+					connectionReleased.signalAll();
+					return;
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+		discardConnection(connection);
+	}
+
+	/**
+	 * Close a connection, which was acquired from this pool, and free its place for a new connection
+	 */
+	public void discardConnection(final SmtpConnection connection) {
+		connection.close();
+		lock.lock();
+		try {
+			final int openConnectionCount = openConnectionCounts.getOrDefault(connection.getRelay(), 0);
+			if (openConnectionCount <= 1) {
+				openConnectionCounts.remove(connection.getRelay());
+			} else {
+				openConnectionCounts.put(connection.getRelay(), openConnectionCount - 1);
+			}
+			connectionReleased.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Close all idle connections. Connections in use are closed when they are released.
+	 */
+	@Override
+	public void close() {
+		final List<SmtpConnection> connectionsToClose = new ArrayList<>();
+		lock.lock();
+		try {
+			closed = true;
+			for (final Deque<SmtpConnection> relayConnections : idleConnections.values()) {
+				connectionsToClose.addAll(relayConnections);
+			}
+			idleConnections.clear();
+			connectionReleased.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		for (final SmtpConnection connection : connectionsToClose) {
+			discardConnection(connection);
+		}
+	}
+}
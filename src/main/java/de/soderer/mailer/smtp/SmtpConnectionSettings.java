@@ -0,0 +1,189 @@
+package de.soderer.mailer.smtp;
+
+import java.net.InetAddress;
+
+import jakarta.mail.Session;
+
+/**
+ * Settings for new SMTP connections, which are not part of the relay key.<br />
+ * The jakarta mail session properties "mail.&lt;protocol&gt;.*" are supported with the same defaults as in the standard SMTP transport,
+ * except "starttls.required": A requested STARTTLS is required, unless it is explicitly set to "false", so that a relay, which stops offering STARTTLS, is not used in plaintext.<br />
+ * Connect and read timeouts are finite by default (RFC 5321 4.5.3.2), so a server, which stops answering, does not block a connection forever. The value 0 disables a timeout.
+ */
+public class SmtpConnectionSettings {
+	public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 30 * 1000;
+	/** Minimum timeout of RFC 5321 for the replies to MAIL, RCPT and DATA and the final reply after the email data */
+	public static final int DEFAULT_READ_TIMEOUT_MILLIS = 5 * 60 * 1000;
+
+	private static String defaultLocalHostName = null;
+
+	private String localHostName = null;
+	private int connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MILLIS;
+	private int readTimeoutMillis = DEFAULT_READ_TIMEOUT_MILLIS;
+	private boolean trustAllCertificates = false;
+	private boolean checkServerIdentity = true;
+	private boolean requireStartTls = true;
+	private boolean sendPartial = false;
+	private String[] tlsProtocols = null;
+	private String[] tlsCipherSuites = null;
+
+	public static SmtpConnectionSettings fromSession(final Session session, final String protocol, final String host) {
+		final String prefix = "mail." + protocol + ".";
+		final SmtpConnectionSettings settings = new SmtpConnectionSettings();
+		settings.setLocalHostName(session.getProperty(prefix + "localhost"));
+		settings.setConnectTimeoutMillis(getIntProperty(session, prefix + "connectiontimeout", DEFAULT_CONNECT_TIMEOUT_MILLIS));
+		settings.setReadTimeoutMillis(getIntProperty(session, prefix + "timeout", DEFAULT_READ_TIMEOUT_MILLIS));
+		final String trustedHosts = session.getProperty(prefix + "ssl.trust");
+		if (trustedHosts != null) {
+			if ("*".equals(trustedHosts.trim())) {
+				settings.setTrustAllCertificates(true);
+			} else {
+				for (final String trustedHost : trustedHosts.split("\\s+")) {
+					if (trustedHost.equalsIgnoreCase(host)) {
+						settings.setTrustAllCertificates(true);
+					}
+				}
+			}
+		}
+		settings.setCheckServerIdentity(!"false".equalsIgnoreCase(session.getProperty(prefix + "ssl.checkserveridentity")));
+		settings.setRequireStartTls(!"false".equalsIgnoreCase(session.getProperty(prefix + "starttls.required")));
+		settings.setSendPartial("true".equalsIgnoreCase(session.getProperty(prefix + "sendpartial")));
+		settings.setTlsProtocols(parseList(session.getProperty(prefix + "ssl.protocols")));
+		settings.setTlsCipherSuites(parseList(session.getProperty(prefix + "ssl.ciphersuites")));
+		return settings;
+	}
+
+	private static int getIntProperty(final Session session, final String propertyName, final int defaultValue) {
+		final String value = session.getProperty(propertyName);
+		if (value == null || value.trim().length() == 0) {
+			return defaultValue;
+		} else {
+			try {
+				return Integer.parseInt(value.trim());
+			} catch (@SuppressWarnings("unused") final NumberFormatException e) {
+				return defaultValue;
+			}
+		}
+	}
+
+	/**
+	 * Split a list of TLS protocols or cipher suites separated by whitespace or commas
+	 *
+	 * @return the list items or null for an empty list
+	 */
+	public static String[] parseList(final String listString) {
+		if (listString == null || listString.trim().length() == 0) {
+			return null;
+		} else {
+			return listString.trim().split("[\\s,;]+");
+		}
+	}
+
+	/**
+	 * Hostname for the EHLO command. Default is the canonical name of the local host.
+	 */
+	public String getLocalHostName() {
+		if (localHostName != null) {
+			return localHostName;
+		} else {
+			return getDefaultLocalHostName();
+		}
+	}
+
+	public void setLocalHostName(final String localHostName) {
+		this.localHostName = localHostName;
+	}
+
+	/**
+	 * Timeout for the TCP connection to the server (default 30 seconds, 0 = no timeout)
+	 */
+	public int getConnectTimeoutMillis() {
+		return connectTimeoutMillis;
+	}
+
+	public void setConnectTimeoutMillis(final int connectTimeoutMillis) {
+		this.connectTimeoutMillis = connectTimeoutMillis;
+	}
+
+	/**
+	 * Timeout for each reply of the server (default 5 minutes, 0 = no timeout)
+	 */
+	public int getReadTimeoutMillis() {
+		return readTimeoutMillis;
+	}
+
+	public void setReadTimeoutMillis(final int readTimeoutMillis) {
+		this.readTimeoutMillis = readTimeoutMillis;
+	}
+
+	public boolean isTrustAllCertificates() {
+		return trustAllCertificates;
+	}
+
+	public void setTrustAllCertificates(final boolean trustAllCertificates) {
+		this.trustAllCertificates = trustAllCertificates;
+	}
+
+	public boolean isCheckServerIdentity() {
+		return checkServerIdentity && !trustAllCertificates;
+	}
+
+	public void setCheckServerIdentity(final boolean checkServerIdentity) {
+		this.checkServerIdentity = checkServerIdentity;
+	}
+
+	/**
+	 * Fail the connection, if STARTTLS was requested but is not offered by the server (default), otherwise the connection continues in plaintext
+	 */
+	public boolean isRequireStartTls() {
+		return requireStartTls;
+	}
+
+	public void setRequireStartTls(final boolean requireStartTls) {
+		this.requireStartTls = requireStartTls;
+	}
+
+	/**
+	 * Send a message to all accepted recipients, even if some of its recipients were rejected
+	 */
+	public boolean isSendPartial() {
+		return sendPartial;
+	}
+
+	public void setSendPartial(final boolean sendPartial) {
+		this.sendPartial = sendPartial;
+	}
+
+	/**
+	 * Enabled TLS protocols (e.g. "TLSv1.3", "TLSv1.2") or null for the defaults of the JVM
+	 */
+	public String[] getTlsProtocols() {
+		return tlsProtocols;
+	}
+
+	public void setTlsProtocols(final String[] tlsProtocols) {
+		this.tlsProtocols = tlsProtocols;
+	}
+
+	/**
+	 * Enabled TLS cipher suites or null for the defaults of the JVM
+	 */
+	public String[] getTlsCipherSuites() {
+		return tlsCipherSuites;
+	}
+
+	public void setTlsCipherSuites(final String[] tlsCipherSuites) {
+		this.tlsCipherSuites = tlsCipherSuites;
+	}
+
+	private static synchronized String getDefaultLocalHostName() {
+		if (defaultLocalHostName == null) {
+			try {
+				defaultLocalHostName = InetAddress.getLocalHost().getCanonicalHostName();
+			} catch (@SuppressWarnings("unused") final Exception e) {
+				defaultLocalHostName = "localhost";
+			}
+		}
+		return defaultLocalHostName;
+	}
+}
@@ -0,0 +1,77 @@
+package de.soderer.mailer.smtp;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * OutputStream for the DATA command of SMTP.<br />
+ * All linebreaks are normalized to CRLF and lines starting with a dot are escaped by an additional dot (RFC 5321 4.5.2).<br />
+ * The stream is not closed by {@link #finish()}, which only writes the terminating "&lt;CRLF&gt;.&lt;CRLF&gt;".
+ */
+public class SmtpDataOutputStream extends FilterOutputStream {
+	private int lastByte = '\n';
+	private long byteCount = 0;
+
+	public SmtpDataOutputStream(final OutputStream outputStream) {
+		super(outputStream);
+	}
+
+	@Override
+	public void write(final int nextByte) throws IOException {
+		byteCount++;
+		if (nextByte == '\n') {
+			if (lastByte != '\r') {
+				out.write('\r');
+			}
+			out.write('\n');
+		} else {
+			if (lastByte == '\r') {
+				// Bare CR
+				out.write('\n');
+			}
+			if (nextByte == '.' && (lastByte == '\n' || lastByte == '\r')) {
+				out.write('.');
+			}
+			out.write(nextByte);
+		}
+		lastByte = nextByte;
+	}
+
+	@Override
+	public void write(final byte[] data, final int offset, final int length) throws IOException {
+		for (int i = offset; i < offset + length; i++) {
+			write(data[i]);
+		}
+	}
+
+	/**
+	 * Number of bytes of the message data as written by the message writer (without dot escaping and linebreak normalization)
+	 */
+	public long getByteCount() {
+		return byteCount;
+	}
+
+	/**
+	 * Write the end of data sequence
+	 */
+	public void finish() throws IOException {
+		if (lastByte == '\r') {
+			out.write('\n');
+		} else if (lastByte != '\n') {
+			out.write('\r');
+			out.write('\n');
+		}
+		out.write('.');
+		out.write('\r');
+		out.write('\n');
+		out.flush();
+		lastByte = '\n';
+	}
+
+	@Override
+	public void close() throws IOException {
+		// The underlying connection stays open
+		flush();
+	}
+}
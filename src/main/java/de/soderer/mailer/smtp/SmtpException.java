@@ -0,0 +1,48 @@
+package de.soderer.mailer.smtp;
+
+import jakarta.mail.MessagingException;
+
+/**
+ * Error in the communication with a SMTP server
+ */
+public class SmtpException extends MessagingException {
+	private static final long serialVersionUID = 2516419567893340264L;
+
+	private final SmtpReply reply;
+	private final boolean retryable;
+
+	/**
+	 * @param reply the error reply of the SMTP server or null for network errors
+	 * @param retryable true if the message was not transmitted yet and may be sent again on a new connection
+	 */
+	public SmtpException(final String message, final SmtpReply reply, final boolean retryable, final Exception cause) {
+		super(message, cause);
+		this.reply = reply;
+		this.retryable = retryable;
+	}
+
+	public SmtpReply getReply() {
+		return reply;
+	}
+
+	/**
+	 * Reply code of the SMTP server or -1 for network errors
+	 */
+	public int getReplyCode() {
+		return reply == null ? -1 : reply.getCode();
+	}
+
+	/**
+	 * Temporary errors (reply codes 4xx and network errors) may succeed when the message is sent again later
+	 */
+	public boolean isTransient() {
+		return reply == null || reply.isTransientNegative();
+	}
+
+	/**
+	 * The message was not transmitted, because the connection broke down or was closed by the server (reply code 421), so it may be sent again on a new connection
+	 */
+	public boolean isRetryable() {
+		return retryable;
+	}
+}
@@ -0,0 +1,19 @@
+package de.soderer.mailer.smtp;
+
+import java.util.List;
+
+import jakarta.mail.MessagingException;
+
+/**
+ * Receiver of rendered messages, which takes the place of the SMTP server in the ConsoleMailerTransport (e.g. the spool queue)
+ */
+public interface SmtpMessageSink {
+	/**
+	 * Take over a rendered message. The message content is only available while this method is running.
+	 *
+	 * @param envelopeFrom address for the MAIL FROM command (Return-Path)
+	 * @param recipients addresses for the RCPT TO commands
+	 * @param messageWriter writes the message content including all headers
+	 */
+	void acceptMessage(String envelopeFrom, List<String> recipients, SmtpMessageWriter messageWriter) throws MessagingException;
+}
@@ -0,0 +1,25 @@
+package de.soderer.mailer.smtp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeMessage;
+
+/**
+ * Writes the content of a message into the DATA stream of a SMTP connection (e.g. by {@link #of(MimeMessage)})
+ */
+@FunctionalInterface
+public interface SmtpMessageWriter {
+	/** Headers, which are not transmitted (like by the standard SMTP transport), so that the recipients do not see the blind copy recipients */
+	String[] IGNORED_HEADERS = { "Bcc", "Content-Length" };
+
+	void writeTo(OutputStream outputStream) throws IOException, MessagingException;
+
+	/**
+	 * Writer of a message without the ignored headers
+	 */
+	static SmtpMessageWriter of(final MimeMessage message) {
+		return outputStream -> message.writeTo(outputStream, IGNORED_HEADERS);
+	}
+}
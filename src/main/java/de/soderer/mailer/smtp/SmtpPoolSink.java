@@ -0,0 +1,30 @@
+package de.soderer.mailer.smtp;
+
+import java.util.List;
+import java.util.Map;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.SendFailedException;
+
+/**
+ * Message sink, which sends the rendered messages by the pooled connections to one SMTP relay
+ */
+public class SmtpPoolSink implements SmtpMessageSink {
+	private final SmtpConnectionPool connectionPool;
+	private final SmtpRelay relay;
+	private final SmtpConnectionSettings settings;
+
+	public SmtpPoolSink(final SmtpConnectionPool connectionPool, final SmtpRelay relay, final SmtpConnectionSettings settings) {
+		this.connectionPool = connectionPool;
+		this.relay = relay;
+		this.settings = settings;
+	}
+
+	@Override
+	public void acceptMessage(final String envelopeFrom, final List<String> recipients, final SmtpMessageWriter messageWriter) throws MessagingException {
+		final Map<String, SmtpReply> rejectedRecipients = connectionPool.sendMessage(relay, settings, envelopeFrom, recipients, messageWriter, settings.isSendPartial());
+		if (!rejectedRecipients.isEmpty()) {
+			throw new SendFailedException("Message was not sent to rejected recipients: " + rejectedRecipients);
+		}
+	}
+}
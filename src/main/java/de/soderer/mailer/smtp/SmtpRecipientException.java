@@ -0,0 +1,26 @@
+package de.soderer.mailer.smtp;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Some or all recipients of a message were rejected by the SMTP server, so the message was not sent
+ */
+public class SmtpRecipientException extends SmtpException {
+	private static final long serialVersionUID = -3620916414637993711L;
+
+	private final Map<String, SmtpReply> rejectedRecipients;
+
+	public SmtpRecipientException(final Map<String, SmtpReply> rejectedRecipients) {
+		super("Recipients rejected by SMTP server: " + rejectedRecipients, rejectedRecipients.values().iterator().next(), false, null);
+		this.rejectedRecipients = Collections.unmodifiableMap(new LinkedHashMap<>(rejectedRecipients));
+	}
+
+	/**
+	 * The rejected recipient addresses with the reply of the SMTP server for each of them
+	 */
+	public Map<String, SmtpReply> getRejectedRecipients() {
+		return rejectedRecipients;
+	}
+}
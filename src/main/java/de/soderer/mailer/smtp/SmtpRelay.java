@@ -0,0 +1,74 @@
+package de.soderer.mailer.smtp;
+
+import java.util.Objects;
+
+import de.soderer.utilities.mail.MailerConnectionSecurity;
+
+/**
+ * A SMTP server with the credentials to use it.<br />
+ * Connections to the same host, port, connection security and user are interchangeable, so this is the key for pooled connections.
+ * The password is not part of the key.
+ */
+public class SmtpRelay {
+	private final String host;
+	private final int port;
+	private final MailerConnectionSecurity connectionSecurity;
+	private final String user;
+	private final String password;
+
+	/**
+	 * @param user username for authentication or null if no authentication is used
+	 */
+	public SmtpRelay(final String host, final int port, final MailerConnectionSecurity connectionSecurity, final String user, final String password) {
+		this.host = host;
+		this.port = port;
+		this.connectionSecurity = connectionSecurity == null ? MailerConnectionSecurity.None : connectionSecurity;
+		this.user = user;
+		this.password = password;
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	public MailerConnectionSecurity getConnectionSecurity() {
+		return connectionSecurity;
+	}
+
+	public String getUser() {
+		return user;
+	}
+
+	public String getPassword() {
+		return password;
+	}
+
+	@Override
+	public boolean equals(final Object other) {
+		if (this == other) {
+			return true;
+		} else if (other == null || getClass() != other.getClass()) {
+			return false;
+		} else {
+			final SmtpRelay otherRelay = (SmtpRelay) other;
+			return port == otherRelay.port
+					&& host.equalsIgnoreCase(otherRelay.host)
+					&& connectionSecurity == otherRelay.connectionSecurity
+					&& Objects.equals(user, otherRelay.user);
+		}
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(host.toLowerCase(), port, connectionSecurity, user);
+	}
+
+	@Override
+	public String toString() {
+		return (user == null ? "" : user + "@") + host + ":" + port + " (" + connectionSecurity + ")";
+	}
+}
@@ -0,0 +1,56 @@
+package de.soderer.mailer.smtp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A reply of a SMTP server, which may consist of multiple lines
+ */
+public class SmtpReply {
+	private final int code;
+	private final List<String> lines;
+
+	public SmtpReply(final int code, final List<String> lines) {
+		this.code = code;
+		this.lines = Collections.unmodifiableList(new ArrayList<>(lines));
+	}
+
+	public int getCode() {
+		return code;
+	}
+
+	public List<String> getLines() {
+		return lines;
+	}
+
+	public String getText() {
+		return String.join("\n", lines);
+	}
+
+	/**
+	 * Reply codes 2xx
+	 */
+	public boolean isPositiveCompletion() {
+		return code >= 200 && code < 300;
+	}
+
+	/**
+	 * Reply codes 4xx, which signal a temporary error, so the command may be repeated later
+	 */
+	public boolean isTransientNegative() {
+		return code >= 400 && code < 500;
+	}
+
+	/**
+	 * Reply code 421, which signals that the server is closing the connection
+	 */
+	public boolean isServiceNotAvailable() {
+		return code == 421;
+	}
+
+	@Override
+	public String toString() {
+		return code + " " + String.join(" ", lines);
+	}
+}
@@ -0,0 +1,108 @@
+package de.soderer.mailer.smtp;
+
+import java.security.SecureRandom;
+import java.security.cert.X509Certificate;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+/**
+ * SSL contexts of the SMTP connections with one context per relay host, port and trust configuration.<br />
+ * Each context keeps its own client session cache, so that all further connections to a relay resume the TLS session
+ * (session ID of TLS 1.2 or session ticket of TLS 1.3) with an abbreviated handshake without certificate chain and key exchange.<br />
+ * The numbers of full and resumed handshakes are counted to verify, that the relays accept the resumption.
+ */
+public class SmtpTlsContexts {
+	/** Maximum number of cached TLS sessions per context */
+	private static final int SESSION_CACHE_SIZE = 100;
+
+	/** Lifetime of cached TLS sessions in seconds. Relays may limit the lifetime of their sessions and tickets further. */
+	private static final int SESSION_TIMEOUT_SECONDS = 3600;
+
+	private static final Map<String, SSLContext> sslContexts = new ConcurrentHashMap<>();
+	private static final AtomicLong fullHandshakes = new AtomicLong();
+	private static final AtomicLong resumedHandshakes = new AtomicLong();
+
+	private SmtpTlsContexts() {
+	}
+
+	/**
+	 * Socket factory of the shared SSL context for the relay, which is created by the first connection to the relay
+	 */
+	public static SSLSocketFactory getSslSocketFactory(final SmtpRelay relay, final boolean trustAllCertificates) throws Exception {
+		final String contextKey = relay.getHost().toLowerCase(Locale.ROOT) + ":" + relay.getPort() + (trustAllCertificates ? ":trustall" : "");
+		SSLContext sslContext = sslContexts.get(contextKey);
+		if (sslContext == null) {
+			sslContext = createSslContext(trustAllCertificates);
+			final SSLContext existingSslContext = sslContexts.putIfAbsent(contextKey, sslContext);
+			if (existingSslContext != null) {
+				sslContext = existingSslContext;
+			}
+		}
+		return sslContext.getSocketFactory();
+	}
+
+	/**
+	 * Count a finished handshake as full or resumed.<br />
+	 * A resumed session keeps the creation time of the full handshake, which created it, so a session created before the start of the handshake was resumed.
+	 *
+	 * @return true if the session was resumed
+	 */
+	static boolean countHandshake(final SSLSession session, final long handshakeStartMillis) {
+		final boolean resumed = session.getCreationTime() < handshakeStartMillis;
+		if (resumed) {
+			resumedHandshakes.incrementAndGet();
+		} else {
+			fullHandshakes.incrementAndGet();
+		}
+		return resumed;
+	}
+
+	/**
+	 * Number of full TLS handshakes of this process
+	 */
+	public static long getFullHandshakes() {
+		return fullHandshakes.get();
+	}
+
+	/**
+	 * Number of TLS handshakes of this process, which resumed a cached session
+	 */
+	public static long getResumedHandshakes() {
+		return resumedHandshakes.get();
+	}
+
+	private static SSLContext createSslContext(final boolean trustAllCertificates) throws Exception {
+		final SSLContext sslContext = SSLContext.getInstance("TLS");
+		if (trustAllCertificates) {
+			sslContext.init(null, new TrustManager[] { new X509TrustManager() {
+				@Override
+				public void checkClientTrusted(final X509Certificate[] chain, final String authType) {
+					// Trust all clients
+				}
+
+				@Override
+				public void checkServerTrusted(final X509Certificate[] chain, final String authType) {
+					// Trust all servers
+				}
+
+				@Override
+				public X509Certificate[] getAcceptedIssuers() {
+					return new X509Certificate[0];
+				}
+			} }, new SecureRandom());
+		} else {
+			sslContext.init(null, null, null);
+		}
+		sslContext.getClientSessionContext().setSessionCacheSize(SESSION_CACHE_SIZE);
+		sslContext.getClientSessionContext().setSessionTimeout(SESSION_TIMEOUT_SECONDS);
+		return sslContext;
+	}
+}
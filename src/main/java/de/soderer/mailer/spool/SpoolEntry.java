@@ -0,0 +1,94 @@
+package de.soderer.mailer.spool;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A rendered message in the spool queue, which was not delivered yet.<br />
+ * The message content stays in its segment file and is only read when the message is sent.
+ */
+public class SpoolEntry {
+	private final long id;
+	private final long createdTime;
+	private final String envelopeFrom;
+	private final int segmentNumber;
+	private final long contentPosition;
+	private final long contentLength;
+
+	private List<String> recipients;
+	private int attempts = 0;
+	private long nextAttemptTime = 0;
+	private String lastError = null;
+
+	SpoolEntry(final long id, final long createdTime, final String envelopeFrom, final List<String> recipients, final int segmentNumber, final long contentPosition, final long contentLength) {
+		this.id = id;
+		this.createdTime = createdTime;
+		this.envelopeFrom = envelopeFrom;
+		this.recipients = Collections.unmodifiableList(new ArrayList<>(recipients));
+		this.segmentNumber = segmentNumber;
+		this.contentPosition = contentPosition;
+		this.contentLength = contentLength;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public long getCreatedTime() {
+		return createdTime;
+	}
+
+	public String getEnvelopeFrom() {
+		return envelopeFrom;
+	}
+
+	/**
+	 * Recipients which did not receive the message yet
+	 */
+	public synchronized List<String> getRecipients() {
+		return recipients;
+	}
+
+	/**
+	 * Number of failed delivery attempts
+	 */
+	public synchronized int getAttempts() {
+		return attempts;
+	}
+
+	/**
+	 * Earliest time for the next delivery attempt
+	 */
+	public synchronized long getNextAttemptTime() {
+		return nextAttemptTime;
+	}
+
+	public synchronized String getLastError() {
+		return lastError;
+	}
+
+	synchronized void setDeferred(final List<String> remainingRecipients, final int newAttempts, final long newNextAttemptTime, final String error) {
+		recipients = Collections.unmodifiableList(new ArrayList<>(remainingRecipients));
+		attempts = newAttempts;
+		nextAttemptTime = newNextAttemptTime;
+		lastError = error;
+	}
+
+	int getSegmentNumber() {
+		return segmentNumber;
+	}
+
+	long getContentPosition() {
+		return contentPosition;
+	}
+
+	long getContentLength() {
+		return contentLength;
+	}
+
+	@Override
+	public String toString() {
+		return "Spool message " + id + " (" + String.join(", ", getRecipients()) + ")";
+	}
+}
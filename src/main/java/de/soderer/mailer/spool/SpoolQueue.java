@@ -0,0 +1,641 @@
+package de.soderer.mailer.spool;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import de.soderer.mailer.relay.MessageDataBuffer;
+import de.soderer.mailer.smtp.SmtpMessageSink;
+import de.soderer.mailer.smtp.SmtpMessageWriter;
+import jakarta.mail.MessagingException;
+
+/**
+ * Durable queue of rendered messages in a spool directory.<br />
+ * All changes are appended as records to segment files (journal), which are never modified afterwards. Each record is secured by a CRC32 checksum,
+ * so a record, which was only partially written before a crash, is detected and discarded when the spool is opened again.<br />
+ * Writers wait until their records are synced to disk (fsync), but concurrent writers share one fsync (group commit).
+ * Messages are rendered before the spool is locked, so concurrent writers only wait for the copy of already rendered messages.<br />
+ * Delivery is at-least-once: A message is marked as done after its delivery, so a crash between the delivery and the done record
+ * makes the message be delivered once more, when the spool is opened again. A message is never lost.<br />
+ * Segments are deleted as soon as they and all older segments contain no undelivered messages anymore.<br />
+ * A spool directory can only be used by one process at a time.
+ */
+public class SpoolQueue implements SmtpMessageSink, Closeable {
+	public static final long DEFAULT_MAX_SEGMENT_SIZE = 64L * 1024 * 1024;
+	public static final String DEAD_LETTER_DIRECTORY_NAME = "deadletter";
+
+	private static final String LOCK_FILE_NAME = "spool.lock";
+	private static final String SEGMENT_FILE_PREFIX = "segment-";
+	private static final String SEGMENT_FILE_EXTENSION = ".spool";
+
+	private static final byte RECORD_TYPE_MESSAGE = 1;
+	private static final byte RECORD_TYPE_DEFERRED = 2;
+	private static final byte RECORD_TYPE_DONE = 3;
+
+	/** Record payload length (int) and record type (byte) */
+	private static final int RECORD_HEADER_SIZE = 5;
+	/** CRC32 checksum of record type and payload (int) */
+	private static final int RECORD_TRAILER_SIZE = 4;
+	/** Maximum payload length of records without message content */
+	private static final int MAX_STATUS_RECORD_LENGTH = 1024 * 1024;
+	private static final int BUFFER_SIZE = 64 * 1024;
+	/** Maximum size of a rendered message kept in memory before it is appended, larger messages are buffered in a temporary file */
+	private static final int MAX_MEMORY_MESSAGE_SIZE = 256 * 1024;
+
+	private final File spoolDirectory;
+	private final File deadLetterDirectory;
+	private final long maxSegmentSize;
+	private final FileChannel lockFileChannel;
+	private final FileLock lock;
+	private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+	private final Map<Long, SpoolEntry> entries = new LinkedHashMap<>();
+	private Segment activeSegment = null;
+	private long nextId = 1;
+	private boolean closed = false;
+	/** Error, which left an incomplete record at the end of the active segment, so no further records may be appended */
+	private IOException writeFailure = null;
+
+	private long writtenSequence = 0;
+	private final AtomicLong syncedSequence = new AtomicLong(0);
+	private final Object syncLock = new Object();
+
+	public SpoolQueue(final File spoolDirectory) throws IOException {
+		this(spoolDirectory, DEFAULT_MAX_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Open the spool directory and recover all undelivered messages
+	 *
+	 * @param maxSegmentSize size of a segment file, after which a new segment file is started
+	 */
+	public SpoolQueue(final File spoolDirectory, final long maxSegmentSize) throws IOException {
+		this.spoolDirectory = spoolDirectory;
+		deadLetterDirectory = new File(spoolDirectory, DEAD_LETTER_DIRECTORY_NAME);
+		this.maxSegmentSize = maxSegmentSize;
+
+		if (!spoolDirectory.exists() && !spoolDirectory.mkdirs()) {
+			throw new IOException("Cannot create spool directory: " + spoolDirectory.getAbsolutePath());
+		} else if (!spoolDirectory.isDirectory()) {
+			throw new IOException("Spool path is not a directory: " + spoolDirectory.getAbsolutePath());
+		}
+
+		lockFileChannel = FileChannel.open(new File(spoolDirectory, LOCK_FILE_NAME).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		FileLock fileLock;
+		try {
+			fileLock = lockFileChannel.tryLock();
+		} catch (@SuppressWarnings("unused") final OverlappingFileLockException e) {
+			fileLock = null;
+		}
+		if (fileLock == null) {
+			lockFileChannel.close();
+			throw new IOException("Spool directory is in use by another process: " + spoolDirectory.getAbsolutePath());
+		}
+		lock = fileLock;
+
+		try {
+			recover();
+		} catch (final IOException | RuntimeException e) {
+			close();
+			throw e;
+		}
+	}
+
+	public File getSpoolDirectory() {
+		return spoolDirectory;
+	}
+
+	/**
+	 * Directory for messages, which were rejected permanently by the SMTP server
+	 */
+	public File getDeadLetterDirectory() {
+		return deadLetterDirectory;
+	}
+
+	/**
+	 * Read all segment files in order and replay their records
+	 */
+	private void recover() throws IOException {
+		final File[] segmentFiles = spoolDirectory.listFiles((directory, fileName) -> fileName.startsWith(SEGMENT_FILE_PREFIX) && fileName.endsWith(SEGMENT_FILE_EXTENSION));
+		if (segmentFiles != null) {
+			for (final File segmentFile : segmentFiles) {
+				final String segmentNumberString = segmentFile.getName().substring(SEGMENT_FILE_PREFIX.length(), segmentFile.getName().length() - SEGMENT_FILE_EXTENSION.length());
+				try {
+					final int segmentNumber = Integer.parseInt(segmentNumberString);
+					segments.put(segmentNumber, new Segment(segmentNumber, segmentFile));
+				} catch (@SuppressWarnings("unused") final NumberFormatException e) {
+					// Not a segment file of this spool
+				}
+			}
+		}
+
+		for (final Segment segment : segments.values()) {
+			readSegment(segment, segment == segments.lastEntry().getValue());
+		}
+
+		if (segments.isEmpty()) {
+			activeSegment = createSegment(1);
+		} else {
+			activeSegment = segments.lastEntry().getValue();
+		}
+		deleteObsoleteSegments();
+	}
+
+	private void readSegment(final Segment segment, final boolean lastSegment) throws IOException {
+		final long segmentFileSize = segment.channel.size();
+		long position = 0;
+		while (position < segmentFileSize) {
+			final long recordLength = readRecord(segment, position, segmentFileSize);
+			if (recordLength < 0) {
+				if (lastSegment) {
+					// Record was not completely written before a crash, so it was never confirmed and is discarded
+					segment.channel.truncate(position);
+					segment.channel.force(false);
+					break;
+				} else {
+					throw new IOException("Spool segment is corrupted: " + segment.file.getAbsolutePath() + " at position " + position);
+				}
+			}
+			position += recordLength;
+		}
+		segment.size = position;
+	}
+
+	/**
+	 * Read and replay one record
+	 *
+	 * @return the size of the record or -1 if the record is incomplete or corrupted
+	 */
+	private long readRecord(final Segment segment, final long recordPosition, final long segmentFileSize) throws IOException {
+		if (recordPosition + RECORD_HEADER_SIZE + RECORD_TRAILER_SIZE > segmentFileSize) {
+			return -1;
+		}
+		final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+		readFully(segment.channel, header, recordPosition);
+		final int payloadLength = header.getInt();
+		final byte type = header.get();
+		final long payloadPosition = recordPosition + RECORD_HEADER_SIZE;
+		if (payloadLength <= 0 || payloadPosition + payloadLength + RECORD_TRAILER_SIZE > segmentFileSize) {
+			return -1;
+		} else if (type != RECORD_TYPE_MESSAGE && (type != RECORD_TYPE_DEFERRED && type != RECORD_TYPE_DONE || payloadLength > MAX_STATUS_RECORD_LENGTH)) {
+			return -1;
+		}
+
+		// Verify the checksum of the whole record
+		final CRC32 crc = new CRC32();
+		crc.update(type);
+		final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		long position = payloadPosition;
+		final long payloadEnd = payloadPosition + payloadLength;
+		while (position < payloadEnd) {
+			buffer.clear();
+			buffer.limit((int) Math.min(buffer.capacity(), payloadEnd - position));
+			readFully(segment.channel, buffer, position);
+			crc.update(buffer.array(), 0, buffer.limit());
+			position += buffer.limit();
+		}
+		final ByteBuffer trailer = ByteBuffer.allocate(RECORD_TRAILER_SIZE);
+		readFully(segment.channel, trailer, payloadEnd);
+		if (trailer.getInt() != (int) crc.getValue()) {
+			return -1;
+		}
+
+		if (type == RECORD_TYPE_MESSAGE) {
+			final ByteBuffer messageHeaderLengthBuffer = ByteBuffer.allocate(4);
+			readFully(segment.channel, messageHeaderLengthBuffer, payloadPosition);
+			final int messageHeaderLength = messageHeaderLengthBuffer.getInt();
+			if (messageHeaderLength <= 0 || 4 + messageHeaderLength > payloadLength) {
+				return -1;
+			}
+			final ByteBuffer messageHeader = ByteBuffer.allocate(messageHeaderLength);
+			readFully(segment.channel, messageHeader, payloadPosition + 4);
+			try (DataInputStream dataInputStream = new DataInputStream(new ByteArrayInputStream(messageHeader.array()))) {
+				final long id = dataInputStream.readLong();
+				final long createdTime = dataInputStream.readLong();
+				final String envelopeFrom = dataInputStream.readUTF();
+				final List<String> recipients = readRecipients(dataInputStream);
+				final long contentPosition = payloadPosition + 4 + messageHeaderLength;
+				entries.put(id, new SpoolEntry(id, createdTime, envelopeFrom, recipients, segment.number, contentPosition, payloadEnd - contentPosition));
+				segment.liveMessageCount++;
+				nextId = Math.max(nextId, id + 1);
+			}
+		} else {
+			final ByteBuffer payload = ByteBuffer.allocate(payloadLength);
+			readFully(segment.channel, payload, payloadPosition);
+			try (DataInputStream dataInputStream = new DataInputStream(new ByteArrayInputStream(payload.array()))) {
+				final long id = dataInputStream.readLong();
+				if (type == RECORD_TYPE_DEFERRED) {
+					final int attempts = dataInputStream.readInt();
+					final long nextAttemptTime = dataInputStream.readLong();
+					final String error = dataInputStream.readUTF();
+					final List<String> remainingRecipients = readRecipients(dataInputStream);
+					final SpoolEntry entry = entries.get(id);
+					if (entry != null) {
+						entry.setDeferred(remainingRecipients, attempts, nextAttemptTime, error);
+					}
+				} else {
+					final SpoolEntry entry = entries.remove(id);
+					if (entry != null) {
+						segments.get(entry.getSegmentNumber()).liveMessageCount--;
+					}
+				}
+			}
+		}
+		return RECORD_HEADER_SIZE + payloadLength + RECORD_TRAILER_SIZE;
+	}
+
+	private static List<String> readRecipients(final DataInputStream dataInputStream) throws IOException {
+		final int recipientCount = dataInputStream.readInt();
+		final List<String> recipients = new ArrayList<>();
+		for (int i = 0; i < recipientCount; i++) {
+			recipients.add(dataInputStream.readUTF());
+		}
+		return recipients;
+	}
+
+	private static void writeRecipients(final DataOutputStream dataOutputStream, final List<String> recipients) throws IOException {
+		dataOutputStream.writeInt(recipients.size());
+		for (final String recipient : recipients) {
+			dataOutputStream.writeUTF(recipient);
+		}
+	}
+
+	/**
+	 * Append a rendered message to the spool. This returns after the message was synced to disk.
+	 */
+	@Override
+	public void acceptMessage(final String envelopeFrom, final List<String> recipients, final SmtpMessageWriter messageWriter) throws MessagingException {
+		final MessageDataBuffer messageData;
+		try {
+			messageData = MessageDataBuffer.of(messageWriter, MAX_MEMORY_MESSAGE_SIZE);
+		} catch (final IOException e) {
+			throw new MessagingException("Cannot render message: " + e.getMessage(), e);
+		}
+		try (MessageDataBuffer content = messageData) {
+			final long sequence;
+			synchronized (this) {
+				final long id = nextId++;
+				final long createdTime = System.currentTimeMillis();
+
+				final ByteArrayOutputStream messageHeader = new ByteArrayOutputStream();
+				try (DataOutputStream dataOutputStream = new DataOutputStream(messageHeader)) {
+					dataOutputStream.writeLong(id);
+					dataOutputStream.writeLong(createdTime);
+					dataOutputStream.writeUTF(envelopeFrom);
+					writeRecipients(dataOutputStream, recipients);
+				}
+				final ByteArrayOutputStream payloadStart = new ByteArrayOutputStream();
+				try (DataOutputStream dataOutputStream = new DataOutputStream(payloadStart)) {
+					dataOutputStream.writeInt(messageHeader.size());
+					messageHeader.writeTo(dataOutputStream);
+				}
+
+				final long recordPosition = appendRecord(RECORD_TYPE_MESSAGE, payloadStart.toByteArray(), content);
+				final long contentPosition = recordPosition + RECORD_HEADER_SIZE + payloadStart.size();
+				final long contentLength = activeSegment.size - RECORD_TRAILER_SIZE - contentPosition;
+				entries.put(id, new SpoolEntry(id, createdTime, envelopeFrom, recipients, activeSegment.number, contentPosition, contentLength));
+				activeSegment.liveMessageCount++;
+				sequence = writtenSequence;
+			}
+			awaitDurable(sequence);
+		} catch (final IOException e) {
+			throw new MessagingException("Cannot write message to spool " + spoolDirectory.getAbsolutePath() + ": " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Record a failed delivery attempt, after which the message should be sent again later to the remaining recipients
+	 */
+	public void markDeferred(final SpoolEntry entry, final List<String> remainingRecipients, final int attempts, final long nextAttemptTime, final String error) throws IOException {
+		final long sequence;
+		synchronized (this) {
+			if (!entries.containsKey(entry.getId())) {
+				return;
+			}
+			final String shortenedError = error == null ? "" : (error.length() > 1000 ? error.substring(0, 1000) : error);
+			final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+			try (DataOutputStream dataOutputStream = new DataOutputStream(payload)) {
+				dataOutputStream.writeLong(entry.getId());
+				dataOutputStream.writeInt(attempts);
+				dataOutputStream.writeLong(nextAttemptTime);
+				dataOutputStream.writeUTF(shortenedError);
+				writeRecipients(dataOutputStream, remainingRecipients);
+			}
+			appendRecord(RECORD_TYPE_DEFERRED, payload.toByteArray(), null);
+			entry.setDeferred(remainingRecipients, attempts, nextAttemptTime, shortenedError);
+			sequence = writtenSequence;
+		}
+		awaitDurable(sequence);
+	}
+
+	/**
+	 * Remove a message from the queue, because it was delivered or dead-lettered.<br />
+	 * If the process crashes after the delivery but before this record is synced, the message is delivered once more (at-least-once).
+	 */
+	public void markDone(final SpoolEntry entry) throws IOException {
+		final long sequence;
+		synchronized (this) {
+			if (!entries.containsKey(entry.getId())) {
+				return;
+			}
+			final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+			try (DataOutputStream dataOutputStream = new DataOutputStream(payload)) {
+				dataOutputStream.writeLong(entry.getId());
+			}
+			appendRecord(RECORD_TYPE_DONE, payload.toByteArray(), null);
+			entries.remove(entry.getId());
+			segments.get(entry.getSegmentNumber()).liveMessageCount--;
+			sequence = writtenSequence;
+			deleteObsoleteSegments();
+		}
+		awaitDurable(sequence);
+	}
+
+	/**
+	 * Write a copy of the message and the reasons of its rejection into the dead letter directory.<br />
+	 * The message itself stays in the queue until it is marked as done.
+	 *
+	 * @param rejectedRecipients the rejected recipients with the reason of the rejection
+	 */
+	public void writeDeadLetter(final SpoolEntry entry, final Map<String, String> rejectedRecipients) throws IOException {
+		if (!deadLetterDirectory.exists() && !deadLetterDirectory.mkdirs()) {
+			throw new IOException("Cannot create dead letter directory: " + deadLetterDirectory.getAbsolutePath());
+		}
+		final File messageFile = new File(deadLetterDirectory, entry.getId() + ".eml");
+		if (!messageFile.exists()) {
+			try (OutputStream outputStream = new FileOutputStream(messageFile)) {
+				writeContent(entry, outputStream);
+			}
+		}
+		final StringBuilder info = new StringBuilder();
+		info.append("Envelope-From: ").append(entry.getEnvelopeFrom()).append("\r\n");
+		info.append("Created: ").append(Instant.ofEpochMilli(entry.getCreatedTime())).append("\r\n");
+		info.append("Dead-lettered: ").append(Instant.now()).append("\r\n");
+		for (final Entry<String, String> rejectedRecipient : rejectedRecipients.entrySet()) {
+			info.append("Recipient: ").append(rejectedRecipient.getKey()).append(": ").append(rejectedRecipient.getValue()).append("\r\n");
+		}
+		try (OutputStream outputStream = new FileOutputStream(new File(deadLetterDirectory, entry.getId() + ".txt"), true)) {
+			outputStream.write(info.toString().getBytes(StandardCharsets.UTF_8));
+		}
+	}
+
+	/**
+	 * Write the content of a queued message
+	 */
+	public void writeContent(final SpoolEntry entry, final OutputStream outputStream) throws IOException {
+		final Segment segment;
+		synchronized (this) {
+			segment = segments.get(entry.getSegmentNumber());
+		}
+		if (segment == null) {
+			throw new IOException("Spool segment of message " + entry.getId() + " is not available");
+		}
+		final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		long position = entry.getContentPosition();
+		final long contentEnd = position + entry.getContentLength();
+		while (position < contentEnd) {
+			buffer.clear();
+			buffer.limit((int) Math.min(buffer.capacity(), contentEnd - position));
+			readFully(segment.channel, buffer, position);
+			outputStream.write(buffer.array(), 0, buffer.limit());
+			position += buffer.limit();
+		}
+	}
+
+	/**
+	 * Get all undelivered messages in the order they were queued
+	 */
+	public synchronized List<SpoolEntry> getEntries() {
+		return new ArrayList<>(entries.values());
+	}
+
+	/**
+	 * Append a record to the active segment. The payload length is written last, so an incomplete record is always detected.<br />
+	 * If an incomplete record cannot be removed after an error, it must stay the last record of the last segment, where it is discarded when the spool is opened again.
+	 * So the spool rejects all further records until it is opened again.
+	 *
+	 * @param content rendered message content or null for status records
+	 * @return the position of the record in the active segment
+	 */
+	private synchronized long appendRecord(final byte type, final byte[] payloadStart, final MessageDataBuffer content) throws IOException {
+		if (closed) {
+			throw new IOException("Spool is closed");
+		} else if (writeFailure != null) {
+			throw new IOException("Spool must be opened again after a failed write: " + writeFailure.getMessage(), writeFailure);
+		}
+		if (activeSegment.size >= maxSegmentSize) {
+			rotateSegment();
+		}
+
+		final FileChannel channel = activeSegment.channel;
+		final long recordPosition = activeSegment.size;
+		try {
+			final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+			header.putInt(0).put(type).flip();
+			writeFully(channel, header, recordPosition);
+
+			final CRC32 crc = new CRC32();
+			crc.update(type);
+			channel.position(recordPosition + RECORD_HEADER_SIZE);
+			// The channel stream must not be closed, because this would close the channel
+			final OutputStream payloadOutputStream = new CheckedOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE), crc);
+			payloadOutputStream.write(payloadStart);
+			if (content != null) {
+				content.writeTo(payloadOutputStream);
+			}
+			payloadOutputStream.flush();
+
+			final long payloadEnd = channel.position();
+			final long payloadLength = payloadEnd - recordPosition - RECORD_HEADER_SIZE;
+			if (payloadLength > Integer.MAX_VALUE - RECORD_HEADER_SIZE - RECORD_TRAILER_SIZE) {
+				throw new IOException("Message is too large for the spool");
+			}
+			final ByteBuffer trailer = ByteBuffer.allocate(RECORD_TRAILER_SIZE);
+			trailer.putInt((int) crc.getValue()).flip();
+			writeFully(channel, trailer, payloadEnd);
+			final ByteBuffer length = ByteBuffer.allocate(4);
+			length.putInt((int) payloadLength).flip();
+			writeFully(channel, length, recordPosition);
+
+			activeSegment.size = payloadEnd + RECORD_TRAILER_SIZE;
+			writtenSequence++;
+			return recordPosition;
+		} catch (final IOException | RuntimeException e) {
+			try {
+				// Discard the incomplete record
+				channel.truncate(recordPosition);
+			} catch (final IOException truncateException) {
+				// A following shorter record would leave parts of the incomplete record behind it
+				writeFailure = truncateException;
+			}
+			throw e;
+		}
+	}
+
+	private void rotateSegment() throws IOException {
+		activeSegment.channel.force(false);
+		syncedSequence.accumulateAndGet(writtenSequence, Math::max);
+		activeSegment = createSegment(activeSegment.number + 1);
+	}
+
+	private Segment createSegment(final int segmentNumber) throws IOException {
+		final Segment segment = new Segment(segmentNumber, new File(spoolDirectory, String.format("%s%06d%s", SEGMENT_FILE_PREFIX, segmentNumber, SEGMENT_FILE_EXTENSION)));
+		segments.put(segmentNumber, segment);
+		syncDirectory();
+		return segment;
+	}
+
+	/**
+	 * Delete the oldest segments, as long as they contain no undelivered messages.<br />
+	 * Only the oldest segments may be deleted, because newer segments may contain status records of messages in older segments.
+	 */
+	private void deleteObsoleteSegments() {
+		while (segments.size() > 1) {
+			final Segment oldestSegment = segments.firstEntry().getValue();
+			if (oldestSegment == activeSegment || oldestSegment.liveMessageCount > 0) {
+				break;
+			}
+			segments.pollFirstEntry();
+			oldestSegment.close();
+			oldestSegment.file.delete();
+		}
+	}
+
+	/**
+	 * Wait until the record with the given sequence number is synced to disk.<br />
+	 * Only one thread syncs at a time and this sync includes all records written so far, so the threads waiting meanwhile usually need no sync of their own.
+	 */
+	private void awaitDurable(final long sequence) throws IOException {
+		synchronized (syncLock) {
+			if (syncedSequence.get() >= sequence) {
+				return;
+			}
+			final long targetSequence;
+			final FileChannel channel;
+			synchronized (this) {
+				targetSequence = writtenSequence;
+				channel = activeSegment.channel;
+			}
+			try {
+				channel.force(false);
+			} catch (@SuppressWarnings("unused") final ClosedChannelException e) {
+				// Segment was rotated and synced in the meantime
+			}
+			syncedSequence.accumulateAndGet(targetSequence, Math::max);
+		}
+	}
+
+	/**
+	 * Sync the directory entries, so that new segment files survive a crash
+	 */
+	private void syncDirectory() {
+		try (FileChannel directoryChannel = FileChannel.open(spoolDirectory.toPath(), StandardOpenOption.READ)) {
+			directoryChannel.force(true);
+		} catch (@SuppressWarnings("unused") final IOException e) {
+			// Syncing directories is not supported on all platforms
+		}
+	}
+
+	private static void readFully(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException {
+		long readPosition = position;
+		while (buffer.hasRemaining()) {
+			final int readBytes = channel.read(buffer, readPosition);
+			if (readBytes < 0) {
+				throw new EOFException("Unexpected end of spool segment");
+			}
+			readPosition += readBytes;
+		}
+		buffer.flip();
+	}
+
+	private static void writeFully(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException {
+		long writePosition = position;
+		while (buffer.hasRemaining()) {
+			writePosition += channel.write(buffer, writePosition);
+		}
+	}
+
+	@Override
+	public void close() {
+		synchronized (syncLock) {
+			synchronized (this) {
+				if (closed) {
+					return;
+				}
+				closed = true;
+				if (activeSegment != null) {
+					try {
+						activeSegment.channel.force(false);
+					} catch (@SuppressWarnings("unused") final IOException e) {
+						// Records were already synced by their writers
+					}
+				}
+				for (final Segment segment : segments.values()) {
+					segment.close();
+				}
+				segments.clear();
+				try {
+					lock.release();
+				} catch (@SuppressWarnings("unused") final IOException e) {
+					// Lock is released by closing the channel
+				}
+				try {
+					lockFileChannel.close();
+				} catch (@SuppressWarnings("unused") final IOException e) {
+					// do nothing
+				}
+			}
+		}
+	}
+
+	/**
+	 * Segment file of the journal
+	 */
+	private static class Segment {
+		private final int number;
+		private final File file;
+		private final FileChannel channel;
+		private long size;
+		private int liveMessageCount = 0;
+
+		private Segment(final int number, final File file) throws IOException {
+			this.number = number;
+			this.file = file;
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			size = channel.size();
+		}
+
+		private void close() {
+			try {
+				channel.close();
+			} catch (@SuppressWarnings("unused") final IOException e) {
+				// do nothing
+			}
+		}
+	}
+}
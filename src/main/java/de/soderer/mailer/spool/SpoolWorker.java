@@ -0,0 +1,206 @@
+package de.soderer.mailer.spool;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.soderer.mailer.SendEngine;
+import de.soderer.mailer.mx.MxDeliverySink;
+import de.soderer.mailer.smtp.SmtpConnectionPool;
+import de.soderer.mailer.smtp.SmtpConnectionSettings;
+import de.soderer.mailer.smtp.SmtpException;
+import de.soderer.mailer.smtp.SmtpRecipientException;
+import de.soderer.mailer.smtp.SmtpRelay;
+import de.soderer.mailer.smtp.SmtpReply;
+import jakarta.mail.MessagingException;
+
+/**
+ * Delivers the messages of a spool queue to the SMTP relay or directly to the mail exchangers of the recipients.<br />
+ * Recipients, which were rejected temporarily (reply codes 4xx) or could not be reached because of connection errors, are retried later with exponential backoff.
+ * Recipients, which were rejected permanently (reply codes 5xx), are written to the dead letter directory.<br />
+ * The messages are sent as they were rendered, so signatures and encryption stay untouched.
+ */
+public class SpoolWorker {
+	public static final long INITIAL_RETRY_DELAY_MILLIS = 60 * 1000L;
+	public static final long MAX_RETRY_DELAY_MILLIS = 60 * 60 * 1000L;
+	public static final int MAX_ATTEMPTS = 10;
+
+	private final SpoolQueue spoolQueue;
+	private final SmtpConnectionPool connectionPool;
+	private final SmtpRelay relay;
+	private final SmtpConnectionSettings settings;
+	private final MxDeliverySink mxDeliverySink;
+	private final int connections;
+
+	private final AtomicInteger deliveredCount = new AtomicInteger(0);
+	private final AtomicInteger deadLetterCount = new AtomicInteger(0);
+
+	/**
+	 * @param connections number of messages sent concurrently
+	 */
+	public SpoolWorker(final SpoolQueue spoolQueue, final SmtpConnectionPool connectionPool, final SmtpRelay relay, final SmtpConnectionSettings settings, final int connections) {
+		this(spoolQueue, connectionPool, relay, settings, null, connections);
+	}
+
+	/**
+	 * Deliver the messages directly to the mail exchangers of their recipients. Recipients of unreachable mail exchangers are retried later.
+	 *
+	 * @param connections number of messages sent concurrently
+	 */
+	public SpoolWorker(final SpoolQueue spoolQueue, final MxDeliverySink mxDeliverySink, final int connections) {
+		this(spoolQueue, null, null, null, mxDeliverySink, connections);
+	}
+
+	private SpoolWorker(final SpoolQueue spoolQueue, final SmtpConnectionPool connectionPool, final SmtpRelay relay, final SmtpConnectionSettings settings, final MxDeliverySink mxDeliverySink, final int connections) {
+		this.spoolQueue = spoolQueue;
+		this.connectionPool = connectionPool;
+		this.relay = relay;
+		this.settings = settings;
+		this.mxDeliverySink = mxDeliverySink;
+		this.connections = connections;
+	}
+
+	/**
+	 * Deliver all messages, which are due, and wait for deferred messages, as long as their next attempt is within the maximum wait time
+	 *
+	 * @param maxWaitMillis maximum time to wait for deferred messages (0 = leave them in the queue for the next run)
+	 */
+	public void drain(final long maxWaitMillis) throws Exception {
+		final long waitEnd = System.currentTimeMillis() + maxWaitMillis;
+		while (true) {
+			final long now = System.currentTimeMillis();
+			final List<SpoolEntry> dueEntries = new ArrayList<>();
+			long nextAttemptTime = Long.MAX_VALUE;
+			for (final SpoolEntry entry : spoolQueue.getEntries()) {
+				if (entry.getNextAttemptTime() <= now) {
+					dueEntries.add(entry);
+				} else {
+					nextAttemptTime = Math.min(nextAttemptTime, entry.getNextAttemptTime());
+				}
+			}
+
+			if (!dueEntries.isEmpty()) {
+				try (SendEngine<SpoolEntry> sendEngine = new SendEngine<>(connections, entry -> {
+					// Results are kept in the spool queue
+				})) {
+					for (final SpoolEntry entry : dueEntries) {
+						sendEngine.submit(() -> {
+							deliver(entry);
+							return entry;
+						});
+					}
+					sendEngine.finish();
+				}
+			} else if (nextAttemptTime == Long.MAX_VALUE || nextAttemptTime > waitEnd) {
+				return;
+			} else {
+				Thread.sleep(nextAttemptTime - now);
+			}
+		}
+	}
+
+	private void deliver(final SpoolEntry entry) throws IOException {
+		final List<String> recipients = entry.getRecipients();
+		Map<String, SmtpReply> rejectedRecipients;
+		try {
+			rejectedRecipients = send(entry, recipients);
+		} catch (final SmtpRecipientException e) {
+			rejectedRecipients = e.getRejectedRecipients();
+		} catch (final SmtpException e) {
+			if (e.isTransient()) {
+				defer(entry, recipients, e.getMessage());
+			} else {
+				final Map<String, String> permanentlyRejectedRecipients = new LinkedHashMap<>();
+				for (final String recipient : recipients) {
+					permanentlyRejectedRecipients.put(recipient, e.getMessage());
+				}
+				spoolQueue.writeDeadLetter(entry, permanentlyRejectedRecipients);
+				spoolQueue.markDone(entry);
+				deadLetterCount.incrementAndGet();
+			}
+			return;
+		} catch (final MessagingException e) {
+			defer(entry, recipients, e.getMessage());
+			return;
+		}
+
+		final Map<String, String> permanentlyRejectedRecipients = new LinkedHashMap<>();
+		final List<String> temporarilyRejectedRecipients = new ArrayList<>();
+		for (final Entry<String, SmtpReply> rejectedRecipient : rejectedRecipients.entrySet()) {
+			if (rejectedRecipient.getValue().isTransientNegative()) {
+				temporarilyRejectedRecipients.add(rejectedRecipient.getKey());
+			} else {
+				permanentlyRejectedRecipients.put(rejectedRecipient.getKey(), rejectedRecipient.getValue().toString());
+			}
+		}
+		if (!permanentlyRejectedRecipients.isEmpty()) {
+			spoolQueue.writeDeadLetter(entry, permanentlyRejectedRecipients);
+		}
+		if (!temporarilyRejectedRecipients.isEmpty()) {
+			defer(entry, temporarilyRejectedRecipients, "Recipients rejected by SMTP server: " + rejectedRecipients);
+		} else {
+			spoolQueue.markDone(entry);
+			if (permanentlyRejectedRecipients.size() == recipients.size()) {
+				deadLetterCount.incrementAndGet();
+			} else {
+				deliveredCount.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Send the message to all accepted recipients
+	 *
+	 * @return the rejected recipients
+	 */
+	private Map<String, SmtpReply> send(final SpoolEntry entry, final List<String> recipients) throws MessagingException {
+		if (mxDeliverySink != null) {
+			return mxDeliverySink.sendMessage(entry.getEnvelopeFrom(), recipients, outputStream -> spoolQueue.writeContent(entry, outputStream));
+		}
+		try {
+			return connectionPool.sendMessage(relay, settings, entry.getEnvelopeFrom(), recipients, outputStream -> spoolQueue.writeContent(entry, outputStream), true);
+		} catch (final SmtpException e) {
+			throw e;
+		} catch (final MessagingException e) {
+			// Errors without SMTP reply do not depend on the message (e.g. relay is down), so they are always temporary
+			throw new SmtpException(e.getMessage(), null, true, e);
+		}
+	}
+
+	/**
+	 * Schedule the next delivery attempt for the remaining recipients or dead-letter them, if the maximum number of attempts is reached
+	 */
+	private void defer(final SpoolEntry entry, final List<String> remainingRecipients, final String error) throws IOException {
+		final int attempts = entry.getAttempts() + 1;
+		if (attempts >= MAX_ATTEMPTS) {
+			final Map<String, String> expiredRecipients = new LinkedHashMap<>();
+			for (final String recipient : remainingRecipients) {
+				expiredRecipients.put(recipient, "Maximum number of delivery attempts reached: " + error);
+			}
+			spoolQueue.writeDeadLetter(entry, expiredRecipients);
+			spoolQueue.markDone(entry);
+			deadLetterCount.incrementAndGet();
+		} else {
+			final long retryDelay = Math.min(INITIAL_RETRY_DELAY_MILLIS << Math.min(attempts - 1, 30), MAX_RETRY_DELAY_MILLIS);
+			spoolQueue.markDeferred(entry, remainingRecipients, attempts, System.currentTimeMillis() + retryDelay, error);
+		}
+	}
+
+	/**
+	 * Number of messages delivered to all or some of their recipients
+	 */
+	public int getDeliveredCount() {
+		return deliveredCount.get();
+	}
+
+	/**
+	 * Number of messages, which were moved to the dead letter directory for all of their recipients
+	 */
+	public int getDeadLetterCount() {
+		return deadLetterCount.get();
+	}
+}
@@ -0,0 +1,206 @@
+package de.soderer.mailer.utilities.jarinjarloader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Local cache of the jars embedded in an application jar.<br />
+ * The embedded jars are extracted only once into a directory, which is named by the hash of the application jar.
+ * So the classes are loaded from plain jar files instead of being decompressed through the nested jar streams of the application jar on each start.
+ * A new version of the application jar gets a new cache directory. Cache directories of former versions are removed after 30 days without usage.<br />
+ * The hash of the application jar is stored in a file next to the cache directories together with the path, size and modification time of the jar,
+ * so the jar is hashed again only when it was changed.
+ */
+class JarExtractionCache {
+	private static final String COMPLETION_MARKER_FILE_NAME = ".complete";
+	private static final String HASH_FILE_EXTENSION = ".hash";
+	private static final long UNUSED_CACHE_DIRECTORY_MAX_AGE_MILLIS = 30L * 24 * 60 * 60 * 1000;
+
+	private final File cacheBaseDirectory;
+
+	JarExtractionCache(final File cacheBaseDirectory) {
+		this.cacheBaseDirectory = cacheBaseDirectory;
+	}
+
+	/**
+	 * Class path URLs of the extracted embedded jars. The root directory of the application jar ("./") is served by the application jar itself.
+	 *
+	 * @param classPath entries of the application jar from its manifest
+	 */
+	URL[] getClassPathUrls(final File applicationJarFile, final String[] classPath) throws IOException {
+		final File cacheDirectory = new File(cacheBaseDirectory, getBaseName(applicationJarFile.getName()) + "-" + getApplicationJarHash(applicationJarFile));
+		final File completionMarkerFile = new File(cacheDirectory, COMPLETION_MARKER_FILE_NAME);
+		if (completionMarkerFile.exists()) {
+			// Keep the time of the last usage
+			completionMarkerFile.setLastModified(System.currentTimeMillis());
+		} else {
+			extract(applicationJarFile, classPath, cacheDirectory);
+			removeUnusedCacheDirectories(cacheDirectory);
+		}
+
+		final URL[] classPathUrls = new URL[classPath.length];
+		for (int i = 0; i < classPath.length; i++) {
+			final String classPathEntry = classPath[i];
+			if ("./".equals(classPathEntry) || "/".equals(classPathEntry)) {
+				classPathUrls[i] = applicationJarFile.toURI().toURL();
+			} else if (classPathEntry.endsWith("/")) {
+				classPathUrls[i] = URI.create("rsrc:" + classPathEntry).toURL();
+			} else {
+				classPathUrls[i] = new File(cacheDirectory, classPathEntry).toURI().toURL();
+			}
+		}
+		return classPathUrls;
+	}
+
+	/**
+	 * Extract the embedded jars into a temporary directory, which is renamed to the cache directory at last,
+	 * so that concurrently starting processes never use an incomplete cache directory
+	 */
+	private void extract(final File applicationJarFile, final String[] classPath, final File cacheDirectory) throws IOException {
+		Files.createDirectories(cacheBaseDirectory.toPath());
+		final File extractionDirectory = Files.createTempDirectory(cacheBaseDirectory.toPath(), cacheDirectory.getName() + ".tmp").toFile();
+		try {
+			try (ZipFile applicationJar = new ZipFile(applicationJarFile)) {
+				for (final String classPathEntry : classPath) {
+					if (!classPathEntry.endsWith("/")) {
+						final ZipEntry jarEntry = applicationJar.getEntry(classPathEntry);
+						if (jarEntry == null) {
+							throw new IOException("Missing embedded jar '" + classPathEntry + "'");
+						}
+						final File extractedFile = new File(extractionDirectory, classPathEntry);
+						if (!extractedFile.getCanonicalPath().startsWith(extractionDirectory.getCanonicalPath() + File.separator)) {
+							throw new IOException("Invalid embedded jar path '" + classPathEntry + "'");
+						}
+						Files.createDirectories(extractedFile.getParentFile().toPath());
+						try (InputStream inputStream = applicationJar.getInputStream(jarEntry)) {
+							Files.copy(inputStream, extractedFile.toPath());
+						}
+					}
+				}
+			}
+			Files.createFile(new File(extractionDirectory, COMPLETION_MARKER_FILE_NAME).toPath());
+
+			try {
+				Files.move(extractionDirectory.toPath(), cacheDirectory.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (@SuppressWarnings("unused") final FileAlreadyExistsException | AtomicMoveNotSupportedException e) {
+				if (!new File(cacheDirectory, COMPLETION_MARKER_FILE_NAME).exists()) {
+					// Incomplete cache directory of an aborted process
+					deleteDirectory(cacheDirectory);
+					Files.move(extractionDirectory.toPath(), cacheDirectory.toPath());
+				}
+			} catch (final IOException e) {
+				// Another process created the cache directory meanwhile
+				if (!new File(cacheDirectory, COMPLETION_MARKER_FILE_NAME).exists()) {
+					throw e;
+				}
+			}
+		} finally {
+			if (extractionDirectory.exists()) {
+				deleteDirectory(extractionDirectory);
+			}
+		}
+	}
+
+	/**
+	 * Remove the cache directories of former versions of application jars, which were not used for some time.
+	 * Directories, which are still in use, may not be removable on some systems.
+	 */
+	private void removeUnusedCacheDirectories(final File currentCacheDirectory) {
+		final File[] cacheDirectories = cacheBaseDirectory.listFiles();
+		if (cacheDirectories != null) {
+			for (final File cacheDirectory : cacheDirectories) {
+				final File completionMarkerFile = new File(cacheDirectory, COMPLETION_MARKER_FILE_NAME);
+				if (cacheDirectory.isDirectory() && !cacheDirectory.equals(currentCacheDirectory) && completionMarkerFile.exists() && completionMarkerFile.lastModified() < System.currentTimeMillis() - UNUSED_CACHE_DIRECTORY_MAX_AGE_MILLIS) {
+					deleteDirectory(cacheDirectory);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Hash of the application jar, which is taken from the hash file, as long as the path, size and modification time of the jar did not change
+	 */
+	private String getApplicationJarHash(final File applicationJarFile) throws IOException {
+		final BasicFileAttributes attributes = Files.readAttributes(applicationJarFile.toPath(), BasicFileAttributes.class);
+		final String applicationJarPath = applicationJarFile.getAbsolutePath();
+		final String fileState = applicationJarPath + "\n" + attributes.fileKey() + "\n" + attributes.size() + "\n" + attributes.lastModifiedTime().toMillis() + "\n";
+		final File hashFile = new File(cacheBaseDirectory, getBaseName(applicationJarFile.getName()) + "-" + Integer.toHexString(applicationJarPath.hashCode()) + HASH_FILE_EXTENSION);
+		if (hashFile.exists()) {
+			try {
+				final String hashFileContent = new String(Files.readAllBytes(hashFile.toPath()), StandardCharsets.UTF_8);
+				if (hashFileContent.startsWith(fileState) && hashFileContent.length() > fileState.length()) {
+					return hashFileContent.substring(fileState.length()).trim();
+				}
+			} catch (@SuppressWarnings("unused") final IOException e) {
+				// Hash is calculated again
+			}
+		}
+
+		final String hash = getHash(applicationJarFile);
+		try {
+			// Written into a temporary file and renamed, so that concurrently starting processes never read an incomplete hash file
+			Files.createDirectories(cacheBaseDirectory.toPath());
+			final File temporaryHashFile = Files.createTempFile(cacheBaseDirectory.toPath(), hashFile.getName(), ".tmp").toFile();
+			try {
+				Files.write(temporaryHashFile.toPath(), (fileState + hash + "\n").getBytes(StandardCharsets.UTF_8));
+				Files.move(temporaryHashFile.toPath(), hashFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				temporaryHashFile.delete();
+			}
+		} catch (@SuppressWarnings("unused") final IOException e) {
+			// Hash is calculated again on the next start
+		}
+		return hash;
+	}
+
+	private static String getHash(final File file) throws IOException {
+		try {
+			final MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+			try (InputStream inputStream = Files.newInputStream(file.toPath());
+					OutputStream digestOutputStream = new DigestOutputStream(OutputStream.nullOutputStream(), messageDigest)) {
+				inputStream.transferTo(digestOutputStream);
+			}
+			final StringBuilder hash = new StringBuilder();
+			for (final byte hashByte : messageDigest.digest()) {
+				hash.append(String.format("%02x", hashByte));
+			}
+			return hash.toString();
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IOException("Hash algorithm is not available: " + e.getMessage(), e);
+		}
+	}
+
+	private static String getBaseName(final String fileName) {
+		final int extensionIndex = fileName.lastIndexOf('.');
+		return extensionIndex > 0 ? fileName.substring(0, extensionIndex) : fileName;
+	}
+
+	private static void deleteDirectory(final File directory) {
+		final File[] files = directory.listFiles();
+		if (files != null) {
+			for (final File file : files) {
+				if (file.isDirectory()) {
+					deleteDirectory(file);
+				} else {
+					file.delete();
+				}
+			}
+		}
+		directory.delete();
+	}
+}
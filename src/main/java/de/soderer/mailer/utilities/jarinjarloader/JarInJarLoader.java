@@ -1,8 +1,11 @@
 package de.soderer.mailer.utilities.jarinjarloader;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.MalformedURLException;
@@ -14,6 +17,7 @@ import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.Properties;
 import java.util.jar.Attributes;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
@@ -24,6 +28,21 @@ import java.util.zip.ZipFile;
 public class JarInJarLoader {
 	public static final String SYSTEM_PARAMETER_NAME_CURRENT_RUNNING_JAR = "process.jar";
 
+	/**
+	 * Opt-in for the extraction of the embedded jars into a local cache directory:
+	 * "true" for the default directory in the user home or the path of a cache directory
+	 */
+	public static final String SYSTEM_PARAMETER_NAME_EXTRACTION_CACHE = "jarinjar.cache";
+
+	private static final String DEFAULT_EXTRACTION_CACHE_DIRECTORY = ".jarinjarcache";
+
+	/** Index file next to the jar file, which keeps the classpath of jars without attribute "Rsrc-Class-Path" in their manifest */
+	private static final String CLASSPATH_INDEX_FILE_EXTENSION = ".classpath";
+	private static final String CLASSPATH_INDEX_JAR_SIZE = "jar.size";
+	private static final String CLASSPATH_INDEX_JAR_LAST_MODIFIED = "jar.lastModified";
+	private static final String CLASSPATH_INDEX_PLATFORM = "platform";
+	private static final String CLASSPATH_INDEX_CLASSPATH = "classpath";
+
 	private static class ManifestInfo {
 		String mainClass;
 		String[] classPath;
@@ -36,6 +55,7 @@ public class JarInJarLoader {
 	protected static void jarInJarLoaderStart(final String[] args) throws IOException, MalformedURLException,
 	InvocationTargetException, IllegalAccessException, ClassNotFoundException, NoSuchMethodException {
 		// Fill an environment variable with the path of the executed jar file
+		File currentJarFile = null;
 		try {
 			final String currentJarUrlPath = JarInJarLoader.class.getResource(JarInJarLoader.class.getSimpleName() + ".class").toString();
 			if (currentJarUrlPath != null && currentJarUrlPath.length() > 0) {
@@ -44,6 +64,7 @@ public class JarInJarLoader {
 				final File jarFile = new File(jarFilePath);
 				if (jarFile.exists()) {
 					System.getProperties().put(SYSTEM_PARAMETER_NAME_CURRENT_RUNNING_JAR, jarFile.getAbsolutePath());
+					currentJarFile = jarFile;
 				}
 			}
 		} catch (final Exception e) {
@@ -53,13 +74,25 @@ public class JarInJarLoader {
 		final ManifestInfo manifestInfo = getManifestInfo();
 		final ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
 		URL.setURLStreamHandlerFactory(new JarInJarURLStreamHandlerFactory(classLoader));
-		final URL[] classPathUrls = new URL[manifestInfo.classPath.length];
-		for (int i = 0; i < manifestInfo.classPath.length; i++) {
-			final String classPath = manifestInfo.classPath[i];
-			if (classPath.endsWith("/")) {
-				classPathUrls[i] = URI.create("rsrc:" + classPath).toURL();
-			} else {
-				classPathUrls[i] = URI.create("jar:rsrc:" + classPath + "!/").toURL();
+		URL[] classPathUrls = null;
+		final String extractionCacheSetting = System.getProperty(SYSTEM_PARAMETER_NAME_EXTRACTION_CACHE);
+		if (currentJarFile != null && isNotBlank(extractionCacheSetting) && !"false".equalsIgnoreCase(extractionCacheSetting)) {
+			try {
+				final File cacheBaseDirectory = "true".equalsIgnoreCase(extractionCacheSetting) ? new File(System.getProperty("user.home"), DEFAULT_EXTRACTION_CACHE_DIRECTORY) : new File(extractionCacheSetting);
+				classPathUrls = new JarExtractionCache(cacheBaseDirectory).getClassPathUrls(currentJarFile, manifestInfo.classPath);
+			} catch (final Exception e) {
+				System.err.println("Cannot use extraction cache for embedded jars: " + e.getMessage());
+			}
+		}
+		if (classPathUrls == null) {
+			classPathUrls = new URL[manifestInfo.classPath.length];
+			for (int i = 0; i < manifestInfo.classPath.length; i++) {
+				final String classPath = manifestInfo.classPath[i];
+				if (classPath.endsWith("/")) {
+					classPathUrls[i] = URI.create("rsrc:" + classPath).toURL();
+				} else {
+					classPathUrls[i] = URI.create("jar:rsrc:" + classPath + "!/").toURL();
+				}
 			}
 		}
 		final URLClassLoader jceClassLoader = new URLClassLoader(classPathUrls, getParentClassLoader());
@@ -89,47 +122,31 @@ public class JarInJarLoader {
 					final ManifestInfo manifestInfo = new ManifestInfo();
 					final Attributes mainAttributes = new Manifest(inputStream).getMainAttributes();
 					manifestInfo.mainClass = mainAttributes.getValue("Rsrc-Main-Class");
+					if (isBlank(manifestInfo.mainClass)) {
+						// Manifest of another jar in the classpath
+						continue;
+					}
 					String rsrcClassPath = mainAttributes.getValue("Rsrc-Class-Path");
 					if (rsrcClassPath == null) {
-						// find all jar files included in the jar and add them to the classpath
-						rsrcClassPath = "./";
 						String jarFilePath = manifestFileUrl.getFile().substring(0, manifestFileUrl.getPath().indexOf("!/META-INF/MANIFEST.MF"));
 						jarFilePath = URLDecoder.decode(jarFilePath, StandardCharsets.UTF_8);
 						if (jarFilePath.startsWith("file:")) {
 							jarFilePath = jarFilePath.substring(5);
 						}
-						boolean swtFound = false;
-						boolean swtLoaded = false;
-						final String osName = System.getProperty("os.name").toLowerCase();
-						final String osArch = System.getProperty("os.arch").toLowerCase();
-						try {
-							for (final String entryName : getZipFileEntries(new File(jarFilePath))) {
-								if (endsWithIgnoreCase(entryName, ".jar")) {
-									if (entryName.startsWith("swt")) {
-										swtFound = true;
-										if (osArch.contains("64") && osName.contains("win") && entryName.contains("win32") && entryName.contains("x86_64")) {
-											rsrcClassPath += " " + entryName;
-											swtLoaded = true;
-										} else if (osArch.contains("64") && (osName.contains("linux") || osName.contains("nix")) && entryName.contains("linux") && entryName.contains("gtk") && entryName.contains("x86_64")) {
-											rsrcClassPath += " " + entryName;
-											swtLoaded = true;
-										}
-									} else {
-										rsrcClassPath += " " + entryName;
-									}
-								}
+						final File jarFile = new File(jarFilePath);
+						rsrcClassPath = readClassPathIndex(jarFile);
+						if (rsrcClassPath == null) {
+							try {
+								rsrcClassPath = findClassPath(jarFile);
+								writeClassPathIndex(jarFile, rsrcClassPath);
+							} catch (@SuppressWarnings("unused") final IOException e) {
+								// Entries of the jar file are not readable, so the classpath is incomplete and not kept in the index
+								rsrcClassPath = "./";
 							}
-						} catch (final Exception e) {
-							e.printStackTrace();
 						}
-						if (swtFound && !swtLoaded) {
-							throw new Exception("Unsupported OS name or architecture for this SWT application: " + osName + " / " + osArch);
-						}
-					}
-					manifestInfo.classPath = rsrcClassPath.split(" ");
-					if (isNotBlank(manifestInfo.mainClass)) {
-						return manifestInfo;
 					}
+					manifestInfo.classPath = rsrcClassPath.trim().split(" +");
+					return manifestInfo;
 				}
 			} catch (@SuppressWarnings("unused") final Exception e) {
 				// Skip invalid manifest file
@@ -139,6 +156,82 @@ public class JarInJarLoader {
 		return null;
 	}
 
+	/**
+	 * Find all jar files included in the jar and add them to the classpath
+	 *
+	 * @throws IOException if the entries of the jar file cannot be read
+	 */
+	private static String findClassPath(final File jarFile) throws Exception {
+		String rsrcClassPath = "./";
+		boolean swtFound = false;
+		boolean swtLoaded = false;
+		final String osName = System.getProperty("os.name").toLowerCase();
+		final String osArch = System.getProperty("os.arch").toLowerCase();
+		for (final String entryName : getZipFileEntries(jarFile)) {
+			if (endsWithIgnoreCase(entryName, ".jar")) {
+				if (entryName.startsWith("swt")) {
+					swtFound = true;
+					if (osArch.contains("64") && osName.contains("win") && entryName.contains("win32") && entryName.contains("x86_64")) {
+						rsrcClassPath += " " + entryName;
+						swtLoaded = true;
+					} else if (osArch.contains("64") && (osName.contains("linux") || osName.contains("nix")) && entryName.contains("linux") && entryName.contains("gtk") && entryName.contains("x86_64")) {
+						rsrcClassPath += " " + entryName;
+						swtLoaded = true;
+					}
+				} else {
+					rsrcClassPath += " " + entryName;
+				}
+			}
+		}
+		if (swtFound && !swtLoaded) {
+			throw new Exception("Unsupported OS name or architecture for this SWT application: " + osName + " / " + osArch);
+		}
+		return rsrcClassPath;
+	}
+
+	/**
+	 * Read the classpath found by a former start, if the jar file is unchanged since then (same size and modification time)
+	 *
+	 * @return classpath or null if there is no valid index
+	 */
+	private static String readClassPathIndex(final File jarFile) {
+		final File indexFile = new File(jarFile.getAbsolutePath() + CLASSPATH_INDEX_FILE_EXTENSION);
+		if (indexFile.exists()) {
+			try (InputStream inputStream = new FileInputStream(indexFile)) {
+				final Properties index = new Properties();
+				index.load(inputStream);
+				if (Long.toString(jarFile.length()).equals(index.getProperty(CLASSPATH_INDEX_JAR_SIZE))
+						&& Long.toString(jarFile.lastModified()).equals(index.getProperty(CLASSPATH_INDEX_JAR_LAST_MODIFIED))
+						&& (System.getProperty("os.name") + " / " + System.getProperty("os.arch")).equals(index.getProperty(CLASSPATH_INDEX_PLATFORM))
+						&& isNotBlank(index.getProperty(CLASSPATH_INDEX_CLASSPATH))) {
+					return index.getProperty(CLASSPATH_INDEX_CLASSPATH);
+				}
+			} catch (@SuppressWarnings("unused") final Exception e) {
+				// Invalid index file is replaced
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Store the found classpath in an index file next to the jar file for the following starts.
+	 * If the directory of the jar file is not writable, the classpath is searched again on each start.
+	 */
+	private static void writeClassPathIndex(final File jarFile, final String classPath) {
+		final File indexFile = new File(jarFile.getAbsolutePath() + CLASSPATH_INDEX_FILE_EXTENSION);
+		final Properties index = new Properties();
+		index.setProperty(CLASSPATH_INDEX_JAR_SIZE, Long.toString(jarFile.length()));
+		index.setProperty(CLASSPATH_INDEX_JAR_LAST_MODIFIED, Long.toString(jarFile.lastModified()));
+		index.setProperty(CLASSPATH_INDEX_PLATFORM, System.getProperty("os.name") + " / " + System.getProperty("os.arch"));
+		index.setProperty(CLASSPATH_INDEX_CLASSPATH, classPath);
+		try (OutputStream outputStream = new FileOutputStream(indexFile)) {
+			index.store(outputStream, "Classpath index of " + jarFile.getName());
+		} catch (@SuppressWarnings("unused") final Exception e) {
+			// Directory of the jar file is not writable
+			indexFile.delete();
+		}
+	}
+
 	private static boolean isBlank(final String value) {
 		return value == null || value.length() == 0 || value.trim().length() == 0;
 	}
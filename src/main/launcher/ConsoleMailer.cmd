@@ -0,0 +1,22 @@
+@echo off
+rem Launcher of ConsoleMailer, which uses the class data sharing archive (AppCDS) next to the jar for a faster startup.
+rem The JVM accepts the archive only for the jar path it was created for. So after a new installation or a move of the jar
+rem the archive is created again by the first call.
+setlocal
+
+set "APP_JAR=%~dp0@JAR_FILE_NAME@"
+set "CDS_ARCHIVE=%~dp0@CDS_ARCHIVE_FILE_NAME@"
+set "CDS_ARCHIVE_JAR="
+if exist "%CDS_ARCHIVE%.path" set /p CDS_ARCHIVE_JAR=<"%CDS_ARCHIVE%.path"
+
+if exist "%CDS_ARCHIVE%" if "%CDS_ARCHIVE_JAR%"=="%APP_JAR%" (
+	java -XX:SharedArchiveFile="%CDS_ARCHIVE%" -Xlog:cds=off -Xlog:cds+dynamic=off -Djarinjar.cache=true -jar "%APP_JAR%" %*
+	exit /b %ERRORLEVEL%
+)
+
+if exist "%CDS_ARCHIVE%" del /q "%CDS_ARCHIVE%"
+if exist "%CDS_ARCHIVE%.path" del /q "%CDS_ARCHIVE%.path"
+java -XX:ArchiveClassesAtExit="%CDS_ARCHIVE%" -Xlog:cds=off -Xlog:cds+dynamic=off -Djarinjar.cache=true -jar "%APP_JAR%" %*
+set RETURN_CODE=%ERRORLEVEL%
+if exist "%CDS_ARCHIVE%" (<nul set /p "=%APP_JAR%"> "%CDS_ARCHIVE%.path")
+exit /b %RETURN_CODE%
@@ -0,0 +1,22 @@
+#!/bin/sh
+# Launcher of ConsoleMailer, which uses the class data sharing archive (AppCDS) next to the jar for a faster startup.
+# The JVM accepts the archive only for the jar path it was created for. So after a new installation or a move of the jar
+# the archive is created again by the first call.
+
+APP_DIR=$(cd "$(dirname "$0")" && pwd -P)
+APP_JAR="$APP_DIR/@JAR_FILE_NAME@"
+CDS_ARCHIVE="$APP_DIR/@CDS_ARCHIVE_FILE_NAME@"
+
+if [ -f "$CDS_ARCHIVE" ] && [ ! "$APP_JAR" -nt "$CDS_ARCHIVE" ] && [ "$(cat "$CDS_ARCHIVE.path" 2>/dev/null)" = "$APP_JAR" ]; then
+	exec java -XX:SharedArchiveFile="$CDS_ARCHIVE" -Xlog:cds=off -Xlog:cds+dynamic=off -Djarinjar.cache=true -jar "$APP_JAR" "$@"
+elif [ -w "$APP_DIR" ]; then
+	rm -f "$CDS_ARCHIVE" "$CDS_ARCHIVE.path"
+	java -XX:ArchiveClassesAtExit="$CDS_ARCHIVE" -Xlog:cds=off -Xlog:cds+dynamic=off -Djarinjar.cache=true -jar "$APP_JAR" "$@"
+	RETURN_CODE=$?
+	if [ -f "$CDS_ARCHIVE" ]; then
+		printf "%s" "$APP_JAR" > "$CDS_ARCHIVE.path"
+	fi
+	exit $RETURN_CODE
+else
+	exec java -Djarinjar.cache=true -jar "$APP_JAR" "$@"
+fi
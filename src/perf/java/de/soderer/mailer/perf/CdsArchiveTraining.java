@@ -0,0 +1,149 @@
+package de.soderer.mailer.perf;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Creates a dynamic AppCDS archive (class data sharing) of the ConsoleMailer jar by a training send to a local stand-in SMTP server.<br />
+ * The training send uses S/MIME signature and encryption, DKIM, HTML and an attachment, so that the archive contains the classes of jakarta.mail, angus and the crypto code.
+ * BouncyCastle classes are not archived by the JVM, because their jars are signed.<br />
+ * Afterwards the startup times of the same send with and without the archive are compared.<br />
+ * <br />
+ * The JVM accepts the archive only for the jar file path and modification time used for the training.
+ * So the file "&lt;archive&gt;.path" contains the jar file path, which is checked by the launcher scripts.<br />
+ * <br />
+ * Usage: CdsArchiveTraining &lt;jarFile&gt; &lt;archiveFile&gt; [comparisonRuns]
+ */
+public class CdsArchiveTraining {
+	private static final int DEFAULT_COMPARISON_RUNS = 5;
+	private static final String SHARED_CLASS_LOG_MARKER = "source: shared objects file (top)";
+
+	public static void main(final String[] args) throws Exception {
+		if (args.length < 2 || args.length > 3) {
+			System.err.println("Usage: CdsArchiveTraining <jarFile> <archiveFile> [comparisonRuns]");
+			System.exit(1);
+		}
+		final File jarFile = new File(args[0]).getCanonicalFile();
+		final File archiveFile = new File(args[1]).getCanonicalFile();
+		final int comparisonRuns = args.length > 2 && !args[2].isBlank() ? Integer.parseInt(args[2].trim()) : DEFAULT_COMPARISON_RUNS;
+		if (!jarFile.isFile()) {
+			throw new IOException("Jar file '" + jarFile + "' does not exist");
+		} else if (comparisonRuns < 1) {
+			throw new IllegalArgumentException("Invalid number of comparison runs: " + comparisonRuns);
+		}
+
+		final File workDirectory = Files.createTempDirectory("ConsoleMailerCds").toFile();
+		try (StandInSmtpServer smtpServer = new StandInSmtpServer()) {
+			final List<String> sendArguments = createTrainingSendArguments(workDirectory, smtpServer.getPort());
+			final File jarCacheDirectory = new File(workDirectory, "jarinjarcache");
+
+			Files.deleteIfExists(archiveFile.toPath());
+			Files.deleteIfExists(getPathFile(archiveFile).toPath());
+			final List<String> trainingOptions = Arrays.asList("-XX:ArchiveClassesAtExit=" + archiveFile.getAbsolutePath(), "-Xlog:cds=off", "-Xlog:cds+dynamic=off");
+			runTrainingSend(jarFile, jarCacheDirectory, trainingOptions, sendArguments, workDirectory);
+			if (smtpServer.getReceivedMessages() != 1) {
+				throw new Exception("Training send was not received by the stand-in SMTP server");
+			} else if (!archiveFile.exists()) {
+				throw new Exception("CDS archive '" + archiveFile + "' was not created");
+			}
+			Files.write(getPathFile(archiveFile).toPath(), jarFile.getAbsolutePath().getBytes(StandardCharsets.UTF_8));
+			System.out.println("Created CDS archive " + archiveFile + " (" + archiveFile.length() / 1024 + " KB)");
+
+			final List<String> archiveOptions = Collections.singletonList("-XX:SharedArchiveFile=" + archiveFile.getAbsolutePath());
+			final List<Long> durationsWithoutArchive = new ArrayList<>();
+			final List<Long> durationsWithArchive = new ArrayList<>();
+			for (int i = 0; i < comparisonRuns; i++) {
+				// Alternating runs, so that both variants suffer the same from other load on the build machine
+				durationsWithoutArchive.add(runTrainingSend(jarFile, jarCacheDirectory, Collections.singletonList("-Xshare:auto"), sendArguments, workDirectory));
+				durationsWithArchive.add(runTrainingSend(jarFile, jarCacheDirectory, archiveOptions, sendArguments, workDirectory));
+			}
+
+			final List<String> classLoadLogOptions = new ArrayList<>(archiveOptions);
+			classLoadLogOptions.add("-Xlog:class+load=info:file=" + new File(workDirectory, "classload.log").getAbsolutePath());
+			runTrainingSend(jarFile, jarCacheDirectory, classLoadLogOptions, sendArguments, workDirectory);
+			final long sharedClasses = Files.readAllLines(new File(workDirectory, "classload.log").toPath(), StandardCharsets.UTF_8).stream().filter(line -> line.contains(SHARED_CLASS_LOG_MARKER)).count();
+
+			final long medianWithoutArchive = getMedian(durationsWithoutArchive);
+			final long medianWithArchive = getMedian(durationsWithArchive);
+			System.out.println("Startup time comparison of the training send (median of " + comparisonRuns + " runs):");
+			System.out.println("  Without CDS archive: " + medianWithoutArchive + " ms " + durationsWithoutArchive);
+			System.out.println("  With CDS archive:    " + medianWithArchive + " ms " + durationsWithArchive);
+			System.out.println("  Difference:          " + (medianWithArchive - medianWithoutArchive) + " ms (" + (medianWithoutArchive == 0 ? 0 : (medianWithArchive - medianWithoutArchive) * 100 / medianWithoutArchive) + "%)");
+			System.out.println("  Classes loaded from the CDS archive: " + sharedClasses);
+		} finally {
+			PerfUtilities.deleteDirectory(workDirectory);
+		}
+	}
+
+	/**
+	 * File, which contains the path of the jar file, which the archive was created for
+	 */
+	private static File getPathFile(final File archiveFile) {
+		return new File(archiveFile.getParentFile(), archiveFile.getName() + ".path");
+	}
+
+	/**
+	 * Create the throwaway keys, certificate and files of the training send
+	 */
+	private static List<String> createTrainingSendArguments(final File workDirectory, final int smtpPort) throws Exception {
+		final KeyPair keyPair = PerfUtilities.createRsaKeyPair();
+		final X509Certificate certificate = PerfUtilities.createCertificate(keyPair, "CN=ConsoleMailer CDS training, E=sender@example.com");
+
+		final File keyFile = new File(workDirectory, "key.pem");
+		PerfUtilities.writePem(keyFile, "PRIVATE KEY", keyPair.getPrivate().getEncoded());
+		final File certificateFile = new File(workDirectory, "certificate.pem");
+		PerfUtilities.writePem(certificateFile, "CERTIFICATE", certificate.getEncoded());
+		final File attachmentFile = new File(workDirectory, "attachment.txt");
+		final StringBuilder attachmentText = new StringBuilder();
+		for (int i = 0; i < 500; i++) {
+			attachmentText.append("Attachment line ").append(i).append(" of the CDS training send\n");
+		}
+		Files.write(attachmentFile.toPath(), attachmentText.toString().getBytes(StandardCharsets.UTF_8));
+
+		return Arrays.asList(
+				"-host", "127.0.0.1:" + smtpPort,
+				"-from", "sender@example.com",
+				"-to", "receiver@example.com",
+				"-subject", "CDS training send",
+				"-text", "Text content of the CDS training send",
+				"-html", "<html><body><p>HTML content of the CDS training send</p></body></html>",
+				"-attachment", attachmentFile.getAbsolutePath(),
+				"-crypto", "S/MIME",
+				"-signaturekeyfile", keyFile.getAbsolutePath(),
+				"-signaturecertificatefile", certificateFile.getAbsolutePath(),
+				"-encryptioncertificatefile", certificateFile.getAbsolutePath(),
+				"-dkimkeyfile", keyFile.getAbsolutePath(),
+				"-dkimselector", "training",
+				"-noproxydiscovery",
+				"-silent");
+	}
+
+	/**
+	 * Run the training send in a separate JVM
+	 *
+	 * @return duration of the run in milliseconds
+	 */
+	private static long runTrainingSend(final File jarFile, final File jarCacheDirectory, final List<String> jvmOptions, final List<String> sendArguments, final File workDirectory) throws Exception {
+		final long start = System.nanoTime();
+		final int returnCode = PerfUtilities.runConsoleMailer(jarFile, jarCacheDirectory, jvmOptions, sendArguments, workDirectory);
+		final long duration = (System.nanoTime() - start) / 1000000;
+		if (returnCode != 0) {
+			throw new Exception("Training send failed with return code " + returnCode + ":\n" + PerfUtilities.readOutput(workDirectory));
+		}
+		return duration;
+	}
+
+	private static long getMedian(final List<Long> values) {
+		final List<Long> sortedValues = new ArrayList<>(values);
+		Collections.sort(sortedValues);
+		return sortedValues.get(sortedValues.size() / 2);
+	}
+}
@@ -0,0 +1,314 @@
+package de.soderer.mailer.perf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+
+/**
+ * End-to-end throughput and latency measurement of ConsoleMailer batch sends to a local stand-in SMTP server.<br />
+ * For each combination of message size and concurrency (parameter "connections") the jar sends a batch of emails in a separate JVM.
+ * The throughput is measured by the stand-in server from the first MAIL command to the last accepted email, so the JVM startup is not included.
+ * The latencies of the SMTP phases are measured by the stand-in server for each email.<br />
+ * The results are written as JSON, so that runs can be compared over time.<br />
+ * <br />
+ * Usage: EndToEndBenchmark &lt;jarFile&gt; &lt;resultFile&gt; [options]<br />
+ * Options:<br />
+ * -messages &lt;number&gt;: emails per run (default 500)<br />
+ * -concurrency &lt;list&gt;: comma separated numbers of connections (default "1,4,16")<br />
+ * -sizes &lt;list&gt;: comma separated sizes of the email text in bytes (default "1024,102400")<br />
+ * -latency &lt;milliseconds&gt;: delay of each reply of the stand-in server (default 0)<br />
+ * -starttls: connect by STARTTLS<br />
+ * -nopipelining: do not offer PIPELINING<br />
+ * -inject &lt;command&gt;:&lt;everyNth&gt;:&lt;reply&gt;: reply with an error to every n-th command (e.g. "RCPT:50:450 4.2.1 Mailbox busy"), may be used multiple times
+ */
+public class EndToEndBenchmark {
+	private static final double[] PERCENTILES = new double[] { 0.5, 0.99, 0.999 };
+	private static final String[] PERCENTILE_NAMES = new String[] { "p50", "p99", "p999" };
+	private static final String KEYSTORE_PASSWORD = "changeit";
+
+	private int messages = 500;
+	private List<Integer> concurrencyLevels = Arrays.asList(1, 4, 16);
+	private List<Integer> messageSizes = Arrays.asList(1024, 102400);
+	private int replyLatencyMillis = 0;
+	private boolean startTls = false;
+	private boolean pipelining = true;
+	private final List<String> injectedReplies = new ArrayList<>();
+
+	public static void main(final String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("Usage: EndToEndBenchmark <jarFile> <resultFile> [-messages <number>] [-concurrency <list>] [-sizes <list>] [-latency <milliseconds>] [-starttls] [-nopipelining] [-inject <command>:<everyNth>:<reply>]");
+			System.exit(1);
+		}
+		final EndToEndBenchmark benchmark = new EndToEndBenchmark();
+		benchmark.parseOptions(Arrays.asList(args).subList(2, args.length));
+		benchmark.run(new File(args[0]).getCanonicalFile(), new File(args[1]).getAbsoluteFile());
+	}
+
+	private void parseOptions(final List<String> options) {
+		for (int i = 0; i < options.size(); i++) {
+			final String option = options.get(i);
+			if ("-starttls".equalsIgnoreCase(option)) {
+				startTls = true;
+			} else if ("-nopipelining".equalsIgnoreCase(option)) {
+				pipelining = false;
+			} else if (i + 1 >= options.size()) {
+				throw new IllegalArgumentException("Missing value for option " + option);
+			} else {
+				final String value = options.get(++i).trim();
+				if ("-messages".equalsIgnoreCase(option)) {
+					messages = Integer.parseInt(value);
+				} else if ("-concurrency".equalsIgnoreCase(option)) {
+					concurrencyLevels = parseNumberList(value);
+				} else if ("-sizes".equalsIgnoreCase(option)) {
+					messageSizes = parseNumberList(value);
+				} else if ("-latency".equalsIgnoreCase(option)) {
+					replyLatencyMillis = Integer.parseInt(value);
+				} else if ("-inject".equalsIgnoreCase(option)) {
+					if (value.split(":", 3).length != 3) {
+						throw new IllegalArgumentException("Invalid value for option inject: " + value);
+					}
+					injectedReplies.add(value);
+				} else {
+					throw new IllegalArgumentException("Unknown option " + option);
+				}
+			}
+		}
+	}
+
+	private static List<Integer> parseNumberList(final String value) {
+		final List<Integer> numbers = new ArrayList<>();
+		for (final String number : value.split(",")) {
+			numbers.add(Integer.parseInt(number.trim()));
+		}
+		return numbers;
+	}
+
+	private void run(final File jarFile, final File resultFile) throws Exception {
+		if (!jarFile.isFile()) {
+			throw new IOException("Jar file '" + jarFile + "' does not exist");
+		}
+
+		final File workDirectory = Files.createTempDirectory("ConsoleMailerE2e").toFile();
+		try (StandInSmtpServer smtpServer = new StandInSmtpServer()) {
+			smtpServer.setReplyLatencyMillis(replyLatencyMillis);
+			smtpServer.setPipelining(pipelining);
+			for (final String injectedReply : injectedReplies) {
+				final String[] parts = injectedReply.split(":", 3);
+				smtpServer.injectReply(parts[0].trim(), Integer.parseInt(parts[1].trim()), parts[2].trim());
+			}
+
+			final List<String> jvmOptions = new ArrayList<>();
+			if (startTls) {
+				jvmOptions.addAll(setupStartTls(smtpServer, workDirectory));
+			}
+			final File jarCacheDirectory = new File(workDirectory, "jarinjarcache");
+
+			final List<RunResult> runResults = new ArrayList<>();
+			System.out.println(String.format(Locale.ROOT, "%8s %12s %9s %9s %10s   %s", "Size", "Connections", "Accepted", "Injected", "Msgs/sec", "Latency p50 / p99 / p999 in ms (connect | envelope | data | message)"));
+			for (final int messageSize : messageSizes) {
+				final File batchFile = createBatchFile(workDirectory, messageSize);
+				for (final int concurrency : concurrencyLevels) {
+					smtpServer.resetStatistics();
+					final List<String> arguments = new ArrayList<>(Arrays.asList(
+							"-host", "127.0.0.1:" + smtpServer.getPort(),
+							"-from", "sender@example.com",
+							"-subject", "End-to-end benchmark",
+							"-batch", batchFile.getAbsolutePath(),
+							"-connections", Integer.toString(concurrency),
+							"-noproxydiscovery",
+							"-silent"));
+					if (startTls) {
+						arguments.add("-starttls");
+					}
+					final long start = System.nanoTime();
+					final int returnCode = PerfUtilities.runConsoleMailer(jarFile, jarCacheDirectory, jvmOptions, arguments, workDirectory);
+					final long processDurationNanos = System.nanoTime() - start;
+					if (returnCode != 0 && injectedReplies.isEmpty()) {
+						throw new Exception("Batch send failed with return code " + returnCode + ":\n" + PerfUtilities.readOutput(workDirectory));
+					}
+
+					final RunResult runResult = new RunResult(messageSize, concurrency, returnCode, processDurationNanos, smtpServer);
+					runResults.add(runResult);
+					System.out.println(runResult.toTableRow());
+				}
+			}
+
+			writeResults(resultFile, runResults);
+			System.out.println("Results written to " + resultFile);
+		} finally {
+			PerfUtilities.deleteDirectory(workDirectory);
+		}
+	}
+
+	/**
+	 * Create the server key and certificate and a trust store, which the client JVM uses to verify the stand-in server
+	 *
+	 * @return JVM options of the client
+	 */
+	private static List<String> setupStartTls(final StandInSmtpServer smtpServer, final File workDirectory) throws Exception {
+		final KeyPair keyPair = PerfUtilities.createRsaKeyPair();
+		final X509Certificate certificate = PerfUtilities.createCertificate(keyPair, "CN=localhost", "localhost", "127.0.0.1");
+
+		final KeyStore keyStore = KeyStore.getInstance("PKCS12");
+		keyStore.load(null, null);
+		keyStore.setKeyEntry("server", keyPair.getPrivate(), KEYSTORE_PASSWORD.toCharArray(), new Certificate[] { certificate });
+		final KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		keyManagerFactory.init(keyStore, KEYSTORE_PASSWORD.toCharArray());
+		final SSLContext sslContext = SSLContext.getInstance("TLS");
+		sslContext.init(keyManagerFactory.getKeyManagers(), null, null);
+		smtpServer.setStartTlsContext(sslContext);
+
+		final KeyStore trustStore = KeyStore.getInstance("PKCS12");
+		trustStore.load(null, null);
+		trustStore.setCertificateEntry("server", certificate);
+		final File trustStoreFile = new File(workDirectory, "truststore.p12");
+		try (OutputStream trustStoreOutputStream = Files.newOutputStream(trustStoreFile.toPath())) {
+			trustStore.store(trustStoreOutputStream, KEYSTORE_PASSWORD.toCharArray());
+		}
+		return Arrays.asList(
+				"-Djavax.net.ssl.trustStore=" + trustStoreFile.getAbsolutePath(),
+				"-Djavax.net.ssl.trustStoreType=PKCS12",
+				"-Djavax.net.ssl.trustStorePassword=" + KEYSTORE_PASSWORD);
+	}
+
+	/**
+	 * Batch file (JSON lines) with one email per row, each with its own recipient and a text of the given size
+	 */
+	private File createBatchFile(final File workDirectory, final int messageSize) throws IOException {
+		final StringBuilder text = new StringBuilder(messageSize);
+		while (text.length() < messageSize) {
+			text.append("Text of the end-to-end benchmark email with some words per line.\\n");
+		}
+		text.setLength(messageSize);
+		if (text.charAt(text.length() - 1) == '\\') {
+			text.setLength(text.length() - 1);
+		}
+
+		final File batchFile = new File(workDirectory, "batch-" + messageSize + ".jsonl");
+		try (Writer writer = new OutputStreamWriter(Files.newOutputStream(batchFile.toPath()), StandardCharsets.UTF_8)) {
+			for (int i = 0; i < messages; i++) {
+				writer.write("{\"to\": \"receiver" + i + "@example.com\", \"text\": \"" + text + "\"}\n");
+			}
+		}
+		return batchFile;
+	}
+
+	private void writeResults(final File resultFile, final List<RunResult> runResults) throws IOException {
+		final StringBuilder json = new StringBuilder();
+		json.append("{\n");
+		json.append("\t\"timestamp\": \"").append(ZonedDateTime.now().format(DateTimeFormatter.ISO_OFFSET_DATE_TIME)).append("\",\n");
+		json.append("\t\"javaVersion\": \"").append(System.getProperty("java.version")).append("\",\n");
+		json.append("\t\"messagesPerRun\": ").append(messages).append(",\n");
+		json.append("\t\"replyLatencyMillis\": ").append(replyLatencyMillis).append(",\n");
+		json.append("\t\"starttls\": ").append(startTls).append(",\n");
+		json.append("\t\"pipelining\": ").append(pipelining).append(",\n");
+		json.append("\t\"injectedReplies\": [");
+		for (int i = 0; i < injectedReplies.size(); i++) {
+			json.append(i > 0 ? ", " : "").append("\"").append(injectedReplies.get(i).replace("\\", "\\\\").replace("\"", "\\\"")).append("\"");
+		}
+		json.append("],\n");
+		json.append("\t\"runs\": [\n");
+		for (int i = 0; i < runResults.size(); i++) {
+			json.append(runResults.get(i).toJson()).append(i < runResults.size() - 1 ? ",\n" : "\n");
+		}
+		json.append("\t]\n");
+		json.append("}\n");
+		if (resultFile.getParentFile() != null) {
+			Files.createDirectories(resultFile.getParentFile().toPath());
+		}
+		Files.write(resultFile.toPath(), json.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Percentiles of durations in milliseconds by the nearest rank method
+	 */
+	private static double[] getPercentiles(final long[] durationsNanos) {
+		final double[] percentileValues = new double[PERCENTILES.length];
+		if (durationsNanos.length > 0) {
+			final long[] sortedDurations = durationsNanos.clone();
+			Arrays.sort(sortedDurations);
+			for (int i = 0; i < PERCENTILES.length; i++) {
+				final int rank = (int) Math.ceil(PERCENTILES[i] * sortedDurations.length);
+				percentileValues[i] = sortedDurations[Math.max(0, rank - 1)] / 1000000.0;
+			}
+		}
+		return percentileValues;
+	}
+
+	private static class RunResult {
+		private final int messageSize;
+		private final int concurrency;
+		private final int returnCode;
+		private final long processDurationNanos;
+		private final int acceptedMessages;
+		private final int injectedReplyCount;
+		private final double messagesPerSecond;
+		private final List<long[]> phaseDurations = new ArrayList<>();
+
+		private RunResult(final int messageSize, final int concurrency, final int returnCode, final long processDurationNanos, final StandInSmtpServer smtpServer) {
+			this.messageSize = messageSize;
+			this.concurrency = concurrency;
+			this.returnCode = returnCode;
+			this.processDurationNanos = processDurationNanos;
+			acceptedMessages = smtpServer.getReceivedMessages();
+			injectedReplyCount = smtpServer.getInjectedReplyCount();
+			final long sendDurationNanos = smtpServer.getLastMessageEnd() - smtpServer.getFirstMessageStart();
+			messagesPerSecond = acceptedMessages > 0 && sendDurationNanos > 0 ? acceptedMessages * 1000000000.0 / sendDurationNanos : 0;
+			for (final StandInSmtpServer.Phase phase : StandInSmtpServer.Phase.values()) {
+				phaseDurations.add(smtpServer.getPhaseDurations(phase));
+			}
+		}
+
+		private String toTableRow() {
+			final StringBuilder latencies = new StringBuilder();
+			for (final long[] durations : phaseDurations) {
+				final double[] percentileValues = getPercentiles(durations);
+				latencies.append(latencies.length() > 0 ? " | " : "").append(String.format(Locale.ROOT, "%.1f / %.1f / %.1f", percentileValues[0], percentileValues[1], percentileValues[2]));
+			}
+			return String.format(Locale.ROOT, "%8d %12d %9d %9d %10.1f   %s", messageSize, concurrency, acceptedMessages, injectedReplyCount, messagesPerSecond, latencies);
+		}
+
+		private String toJson() {
+			final StringBuilder json = new StringBuilder();
+			json.append("\t\t{\n");
+			json.append("\t\t\t\"messageSize\": ").append(messageSize).append(",\n");
+			json.append("\t\t\t\"concurrency\": ").append(concurrency).append(",\n");
+			json.append("\t\t\t\"returnCode\": ").append(returnCode).append(",\n");
+			json.append("\t\t\t\"processDurationMillis\": ").append(processDurationNanos / 1000000).append(",\n");
+			json.append("\t\t\t\"acceptedMessages\": ").append(acceptedMessages).append(",\n");
+			json.append("\t\t\t\"injectedReplies\": ").append(injectedReplyCount).append(",\n");
+			json.append("\t\t\t\"messagesPerSecond\": ").append(String.format(Locale.ROOT, "%.2f", messagesPerSecond)).append(",\n");
+			json.append("\t\t\t\"latencyMillis\": {\n");
+			final StandInSmtpServer.Phase[] phases = StandInSmtpServer.Phase.values();
+			for (int i = 0; i < phases.length; i++) {
+				final long[] durations = phaseDurations.get(i);
+				final double[] percentileValues = getPercentiles(durations);
+				json.append("\t\t\t\t\"").append(phases[i].name().toLowerCase(Locale.ROOT)).append("\": { \"count\": ").append(durations.length);
+				for (int j = 0; j < PERCENTILES.length; j++) {
+					json.append(", \"").append(PERCENTILE_NAMES[j]).append("\": ").append(String.format(Locale.ROOT, "%.3f", percentileValues[j]));
+				}
+				json.append(" }").append(i < phases.length - 1 ? ",\n" : "\n");
+			}
+			json.append("\t\t\t}\n");
+			json.append("\t\t}");
+			return json.toString();
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package de.soderer.mailer.perf;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+
+/**
+ * Throwaway keys and certificates and the execution of the ConsoleMailer jar for the performance tools
+ */
+class PerfUtilities {
+	private PerfUtilities() {
+		// Only static methods
+	}
+
+	static KeyPair createRsaKeyPair() throws Exception {
+		final KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance("RSA");
+		keyPairGenerator.initialize(2048);
+		return keyPairGenerator.generateKeyPair();
+	}
+
+	/**
+	 * Self signed certificate, which is valid for one day
+	 *
+	 * @param subjectAlternativeNames optional DNS names and IP addresses (e.g. of the stand-in SMTP server for STARTTLS)
+	 */
+	static X509Certificate createCertificate(final KeyPair keyPair, final String subjectName, final String... subjectAlternativeNames) throws Exception {
+		final X500Name subject = new X500Name(subjectName);
+		final X509v3CertificateBuilder certificateBuilder = new JcaX509v3CertificateBuilder(
+				subject,
+				BigInteger.valueOf(System.currentTimeMillis()),
+				new Date(System.currentTimeMillis() - 60 * 60 * 1000),
+				new Date(System.currentTimeMillis() + 24 * 60 * 60 * 1000),
+				subject,
+				keyPair.getPublic());
+		if (subjectAlternativeNames.length > 0) {
+			final GeneralName[] generalNames = new GeneralName[subjectAlternativeNames.length];
+			for (int i = 0; i < subjectAlternativeNames.length; i++) {
+				final boolean isIpAddress = subjectAlternativeNames[i].matches("[0-9.]+") || subjectAlternativeNames[i].contains(":");
+				generalNames[i] = new GeneralName(isIpAddress ? GeneralName.iPAddress : GeneralName.dNSName, subjectAlternativeNames[i]);
+			}
+			certificateBuilder.addExtension(Extension.subjectAlternativeName, false, new GeneralNames(generalNames));
+		}
+		return new JcaX509CertificateConverter().getCertificate(certificateBuilder.build(new JcaContentSignerBuilder("SHA256withRSA").build(keyPair.getPrivate())));
+	}
+
+	static void writePem(final File pemFile, final String type, final byte[] data) throws IOException {
+		final String pem = "-----BEGIN " + type + "-----\n"
+				+ Base64.getMimeEncoder(64, new byte[] { '\n' }).encodeToString(data) + "\n"
+				+ "-----END " + type + "-----\n";
+		Files.write(pemFile.toPath(), pem.getBytes(StandardCharsets.US_ASCII));
+	}
+
+	/**
+	 * Run the jar in a separate JVM like the launcher scripts do.<br />
+	 * The output of the run is kept in the file "output.txt" of the work directory.
+	 *
+	 * @return return code of the run
+	 */
+	static int runConsoleMailer(final File jarFile, final File jarCacheDirectory, final List<String> jvmOptions, final List<String> arguments, final File workDirectory) throws Exception {
+		final List<String> command = new ArrayList<>();
+		command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getAbsolutePath());
+		command.addAll(jvmOptions);
+		command.add("-Djarinjar.cache=" + jarCacheDirectory.getAbsolutePath());
+		command.add("-jar");
+		command.add(jarFile.getAbsolutePath());
+		command.addAll(arguments);
+
+		final Process process = new ProcessBuilder(command).directory(workDirectory).redirectErrorStream(true).redirectOutput(getOutputFile(workDirectory)).start();
+		return process.waitFor();
+	}
+
+	static String readOutput(final File workDirectory) throws IOException {
+		return new String(Files.readAllBytes(getOutputFile(workDirectory).toPath()), StandardCharsets.UTF_8);
+	}
+
+	private static File getOutputFile(final File workDirectory) {
+		return new File(workDirectory, "output.txt");
+	}
+
+	static void deleteDirectory(final File directory) {
+		final File[] files = directory.listFiles();
+		if (files != null) {
+			for (final File file : files) {
+				if (file.isDirectory()) {
+					deleteDirectory(file);
+				} else {
+					file.delete();
+				}
+			}
+		}
+		directory.delete();
+	}
+}
@@ -0,0 +1,435 @@
+package de.soderer.mailer.perf;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+
+/**
+ * Local stand-in for an SMTP relay, which accepts and discards all emails.<br />
+ * Used for training and measurement runs of ConsoleMailer without any real mail server.
+ * The server optionally delays each reply, offers STARTTLS and PIPELINING and replies with injected temporary or permanent errors.<br />
+ * The durations of the phases of each SMTP transaction are recorded as seen by the server.
+ * For tests the server optionally records the received commands and email data and drops connections.
+ */
+public class StandInSmtpServer implements Closeable {
+	/** Injected "reply", which closes the connection without any reply */
+	public static final String DROP_CONNECTION = "DROP_CONNECTION";
+
+	/**
+	 * Phases of the SMTP transactions, whose durations are recorded
+	 */
+	public enum Phase {
+		/** From the accepted connection to the first MAIL command (greeting, EHLO, STARTTLS, AUTH) */
+		CONNECT,
+
+		/** From the MAIL command to the DATA command (MAIL, RCPT) */
+		ENVELOPE,
+
+		/** From the DATA reply to the end of the email data */
+		DATA,
+
+		/** From the MAIL command to the final reply for the email data */
+		MESSAGE
+	}
+
+	private final ServerSocket serverSocket;
+	private final AtomicInteger receivedMessages = new AtomicInteger();
+	private final AtomicInteger acceptedConnections = new AtomicInteger();
+	private final Queue<Socket> openSockets = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger injectedReplyCount = new AtomicInteger();
+	private final AtomicInteger pipelinedCommandCount = new AtomicInteger();
+	private final AtomicLong firstMessageStart = new AtomicLong(Long.MAX_VALUE);
+	private final AtomicLong lastMessageEnd = new AtomicLong(Long.MIN_VALUE);
+	private final Map<Phase, Queue<Long>> phaseDurations = new EnumMap<>(Phase.class);
+	private final List<InjectedReply> injectedReplies = new CopyOnWriteArrayList<>();
+	private volatile int replyLatencyMillis = 0;
+	private volatile boolean pipelining = true;
+	private volatile SSLContext startTlsContext = null;
+	private volatile boolean recordTranscript = false;
+	private volatile boolean unresponsive = false;
+	private final Queue<String> receivedCommands = new ConcurrentLinkedQueue<>();
+	private final Queue<String> receivedMessageData = new ConcurrentLinkedQueue<>();
+
+	public StandInSmtpServer() throws IOException {
+		for (final Phase phase : Phase.values()) {
+			phaseDurations.put(phase, new ConcurrentLinkedQueue<>());
+		}
+		serverSocket = new ServerSocket(0, 200, InetAddress.getLoopbackAddress());
+		final Thread acceptThread = new Thread(this::acceptClients, "StandInSmtpServer");
+		acceptThread.setDaemon(true);
+		acceptThread.start();
+	}
+
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/**
+	 * Delay each reply like a remote or busy SMTP server
+	 */
+	public void setReplyLatencyMillis(final int replyLatencyMillis) {
+		this.replyLatencyMillis = replyLatencyMillis;
+	}
+
+	/**
+	 * Offer the PIPELINING extension (RFC 2920), which is the default
+	 */
+	public void setPipelining(final boolean pipelining) {
+		this.pipelining = pipelining;
+	}
+
+	/**
+	 * Offer the STARTTLS extension with the key and certificate of the SSL context or null to offer no STARTTLS
+	 */
+	public void setStartTlsContext(final SSLContext startTlsContext) {
+		this.startTlsContext = startTlsContext;
+	}
+
+	/**
+	 * Offer the STARTTLS extension with a throwaway self signed certificate for "localhost", which no client trusts by default
+	 */
+	public void setSelfSignedStartTls() throws Exception {
+		final KeyPair keyPair = PerfUtilities.createRsaKeyPair();
+		final KeyStore keyStore = KeyStore.getInstance("PKCS12");
+		keyStore.load(null, null);
+		keyStore.setKeyEntry("server", keyPair.getPrivate(), new char[0], new Certificate[] { PerfUtilities.createCertificate(keyPair, "CN=localhost", "localhost", "127.0.0.1") });
+		final KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		keyManagerFactory.init(keyStore, new char[0]);
+		final SSLContext sslContext = SSLContext.getInstance("TLS");
+		sslContext.init(keyManagerFactory.getKeyManagers(), null, null);
+		setStartTlsContext(sslContext);
+	}
+
+	/**
+	 * Accept connections, but never send any reply like a hung SMTP server
+	 */
+	public void setUnresponsive(final boolean unresponsive) {
+		this.unresponsive = unresponsive;
+	}
+
+	/**
+	 * Record the received commands and email data, which are discarded by default
+	 */
+	public void setRecordTranscript(final boolean recordTranscript) {
+		this.recordTranscript = recordTranscript;
+	}
+
+	/**
+	 * Recorded command lines of all connections in their order of receipt since the last reset
+	 */
+	public List<String> getReceivedCommands() {
+		return new ArrayList<>(receivedCommands);
+	}
+
+	/**
+	 * Recorded data of the accepted emails since the last reset
+	 */
+	public List<String> getReceivedMessageData() {
+		return new ArrayList<>(receivedMessageData);
+	}
+
+	/**
+	 * Reply with an error instead of the usual reply to every n-th command
+	 *
+	 * @param command "MAIL", "RCPT", "DATA" or "MESSAGE" for the final reply after the email data
+	 * @param reply reply line like "450 4.2.1 Mailbox busy" or {@link #DROP_CONNECTION}
+	 */
+	public void injectReply(final String command, final int everyNth, final String reply) {
+		injectedReplies.add(new InjectedReply(command.toUpperCase(Locale.ROOT), everyNth, reply));
+	}
+
+	/**
+	 * Number of emails, which were accepted after their DATA
+	 */
+	public int getReceivedMessages() {
+		return receivedMessages.get();
+	}
+
+	/**
+	 * Number of connections accepted since the last reset
+	 */
+	public int getAcceptedConnections() {
+		return acceptedConnections.get();
+	}
+
+	/**
+	 * Close all open client connections like a server, which closes idle connections after its timeout
+	 */
+	public void closeOpenConnections() {
+		Socket socket;
+		while ((socket = openSockets.poll()) != null) {
+			try {
+				socket.close();
+			} catch (@SuppressWarnings("unused") final IOException e) {
+				// Do nothing
+			}
+		}
+	}
+
+	/**
+	 * Number of injected error replies
+	 */
+	public int getInjectedReplyCount() {
+		return injectedReplyCount.get();
+	}
+
+	/**
+	 * Number of commands, which were received together with further commands before their reply was sent (PIPELINING)
+	 */
+	public int getPipelinedCommandCount() {
+		return pipelinedCommandCount.get();
+	}
+
+	/**
+	 * Time (System.nanoTime) of the first MAIL command since the last reset
+	 */
+	public long getFirstMessageStart() {
+		return firstMessageStart.get();
+	}
+
+	/**
+	 * Time (System.nanoTime) of the last final reply for email data since the last reset
+	 */
+	public long getLastMessageEnd() {
+		return lastMessageEnd.get();
+	}
+
+	/**
+	 * Recorded durations of a phase in nanoseconds since the last reset
+	 */
+	public long[] getPhaseDurations(final Phase phase) {
+		return phaseDurations.get(phase).stream().mapToLong(Long::longValue).toArray();
+	}
+
+	/**
+	 * Reset all counters and recorded durations, e.g. before the next measurement run
+	 */
+	public void resetStatistics() {
+		receivedMessages.set(0);
+		acceptedConnections.set(0);
+		injectedReplyCount.set(0);
+		pipelinedCommandCount.set(0);
+		firstMessageStart.set(Long.MAX_VALUE);
+		lastMessageEnd.set(Long.MIN_VALUE);
+		receivedCommands.clear();
+		receivedMessageData.clear();
+		for (final Queue<Long> durations : phaseDurations.values()) {
+			durations.clear();
+		}
+		for (final InjectedReply injectedReply : injectedReplies) {
+			injectedReply.commandCount.set(0);
+		}
+	}
+
+	private void acceptClients() {
+		try {
+			while (!serverSocket.isClosed()) {
+				final Socket clientSocket = serverSocket.accept();
+				acceptedConnections.incrementAndGet();
+				openSockets.add(clientSocket);
+				final Thread sessionThread = new Thread(() -> serveClient(clientSocket), "StandInSmtpServer session");
+				sessionThread.setDaemon(true);
+				sessionThread.start();
+			}
+		} catch (@SuppressWarnings("unused") final SocketException e) {
+			// Server socket was closed
+		} catch (final IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	private void serveClient(final Socket clientSocket) {
+		final long connectionStart = System.nanoTime();
+		Socket socket = clientSocket;
+		try {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+			OutputStream outputStream = socket.getOutputStream();
+			if (unresponsive) {
+				// Wait for the client to give up
+				while (reader.read() >= 0) {
+					// Discard all received data
+				}
+				return;
+			}
+			reply(outputStream, "220 localhost Stand-in SMTP server ready");
+			boolean firstTransaction = true;
+			long transactionStart = 0;
+			int acceptedRecipients = 0;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				final int spaceIndex = line.indexOf(' ');
+				final String command = (spaceIndex < 0 ? line : line.substring(0, spaceIndex)).toUpperCase(Locale.ROOT);
+				if (recordTranscript) {
+					receivedCommands.add(line);
+				}
+				if (reader.ready()) {
+					pipelinedCommandCount.incrementAndGet();
+				}
+				if ("MAIL".equals(command)) {
+					transactionStart = System.nanoTime();
+					firstMessageStart.accumulateAndGet(transactionStart, Math::min);
+					if (firstTransaction) {
+						phaseDurations.get(Phase.CONNECT).add(transactionStart - connectionStart);
+						firstTransaction = false;
+					}
+					acceptedRecipients = 0;
+				}
+
+				final String injectedReply = getInjectedReply(command);
+				if (DROP_CONNECTION.equals(injectedReply)) {
+					return;
+				} else if (injectedReply != null) {
+					reply(outputStream, injectedReply);
+					continue;
+				}
+
+				switch (command) {
+					case "EHLO":
+						reply(outputStream, "250-localhost\r\n"
+								+ (pipelining ? "250-PIPELINING\r\n" : "")
+								+ (startTlsContext != null && !(socket instanceof SSLSocket) ? "250-STARTTLS\r\n" : "")
+								+ "250-8BITMIME\r\n"
+								+ "250 SIZE 0");
+						break;
+					case "STARTTLS":
+						if (startTlsContext == null || socket instanceof SSLSocket) {
+							reply(outputStream, "502 5.5.1 Command not implemented");
+						} else {
+							reply(outputStream, "220 2.0.0 Ready to start TLS");
+							final SSLSocket sslSocket = (SSLSocket) startTlsContext.getSocketFactory().createSocket(socket, socket.getInetAddress().getHostAddress(), socket.getPort(), true);
+							sslSocket.setUseClientMode(false);
+							sslSocket.startHandshake();
+							socket = sslSocket;
+							reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+							outputStream = socket.getOutputStream();
+						}
+						break;
+					case "RCPT":
+						acceptedRecipients++;
+						reply(outputStream, "250 2.1.5 OK");
+						break;
+					case "DATA":
+						if (acceptedRecipients == 0) {
+							reply(outputStream, "554 5.5.1 No valid recipients");
+							break;
+						}
+						phaseDurations.get(Phase.ENVELOPE).add(System.nanoTime() - transactionStart);
+						reply(outputStream, "354 End data with <CR><LF>.<CR><LF>");
+						final long dataStart = System.nanoTime();
+						final StringBuilder messageData = recordTranscript ? new StringBuilder() : null;
+						while ((line = reader.readLine()) != null && !".".equals(line)) {
+							if (messageData != null) {
+								messageData.append(line.startsWith(".") ? line.substring(1) : line).append("\r\n");
+							}
+						}
+						if (line == null) {
+							// Connection was closed by the client without the terminating ".", which discards the email
+							return;
+						}
+						phaseDurations.get(Phase.DATA).add(System.nanoTime() - dataStart);
+						final String injectedMessageReply = getInjectedReply("MESSAGE");
+						if (DROP_CONNECTION.equals(injectedMessageReply)) {
+							return;
+						} else if (injectedMessageReply != null) {
+							reply(outputStream, injectedMessageReply);
+						} else {
+							receivedMessages.incrementAndGet();
+							if (messageData != null) {
+								receivedMessageData.add(messageData.toString());
+							}
+							reply(outputStream, "250 2.0.0 OK queued");
+						}
+						final long messageEnd = System.nanoTime();
+						phaseDurations.get(Phase.MESSAGE).add(messageEnd - transactionStart);
+						lastMessageEnd.accumulateAndGet(messageEnd, Math::max);
+						break;
+					case "HELO":
+					case "MAIL":
+					case "RSET":
+					case "NOOP":
+						reply(outputStream, "250 2.0.0 OK");
+						break;
+					case "QUIT":
+						reply(outputStream, "221 2.0.0 Bye");
+						return;
+					default:
+						reply(outputStream, "502 5.5.1 Command not implemented");
+						break;
+				}
+			}
+		} catch (@SuppressWarnings("unused") final IOException e) {
+			// Connection was broken by the client
+		} finally {
+			openSockets.remove(clientSocket);
+			try {
+				socket.close();
+			} catch (@SuppressWarnings("unused") final IOException e) {
+				// Do nothing
+			}
+		}
+	}
+
+	private String getInjectedReply(final String command) {
+		for (final InjectedReply injectedReply : injectedReplies) {
+			if (injectedReply.command.equals(command) && injectedReply.commandCount.incrementAndGet() % injectedReply.everyNth == 0) {
+				injectedReplyCount.incrementAndGet();
+				return injectedReply.reply;
+			}
+		}
+		return null;
+	}
+
+	private void reply(final OutputStream outputStream, final String reply) throws IOException {
+		if (replyLatencyMillis > 0) {
+			try {
+				Thread.sleep(replyLatencyMillis);
+			} catch (@SuppressWarnings("unused") final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		outputStream.write((reply + "\r\n").getBytes(StandardCharsets.US_ASCII));
+		outputStream.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		serverSocket.close();
+	}
+
+	private static class InjectedReply {
+		private final String command;
+		private final int everyNth;
+		private final String reply;
+		private final AtomicInteger commandCount = new AtomicInteger();
+
+		private InjectedReply(final String command, final int everyNth, final String reply) {
+			this.command = command;
+			this.everyNth = everyNth;
+			this.reply = reply;
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package de.soderer.mailer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Parsing of CSV and JSONL batch files by the BatchFileReader
+ */
+public class BatchFileReaderTest {
+	private static final byte[] UTF8_BOM = new byte[] { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF };
+
+	@TempDir
+	Path temporaryDirectory;
+
+	@Test
+	public void testCsvWithQuotedValues() throws Exception {
+		final List<BatchEntry> entries = readAll(createFile("batch.csv", false,
+				"to,subject,text\r\n"
+						+ "first@example.com,\"Subject, with comma\",\"Text with \"\"quotes\"\"\r\nand a second line\"\r\n"
+						+ "\r\n"
+						+ "second@example.com,Second,\r\n"));
+
+		assertEquals(2, entries.size());
+		assertEquals(1, entries.get(0).getRowNumber());
+		assertEquals("first@example.com", entries.get(0).getValue(BatchEntry.TO));
+		assertEquals("Subject, with comma", entries.get(0).getValue(BatchEntry.SUBJECT));
+		assertEquals("Text with \"quotes\"\nand a second line", entries.get(0).getValue(BatchEntry.TEXT));
+		// Empty lines are skipped without a row number
+		assertEquals(2, entries.get(1).getRowNumber());
+		assertEquals("", entries.get(1).getValue(BatchEntry.TEXT));
+	}
+
+	@Test
+	public void testCsvSeparatorDetectionAndBom() throws Exception {
+		for (final String separator : Arrays.asList(";", "\t")) {
+			final List<BatchEntry> entries = readAll(createFile("batch" + (separator.equals(";") ? ".csv" : ".tsv"), true,
+					"To" + separator + "Subject\r\n"
+							+ "first@example.com" + separator + "First, with comma\r\n"));
+
+			assertEquals(1, entries.size());
+			// Column names are not mangled by the BOM and are case insensitive
+			assertEquals(Arrays.asList("to", "subject"), new ArrayList<>(entries.get(0).getValues().keySet()));
+			assertEquals("first@example.com", entries.get(0).getValue(BatchEntry.TO));
+			assertEquals("First, with comma", entries.get(0).getValue(BatchEntry.SUBJECT));
+		}
+	}
+
+	@Test
+	public void testCsvWithInvalidNumberOfValues() throws Exception {
+		final File batchFile = createFile("batch.csv", false, "to,subject\nfirst@example.com,First\nsecond@example.com\n");
+		try (BatchFileReader batchFileReader = new BatchFileReader(batchFile, StandardCharsets.UTF_8)) {
+			assertEquals(1, batchFileReader.readNextEntry().getRowNumber());
+			final BatchFileException exception = assertThrows(BatchFileException.class, batchFileReader::readNextEntry);
+			assertTrue(exception.getMessage().startsWith("Invalid number of values in batch file line 3"));
+		}
+	}
+
+	@Test
+	public void testJsonLinesWithBom() throws Exception {
+		final List<BatchEntry> entries = readAll(createFile("batch.jsonl", true,
+				"{\"to\": [\"first@example.com\", \"second@example.com\"], \"Subject\": \"First\", \"count\": 3}\n"
+						+ "\n"
+						+ "{\"to\": \"third@example.com\", \"subject\": null}\n"));
+
+		assertEquals(2, entries.size());
+		assertEquals(1, entries.get(0).getRowNumber());
+		assertEquals("first@example.com, second@example.com", entries.get(0).getValue(BatchEntry.TO));
+		assertEquals("First", entries.get(0).getValue(BatchEntry.SUBJECT));
+		assertEquals("3", entries.get(0).getValue("count"));
+		assertEquals(2, entries.get(1).getRowNumber());
+		assertNull(entries.get(1).getValue(BatchEntry.SUBJECT));
+	}
+
+	@Test
+	public void testJsonLinesWithNestedObject() throws Exception {
+		final File batchFile = createFile("batch.jsonl", false, "{\"to\": \"first@example.com\"}\n{\"to\": {\"address\": \"second@example.com\"}}\n");
+		try (BatchFileReader batchFileReader = new BatchFileReader(batchFile, StandardCharsets.UTF_8)) {
+			batchFileReader.readNextEntry();
+			final BatchFileException exception = assertThrows(BatchFileException.class, batchFileReader::readNextEntry);
+			assertEquals("Invalid JSON in batch file line 2: Unsupported nested value of key 'to'", exception.getMessage());
+		}
+	}
+
+	private File createFile(final String fileName, final boolean withBom, final String content) throws Exception {
+		final File batchFile = temporaryDirectory.resolve(fileName).toFile();
+		final byte[] contentBytes = content.getBytes(StandardCharsets.UTF_8);
+		final byte[] fileBytes = new byte[(withBom ? UTF8_BOM.length : 0) + contentBytes.length];
+		if (withBom) {
+			System.arraycopy(UTF8_BOM, 0, fileBytes, 0, UTF8_BOM.length);
+		}
+		System.arraycopy(contentBytes, 0, fileBytes, fileBytes.length - contentBytes.length, contentBytes.length);
+		Files.write(batchFile.toPath(), fileBytes);
+		return batchFile;
+	}
+
+	private static List<BatchEntry> readAll(final File batchFile) throws Exception {
+		final List<BatchEntry> entries = new ArrayList<>();
+		try (BatchFileReader batchFileReader = new BatchFileReader(batchFile, StandardCharsets.UTF_8)) {
+			BatchEntry batchEntry;
+			while ((batchEntry = batchFileReader.readNextEntry()) != null) {
+				entries.add(batchEntry);
+			}
+		}
+		return entries;
+	}
+}
@@ -0,0 +1,61 @@
+package de.soderer.mailer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import de.soderer.utilities.ParameterException;
+
+/**
+ * Parameter checks of the SMTP listener
+ */
+public class MailParametersTest {
+	@Test
+	public void testListenDefaultsToLoopback() throws Exception {
+		final MailParameters mailParameters = parse("-host", "relay.example.com", "-listen", "2525");
+		mailParameters.checkParameters();
+		assertTrue(mailParameters.getListenAddress().getAddress().isLoopbackAddress());
+		assertEquals(2525, mailParameters.getListenAddress().getPort());
+	}
+
+	@Test
+	public void testListenOnNonLoopbackAddressNeedsOptIn() throws Exception {
+		final MailParameters mailParameters = parse("-host", "relay.example.com", "-listen", "0.0.0.0:2525");
+		final ParameterException exception = assertThrows(ParameterException.class, mailParameters::checkParameters);
+		assertEquals("Parameter listen with the non-loopback address 0.0.0.0 needs parameter listenremote", exception.getMessage());
+
+		parse("-host", "relay.example.com", "-listen", "0.0.0.0:2525", "-listenremote").checkParameters();
+	}
+
+	@Test
+	public void testListenRemoteNeedsListen() throws Exception {
+		final MailParameters mailParameters = parse("-host", "relay.example.com", "-from", "sender@example.com", "-subject", "Test", "-to", "recipient@example.com", "-listenremote");
+		assertThrows(ParameterException.class, mailParameters::checkParameters);
+	}
+
+	@Test
+	public void testConnectionTimeouts() throws Exception {
+		final MailParameters defaultParameters = parse("-host", "relay.example.com", "-from", "sender@example.com", "-subject", "Test", "-to", "recipient@example.com");
+		defaultParameters.checkParameters();
+		assertEquals(30 * 1000, defaultParameters.createConnectionSettings().getConnectTimeoutMillis());
+		assertEquals(5 * 60 * 1000, defaultParameters.createConnectionSettings().getReadTimeoutMillis());
+
+		final MailParameters mailParameters = parse("-host", "relay.example.com", "-from", "sender@example.com", "-subject", "Test", "-to", "recipient@example.com", "-connecttimeout", "5", "-readtimeout", "60");
+		mailParameters.checkParameters();
+		assertEquals(5 * 1000, mailParameters.createConnectionSettings().getConnectTimeoutMillis());
+		assertEquals(60 * 1000, mailParameters.createConnectionSettings().getReadTimeoutMillis());
+
+		assertThrows(ParameterException.class, () -> parse("-host", "relay.example.com", "-readtimeout", "0"));
+	}
+
+	private static MailParameters parse(final String... arguments) throws Exception {
+		final MailParameters mailParameters = new MailParameters();
+		mailParameters.parseArguments(new ArrayList<>(Arrays.asList(arguments)));
+		return mailParameters;
+	}
+}
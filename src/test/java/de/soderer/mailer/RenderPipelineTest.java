@@ -0,0 +1,60 @@
+package de.soderer.mailer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.Test;
+
+import de.soderer.mailer.smtp.SmtpMessageSink;
+
+/**
+ * Rendering and sending of emails by the RenderPipeline
+ */
+public class RenderPipelineTest {
+	@Test
+	public void testSmallAndLargeMessagesAreSentInOrder() throws Exception {
+		final Map<String, byte[]> sentMessages = new ConcurrentHashMap<>();
+		final SmtpMessageSink downstreamSink = (envelopeFrom, recipients, messageWriter) -> {
+			final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+			try {
+				messageWriter.writeTo(outputStream);
+			} catch (final Exception e) {
+				throw new RuntimeException(e);
+			}
+			sentMessages.put(recipients.get(0), outputStream.toByteArray());
+		};
+
+		final List<byte[]> messages = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			// Every other email is larger than the maximum size of a rendered email in memory
+			final byte[] message = ("Subject: Email " + i + "\r\n\r\n" + "Text line\r\n".repeat(i % 2 == 0 ? 10 : 50000)).getBytes(StandardCharsets.US_ASCII);
+			messages.add(message);
+		}
+
+		final List<SendResult> sendResults = new ArrayList<>();
+		try (RenderPipeline renderPipeline = new RenderPipeline(4, 2, downstreamSink, sendResults::add)) {
+			for (int i = 0; i < messages.size(); i++) {
+				final byte[] message = messages.get(i);
+				final String recipient = "recipient" + i + "@example.com";
+				renderPipeline.submit(i + 1, recipient, () -> renderPipeline.acceptMessage("sender@example.com", Arrays.asList(recipient), outputStream -> outputStream.write(message)));
+			}
+			renderPipeline.finish();
+		}
+
+		assertEquals(messages.size(), sendResults.size());
+		for (int i = 0; i < messages.size(); i++) {
+			assertEquals(i + 1, sendResults.get(i).getRowNumber());
+			assertNull(sendResults.get(i).getError());
+			assertArrayEquals(messages.get(i), sentMessages.get("recipient" + i + "@example.com"));
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package de.soderer.mailer.daemon;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Concurrent jobs and the private socket directory of the MailerDaemon
+ */
+public class MailerDaemonTest {
+	@TempDir
+	Path temporaryDirectory;
+
+	@Test
+	public void testJobsRunConcurrentlyWithOwnOutput() throws Exception {
+		final File socketFile = temporaryDirectory.resolve("daemon").resolve("daemon.socket").toFile();
+		final CountDownLatch bothJobsStarted = new CountDownLatch(2);
+		final ExecutorService clientExecutor = Executors.newFixedThreadPool(2);
+		try (MailerDaemon mailerDaemon = new MailerDaemon(socketFile, (arguments, workingDirectory, out, err) -> {
+			bothJobsStarted.countDown();
+			try {
+				// Each job waits for the other one, so this only finishes if the jobs are not executed one after another
+				if (!bothJobsStarted.await(10, TimeUnit.SECONDS)) {
+					return 2;
+				}
+			} catch (@SuppressWarnings("unused") final InterruptedException e) {
+				return 2;
+			}
+			out.println("Output of " + arguments.get(0));
+			err.println("Error of " + arguments.get(0));
+			return 0;
+		})) {
+			mailerDaemon.open();
+			assertEquals("rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(socketFile.getParentFile().toPath())));
+			final Thread daemonThread = new Thread(() -> {
+				try {
+					mailerDaemon.run();
+				} catch (@SuppressWarnings("unused") final IOException e) {
+					// Daemon was closed
+				}
+			});
+			daemonThread.setDaemon(true);
+			daemonThread.start();
+
+			final Future<String> firstJob = clientExecutor.submit(() -> executeJob(socketFile, "first"));
+			final Future<String> secondJob = clientExecutor.submit(() -> executeJob(socketFile, "second"));
+
+			assertEquals("0|Output of first\n|Error of first\n", firstJob.get(20, TimeUnit.SECONDS));
+			assertEquals("0|Output of second\n|Error of second\n", secondJob.get(20, TimeUnit.SECONDS));
+		} finally {
+			clientExecutor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testSocketDirectoryAccessibleByOthersIsRejected() throws Exception {
+		final Path socketDirectory = Files.createDirectory(temporaryDirectory.resolve("shared"));
+		Files.setPosixFilePermissions(socketDirectory, PosixFilePermissions.fromString("rwxr-xr-x"));
+		try (MailerDaemon mailerDaemon = new MailerDaemon(socketDirectory.resolve("daemon.socket").toFile(), (arguments, workingDirectory, out, err) -> 0)) {
+			final IOException exception = assertThrows(IOException.class, mailerDaemon::open);
+			assertTrue(exception.getMessage().startsWith("Directory of the daemon socket must only be accessible by its owner"));
+		}
+	}
+
+	private static String executeJob(final File socketFile, final String argument) throws IOException {
+		final ByteArrayOutputStream outBuffer = new ByteArrayOutputStream();
+		final ByteArrayOutputStream errBuffer = new ByteArrayOutputStream();
+		final int returnCode;
+		try (MailerDaemonClient client = new MailerDaemonClient(socketFile);
+				PrintStream out = new PrintStream(outBuffer, true, StandardCharsets.UTF_8);
+				PrintStream err = new PrintStream(errBuffer, true, StandardCharsets.UTF_8)) {
+			returnCode = client.execute(Arrays.asList(argument), socketFile.getParentFile(), out, err);
+		}
+		return returnCode + "|" + outBuffer.toString(StandardCharsets.UTF_8).replace("\r\n", "\n") + "|" + errBuffer.toString(StandardCharsets.UTF_8).replace("\r\n", "\n");
+	}
+}
@@ -0,0 +1,160 @@
+package de.soderer.mailer.dkim;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.jupiter.api.Test;
+
+import de.soderer.mailer.smtp.SmtpMessageWriter;
+import jakarta.mail.Message;
+import jakarta.mail.Session;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeMessage;
+
+/**
+ * DKIM signatures of the DkimSigner checked against the test vectors of RFC 6376 and RFC 8463 and against the independent DkimVerifier
+ */
+public class DkimSignerTest {
+	/** Ed25519 key pair of RFC 8463 Appendix A.1 */
+	private static final String RFC8463_ED25519_PRIVATE_KEY = "nWGxne/9WmC6hEr0kuwsxERJxWl7MmkZcDusAxyuf2A=";
+	private static final String RFC8463_ED25519_PUBLIC_KEY = "11qYAYKxCrfVS/7TyWQHOg7hcvPapiMlrwIaaPcHURo=";
+
+	/** Signed email of RFC 8463 Appendix A.3 with its Ed25519 signature */
+	private static final String RFC8463_SIGNED_MESSAGE = "DKIM-Signature: v=1; a=ed25519-sha256; c=relaxed/relaxed;\r\n"
+			+ " d=football.example.com; i=@football.example.com;\r\n"
+			+ " q=dns/txt; s=brisbane; t=1528637909; h=from : to :\r\n"
+			+ " subject : date : message-id : from : subject : date;\r\n"
+			+ " bh=2jUSOH9NhtVGCQWNr9BrIAPreKQjO6Sn7XIkfJVOzv8=;\r\n"
+			+ " b=/gCrinpcQOoIfuHNQIbq4pgh9kyIK3AQUdt9OdqQehSwhEIug4D11Bus\r\n"
+			+ " Fa3bT3FY5OsU7ZbnKELq+eXdp1Q1Dw==\r\n"
+			+ "From: Joe SixPack <joe@football.example.com>\r\n"
+			+ "To: Suzie Q <suzie@shopping.example.net>\r\n"
+			+ "Subject: Is dinner ready?\r\n"
+			+ "Date: Fri, 11 Jul 2003 21:00:37 -0700 (PDT)\r\n"
+			+ "Message-ID: <20030712040037.46341.5F8J@football.example.com>\r\n"
+			+ "\r\n"
+			+ "Hi.\r\n"
+			+ "\r\n"
+			+ "We lost the game.  Are you hungry yet?\r\n"
+			+ "\r\n"
+			+ "Joe.\r\n";
+	private static final String RFC8463_BODY_HASH = "2jUSOH9NhtVGCQWNr9BrIAPreKQjO6Sn7XIkfJVOzv8=";
+
+	private static final byte[] ED25519_PKCS8_PREFIX = HexFormat.of().parseHex("302e020100300506032b657004220420");
+	private static final byte[] ED25519_X509_PREFIX = HexFormat.of().parseHex("302a300506032b6570032100");
+
+	@Test
+	public void testVerifierAcceptsRfc8463Signature() throws Exception {
+		assertEquals(1, DkimVerifier.verify(RFC8463_SIGNED_MESSAGE, Map.of("brisbane", createEd25519PublicKey(RFC8463_ED25519_PUBLIC_KEY))));
+	}
+
+	@Test
+	public void testRfc6376RelaxedCanonicalizationExample() throws Exception {
+		// Example of RFC 6376 3.4.5
+		assertEquals("a:X", DkimSigner.canonicalizeHeader("A: X"));
+		assertEquals("b:Y Z", DkimSigner.canonicalizeHeader("B : Y\t\r\n\tZ  "));
+
+		final DkimBodyOutputStream bodyOutputStream = new DkimBodyOutputStream(MessageDigest.getInstance("SHA-256"), 1024, 1024);
+		bodyOutputStream.write("A: X\r\nB : Y\t\r\n\tZ  \r\n\r\n C \r\nD \t E\r\n\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+		bodyOutputStream.close();
+		assertArrayEquals(" C\r\nD E\r\n".getBytes(StandardCharsets.US_ASCII), bodyOutputStream.getRetainedBody());
+		assertEquals("A: X\r\nB : Y\t\r\n\tZ  \r\n\r\n", new String(bodyOutputStream.getHeaderData(), StandardCharsets.US_ASCII));
+	}
+
+	@Test
+	public void testRfc8463Ed25519Signature() throws Exception {
+		final String unsignedMessage = RFC8463_SIGNED_MESSAGE.substring(RFC8463_SIGNED_MESSAGE.indexOf("From: "));
+		final MimeMessage message = new MimeMessage(Session.getInstance(new Properties()), new ByteArrayInputStream(unsignedMessage.getBytes(StandardCharsets.US_ASCII)));
+		final DkimSigner dkimSigner = new DkimSigner("football.example.com", "@football.example.com");
+		dkimSigner.addKey("brisbane", createEd25519PrivateKey(RFC8463_ED25519_PRIVATE_KEY));
+
+		final String signedMessage = write(dkimSigner.sign(message));
+
+		assertTrue(signedMessage.contains("bh=" + RFC8463_BODY_HASH + ";"));
+		assertTrue(signedMessage.endsWith(unsignedMessage.substring(unsignedMessage.indexOf("\r\n\r\n"))));
+		assertEquals(1, DkimVerifier.verify(signedMessage, Map.of("brisbane", createEd25519PublicKey(RFC8463_ED25519_PUBLIC_KEY))));
+	}
+
+	@Test
+	public void testRsaAndEd25519Signatures() throws Exception {
+		final KeyPair rsaKeyPair = createKeyPair("RSA", 2048);
+		final KeyPair ed25519KeyPair = createKeyPair("Ed25519", 255);
+		final DkimSigner dkimSigner = new DkimSigner("example.com", null);
+		dkimSigner.addKey("rsa", rsaKeyPair.getPrivate());
+		dkimSigner.addKey("ed25519", ed25519KeyPair.getPrivate());
+		final MimeMessage message = createMessage("Text with  multiple   spaces, \t tabs and trailing whitespace \r\n\r\nLast line\r\n\r\n\r\n");
+
+		final String signedMessage = write(dkimSigner.sign(message));
+
+		assertEquals(2, DkimVerifier.verify(signedMessage, Map.of("rsa", rsaKeyPair.getPublic(), "ed25519", ed25519KeyPair.getPublic())));
+		// The kept rendering of the signature is transmitted exactly like a second rendering of the signed email
+		assertEquals(write(SmtpMessageWriter.of(message)), signedMessage);
+	}
+
+	@Test
+	public void testLargeMessageSignature() throws Exception {
+		final KeyPair rsaKeyPair = createKeyPair("RSA", 2048);
+		final DkimSigner dkimSigner = new DkimSigner("example.com", "@example.com");
+		dkimSigner.addKey("rsa", rsaKeyPair.getPrivate());
+		final MimeMessage message = createMessage("Line of a large email body \r\n".repeat(50000));
+
+		final String signedMessage = write(dkimSigner.sign(message));
+
+		assertEquals(1, DkimVerifier.verify(signedMessage, Map.of("rsa", rsaKeyPair.getPublic())));
+	}
+
+	private static MimeMessage createMessage(final String text) throws Exception {
+		final MimeMessage message = new MimeMessage(Session.getInstance(new Properties()));
+		message.setFrom(new InternetAddress("sender@example.com", "Sender"));
+		message.setRecipients(Message.RecipientType.TO, InternetAddress.parse("first@example.com, second@example.com"));
+		message.setRecipient(Message.RecipientType.BCC, new InternetAddress("hidden@example.com"));
+		message.setSubject("Subject, which is long enough to be folded by the email into multiple lines of its header, and     spaces");
+		message.setText(text, "UTF-8");
+		message.saveChanges();
+		return message;
+	}
+
+	private static String write(final SmtpMessageWriter messageWriter) throws Exception {
+		final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		messageWriter.writeTo(outputStream);
+		return new String(outputStream.toByteArray(), StandardCharsets.ISO_8859_1);
+	}
+
+	private static KeyPair createKeyPair(final String algorithm, final int keySize) throws Exception {
+		final KeyPairGenerator keyPairGenerator = KeyPairGenerator.getInstance(algorithm);
+		keyPairGenerator.initialize(keySize);
+		return keyPairGenerator.generateKeyPair();
+	}
+
+	private static PrivateKey createEd25519PrivateKey(final String base64Key) throws Exception {
+		return KeyFactory.getInstance("Ed25519").generatePrivate(new PKCS8EncodedKeySpec(concat(ED25519_PKCS8_PREFIX, Base64.getDecoder().decode(base64Key))));
+	}
+
+	private static PublicKey createEd25519PublicKey(final String base64Key) throws Exception {
+		return KeyFactory.getInstance("Ed25519").generatePublic(new X509EncodedKeySpec(concat(ED25519_X509_PREFIX, Base64.getDecoder().decode(base64Key))));
+	}
+
+	private static byte[] concat(final byte[] prefix, final byte[] data) {
+		final byte[] result = new byte[prefix.length + data.length];
+		System.arraycopy(prefix, 0, result, 0, prefix.length);
+		System.arraycopy(data, 0, result, prefix.length, data.length);
+		return result;
+	}
+}
@@ -0,0 +1,132 @@
+package de.soderer.mailer.dkim;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Minimal DKIM verifier (RFC 6376 6.1.3) for "relaxed/relaxed" signatures with "rsa-sha256" or "ed25519-sha256" (RFC 8463).<br />
+ * It works on the transmitted email text and shares no code with the DkimSigner, so that it can check the signatures of the DkimSigner.
+ */
+class DkimVerifier {
+	/**
+	 * Verify all DKIM-Signature headers of an email
+	 *
+	 * @param publicKeys public keys by their selector
+	 * @return number of verified signatures
+	 * @throws AssertionError if any signature is invalid
+	 */
+	static int verify(final String messageText, final Map<String, PublicKey> publicKeys) throws Exception {
+		final int headerEnd = messageText.indexOf("\r\n\r\n");
+		final List<String[]> headerFields = parseHeaderFields(messageText.substring(0, headerEnd + 2));
+		final String body = messageText.substring(headerEnd + 4);
+
+		int verifiedSignatures = 0;
+		for (final String[] signatureField : headerFields) {
+			if ("dkim-signature".equals(signatureField[0].trim().toLowerCase(Locale.ROOT))) {
+				final Map<String, String> tags = parseTags(signatureField[1]);
+				if (!"relaxed/relaxed".equals(tags.get("c"))) {
+					throw new AssertionError("Unexpected canonicalization: " + tags.get("c"));
+				}
+
+				final String bodyHash = Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(canonicalizeBody(body).getBytes(StandardCharsets.ISO_8859_1)));
+				if (!bodyHash.equals(tags.get("bh"))) {
+					throw new AssertionError("Body hash mismatch: expected " + tags.get("bh") + " but was " + bodyHash);
+				}
+
+				final StringBuilder signedData = new StringBuilder();
+				final Map<String, Integer> usedFieldCounts = new HashMap<>();
+				for (final String signedHeaderName : tags.get("h").split(":")) {
+					final String headerName = signedHeaderName.trim().toLowerCase(Locale.ROOT);
+					final int usedFieldCount = usedFieldCounts.merge(headerName, 1, Integer::sum);
+					// Multiple fields of the same name are signed from the bottom up, missing fields are signed as empty
+					int foundFieldCount = 0;
+					for (int i = headerFields.size() - 1; i >= 0; i--) {
+						if (headerFields.get(i)[0].trim().toLowerCase(Locale.ROOT).equals(headerName) && ++foundFieldCount == usedFieldCount) {
+							signedData.append(canonicalizeHeader(headerFields.get(i)[0], headerFields.get(i)[1])).append("\r\n");
+							break;
+						}
+					}
+				}
+				signedData.append(canonicalizeHeader(signatureField[0], signatureField[1].replaceAll("(^|;)(\\s*b\\s*=)[^;]*", "$1$2")));
+
+				final PublicKey publicKey = publicKeys.get(tags.get("s"));
+				final Signature signature;
+				final byte[] signedBytes = signedData.toString().getBytes(StandardCharsets.ISO_8859_1);
+				if ("rsa-sha256".equals(tags.get("a"))) {
+					signature = Signature.getInstance("SHA256withRSA");
+					signature.initVerify(publicKey);
+					signature.update(signedBytes);
+				} else if ("ed25519-sha256".equals(tags.get("a"))) {
+					signature = Signature.getInstance("Ed25519");
+					signature.initVerify(publicKey);
+					signature.update(MessageDigest.getInstance("SHA-256").digest(signedBytes));
+				} else {
+					throw new AssertionError("Unexpected algorithm: " + tags.get("a"));
+				}
+				if (!signature.verify(Base64.getDecoder().decode(tags.get("b")))) {
+					throw new AssertionError("Invalid " + tags.get("a") + " signature of selector " + tags.get("s"));
+				}
+				verifiedSignatures++;
+			}
+		}
+		return verifiedSignatures;
+	}
+
+	/**
+	 * Header fields as pairs of name and value including its folding
+	 */
+	private static List<String[]> parseHeaderFields(final String headerSection) {
+		final List<String[]> headerFields = new ArrayList<>();
+		for (final String headerField : headerSection.split("\r\n(?![ \t])")) {
+			if (!headerField.isEmpty()) {
+				final int colonIndex = headerField.indexOf(':');
+				headerFields.add(new String[] { headerField.substring(0, colonIndex), headerField.substring(colonIndex + 1) });
+			}
+		}
+		return headerFields;
+	}
+
+	private static Map<String, String> parseTags(final String tagList) {
+		final Map<String, String> tags = new HashMap<>();
+		for (final String tag : tagList.split(";")) {
+			final int equalsIndex = tag.indexOf('=');
+			if (equalsIndex > 0) {
+				tags.put(tag.substring(0, equalsIndex).trim(), tag.substring(equalsIndex + 1).replaceAll("\\s+", ""));
+			}
+		}
+		return tags;
+	}
+
+	/**
+	 * "relaxed" header canonicalization (RFC 6376 3.4.2)
+	 */
+	static String canonicalizeHeader(final String name, final String value) {
+		return name.trim().toLowerCase(Locale.ROOT) + ":" + value.replace("\r\n", "").replaceAll("[ \t]+", " ").trim();
+	}
+
+	/**
+	 * "relaxed" body canonicalization (RFC 6376 3.4.4)
+	 */
+	static String canonicalizeBody(final String body) {
+		final List<String> lines = new ArrayList<>();
+		for (final String line : body.split("\r\n", -1)) {
+			lines.add(line.replaceAll("[ \t]+", " ").replaceAll(" $", ""));
+		}
+		while (!lines.isEmpty() && lines.get(lines.size() - 1).isEmpty()) {
+			lines.remove(lines.size() - 1);
+		}
+		final StringBuilder canonicalBody = new StringBuilder();
+		for (final String line : lines) {
+			canonicalBody.append(line).append("\r\n");
+		}
+		return canonicalBody.toString();
+	}
+}
@@ -0,0 +1,112 @@
+package de.soderer.mailer.mime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Properties;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import jakarta.activation.DataHandler;
+import jakarta.activation.FileDataSource;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeBodyPart;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.MimeMultipart;
+
+/**
+ * Reuse of encoded file attachments by the MimePartCache
+ */
+public class MimePartCacheTest {
+	@TempDir
+	Path temporaryDirectory;
+
+	@Test
+	public void testAttachmentFileIsEncodedOnce() throws Exception {
+		final File attachmentFile = createAttachmentFile("first.bin", (byte) 1);
+		try (MimePartCache mimePartCache = new MimePartCache()) {
+			final String expectedMessageText = writeMessage(createMessage(attachmentFile));
+			for (int i = 0; i < 3; i++) {
+				final MimeMessage message = createMessage(attachmentFile);
+				mimePartCache.applyTo(message);
+				assertEquals(expectedMessageText, writeMessage(message));
+			}
+			// The attachment is cached when it is seen for the second time
+			assertEquals(1, mimePartCache.getHitCount());
+		}
+	}
+
+	@Test
+	public void testEvictedPartStaysReadableUntilClose() throws Exception {
+		final File firstAttachmentFile = createAttachmentFile("first.bin", (byte) 1);
+		final File secondAttachmentFile = createAttachmentFile("second.bin", (byte) 2);
+		try (MimePartCache mimePartCache = new MimePartCache(1)) {
+			mimePartCache.applyTo(createMessage(firstAttachmentFile));
+			final MimeMessage firstMessage = createMessage(firstAttachmentFile);
+			mimePartCache.applyTo(firstMessage);
+
+			// Caching the second attachment evicts the first one, whose message is not written yet
+			mimePartCache.applyTo(createMessage(secondAttachmentFile));
+			mimePartCache.applyTo(createMessage(secondAttachmentFile));
+
+			assertEquals(writeMessage(createMessage(firstAttachmentFile)), writeMessage(firstMessage));
+		}
+	}
+
+	@Test
+	public void testRewrittenAttachmentFileIsEncodedAgain() throws Exception {
+		final File attachmentFile = createAttachmentFile("first.bin", (byte) 1);
+		final long lastModified = attachmentFile.lastModified();
+		try (MimePartCache mimePartCache = new MimePartCache()) {
+			mimePartCache.applyTo(createMessage(attachmentFile));
+			mimePartCache.applyTo(createMessage(attachmentFile));
+
+			// Same path, size and modification time, but other content
+			createAttachmentFile("first.bin", (byte) 2);
+			assertTrue(attachmentFile.setLastModified(lastModified));
+			final MimeMessage message = createMessage(attachmentFile);
+			mimePartCache.applyTo(message);
+
+			assertEquals(writeMessage(createMessage(attachmentFile)), writeMessage(message));
+			assertEquals(0, mimePartCache.getHitCount());
+		}
+	}
+
+	private File createAttachmentFile(final String fileName, final byte contentByte) throws Exception {
+		final byte[] content = new byte[10000];
+		Arrays.fill(content, contentByte);
+		final File attachmentFile = temporaryDirectory.resolve(fileName).toFile();
+		Files.write(attachmentFile.toPath(), content);
+		return attachmentFile;
+	}
+
+	private static MimeMessage createMessage(final File attachmentFile) throws Exception {
+		final MimeMessage message = new MimeMessage(Session.getInstance(new Properties()));
+		final MimeBodyPart attachmentPart = new MimeBodyPart();
+		attachmentPart.setDataHandler(new DataHandler(new FileDataSource(attachmentFile)));
+		attachmentPart.setFileName(attachmentFile.getName());
+		final MimeMultipart multipart = new MimeMultipart();
+		multipart.addBodyPart(attachmentPart);
+		message.setContent(multipart);
+		message.setHeader("Message-ID", "<test@example.com>");
+		message.saveChanges();
+		attachmentPart.setHeader("Content-Transfer-Encoding", "base64");
+		return message;
+	}
+
+	private static String writeMessage(final MimeMessage message) throws Exception {
+		final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		message.writeTo(outputStream);
+		final String messageText = new String(outputStream.toByteArray(), StandardCharsets.US_ASCII);
+		assertTrue(messageText.contains("Content-Transfer-Encoding: base64"));
+		// Boundaries differ between the messages
+		return messageText.substring(messageText.indexOf("Content-Transfer-Encoding: base64"), messageText.lastIndexOf("\r\n------"));
+	}
+}
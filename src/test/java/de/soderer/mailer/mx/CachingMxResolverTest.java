@@ -0,0 +1,90 @@
+package de.soderer.mailer.mx;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Caching of resolved, non-existing and failed domains by the CachingMxResolver
+ */
+public class CachingMxResolverTest {
+	private static final List<InetSocketAddress> MX_ADDRESSES = Arrays.asList(InetSocketAddress.createUnresolved("mx.example.com", 25));
+
+	@Test
+	public void testResolvedAndPermanentlyFailedDomainsAreCached() throws Exception {
+		final AtomicInteger lookups = new AtomicInteger();
+		final CachingMxResolver resolver = new CachingMxResolver(domain -> {
+			lookups.incrementAndGet();
+			if ("unknown.example".equals(domain)) {
+				throw new MxResolutionException("Domain " + domain + " does not exist", true, null);
+			}
+			return MX_ADDRESSES;
+		});
+
+		assertEquals(MX_ADDRESSES, resolver.resolve("example.com"));
+		assertEquals(MX_ADDRESSES, resolver.resolve("example.com"));
+		assertTrue(assertThrows(MxResolutionException.class, () -> resolver.resolve("unknown.example")).isPermanent());
+		assertTrue(assertThrows(MxResolutionException.class, () -> resolver.resolve("unknown.example")).isPermanent());
+		assertEquals(2, lookups.get());
+	}
+
+	@Test
+	public void testUnexpectedResolverErrorIsNotCached() throws Exception {
+		final AtomicInteger lookups = new AtomicInteger();
+		final CachingMxResolver resolver = new CachingMxResolver(domain -> {
+			if (lookups.incrementAndGet() == 1) {
+				throw new IllegalStateException("Resolver failure");
+			}
+			return MX_ADDRESSES;
+		});
+
+		final MxResolutionException exception = assertThrows(MxResolutionException.class, () -> resolver.resolve("example.com"));
+		assertFalse(exception.isPermanent());
+		assertTrue(exception.getCause() instanceof IllegalStateException);
+		assertEquals(MX_ADDRESSES, resolver.resolve("example.com"));
+	}
+
+	@Test
+	public void testWaitingLookupsGetUnexpectedResolverError() throws Exception {
+		final CountDownLatch lookupStarted = new CountDownLatch(1);
+		final CountDownLatch lookupReleased = new CountDownLatch(1);
+		final CachingMxResolver resolver = new CachingMxResolver(domain -> {
+			lookupStarted.countDown();
+			try {
+				lookupReleased.await(10, TimeUnit.SECONDS);
+			} catch (@SuppressWarnings("unused") final InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			throw new IllegalStateException("Resolver failure");
+		});
+
+		final ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			final Future<List<InetSocketAddress>> firstLookup = executor.submit(() -> resolver.resolve("example.com"));
+			assertTrue(lookupStarted.await(10, TimeUnit.SECONDS));
+			final Future<List<InetSocketAddress>> waitingLookup = executor.submit(() -> resolver.resolve("example.com"));
+			lookupReleased.countDown();
+
+			for (final Future<List<InetSocketAddress>> lookup : Arrays.asList(firstLookup, waitingLookup)) {
+				final ExecutionException exception = assertThrows(ExecutionException.class, () -> lookup.get(10, TimeUnit.SECONDS));
+				assertTrue(exception.getCause() instanceof MxResolutionException);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,183 @@
+package de.soderer.mailer.mx;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLContext;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import de.soderer.mailer.MailParameters;
+import de.soderer.mailer.perf.StandInSmtpServer;
+import de.soderer.mailer.smtp.SmtpConnectionSettings;
+import de.soderer.mailer.smtp.SmtpMessageWriter;
+import de.soderer.mailer.smtp.SmtpReply;
+
+/**
+ * Direct delivery of the MxDeliverySink to stand-in mail exchangers configured by a MX hosts file
+ */
+public class MxDeliverySinkTest {
+	private static final SmtpMessageWriter MESSAGE_WRITER = outputStream -> outputStream.write("Subject: Test\r\n\r\nTest text\r\n".getBytes(StandardCharsets.US_ASCII));
+
+	@TempDir
+	Path temporaryDirectory;
+
+	private StandInSmtpServer server;
+	private MxDeliverySink sink;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		server = new StandInSmtpServer();
+		server.setRecordTranscript(true);
+	}
+
+	@AfterEach
+	public void tearDown() throws Exception {
+		if (sink != null) {
+			sink.close();
+		}
+		server.close();
+	}
+
+	@Test
+	public void testUntrustedCertificateIsUsedOpportunistically() throws Exception {
+		server.setSelfSignedStartTls();
+		sink = createSink("example.com = 127.0.0.1:" + server.getPort());
+
+		final Map<String, SmtpReply> rejectedRecipients = sink.sendMessage("sender@example.org", Arrays.asList("first@example.com"), MESSAGE_WRITER);
+
+		assertTrue(rejectedRecipients.isEmpty(), rejectedRecipients.toString());
+		assertEquals(1, server.getReceivedMessages());
+		assertTrue(server.getReceivedCommands().contains("STARTTLS"));
+	}
+
+	@Test
+	public void testFailedHandshakeFallsBackToPlaintext() throws Exception {
+		// Without a certificate the server cannot complete any TLS handshake
+		final SSLContext sslContext = SSLContext.getInstance("TLS");
+		sslContext.init(null, null, null);
+		server.setStartTlsContext(sslContext);
+		sink = createSink("example.com = localhost:" + server.getPort());
+
+		final Map<String, SmtpReply> rejectedRecipients = sink.sendMessage("sender@example.org", Arrays.asList("first@example.com"), MESSAGE_WRITER);
+
+		assertTrue(rejectedRecipients.isEmpty(), rejectedRecipients.toString());
+		assertEquals(1, server.getReceivedMessages());
+		assertEquals(2, server.getAcceptedConnections());
+	}
+
+	@Test
+	public void testStrictTlsRejectsUntrustedCertificate() throws Exception {
+		server.setSelfSignedStartTls();
+		sink = createSink("example.com = localhost:" + server.getPort(), "-mxstricttls");
+
+		final Map<String, SmtpReply> rejectedRecipients = sink.sendMessage("sender@example.org", Arrays.asList("first@example.com"), MESSAGE_WRITER);
+
+		assertEquals(451, rejectedRecipients.get("first@example.com").getCode());
+		assertEquals(0, server.getReceivedMessages());
+	}
+
+	@Test
+	public void testMailExchangersAreTriedInOrderOfPreference() throws Exception {
+		try (StandInSmtpServer secondServer = new StandInSmtpServer()) {
+			final Map<String, List<InetSocketAddress>> mxAddressesByDomain = new HashMap<>();
+			mxAddressesByDomain.put("example.com", Arrays.asList(InetSocketAddress.createUnresolved("localhost", getUnusedPort()), getAddress(server), getAddress(secondServer)));
+			sink = createSink(new StaticMxResolver(mxAddressesByDomain));
+
+			final Map<String, SmtpReply> rejectedRecipients = sink.sendMessage("sender@example.org", Arrays.asList("first@example.com", "second@example.com"), MESSAGE_WRITER);
+
+			// The unreachable first mail exchanger is skipped, the third one is not needed
+			assertTrue(rejectedRecipients.isEmpty(), rejectedRecipients.toString());
+			assertEquals(1, server.getReceivedMessages());
+			assertEquals(0, secondServer.getAcceptedConnections());
+		}
+	}
+
+	@Test
+	public void testRepliesArePerRecipientGroup() throws Exception {
+		try (StandInSmtpServer secondServer = new StandInSmtpServer(); StandInSmtpServer thirdServer = new StandInSmtpServer()) {
+			server.injectReply("RCPT", 2, "550 5.1.1 Unknown user");
+			secondServer.injectReply("MESSAGE", 1, "452 4.3.1 Insufficient system storage");
+			final Map<String, List<InetSocketAddress>> mxAddressesByDomain = new HashMap<>();
+			mxAddressesByDomain.put("example.com", Arrays.asList(getAddress(server)));
+			mxAddressesByDomain.put("example.net", Arrays.asList(getAddress(secondServer)));
+			mxAddressesByDomain.put("example.org", Arrays.asList(getAddress(thirdServer)));
+			sink = createSink(new StaticMxResolver(mxAddressesByDomain));
+
+			final Map<String, SmtpReply> rejectedRecipients = sink.sendMessage("sender@example.org",
+					Arrays.asList("first@example.com", "second@example.com", "first@example.net", "second@example.net", "first@example.org", "first@unknown.example"), MESSAGE_WRITER);
+
+			assertEquals(550, rejectedRecipients.get("second@example.com").getCode());
+			assertEquals(452, rejectedRecipients.get("first@example.net").getCode());
+			assertEquals(452, rejectedRecipients.get("second@example.net").getCode());
+			assertEquals(550, rejectedRecipients.get("first@unknown.example").getCode());
+			assertEquals(4, rejectedRecipients.size());
+			assertEquals(1, server.getReceivedMessages());
+			assertEquals(1, thirdServer.getReceivedMessages());
+		}
+	}
+
+	@Test
+	public void testResolverFailureDefersOnlyItsDomain() throws Exception {
+		final AtomicInteger failingLookups = new AtomicInteger();
+		final MxResolver failingResolver = domain -> {
+			if ("broken.example".equals(domain) && failingLookups.incrementAndGet() == 1) {
+				throw new IllegalStateException("Resolver failure");
+			}
+			return Arrays.asList(getAddress(server));
+		};
+		sink = createSink(new CachingMxResolver(failingResolver));
+
+		final Map<String, SmtpReply> rejectedRecipients = sink.sendMessage("sender@example.org", Arrays.asList("first@broken.example", "first@example.com"), MESSAGE_WRITER);
+		assertEquals(1, rejectedRecipients.size());
+		assertEquals(451, rejectedRecipients.get("first@broken.example").getCode());
+		assertEquals(1, server.getReceivedMessages());
+
+		// The failure was not cached
+		assertTrue(sink.sendMessage("sender@example.org", Arrays.asList("first@broken.example"), MESSAGE_WRITER).isEmpty());
+		assertEquals(2, server.getReceivedMessages());
+	}
+
+	private MxDeliverySink createSink(final MxResolver mxResolver) {
+		final SmtpConnectionSettings settings = new SmtpConnectionSettings();
+		settings.setRequireStartTls(false);
+		return new MxDeliverySink(mxResolver, settings, 100, 60, 2);
+	}
+
+	private static InetSocketAddress getAddress(final StandInSmtpServer smtpServer) {
+		return InetSocketAddress.createUnresolved("localhost", smtpServer.getPort());
+	}
+
+	private static int getUnusedPort() throws Exception {
+		try (ServerSocket serverSocket = new ServerSocket(0)) {
+			return serverSocket.getLocalPort();
+		}
+	}
+
+	private MxDeliverySink createSink(final String mxHostsLine, final String... additionalArguments) throws Exception {
+		final File mxHostsFile = temporaryDirectory.resolve("mxhosts.properties").toFile();
+		Files.write(mxHostsFile.toPath(), mxHostsLine.getBytes(StandardCharsets.UTF_8));
+		final List<String> arguments = new ArrayList<>(Arrays.asList("-direct", "-mxhosts", mxHostsFile.getAbsolutePath(), "-from", "sender@example.org", "-subject", "Test", "-to", "first@example.com"));
+		arguments.addAll(Arrays.asList(additionalArguments));
+		final MailParameters mailParameters = new MailParameters();
+		mailParameters.parseArguments(arguments);
+		mailParameters.checkParameters();
+		return mailParameters.createMxDeliverySink();
+	}
+}
@@ -0,0 +1,104 @@
+package de.soderer.mailer.smtp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import de.soderer.mailer.perf.StandInSmtpServer;
+import jakarta.mail.Message;
+import jakarta.mail.Session;
+import jakarta.mail.URLName;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeMessage;
+
+/**
+ * Sends of the ConsoleMailerTransport by a pool of SMTP connections to the stand-in SMTP server
+ */
+public class ConsoleMailerTransportTest {
+	private StandInSmtpServer server;
+	private SmtpConnectionPool connectionPool;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		server = new StandInSmtpServer();
+		server.setRecordTranscript(true);
+		connectionPool = new SmtpConnectionPool(SmtpConnectionPool.DEFAULT_MAX_MESSAGES_PER_CONNECTION, SmtpConnectionPool.DEFAULT_MAX_IDLE_SECONDS);
+		ConsoleMailerTransport.setConnectionPool(connectionPool);
+	}
+
+	@AfterEach
+	public void tearDown() throws Exception {
+		ConsoleMailerTransport.setConnectionPool(null);
+		connectionPool.close();
+		server.close();
+	}
+
+	@Test
+	public void testPooledSendDoesNotTransmitBcc() throws Exception {
+		final Session session = Session.getInstance(new Properties());
+		final MimeMessage message = createMessage(session);
+		message.setRecipient(Message.RecipientType.BCC, new InternetAddress("hidden@example.com"));
+		message.saveChanges();
+
+		final ConsoleMailerTransport transport = createTransport(session);
+		try {
+			transport.sendMessage(message, message.getAllRecipients());
+		} finally {
+			transport.close();
+		}
+
+		final List<String> receivedMessageData = server.getReceivedMessageData();
+		assertEquals(1, receivedMessageData.size());
+		assertTrue(receivedMessageData.get(0).contains("To: to@example.com\r\n"));
+		assertFalse(receivedMessageData.get(0).toLowerCase().contains("bcc:"));
+		assertFalse(receivedMessageData.get(0).contains("hidden@example.com"));
+		assertTrue(server.getReceivedCommands().contains("RCPT TO:<hidden@example.com>"));
+	}
+
+	@Test
+	public void testPooledSendsReuseConnection() throws Exception {
+		final Session session = Session.getInstance(new Properties());
+		final ConsoleMailerTransport transport = createTransport(session);
+		try {
+			final MimeMessage message = createMessage(session);
+			transport.sendMessage(message, message.getAllRecipients());
+			transport.sendMessage(message, message.getAllRecipients());
+		} finally {
+			transport.close();
+		}
+
+		final ConsoleMailerTransport nextTransport = createTransport(session);
+		try {
+			final MimeMessage message = createMessage(session);
+			nextTransport.sendMessage(message, message.getAllRecipients());
+		} finally {
+			nextTransport.close();
+		}
+
+		assertEquals(3, server.getReceivedMessages());
+		assertEquals(1, server.getReceivedCommands().stream().filter(command -> command.startsWith("EHLO ")).count());
+	}
+
+	private ConsoleMailerTransport createTransport(final Session session) throws Exception {
+		final ConsoleMailerTransport transport = new ConsoleMailerTransport(session, new URLName("smtp", "localhost", server.getPort(), null, null, null));
+		transport.connect("localhost", server.getPort(), null, null);
+		return transport;
+	}
+
+	private static MimeMessage createMessage(final Session session) throws Exception {
+		final MimeMessage message = new MimeMessage(session);
+		message.setFrom(new InternetAddress("sender@example.com"));
+		message.setRecipient(Message.RecipientType.TO, new InternetAddress("to@example.com"));
+		message.setSubject("Test");
+		message.setText("Test text");
+		message.saveChanges();
+		return message;
+	}
+}
@@ -0,0 +1,141 @@
+package de.soderer.mailer.smtp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import de.soderer.mailer.perf.StandInSmtpServer;
+import de.soderer.utilities.mail.MailerConnectionSecurity;
+
+/**
+ * Reuse, replacement of stale connections and limit of connections of the SmtpConnectionPool against the stand-in SMTP server
+ */
+public class SmtpConnectionPoolTest {
+	private static final List<String> RECIPIENTS = Arrays.asList("recipient@example.com");
+	private static final SmtpMessageWriter MESSAGE_WRITER = outputStream -> outputStream.write("Subject: Test\r\n\r\nTest text\r\n".getBytes(StandardCharsets.US_ASCII));
+
+	private StandInSmtpServer server;
+	private SmtpConnectionPool connectionPool;
+	private SmtpRelay relay;
+	private final SmtpConnectionSettings settings = new SmtpConnectionSettings();
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		server = new StandInSmtpServer();
+		server.setRecordTranscript(true);
+		connectionPool = new SmtpConnectionPool(0, 60, 1);
+		relay = new SmtpRelay("localhost", server.getPort(), MailerConnectionSecurity.None, null, null);
+	}
+
+	@AfterEach
+	public void tearDown() throws Exception {
+		connectionPool.close();
+		server.close();
+	}
+
+	@Test
+	public void testConnectionIsReusedWithReset() throws Exception {
+		for (int i = 0; i < 3; i++) {
+			connectionPool.sendMessage(relay, settings, "sender@example.com", RECIPIENTS, MESSAGE_WRITER, false);
+		}
+
+		assertEquals(1, server.getAcceptedConnections());
+		assertEquals(3, server.getReceivedMessages());
+		assertEquals(2, countCommands("RSET"));
+	}
+
+	@Test
+	public void testIdleConnectionClosedByServerIsReplaced() throws Exception {
+		connectionPool.sendMessage(relay, settings, "sender@example.com", RECIPIENTS, MESSAGE_WRITER, false);
+		server.closeOpenConnections();
+
+		connectionPool.sendMessage(relay, settings, "sender@example.com", RECIPIENTS, MESSAGE_WRITER, false);
+
+		assertEquals(2, server.getAcceptedConnections());
+		assertEquals(2, server.getReceivedMessages());
+	}
+
+	@Test
+	public void testConnectionDroppedBeforeDataIsRetried() throws Exception {
+		server.injectReply("MAIL", 2, StandInSmtpServer.DROP_CONNECTION);
+		connectionPool.sendMessage(relay, settings, "sender@example.com", RECIPIENTS, MESSAGE_WRITER, false);
+
+		connectionPool.sendMessage(relay, settings, "sender@example.com", RECIPIENTS, MESSAGE_WRITER, false);
+
+		// The message content was not transmitted on the dropped connection, so it was sent once more by a new connection
+		assertEquals(2, server.getAcceptedConnections());
+		assertEquals(2, server.getReceivedMessages());
+		assertEquals(3, countCommands("MAIL"));
+	}
+
+	@Test
+	public void testConnectionDroppedAfterDataIsNotRetried() throws Exception {
+		server.injectReply("MESSAGE", 2, StandInSmtpServer.DROP_CONNECTION);
+		connectionPool.sendMessage(relay, settings, "sender@example.com", RECIPIENTS, MESSAGE_WRITER, false);
+
+		final SmtpException exception = assertThrows(SmtpException.class, () -> connectionPool.sendMessage(relay, settings, "sender@example.com", RECIPIENTS, MESSAGE_WRITER, false));
+
+		// The server may have accepted the transmitted message, so it must not be sent a second time
+		assertFalse(exception.isRetryable());
+		assertEquals(1, server.getAcceptedConnections());
+		assertEquals(2, countCommands("MAIL"));
+	}
+
+	@Test
+	public void testConnectionLimitPerRelay() throws Exception {
+		final SmtpConnection firstConnection = connectionPool.acquireConnection(relay, settings);
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			final Future<SmtpConnection> secondAcquisition = executor.submit(() -> connectionPool.acquireConnection(relay, settings));
+			assertThrows(TimeoutException.class, () -> secondAcquisition.get(300, TimeUnit.MILLISECONDS));
+
+			connectionPool.releaseConnection(firstConnection);
+
+			final SmtpConnection secondConnection = secondAcquisition.get(10, TimeUnit.SECONDS);
+			assertSame(firstConnection, secondConnection);
+			connectionPool.releaseConnection(secondConnection);
+			assertEquals(1, server.getAcceptedConnections());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testMissingStartTlsFailsByDefault() throws Exception {
+		final SmtpRelay startTlsRelay = new SmtpRelay("localhost", server.getPort(), MailerConnectionSecurity.STARTTLS, null, null);
+
+		final SmtpException exception = assertThrows(SmtpException.class, () -> connectionPool.acquireConnection(startTlsRelay, settings));
+
+		assertEquals("SMTP server " + startTlsRelay + " does not support STARTTLS", exception.getMessage());
+		assertEquals(0, server.getReceivedMessages());
+
+		final SmtpConnectionSettings opportunisticSettings = new SmtpConnectionSettings();
+		opportunisticSettings.setRequireStartTls(false);
+		connectionPool.sendMessage(startTlsRelay, opportunisticSettings, "sender@example.com", RECIPIENTS, MESSAGE_WRITER, false);
+		assertEquals(1, server.getReceivedMessages());
+	}
+
+	private int countCommands(final String command) {
+		int count = 0;
+		for (final String receivedCommand : server.getReceivedCommands()) {
+			if (receivedCommand.toUpperCase().startsWith(command)) {
+				count++;
+			}
+		}
+		return count;
+	}
+}
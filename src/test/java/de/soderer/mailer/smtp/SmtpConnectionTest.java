@@ -0,0 +1,144 @@
+package de.soderer.mailer.smtp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import de.soderer.mailer.perf.StandInSmtpServer;
+import de.soderer.utilities.mail.MailerConnectionSecurity;
+
+/**
+ * SMTP transactions of a SmtpConnection with and without PIPELINING against the stand-in SMTP server
+ */
+public class SmtpConnectionTest {
+	private static final List<String> RECIPIENTS = Arrays.asList("first@example.com", "second@example.com");
+	private static final SmtpMessageWriter MESSAGE_WRITER = outputStream -> outputStream.write("Subject: Test\r\n\r\nTest text\r\n".getBytes(StandardCharsets.US_ASCII));
+
+	private StandInSmtpServer server;
+	private SmtpConnection connection;
+
+	@BeforeEach
+	public void setUp() throws Exception {
+		server = new StandInSmtpServer();
+		server.setRecordTranscript(true);
+	}
+
+	@AfterEach
+	public void tearDown() throws Exception {
+		if (connection != null) {
+			connection.close();
+		}
+		server.close();
+	}
+
+	@Test
+	public void testPipelinedTransaction() throws Exception {
+		connect();
+
+		final Map<String, SmtpReply> rejectedRecipients = connection.sendMessage("sender@example.com", RECIPIENTS, MESSAGE_WRITER, false);
+
+		assertTrue(rejectedRecipients.isEmpty());
+		assertEquals(1, server.getReceivedMessages());
+		assertEquals(Arrays.asList("MAIL FROM:<sender@example.com>", "RCPT TO:<first@example.com>", "RCPT TO:<second@example.com>", "DATA"), getTransactionCommands());
+		// MAIL and both RCPT were sent together with the DATA command
+		assertEquals(3, server.getPipelinedCommandCount());
+		assertTrue(connection.isUsable());
+	}
+
+	@Test
+	public void testNonPipelinedTransaction() throws Exception {
+		server.setPipelining(false);
+		connect();
+
+		final Map<String, SmtpReply> rejectedRecipients = connection.sendMessage("sender@example.com", RECIPIENTS, MESSAGE_WRITER, false);
+
+		assertTrue(rejectedRecipients.isEmpty());
+		assertEquals(1, server.getReceivedMessages());
+		assertEquals(0, server.getPipelinedCommandCount());
+	}
+
+	@Test
+	public void testPipelinedPartialRecipientRejection() throws Exception {
+		server.injectReply("RCPT", 2, "550 5.1.1 Unknown user");
+		connect();
+
+		final Map<String, SmtpReply> rejectedRecipients = connection.sendMessage("sender@example.com", RECIPIENTS, MESSAGE_WRITER, true);
+
+		assertEquals(1, rejectedRecipients.size());
+		assertEquals(550, rejectedRecipients.get("second@example.com").getCode());
+		assertEquals(1, server.getReceivedMessages());
+		assertTrue(connection.isUsable());
+	}
+
+	@Test
+	public void testPipelinedAbortOnRejectedRecipient() throws Exception {
+		server.injectReply("RCPT", 2, "550 5.1.1 Unknown user");
+		connect();
+
+		final SmtpRecipientException exception = assertThrows(SmtpRecipientException.class, () -> connection.sendMessage("sender@example.com", RECIPIENTS, MESSAGE_WRITER, false));
+
+		assertEquals(Arrays.asList("second@example.com"), List.copyOf(exception.getRejectedRecipients().keySet()));
+		// Server already accepted the pipelined DATA command, so the transaction was aborted by closing the connection
+		assertFalse(connection.isUsable());
+		assertEquals(0, server.getReceivedMessages());
+		assertFalse(server.getReceivedCommands().contains("RSET"));
+	}
+
+	@Test
+	public void testNonPipelinedDataFailureResetsTransaction() throws Exception {
+		server.setPipelining(false);
+		server.injectReply("DATA", 1, "451 4.3.0 Try again later");
+		connect();
+
+		final SmtpException exception = assertThrows(SmtpException.class, () -> connection.sendMessage("sender@example.com", RECIPIENTS, MESSAGE_WRITER, false));
+
+		assertEquals(451, exception.getReply().getCode());
+		assertEquals(Arrays.asList("MAIL FROM:<sender@example.com>", "RCPT TO:<first@example.com>", "RCPT TO:<second@example.com>", "DATA", "RSET"), getTransactionCommands());
+		assertTrue(connection.isUsable());
+	}
+
+	@Test
+	public void testReadTimeoutOfUnresponsiveServer() throws Exception {
+		server.setUnresponsive(true);
+		final SmtpConnectionSettings settings = new SmtpConnectionSettings();
+		settings.setReadTimeoutMillis(500);
+		connection = new SmtpConnection(new SmtpRelay("localhost", server.getPort(), MailerConnectionSecurity.None, null, null), settings);
+
+		final long start = System.currentTimeMillis();
+		final SmtpException exception = assertThrows(SmtpException.class, connection::connect);
+		assertTrue(System.currentTimeMillis() - start < 10000);
+		assertTrue(exception.getCause() instanceof SocketTimeoutException);
+		assertFalse(connection.isUsable());
+	}
+
+	@Test
+	public void testDefaultTimeoutsAreFinite() {
+		final SmtpConnectionSettings settings = new SmtpConnectionSettings();
+		assertEquals(30 * 1000, settings.getConnectTimeoutMillis());
+		assertEquals(5 * 60 * 1000, settings.getReadTimeoutMillis());
+	}
+
+	private void connect() throws Exception {
+		connection = new SmtpConnection(new SmtpRelay("localhost", server.getPort(), MailerConnectionSecurity.None, null, null), new SmtpConnectionSettings());
+		connection.connect();
+	}
+
+	/**
+	 * Received commands without the session commands like EHLO and QUIT
+	 */
+	private List<String> getTransactionCommands() {
+		final List<String> commands = server.getReceivedCommands();
+		return commands.subList(1, commands.size());
+	}
+}
@@ -0,0 +1,198 @@
+package de.soderer.mailer.spool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import de.soderer.mailer.smtp.SmtpMessageWriter;
+
+/**
+ * Journal, crash recovery and segment rotation of the SpoolQueue
+ */
+public class SpoolQueueTest {
+	private static final List<String> RECIPIENTS = Arrays.asList("first@example.com", "second@example.com");
+
+	@TempDir
+	Path spoolDirectory;
+
+	@Test
+	public void testMessagesAndStatusAreRecovered() throws Exception {
+		try (SpoolQueue spoolQueue = new SpoolQueue(spoolDirectory.toFile())) {
+			spoolQueue.acceptMessage("sender@example.com", RECIPIENTS, messageWriter("First"));
+			spoolQueue.acceptMessage("sender@example.com", RECIPIENTS, messageWriter("Second"));
+			spoolQueue.acceptMessage("sender@example.com", RECIPIENTS, messageWriter("Third"));
+			final List<SpoolEntry> entries = spoolQueue.getEntries();
+			spoolQueue.markDeferred(entries.get(1), Arrays.asList("second@example.com"), 1, 12345L, "451 Try again later");
+			spoolQueue.markDone(entries.get(2));
+		}
+
+		try (SpoolQueue spoolQueue = new SpoolQueue(spoolDirectory.toFile())) {
+			final List<SpoolEntry> entries = spoolQueue.getEntries();
+			assertEquals(2, entries.size());
+			assertEquals(RECIPIENTS, entries.get(0).getRecipients());
+			assertEquals(messageText("First"), readContent(spoolQueue, entries.get(0)));
+			assertEquals(Arrays.asList("second@example.com"), entries.get(1).getRecipients());
+			assertEquals(1, entries.get(1).getAttempts());
+			assertEquals(12345L, entries.get(1).getNextAttemptTime());
+			assertEquals(messageText("Second"), readContent(spoolQueue, entries.get(1)));
+		}
+	}
+
+	@Test
+	public void testTornTailIsTruncated() throws Exception {
+		try (SpoolQueue spoolQueue = new SpoolQueue(spoolDirectory.toFile())) {
+			spoolQueue.acceptMessage("sender@example.com", RECIPIENTS, messageWriter("First"));
+		}
+		final File segmentFile = getSegmentFiles()[0];
+		final long completeSize = segmentFile.length();
+		// Header of a record, whose payload was not written completely before a crash
+		Files.write(segmentFile.toPath(), new byte[] { 0, 0, 0, 0, 1, 'S', 'u', 'b' }, StandardOpenOption.APPEND);
+
+		try (SpoolQueue spoolQueue = new SpoolQueue(spoolDirectory.toFile())) {
+			assertEquals(1, spoolQueue.getEntries().size());
+			assertEquals(completeSize, segmentFile.length());
+			spoolQueue.acceptMessage("sender@example.com", RECIPIENTS, messageWriter("Second"));
+		}
+
+		try (SpoolQueue spoolQueue = new SpoolQueue(spoolDirectory.toFile())) {
+			final List<SpoolEntry> entries = spoolQueue.getEntries();
+			assertEquals(2, entries.size());
+			assertEquals(messageText("Second"), readContent(spoolQueue, entries.get(1)));
+		}
+	}
+
+	@Test
+	public void testChecksumMismatchOfLastRecordIsDiscarded() throws Exception {
+		try (SpoolQueue spoolQueue = new SpoolQueue(spoolDirectory.toFile())) {
+			spoolQueue.acceptMessage("sender@example.com", RECIPIENTS, messageWriter("First"));
+			spoolQueue.acceptMessage("sender@example.com", RECIPIENTS, messageWriter("Second"));
+		}
+		final File segmentFile = getSegmentFiles()[0];
+		flipByte(segmentFile, segmentFile.length() - 10);
+
+		try (SpoolQueue spoolQueue = new SpoolQueue(spoolDirectory.toFile())) {
+			final List<SpoolEntry> entries = spoolQueue.getEntries();
+			assertEquals(1, entries.size());
+			assertEquals(messageText("First"), readContent(spoolQueue, entries.get(0)));
+		}
+	}
+
+	@Test
+	public void testChecksumMismatchOfOlderSegmentIsReported() throws Exception {
+		try (SpoolQueue spoolQueue = new SpoolQueue(spoolDirectory.toFile(), 1)) {
+			spoolQueue.acceptMessage("sender@example.com", RECIPIENTS, messageWriter("First"));
+			spoolQueue.acceptMessage("sender@example.com", RECIPIENTS, messageWriter("Second"));
+		}
+		final File[] segmentFiles = getSegmentFiles();
+		assertEquals(2, segmentFiles.length);
+		flipByte(segmentFiles[0], segmentFiles[0].length() - 10);
+
+		final IOException exception = assertThrows(IOException.class, () -> new SpoolQueue(spoolDirectory.toFile(), 1));
+		assertTrue(exception.getMessage().startsWith("Spool segment is corrupted"));
+	}
+
+	@Test
+	public void testSegmentsAreRotatedAndDeleted() throws Exception {
+		try (SpoolQueue spoolQueue = new SpoolQueue(spoolDirectory.toFile(), 1)) {
+			spoolQueue.acceptMessage("sender@example.com", RECIPIENTS, messageWriter("First"));
+			spoolQueue.acceptMessage("sender@example.com", RECIPIENTS, messageWriter("Second"));
+			spoolQueue.acceptMessage("sender@example.com", RECIPIENTS, messageWriter("Third"));
+			assertEquals(3, getSegmentFiles().length);
+
+			final List<SpoolEntry> entries = spoolQueue.getEntries();
+			spoolQueue.markDone(entries.get(0));
+			spoolQueue.markDone(entries.get(2));
+			// Only the oldest segment is free, the second segment still contains a message to be delivered
+			final File[] segmentFiles = getSegmentFiles();
+			assertEquals(4, segmentFiles.length);
+			assertEquals("segment-000002.spool", segmentFiles[0].getName());
+		}
+
+		try (SpoolQueue spoolQueue = new SpoolQueue(spoolDirectory.toFile(), 1)) {
+			final List<SpoolEntry> entries = spoolQueue.getEntries();
+			assertEquals(1, entries.size());
+			assertEquals(messageText("Second"), readContent(spoolQueue, entries.get(0)));
+			spoolQueue.markDone(entries.get(0));
+		}
+		assertEquals(1, getSegmentFiles().length);
+	}
+
+	@Test
+	public void testSlowRenderingDoesNotBlockOtherWriters() throws Exception {
+		final CountDownLatch renderingStarted = new CountDownLatch(1);
+		final CountDownLatch renderingReleased = new CountDownLatch(1);
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try (SpoolQueue spoolQueue = new SpoolQueue(spoolDirectory.toFile())) {
+			final Future<?> slowWriter = executor.submit(() -> {
+				spoolQueue.acceptMessage("sender@example.com", RECIPIENTS, outputStream -> {
+					renderingStarted.countDown();
+					try {
+						renderingReleased.await(10, TimeUnit.SECONDS);
+					} catch (@SuppressWarnings("unused") final InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					outputStream.write(messageText("Slow").getBytes(StandardCharsets.US_ASCII));
+				});
+				return null;
+			});
+			assertTrue(renderingStarted.await(10, TimeUnit.SECONDS));
+
+			spoolQueue.acceptMessage("sender@example.com", RECIPIENTS, messageWriter("Fast"));
+			assertEquals(1, spoolQueue.getEntries().size());
+
+			renderingReleased.countDown();
+			slowWriter.get(10, TimeUnit.SECONDS);
+			assertEquals(messageText("Slow"), readContent(spoolQueue, spoolQueue.getEntries().get(1)));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private File[] getSegmentFiles() {
+		final File[] segmentFiles = spoolDirectory.toFile().listFiles((directory, fileName) -> fileName.endsWith(".spool"));
+		Arrays.sort(segmentFiles);
+		return segmentFiles;
+	}
+
+	private static void flipByte(final File file, final long position) throws IOException {
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+			randomAccessFile.seek(position);
+			final int value = randomAccessFile.read();
+			randomAccessFile.seek(position);
+			randomAccessFile.write(value ^ 0xFF);
+		}
+	}
+
+	private static String messageText(final String subject) {
+		return "Subject: " + subject + "\r\n\r\nText of " + subject + "\r\n";
+	}
+
+	private static SmtpMessageWriter messageWriter(final String subject) {
+		return outputStream -> outputStream.write(messageText(subject).getBytes(StandardCharsets.US_ASCII));
+	}
+
+	private static String readContent(final SpoolQueue spoolQueue, final SpoolEntry entry) throws IOException {
+		final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		spoolQueue.writeContent(entry, outputStream);
+		return new String(outputStream.toByteArray(), StandardCharsets.US_ASCII);
+	}
+}